@@ -1,17 +1,29 @@
 package enigma;
 
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
 /** An alphabet of encodable characters.  Provides a mapping from characters
- *  to and from indices into the alphabet.
+ *  to and from indices into the alphabet.  Characters are Unicode code
+ *  points, so supplementary characters may appear in an alphabet.  Lookups
+ *  in both directions take constant time regardless of the alphabet size.
  *  @author Yuan Sun
  */
 class Alphabet {
-    /** Alphabet of enigma. */
-    private String alphabet;
 
     /** A new alphabet containing CHARS.  Character number #k has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
-        alphabet = chars;
+        this(chars.codePoints().toArray());
+    }
+
+    /** A new alphabet whose character number #k is the code point
+     *  CODEPOINTS[K].  No code point may be duplicated. */
+    Alphabet(int[] codePoints) {
+        _symbols = codePoints.clone();
+        _string = new String(_symbols, 0, _symbols.length);
+        buildIndex();
     }
 
     /** A default alphabet of all upper-case characters. */
@@ -21,25 +33,135 @@ class Alphabet {
 
     /** Returns the size of the alphabet. */
     int size() {
-        return alphabet.length();
+        return _symbols.length;
     }
 
     /** Returns true if (CH) is in this alphabet. */
     boolean contains(char ch) {
-        boolean result = (alphabet.indexOf(ch) == -1);
-        return result;
+        return contains((int) ch);
+    }
+
+    /** Returns true if the code point CODEPOINT is in this alphabet. */
+    boolean contains(int codePoint) {
+        return toInt(codePoint) != -1;
     }
 
     /** Returns character number INDEX in the alphabet, where
-     *  0 <= INDEX < size(). */
+     *  0 <= INDEX < size().  Only meaningful for characters in the
+     *  Basic Multilingual Plane; see toCodePoint. */
     char toChar(int index) {
-        return alphabet.charAt(index);
+        return (char) _symbols[index];
+    }
+
+    /** Returns the code point of character number INDEX in the alphabet,
+     *  where 0 <= INDEX < size(). */
+    int toCodePoint(int index) {
+        return _symbols[index];
     }
 
     /** Returns the index of character (CH), which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        return alphabet.indexOf(Character.toString(ch));
+        return toInt((int) ch);
+    }
+
+    /** Returns the index of code point CODEPOINT, or -1 if it is not in
+     *  the alphabet.  This is the inverse of toCodePoint(). */
+    int toInt(int codePoint) {
+        if (_direct != null) {
+            int k = codePoint - _base;
+            if (k < 0 || k >= _direct.length) {
+                return -1;
+            }
+            return _direct[k];
+        }
+        int mask = _keys.length - 1;
+        for (int h = mix(codePoint) & mask; ; h = (h + 1) & mask) {
+            if (_values[h] == -1) {
+                return -1;
+            } else if (_keys[h] == codePoint) {
+                return _values[h];
+            }
+        }
+    }
+
+    /** Returns the characters of this alphabet, in order, as a string. */
+    @Override
+    public String toString() {
+        return _string;
     }
 
+    /** Fill in the code point to index tables.  Alphabets whose code
+     *  points lie in a dense range get a direct table offset by the
+     *  smallest code point; sparse ones get an open-addressed hash table
+     *  sized to the alphabet, so memory stays proportional to size(). */
+    private void buildIndex() {
+        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+        for (int c : _symbols) {
+            lo = Math.min(lo, c);
+            hi = Math.max(hi, c);
+        }
+        if (_symbols.length == 0) {
+            lo = hi = 0;
+        }
+        long span = (long) hi - lo + 1;
+        if (span <= DENSITY * _symbols.length + DIRECT_SLACK) {
+            _base = lo;
+            _direct = new int[(int) span];
+            Arrays.fill(_direct, -1);
+            for (int i = 0; i < _symbols.length; i += 1) {
+                if (_direct[_symbols[i] - lo] != -1) {
+                    throw error("duplicate character in alphabet");
+                }
+                _direct[_symbols[i] - lo] = i;
+            }
+        } else {
+            int cap = Integer.highestOneBit(_symbols.length * 2 + 1) << 1;
+            _keys = new int[cap];
+            _values = new int[cap];
+            Arrays.fill(_values, -1);
+            for (int i = 0; i < _symbols.length; i += 1) {
+                if (toInt(_symbols[i]) != -1) {
+                    throw error("duplicate character in alphabet");
+                }
+                int h = mix(_symbols[i]) & (cap - 1);
+                while (_values[h] != -1) {
+                    h = (h + 1) & (cap - 1);
+                }
+                _keys[h] = _symbols[i];
+                _values[h] = i;
+            }
+        }
+    }
+
+    /** Return a well-distributed hash of code point C. */
+    private static int mix(int c) {
+        int h = c * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** A direct table is used when the code points span at most this many
+     *  times the alphabet size (plus DIRECT_SLACK). */
+    private static final int DENSITY = 4;
+
+    /** Spans up to this long always get a direct table. */
+    private static final int DIRECT_SLACK = 256;
+
+    /** Code points of the alphabet, indexed by character number. */
+    private final int[] _symbols;
+
+    /** The alphabet as a string. */
+    private final String _string;
+
+    /** Smallest code point, the origin of _direct. */
+    private int _base;
+
+    /** Index of code point _base + k at k, or -1; null if hashed. */
+    private int[] _direct;
+
+    /** Hash table keys (code points), when _direct is null. */
+    private int[] _keys;
+
+    /** Hash table values (indices, -1 for empty slots). */
+    private int[] _values;
 }
@@ -0,0 +1,92 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Alphabet class.
+ *  @author Yuan Sun
+ */
+public class AlphabetTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return an alphabet of N consecutive code points starting at FIRST,
+     *  leaving out every STRIDE-th one when STRIDE > 0. */
+    private Alphabet block(int first, int n, int stride) {
+        int[] cps = new int[n];
+        for (int i = 0, c = first; i < n; i += 1, c += 1) {
+            if (stride > 0 && c % stride == 0) {
+                c += 1;
+            }
+            cps[i] = c;
+        }
+        return new Alphabet(cps);
+    }
+
+    /** Check that ALPHA maps each of its indices to a code point and
+     *  back.  TESTID is used in error messages. */
+    private void checkRoundTrip(String testId, Alphabet alpha) {
+        for (int i = 0; i < alpha.size(); i += 1) {
+            int c = alpha.toCodePoint(i);
+            assertTrue(msg(testId, "missing %x", c), alpha.contains(c));
+            assertEquals(msg(testId, "wrong index of %x", c),
+                         i, alpha.toInt(c));
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkUpper() {
+        checkRoundTrip("upper", UPPER);
+        assertEquals(26, UPPER.size());
+        assertEquals('Q', UPPER.toChar(16));
+        assertEquals(16, UPPER.toInt('Q'));
+        assertFalse(UPPER.contains('q'));
+        assertEquals(-1, UPPER.toInt('q'));
+    }
+
+    @Test
+    public void checkLargeDense() {
+        Alphabet cjk = block(0x4E00, 6000, 0);
+        checkRoundTrip("cjk", cjk);
+        assertFalse(cjk.contains(0x4DFF));
+        assertFalse(cjk.contains(0x4E00 + 6000));
+    }
+
+    @Test
+    public void checkSparse() {
+        Alphabet sparse = new Alphabet("A\u4e00\ud83d\ude00z");
+        assertEquals(4, sparse.size());
+        checkRoundTrip("sparse", sparse);
+        assertEquals(0x1F600, sparse.toCodePoint(2));
+        assertEquals(2, sparse.toInt(0x1F600));
+        assertFalse(sparse.contains('B'));
+        assertEquals("A\u4e00\ud83d\ude00z", sparse.toString());
+    }
+
+    @Test
+    public void checkSupplementaryPermutation() {
+        Alphabet alpha = block(0x1F600, 40, 7);
+        String a = new String(Character.toChars(alpha.toCodePoint(3)));
+        String b = new String(Character.toChars(alpha.toCodePoint(30)));
+        Permutation perm = new Permutation("(" + a + b + ")", alpha);
+        assertEquals(30, perm.permute(3));
+        assertEquals(3, perm.invert(30));
+        assertEquals(5, perm.permute(5));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkDuplicate() {
+        new Alphabet("ABCA");
+    }
+
+}
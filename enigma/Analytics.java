@@ -0,0 +1,837 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardOpenOption.READ;
+
+/** Statistics of text traffic over an alphabet, for deciding which
+ *  messages are worth attacking: the counts of single symbols, pairs
+ *  and triples of successive symbols (unigrams, bigrams and trigrams),
+ *  the index of coincidence of each message and of all of them, and,
+ *  for each shift S up to a limit, the fraction of symbols equal to the
+ *  symbol S places before them in the same message (the kappa test),
+ *  which peaks at multiples of any period of the text.
+ *
+ *  Input is in the format of Main's message files: a line containing
+ *  '*' is a settings line, and starts a new message made up of the
+ *  symbols of the lines up to the next one; text before the first
+ *  settings line, if any, is a message of its own.  White space, '('
+ *  and ')' are ignored, and other characters not in the alphabet are
+ *  only counted.  Successive lines of one message are run together, as
+ *  the machine runs them.
+ *
+ *  Each file is split into chunks of whole lines, which are scanned on
+ *  a pool of threads, each counting into its own arrays of primitive
+ *  counters; the arrays are summed at the end.  What straddles two
+ *  chunks (the n-grams and coincidences across the boundary and the
+ *  message split by it) is pieced together afterwards from the first
+ *  and last few symbols of each chunk, in file order.
+ *  @author Yuan Sun
+ */
+final class Analytics {
+
+    /** Analytics of text over ALPHABET, with the kappa test for shifts
+     *  up to SHIFTS, scanning on THREADS threads. */
+    Analytics(Alphabet alphabet, int shifts, int threads) {
+        this(alphabet, shifts, threads, CHUNK_BYTES);
+    }
+
+    /** Analytics of text over ALPHABET, with the kappa test for shifts
+     *  up to SHIFTS, scanning on THREADS threads chunks of about
+     *  CHUNKBYTES bytes. */
+    Analytics(Alphabet alphabet, int shifts, int threads, long chunkBytes) {
+        if (shifts < 1 || threads < 1 || chunkBytes < 1) {
+            throw error("bad analytics parameters");
+        }
+        if (alphabet.size() > MAX_SIZE) {
+            throw error("analytics needs an alphabet of at most %d symbols",
+                        MAX_SIZE);
+        }
+        _alphabet = alphabet;
+        _size = alphabet.size();
+        _shifts = shifts;
+        _edge = Math.max(shifts, 2);
+        _threads = threads;
+        _chunkBytes = chunkBytes;
+        _totals = new Counts(this);
+        _ascii = new byte[128];
+        for (int c = 0; c < 128; c += 1) {
+            int index = alphabet.toInt(c);
+            if (c == '\n') {
+                _ascii[c] = NEWLINE;
+            } else if (c == '*') {
+                _ascii[c] = STAR;
+            } else if (isSeparator(c)) {
+                _ascii[c] = SEPARATOR;
+            } else if (index < 0) {
+                _ascii[c] = OTHER;
+            } else {
+                _ascii[c] = (byte) (index < 127 ? index : WIDE);
+            }
+        }
+    }
+
+    /** Add the statistics of the contents of FILES. */
+    void analyze(List<Path> files) {
+        ArrayList<FileChannel> channels = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(_threads, r -> {
+            Thread worker = new Thread(r, "enigma-analytics");
+            worker.setDaemon(true);
+            return worker;
+        });
+        try {
+            ArrayList<long[]> bounds = new ArrayList<>();
+            for (int f = 0; f < files.size(); f += 1) {
+                FileChannel channel = FileChannel.open(files.get(f), READ);
+                channels.add(channel);
+                long size = channel.size();
+                for (long start = 0; start == 0 || start < size;
+                     start += _chunkBytes) {
+                    bounds.add(new long[] {
+                        f, start, Math.min(size, start + _chunkBytes) });
+                }
+            }
+            Chunk[] chunks = new Chunk[bounds.size()];
+            AtomicInteger next = new AtomicInteger();
+            ArrayList<Future<Counts>> workers = new ArrayList<>();
+            for (int w = 0; w < Math.min(_threads, chunks.length); w += 1) {
+                workers.add(pool.submit(() -> {
+                    Scan scan = new Scan();
+                    for (int c = next.getAndIncrement(); c < chunks.length;
+                         c = next.getAndIncrement()) {
+                        long[] chunk = bounds.get(c);
+                        FileChannel channel = channels.get((int) chunk[0]);
+                        chunks[c] = scan.chunk(channel::read, chunk[1],
+                                               chunk[2]);
+                    }
+                    return scan._counts;
+                }));
+            }
+            for (Future<Counts> worker : workers) {
+                _totals.add(worker.get());
+            }
+            int c = 0;
+            for (int f = 0; f < files.size(); f += 1) {
+                ArrayList<Chunk> file = new ArrayList<>();
+                for (; c < chunks.length && bounds.get(c)[0] == f; c += 1) {
+                    file.add(chunks[c]);
+                }
+                join(files.get(f).toString(), file);
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("could not analyze input: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            throw error("analysis interrupted");
+        } finally {
+            pool.shutdownNow();
+            for (FileChannel channel : channels) {
+                try {
+                    channel.close();
+                } catch (IOException excp) {
+                    /* Ignore: nothing was written. */
+                }
+            }
+        }
+    }
+
+    /** Add the statistics of the contents of IN, called NAME in the
+     *  report, scanning it on this thread. */
+    void analyze(ReadableByteChannel in, String name) {
+        Scan scan = new Scan();
+        try {
+            Chunk chunk = scan.chunk((buffer, posn) -> in.read(buffer), 0,
+                                     Long.MAX_VALUE);
+            _totals.add(scan._counts);
+            join(name, Collections.singletonList(chunk));
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Write my statistics to OUT, one per line, each line a keyword
+     *  and values separated by tabs, with the TOP most common bigrams
+     *  and trigrams, in order of decreasing count. */
+    void report(PrintStream out, int top) {
+        out.printf("alphabet\t%s%n", _alphabet);
+        out.printf("messages\t%d%n", _messages.size());
+        out.printf("letters\t%d%n", letters());
+        out.printf("ignored\t%d%n", _totals._ignored);
+        out.printf("ioc\t%.6f%n", ioc());
+        StringBuilder unigrams = new StringBuilder("unigrams");
+        for (long count : _totals._unigrams) {
+            unigrams.append('\t').append(count);
+        }
+        out.println(unigrams);
+        reportTop(out, "bigram", _totals._bigrams, 2, top);
+        if (_totals._trigrams != null) {
+            reportTop(out, "trigram", _totals._trigrams, 3, top);
+        }
+        for (int s = 1; s <= _shifts; s += 1) {
+            out.printf("kappa\t%d\t%.6f%n", s, kappa(s));
+        }
+        out.printf("period\t%d%n", period());
+        for (Message m : _messages) {
+            out.printf("message\t%s\t%d\t%d\t%.6f%n", m.file, m.index,
+                       m.letters, m.ioc);
+        }
+        out.flush();
+    }
+
+    /** Return the number of symbols of the alphabet counted. */
+    long letters() {
+        long result = 0;
+        for (long count : _totals._unigrams) {
+            result += count;
+        }
+        return result;
+    }
+
+    /** Return the index of coincidence of all the symbols counted: the
+     *  chance that two of them, chosen at random, are equal. */
+    double ioc() {
+        return ioc(coincidences(_totals._unigrams), letters());
+    }
+
+    /** Return the number of times the symbols of NGRAM, of one to three
+     *  symbols, were counted in succession. */
+    long count(String ngram) {
+        int[] symbols = ngram.codePoints().map(_alphabet::toInt).toArray();
+        if (symbols.length < 1 || symbols.length > 3
+            || Arrays.stream(symbols).anyMatch(s -> s < 0)) {
+            throw error("bad n-gram %s", ngram);
+        }
+        int index = 0;
+        for (int s : symbols) {
+            index = index * _size + s;
+        }
+        switch (symbols.length) {
+        case 1:
+            return _totals._unigrams[index];
+        case 2:
+            return _totals._bigrams[index];
+        default:
+            if (_totals._trigrams == null) {
+                throw error("trigrams are not counted for this alphabet");
+            }
+            return _totals._trigrams[index];
+        }
+    }
+
+    /** Return the fraction of the symbols that are equal to the symbol
+     *  SHIFT places before them in the same message. */
+    double kappa(int shift) {
+        long pairs = _totals._pairs[shift];
+        return pairs == 0 ? 0 : (double) _totals._matches[shift] / pairs;
+    }
+
+    /** Return the shift, no greater than the limit, with the largest
+     *  kappa (see kappa): the likeliest period of the text. */
+    int period() {
+        int result = 1;
+        for (int s = 2; s <= _shifts; s += 1) {
+            if (kappa(s) > kappa(result)) {
+                result = s;
+            }
+        }
+        return result;
+    }
+
+    /** Return the messages counted, in the order read. */
+    List<Message> messages() {
+        return Collections.unmodifiableList(_messages);
+    }
+
+    /** The statistics of one message. */
+    static final class Message {
+
+        /** The message numbered INDEX (from 1) in FILE, with LETTERS
+         *  symbols and index of coincidence IOC. */
+        Message(String file, int index, long letters, double ioc) {
+            this.file = file;
+            this.index = index;
+            this.letters = letters;
+            this.ioc = ioc;
+        }
+
+        /** The name of the file holding the message. */
+        final String file;
+
+        /** Its number among the messages in that file, from 1. */
+        final int index;
+
+        /** The number of its symbols in the alphabet. */
+        final long letters;
+
+        /** Its index of coincidence. */
+        final double ioc;
+    }
+
+    /** Write to OUT a line, KEYWORD, N-gram, and count, for each of the
+     *  TOP largest of COUNTS, the counts of N-grams. */
+    private void reportTop(PrintStream out, String keyword, long[] counts,
+                           int n, int top) {
+        Integer[] order = new Integer[counts.length];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+        for (int i = 0; i < Math.min(top, order.length); i += 1) {
+            if (counts[order[i]] == 0) {
+                break;
+            }
+            StringBuilder ngram = new StringBuilder();
+            for (int k = n - 1, index = order[i]; k >= 0; k -= 1) {
+                ngram.insert(0, Character.toChars(_alphabet.toCodePoint(
+                                                      index % _size)));
+                index /= _size;
+            }
+            out.printf("%s\t%s\t%d%n", keyword, ngram, counts[order[i]]);
+        }
+    }
+
+    /** Piece together the CHUNKS of the file named FILE, in order:
+     *  count what straddles each boundary between them and record the
+     *  file's messages. */
+    private void join(String file, List<Chunk> chunks) {
+        int index = 0;
+        Piece open = null;
+        for (Chunk chunk : chunks) {
+            if (open == null) {
+                open = chunk.first;
+            } else {
+                open.append(chunk.first, _totals);
+            }
+            if (chunk.last != null) {
+                index = close(file, index, open);
+                for (Piece message : chunk.middle) {
+                    index = close(file, index, message);
+                }
+                open = chunk.last;
+            }
+        }
+        close(file, index, open);
+    }
+
+    /** Record MESSAGE as the message after the INDEXth in FILE, if it
+     *  is one, returning the number of messages so far. */
+    private int close(String file, int index, Piece message) {
+        if (!message.settings && message.letters == 0) {
+            return index;
+        }
+        long coincidences = message.unigrams == null ? message.coincidences
+            : coincidences(message.unigrams);
+        _messages.add(new Message(file, index + 1, message.letters,
+                                  ioc(coincidences, message.letters)));
+        return index + 1;
+    }
+
+    /** Return the number of pairs of equal symbols among symbols with
+     *  the counts COUNTS. */
+    private static long coincidences(long[] counts) {
+        long result = 0;
+        for (long count : counts) {
+            result += count * (count - 1);
+        }
+        return result;
+    }
+
+    /** Return the index of coincidence of LETTERS symbols with
+     *  COINCIDENCES ordered pairs of equal symbols. */
+    private static double ioc(long coincidences, long letters) {
+        return letters < 2 ? 0 : (double) coincidences
+            / ((double) letters * (letters - 1));
+    }
+
+    /** Return true iff C is ignored between symbols: white space, '('
+     *  or ')'. */
+    private static boolean isSeparator(int c) {
+        return c == ' ' || c == '\t' || c == 0x0B || c == '\f' || c == '\r'
+            || c == '(' || c == ')';
+    }
+
+    /** A source of bytes. */
+    private interface Input {
+        /** Read bytes at and after POSN into BUFFER as
+         *  FileChannel.read does, returning their number, or -1 at the
+         *  end. */
+        int read(ByteBuffer buffer, long posn) throws IOException;
+    }
+
+    /** Counters of the statistics of some of the input. */
+    private static final class Counts {
+
+        /** Empty counters for the statistics of ANALYTICS. */
+        Counts(Analytics analytics) {
+            int n = analytics._size;
+            _unigrams = new long[n];
+            _bigrams = new long[n * n];
+            _trigrams = (long) n * n * n > MAX_TRIGRAMS ? null
+                : new long[n * n * n];
+            _matches = new long[analytics._shifts + 1];
+            _pairs = new long[analytics._shifts + 1];
+        }
+
+        /** Add the counts in OTHER to mine. */
+        void add(Counts other) {
+            add(_unigrams, other._unigrams);
+            add(_bigrams, other._bigrams);
+            if (_trigrams != null) {
+                add(_trigrams, other._trigrams);
+            }
+            add(_matches, other._matches);
+            add(_pairs, other._pairs);
+            _ignored += other._ignored;
+        }
+
+        /** Add the elements of FROM to those of INTO. */
+        private static void add(long[] into, long[] from) {
+            for (int i = 0; i < into.length; i += 1) {
+                into[i] += from[i];
+            }
+        }
+
+        /** Counts of single symbols, pairs and triples, each indexed by
+         *  the symbols' indices as the digits of a number in base N. */
+        private final long[] _unigrams, _bigrams, _trigrams;
+
+        /** For each shift S, the number of pairs of symbols S apart in
+         *  one message, and how many of them are equal. */
+        private final long[] _pairs, _matches;
+
+        /** Characters neither in the alphabet nor separators. */
+        private long _ignored;
+    }
+
+    /** The part of one message within one chunk. */
+    private final class Piece {
+
+        /** An empty piece, the beginning of a message iff SETTINGS. */
+        Piece(boolean settings) {
+            this.settings = settings;
+            unigrams = new long[_size];
+            head = new byte[0];
+            tail = head;
+        }
+
+        /** Add to me the piece NEXT, which follows me in the same
+         *  message, adding to COUNTS what straddles the join. */
+        void append(Piece next, Counts counts) {
+            byte[] t = tail, h = next.head;
+            int a = t.length, b = h.length, n = _size;
+            if (a >= 1 && b >= 1) {
+                counts._bigrams[(t[a - 1] & 0xFF) * n + (h[0] & 0xFF)] += 1;
+            }
+            if (counts._trigrams != null) {
+                if (a >= 2 && b >= 1) {
+                    counts._trigrams[((t[a - 2] & 0xFF) * n
+                                      + (t[a - 1] & 0xFF)) * n
+                                     + (h[0] & 0xFF)] += 1;
+                }
+                if (a >= 1 && b >= 2) {
+                    counts._trigrams[((t[a - 1] & 0xFF) * n
+                                      + (h[0] & 0xFF)) * n
+                                     + (h[1] & 0xFF)] += 1;
+                }
+            }
+            for (int s = 1; s <= _shifts; s += 1) {
+                for (int d = Math.max(1, s - b + 1); d <= Math.min(s, a);
+                     d += 1) {
+                    counts._pairs[s] += 1;
+                    if (t[a - d] == h[s - d]) {
+                        counts._matches[s] += 1;
+                    }
+                }
+            }
+            letters += next.letters;
+            Counts.add(unigrams, next.unigrams);
+            if (next.letters >= _edge) {
+                tail = next.tail;
+            } else {
+                byte[] joined = Arrays.copyOf(t, a + next.tail.length);
+                System.arraycopy(next.tail, 0, joined, a, next.tail.length);
+                tail = Arrays.copyOfRange(joined, Math.max(0, joined.length
+                                                           - _edge),
+                                          joined.length);
+            }
+        }
+
+        /** True iff this piece begins with a settings line. */
+        final boolean settings;
+
+        /** Number of its symbols. */
+        long letters;
+
+        /** Counts of each of its symbols, or null once it is closed. */
+        long[] unigrams;
+
+        /** Ordered pairs of equal symbols, once it is closed. */
+        long coincidences;
+
+        /** Its first and last few symbols (up to _edge of each). */
+        byte[] head, tail;
+    }
+
+    /** The statistics of a chunk that are not simply summed: its
+     *  messages and the pieces of messages at its two ends. */
+    private static final class Chunk {
+        /** The part of the chunk before its first settings line. */
+        Piece first;
+
+        /** The messages wholly within the chunk. */
+        final ArrayList<Piece> middle = new ArrayList<>();
+
+        /** The part after its last settings line, or null if none. */
+        Piece last;
+    }
+
+    /** A scanner of chunks, used by one thread, counting into its own
+     *  Counts. */
+    private final class Scan {
+
+        /** Scan the lines of IN that begin at positions START up to END,
+         *  counting them into _counts, and return what must be pieced
+         *  together with the neighbouring chunks. */
+        Chunk chunk(Input in, long start, long end) throws IOException {
+            Chunk result = new Chunk();
+            _chunk = result;
+            _piece = new Piece(false);
+            result.first = _piece;
+            _length = _counted = _lineStart = 0;
+            _star = false;
+            _lineIgnored = 0;
+            _pending = 0;
+            ByteBuffer buffer = ByteBuffer.wrap(_bytes);
+            long posn = Math.max(0, start - 1);
+            boolean skipping = start > 0;
+            while (true) {
+                buffer.clear();
+                int n = in.read(buffer, posn);
+                if (n < 0) {
+                    break;
+                }
+                int i = 0;
+                if (skipping) {
+                    while (i < n && posn + i < end - 1
+                           && _bytes[i] != '\n') {
+                        i += 1;
+                    }
+                    if (i == n) {
+                        posn += n;
+                        continue;
+                    }
+                    if (posn + i >= end - 1) {
+                        return result;
+                    }
+                    i += 1;
+                    skipping = false;
+                }
+                int stop = scan(i, n, end - posn);
+                posn += n;
+                if (stop >= 0) {
+                    break;
+                }
+            }
+            endLine();
+            endPiece(false);
+            return result;
+        }
+
+        /** Count the bytes _bytes[FROM .. TO), stopping at the start of
+         *  the first line at or after LIMIT, relative to _bytes[0].
+         *  Return the index at which it stopped, or -1 if it did not. */
+        private int scan(int from, int to, long limit) {
+            for (int i = from; i < to; i += 1) {
+                int b = _bytes[i];
+                int code = b >= 0 ? _ascii[b] : WIDE;
+                if (code >= 0 && code != WIDE && _pending == 0) {
+                    symbol(code);
+                } else if (code == NEWLINE) {
+                    endLine();
+                    if (i + 1 >= limit) {
+                        return i + 1;
+                    }
+                } else if (code == STAR) {
+                    _star = true;
+                } else if (code != SEPARATOR || _pending > 0) {
+                    wide(b);
+                }
+            }
+            return -1;
+        }
+
+        /** Add the byte B, part of a character that is not in the first
+         *  _ascii.length of the alphabet or part of a multi-byte
+         *  character, to the character being decoded. */
+        private void wide(int b) {
+            if (_pending > 0 && (b & 0xC0) == 0x80) {
+                _codePoint = (_codePoint << 6) | (b & 0x3F);
+                _pending -= 1;
+                if (_pending == 0) {
+                    character(_codePoint);
+                }
+                return;
+            }
+            if (_pending > 0) {
+                _lineIgnored += 1;
+                _pending = 0;
+            }
+            if (b >= 0) {
+                character(b);
+            } else if ((b & 0xE0) == 0xC0) {
+                _codePoint = b & 0x1F;
+                _pending = 1;
+            } else if ((b & 0xF0) == 0xE0) {
+                _codePoint = b & 0x0F;
+                _pending = 2;
+            } else if ((b & 0xF8) == 0xF0) {
+                _codePoint = b & 0x07;
+                _pending = 3;
+            } else {
+                _lineIgnored += 1;
+            }
+        }
+
+        /** Count the character C. */
+        private void character(int c) {
+            int index = _alphabet.toInt(c);
+            if (c < _ascii.length && _ascii[c] == SEPARATOR) {
+                return;
+            } else if (c == '*') {
+                _star = true;
+            } else if (index < 0) {
+                _lineIgnored += 1;
+            } else {
+                symbol(index);
+            }
+        }
+
+        /** Add the symbol with index S to the current line. */
+        private void symbol(int s) {
+            if (_length == _symbols.length) {
+                _symbols = Arrays.copyOf(_symbols, 2 * _length);
+            }
+            _symbols[_length] = (byte) s;
+            _length += 1;
+        }
+
+        /** End the current line: drop it and start a new piece if it is
+         *  a settings line, and otherwise keep it, counting what has been
+         *  kept if there is enough. */
+        private void endLine() {
+            if (_pending > 0) {
+                _lineIgnored += 1;
+                _pending = 0;
+            }
+            if (_star) {
+                _length = _lineStart;
+                endPiece(true);
+                _piece = new Piece(true);
+                _star = false;
+            } else {
+                _counts._ignored += _lineIgnored;
+                _lineStart = _length;
+                if (_length >= FLUSH_SYMBOLS) {
+                    count();
+                    int keep = Math.min(_edge, _length);
+                    System.arraycopy(_symbols, _length - keep, _symbols, 0,
+                                     keep);
+                    _length = _lineStart = _counted = keep;
+                }
+            }
+            _lineIgnored = 0;
+        }
+
+        /** Finish the current piece, which is followed by a settings
+         *  line iff CLOSED. */
+        private void endPiece(boolean closed) {
+            count();
+            Piece piece = _piece;
+            piece.tail = Arrays.copyOfRange(_symbols,
+                                            Math.max(0, _length - _edge),
+                                            _length);
+            Counts.add(_counts._unigrams, piece.unigrams);
+            boolean first = piece == _chunk.first;
+            if (closed && !first) {
+                piece.coincidences = coincidences(piece.unigrams);
+                piece.unigrams = null;
+                _chunk.middle.add(piece);
+            } else if (!closed && !first) {
+                _chunk.last = piece;
+            }
+            _length = _counted = _lineStart = 0;
+        }
+
+        /** Count the symbols of the current piece not yet counted, all
+         *  but the last line's. */
+        private void count() {
+            byte[] x = _symbols;
+            int from = _counted, to = _lineStart;
+            int n = _size;
+            Piece piece = _piece;
+            long[] unigrams = piece.unigrams;
+            long[] bigrams = _counts._bigrams, trigrams = _counts._trigrams;
+            for (int i = from; i < to; i += 1) {
+                unigrams[x[i] & 0xFF] += 1;
+            }
+            for (int i = Math.max(from, 1); i < to; i += 1) {
+                bigrams[(x[i - 1] & 0xFF) * n + (x[i] & 0xFF)] += 1;
+            }
+            if (trigrams != null) {
+                for (int i = Math.max(from, 2); i < to; i += 1) {
+                    trigrams[((x[i - 2] & 0xFF) * n + (x[i - 1] & 0xFF)) * n
+                             + (x[i] & 0xFF)] += 1;
+                }
+            }
+            for (int s = 1; s <= _shifts; s += 1) {
+                int begin = Math.max(from, s);
+                _counts._matches[s] += matches(x, begin, to, s);
+                _counts._pairs[s] += Math.max(0, to - begin);
+            }
+            int wanted = Math.min(_edge, (int) Math.min(Integer.MAX_VALUE,
+                                                        piece.letters
+                                                        + to - from));
+            if (piece.head.length < wanted) {
+                int have = piece.head.length;
+                byte[] head = Arrays.copyOf(piece.head, wanted);
+                System.arraycopy(x, from, head, have, wanted - have);
+                piece.head = head;
+            }
+            piece.letters += to - from;
+            _counted = to;
+        }
+
+        /** Return the number of indices I from FROM up to TO for which
+         *  X[I] equals X[I - S].  Compares eight symbols at a time: a
+         *  byte of the exclusive or of two words is zero, and so has its
+         *  top bit clear after adding 0x7F to its low seven bits and
+         *  or'ing in the byte itself, iff the symbols it holds are
+         *  equal. */
+        private int matches(byte[] x, int from, int to, int s) {
+            int result = 0;
+            int i = from;
+            for (; i + Long.BYTES <= to; i += Long.BYTES) {
+                long v = (long) WORDS.get(x, i) ^ (long) WORDS.get(x, i - s);
+                long t = ((v & LOW_BITS) + LOW_BITS) | v;
+                result += Long.bitCount(~t & ~LOW_BITS);
+            }
+            for (; i < to; i += 1) {
+                if (x[i] == x[i - s]) {
+                    result += 1;
+                }
+            }
+            return result;
+        }
+
+        /** My counters. */
+        private final Counts _counts = new Counts(Analytics.this);
+
+        /** Buffer for input bytes. */
+        private final byte[] _bytes = new byte[READ_BYTES];
+
+        /** The symbols of the current piece not yet counted, after the
+         *  last few that were, up to _length; the current line begins at
+         *  _lineStart, and those before _counted have been counted. */
+        private byte[] _symbols = new byte[2 * FLUSH_SYMBOLS];
+
+        /** See _symbols. */
+        private int _length, _counted, _lineStart;
+
+        /** True iff the current line contains '*'. */
+        private boolean _star;
+
+        /** Characters of the current line ignored so far. */
+        private long _lineIgnored;
+
+        /** Continuation bytes still expected of the character being
+         *  decoded from UTF-8, and the bits of it so far. */
+        private int _pending, _codePoint;
+
+        /** The chunk being scanned and its current piece. */
+        private Chunk _chunk;
+
+        /** See _chunk. */
+        private Piece _piece;
+    }
+
+    /** Codes in _ascii for a newline, '*', a separator, a character not
+     *  in the alphabet, and one in it that must be looked up. */
+    private static final byte NEWLINE = -1, STAR = -2, SEPARATOR = -3,
+        OTHER = -4, WIDE = 127;
+
+    /** Largest alphabet handled, so that each symbol fits a byte. */
+    private static final int MAX_SIZE = 256;
+
+    /** Views of a byte array as words. */
+    private static final VarHandle WORDS =
+        MethodHandles.byteArrayViewVarHandle(long[].class,
+                                             ByteOrder.LITTLE_ENDIAN);
+
+    /** The low seven bits of each byte of a word. */
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    /** Default nominal size of the chunks into which files are
+     *  split. */
+    private static final long CHUNK_BYTES = 1 << 22;
+
+    /** Size of each read. */
+    private static final int READ_BYTES = 1 << 16;
+
+    /** Number of symbols gathered before they are counted. */
+    private static final int FLUSH_SYMBOLS = 1 << 14;
+
+    /** Most trigram counters kept; beyond that, trigrams are not
+     *  counted. */
+    private static final long MAX_TRIGRAMS = 1 << 18;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** The size of _alphabet. */
+    private final int _size;
+
+    /** The largest shift for the kappa test. */
+    private final int _shifts;
+
+    /** Number of symbols kept at each end of a piece: enough for the
+     *  largest shift and for trigrams. */
+    private final int _edge;
+
+    /** Number of threads to scan on. */
+    private final int _threads;
+
+    /** Nominal size of the chunks into which files are split. */
+    private final long _chunkBytes;
+
+    /** For each ASCII character, its index in the alphabet, or one of
+     *  NEWLINE, STAR, SEPARATOR, OTHER or WIDE. */
+    private final byte[] _ascii;
+
+    /** The sum of the counts of all the chunks scanned. */
+    private final Counts _totals;
+
+    /** The messages counted. */
+    private final ArrayList<Message> _messages = new ArrayList<>();
+}
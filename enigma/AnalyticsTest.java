@@ -0,0 +1,142 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** The suite of all JUnit tests for the Analytics class.
+ *  @author Yuan Sun
+ */
+public class AnalyticsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** An alphabet with a letter outside ASCII. */
+    private static final Alphabet ALPHABET =
+        new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ\u00c4");
+
+    /** Return a new file containing TEXT. */
+    private Path file(String text) throws Exception {
+        Path result = Files.createTempFile("traffic", ".in");
+        Files.writeString(result, text, UTF_8);
+        return result;
+    }
+
+    /** Return random message text of about LINES lines, using RANDOM. */
+    private String traffic(Random random, int lines) {
+        String symbols = "ABCDE\u00c4  ()7*";
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            if (random.nextInt(6) == 0) {
+                result.append("* B Beta III IV I AXLE (YF)\n");
+                continue;
+            }
+            int length = random.nextInt(4) == 0 ? random.nextInt(300)
+                : random.nextInt(8);
+            for (int k = 0; k < length; k += 1) {
+                char c = symbols.charAt(random.nextInt(symbols.length()));
+                result.append(c == '*' ? 'Z' : c);
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Return the report of ANALYTICS. */
+    private String report(Analytics analytics) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        analytics.report(new PrintStream(bytes, true, UTF_8), 20);
+        return bytes.toString(UTF_8);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkCounts() throws Exception {
+        Path file = file("* B Beta III IV I AXLE (YF)\nABAB CD1\nAB\n"
+                         + "* B Beta III IV I AXLE\n(AAA)\n");
+        try {
+            Analytics analytics = new Analytics(ALPHABET, 4, 2);
+            analytics.analyze(Arrays.asList(file));
+            assertEquals(11, analytics.letters());
+            assertEquals(3, analytics.count("AB"));
+            assertEquals(1, analytics.count("BA"));
+            assertEquals(2, analytics.count("AA"));
+            assertEquals(1, analytics.count("BAB"));
+            assertEquals(0, analytics.count("BAA"));
+            assertEquals(6, analytics.count("A"));
+            assertEquals(3.0 / 7, analytics.kappa(2), 1e-9);
+            assertEquals((6 * 5 + 3 * 2 + 1 * 0 + 1 * 0) / (11.0 * 10),
+                         analytics.ioc(), 1e-9);
+            List<Analytics.Message> messages = analytics.messages();
+            assertEquals(2, messages.size());
+            assertEquals(8, messages.get(0).letters);
+            assertEquals(2, messages.get(1).index);
+            assertEquals(1.0, messages.get(1).ioc, 1e-9);
+            assertTrue(report(analytics).contains("ignored\t1\n"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void checkPeriod() throws Exception {
+        Random random = new Random(7);
+        char[] text = new char[5000];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = i < 5 ? (char) ('A' + random.nextInt(26))
+                : text[i - 5];
+        }
+        Path file = file(new String(text));
+        try {
+            Analytics analytics = new Analytics(ALPHABET, 12, 1);
+            analytics.analyze(Arrays.asList(file));
+            assertEquals(5, analytics.period());
+            assertEquals(1.0, analytics.kappa(10), 1e-9);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void checkChunksMatchSequential() throws Exception {
+        Random random = new Random(42);
+        Path[] files = { file(traffic(random, 400)),
+                         file(traffic(random, 50)), file("") };
+        try {
+            Analytics sequential = new Analytics(ALPHABET, 9, 1);
+            for (Path file : files) {
+                try (FileChannel in = FileChannel.open(file)) {
+                    sequential.analyze(in, file.toString());
+                }
+            }
+            String expected = report(sequential);
+            for (long chunk : new long[] { 1, 3, 17, 100, 4096 }) {
+                Analytics chunked = new Analytics(ALPHABET, 9, 3, chunk);
+                chunked.analyze(Arrays.asList(files));
+                assertEquals("chunks of " + chunk, expected,
+                             report(chunked));
+            }
+        } finally {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+}
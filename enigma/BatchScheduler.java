@@ -0,0 +1,231 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** The conversion of many messages, each with its own settings line,
+ *  grouped so that each machine configuration is set up only once.
+ *  Each message is converted as by a copy of a machine to which its
+ *  settings line has just been applied, as by Main.setUp, so that the
+ *  messages are independent and may be converted in any order.
+ *
+ *  The messages are grouped by the rotors and rings their settings
+ *  lines name, which is what the engines derive their tables from.
+ *  Each group gets a copy of the machine, set up once with the group's
+ *  first settings line; the messages of the group are then converted
+ *  with only the rotor settings and plugboard changed between them, the
+ *  settings one slot at a time, so that the engine is told of each
+ *  moved rotor instead of being reset.  The messages that start from
+ *  exactly the same settings and plugboard are converted together, as
+ *  a MessageBatch.  The groups are converted in parallel, and the
+ *  results returned in the order of the messages.
+ *  @author Yuan Sun
+ */
+class BatchScheduler {
+
+    /** A scheduler converting with copies of MACHINE, as it is now,
+     *  using up to THREADS threads. */
+    BatchScheduler(Machine machine, int threads) {
+        _machine = machine;
+        _threads = Math.max(1, threads);
+    }
+
+    /** Return the conversions of MESSAGES, MESSAGES[i] being converted
+     *  right after the settings line SETTINGS[i]. */
+    String[] convert(String[] settings, String[] messages) {
+        if (settings.length != messages.length) {
+            throw error("%d settings lines for %d messages",
+                        settings.length, messages.length);
+        }
+        LinkedHashMap<String, Group> groups = new LinkedHashMap<>();
+        for (int i = 0; i < messages.length; i += 1) {
+            ArrayList<String> items = Main.settingsItems(settings[i]);
+            int size = _machine.numRotors();
+            StringBuilder key = new StringBuilder();
+            StringBuilder plugboard = new StringBuilder();
+            String setting = "";
+            if (items.size() < size + 1) {
+                key.append(settings[i]);
+            } else {
+                key.append(String.join(" ", items.subList(0, size)));
+                setting = items.get(size);
+                for (String item : items.subList(size + 1, items.size())) {
+                    if (item.codePointCount(0, item.length()) == size - 1) {
+                        key.append(' ').append(item);
+                    } else {
+                        plugboard.append(item);
+                    }
+                }
+            }
+            String line = settings[i];
+            groups.computeIfAbsent(key.toString(), k -> new Group(line))
+                .add(setting, plugboard.toString(), i);
+        }
+        _groups = groups.size();
+
+        String[] result = new String[messages.length];
+        if (_threads == 1 || groups.size() == 1) {
+            for (Group group : groups.values()) {
+                group.convert(messages, result);
+            }
+            return result;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(_threads, r -> {
+                Thread worker = new Thread(r, "enigma-batch");
+                worker.setDaemon(true);
+                return worker;
+            });
+        try {
+            ArrayList<Future<?>> running = new ArrayList<>();
+            for (Group group : groups.values()) {
+                running.add(pool.submit(() -> group.convert(messages,
+                                                            result)));
+            }
+            for (Future<?> group : running) {
+                group.get();
+            }
+            return result;
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("could not convert batch: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            throw error("batch conversion interrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the number of groups, and so of machine configurations,
+     *  in the last batch converted. */
+    int groups() {
+        return _groups;
+    }
+
+    /** The messages whose settings lines name the same rotors and
+     *  rings. */
+    private class Group {
+
+        /** A group set up with the settings line SETTINGS. */
+        Group(String settings) {
+            _settings = settings;
+        }
+
+        /** Add message I, which starts at rotor settings SETTING with
+         *  the plugboard cycles PLUGBOARD. */
+        void add(String setting, String plugboard, int i) {
+            _starts.computeIfAbsent(setting + " " + plugboard,
+                                    k -> new Start(setting, plugboard))
+                ._messages.add(i);
+        }
+
+        /** Store in RESULT[i] the conversion of MESSAGES[i] for each
+         *  message I of mine. */
+        void convert(String[] messages, String[] result) {
+            Machine m = _machine.copy();
+            Main.setUp(m, _settings);
+            int[] plugboard = swaps(_machine.plugboard());
+            for (Start start : _starts.values()) {
+                position(m, start._setting);
+                if (start._plugboard.isEmpty()) {
+                    m.setPlugboard(plugboard);
+                } else {
+                    m.setPlugboard(new Permutation(start._plugboard,
+                                                   m.alphabet()));
+                }
+                List<Integer> mine = start._messages;
+                if (mine.size() == 1) {
+                    result[mine.get(0)] = m.convert(messages[mine.get(0)]);
+                    continue;
+                }
+                String[] texts = new String[mine.size()];
+                for (int k = 0; k < texts.length; k += 1) {
+                    texts[k] = messages[mine.get(k)];
+                }
+                String[] converted =
+                    new MessageBatch(m, false).convert(texts);
+                for (int k = 0; k < texts.length; k += 1) {
+                    result[mine.get(k)] = converted[k];
+                }
+            }
+        }
+
+        /** The settings line I am set up with. */
+        private final String _settings;
+
+        /** My messages, by their rotor settings and plugboard. */
+        private final LinkedHashMap<String, Start> _starts =
+            new LinkedHashMap<>();
+    }
+
+    /** The messages of a group starting from the same rotor settings
+     *  and plugboard. */
+    private static class Start {
+
+        /** Messages starting at rotor settings SETTING with the
+         *  plugboard cycles PLUGBOARD. */
+        Start(String setting, String plugboard) {
+            _setting = setting;
+            _plugboard = plugboard;
+        }
+
+        /** The rotor settings, as on a settings line. */
+        private final String _setting;
+
+        /** The plugboard cycles, or "" for the machine's plugboard. */
+        private final String _plugboard;
+
+        /** Indices of my messages. */
+        private final ArrayList<Integer> _messages = new ArrayList<>();
+    }
+
+    /** Set the rotors of M to SETTING, as by Machine.setRotors, but
+     *  only slot by slot, so that its engine need not be reset. */
+    private static void position(Machine m, String setting) {
+        int[] cps = setting.codePoints().toArray();
+        if (cps.length < m.numRotors() - 1) {
+            throw error("Wheel settings too short");
+        } else if (cps.length > m.numRotors() - 1) {
+            throw error("Wheel settings too long");
+        }
+        for (int i = 0; i < cps.length; i += 1) {
+            int posn = m.alphabet().toInt(cps[i]);
+            if (posn == -1) {
+                throw error("bad wheel setting");
+            }
+            if (m.setting(i + 1) != posn) {
+                m.setSetting(i + 1, posn);
+            }
+        }
+    }
+
+    /** Return the swaps, as taken by Machine.setPlugboard, of the
+     *  plugboard whose image of each index is PLUGBOARD. */
+    private static int[] swaps(int[] plugboard) {
+        ArrayList<Integer> result = new ArrayList<>();
+        for (int k = 0; k < plugboard.length; k += 1) {
+            if (plugboard[k] > k) {
+                result.add(k);
+                result.add(plugboard[k]);
+            }
+        }
+        return result.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** The machine whose copies convert my messages. */
+    private final Machine _machine;
+
+    /** The most threads to use. */
+    private final int _threads;
+
+    /** Number of groups in the last batch. */
+    private int _groups;
+}
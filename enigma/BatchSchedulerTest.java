@@ -0,0 +1,128 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the BatchScheduler class.
+ *  @author Yuan Sun
+ */
+public class BatchSchedulerTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Rotor orders used, with the rings some settings lines give. */
+    private static final String[] ORDERS = {
+        "B Beta III IV I", "C Gamma I II V", "B Beta III IV I",
+    };
+
+    /** Rings given on some settings lines. */
+    private static final String[] RINGS = { "", "AXLE", "BBBB" };
+
+    /** Plugboards given on some settings lines. */
+    private static final String[] PLUGBOARDS = { "", "(YF) (ZH)", "(AQ)" };
+
+    /** Return a random string of LENGTH upper-case letters, using
+     *  RANDOM. */
+    private String letters(Random random, int length) {
+        char[] result = new char[length];
+        for (int p = 0; p < length; p += 1) {
+            result[p] = (char) ('A' + random.nextInt(26));
+        }
+        return new String(result);
+    }
+
+    /** Return COUNT random settings lines drawn from ORDERS, RINGS and
+     *  PLUGBOARDS with one of SETTINGS random rotor settings, using
+     *  RANDOM. */
+    private String[] settings(Random random, int count, int settings) {
+        String[] starts = new String[settings];
+        for (int i = 0; i < settings; i += 1) {
+            starts[i] = letters(random, 4);
+        }
+        String[] result = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            result[i] = "* " + ORDERS[random.nextInt(ORDERS.length)]
+                + " " + starts[random.nextInt(settings)]
+                + " " + RINGS[random.nextInt(RINGS.length)]
+                + " " + PLUGBOARDS[random.nextInt(PLUGBOARDS.length)];
+        }
+        return result;
+    }
+
+    /** Return COUNT random messages of up to MAXLENGTH letters, using
+     *  RANDOM. */
+    private String[] messages(Random random, int count, int maxLength) {
+        String[] result = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            result[i] = letters(random, random.nextInt(maxLength + 1));
+        }
+        return result;
+    }
+
+    /** Return the conversion of each of MESSAGES by a copy of M set up
+     *  with the corresponding line of SETTINGS. */
+    private String[] oneByOne(Machine m, String[] settings,
+                              String[] messages) {
+        String[] result = new String[messages.length];
+        for (int i = 0; i < messages.length; i += 1) {
+            Machine copy = m.copy();
+            Main.setUp(copy, settings[i]);
+            result[i] = copy.convert(messages[i]);
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkMatchesMachine() {
+        Random random = new Random(7);
+        String[] settings = settings(random, 400, 5);
+        String[] messages = messages(random, 400, 200);
+        Machine m = navalMachine(5, 3);
+        Main.setUp(m, "* B Beta Gamma I II KKKK (MN)");
+        String[] expected = oneByOne(m, settings, messages);
+        for (int threads : new int[] { 1, 4 }) {
+            BatchScheduler batch = new BatchScheduler(m, threads);
+            assertEquals(Arrays.asList(expected),
+                         Arrays.asList(batch.convert(settings, messages)));
+            assertEquals(6, batch.groups());
+        }
+    }
+
+    @Test
+    public void checkRingsPersistPerCopy() {
+        Machine m = navalMachine(5, 3);
+        Main.setUp(m, "* B Beta III IV I AAAA QQQQ");
+        String[] settings = {
+            "* B Beta III IV I AXLE", "* B Beta III IV I AXLE CCCC",
+            "* B Beta III IV I AXLE",
+        };
+        String[] messages = { "HELLOWORLD", "HELLOWORLD", "HELLOWORLD" };
+        String[] result =
+            new BatchScheduler(m, 2).convert(settings, messages);
+        assertEquals(Arrays.asList(oneByOne(m, settings, messages)),
+                     Arrays.asList(result));
+        assertEquals(result[0], result[2]);
+        assertNotEquals(result[0], result[1]);
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadSettings() {
+        Machine m = navalMachine(5, 3);
+        new BatchScheduler(m, 2).convert(
+            new String[] { "* B Beta III IV I AXLE", "* B Beta III IV" },
+            new String[] { "HELLO", "WORLD" });
+    }
+}
@@ -0,0 +1,505 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static enigma.EnigmaException.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/** Binary stream mode: an Enigma machine over the 256 byte values that
+ *  transforms raw bytes, with no grouping or line handling.
+ *
+ *  The configuration has the same layout as a text one, except that the
+ *  alphabet line is the word BYTES and every symbol is written as two
+ *  hexadecimal digits.  A rotor line is a name, a type (M followed by the
+ *  notches, N, or R), and either cycles such as (003F12) (4142) or a
+ *  seed such as #1234, from which a wiring is generated.  The settings
+ *  come from a line of the configuration beginning with '*', such as
+ *
+ *      * B Beta III IV I 00A1B2C3 01010101 (0A1B) (2C3D)
+ *
+ *  giving the rotors, their positions, optionally their rings, and
+ *  optionally plugboard pairs.
+ *  @author Yuan Sun
+ */
+class ByteStream {
+
+    /** The alphabet of all byte values; byte B has index B. */
+    static final Alphabet BYTES = bytes();
+
+    /** A binary stream transform configured from CONFIG. */
+    ByteStream(Scanner config) {
+        StringBuilder text = new StringBuilder();
+        while (config.hasNextLine()) {
+            text.append(config.nextLine()).append('\n');
+        }
+        _configuration = CheckpointWriter.digest()
+            .digest(text.toString().getBytes(UTF_8));
+        _machine = readConfig(new Scanner(text.toString()));
+    }
+
+    /** Return my machine. */
+    Machine machine() {
+        return _machine;
+    }
+
+    /** Return the digest of the text of my configuration. */
+    byte[] configuration() {
+        return _configuration.clone();
+    }
+
+    /** Return the settings line (without its '*') in force. */
+    String settings() {
+        return _settings;
+    }
+
+    /** Convert all bytes from IN, writing the results to OUT. */
+    void process(ReadableByteChannel in, WritableByteChannel out)
+        throws IOException {
+        process(in, out, null);
+    }
+
+    /** Convert all bytes from IN, writing the results to OUT and, if
+     *  INDEX is not null, recording a checkpoint in it every
+     *  INDEX.interval() bytes. */
+    void process(ReadableByteChannel in, WritableByteChannel out,
+                 CheckpointWriter index) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        MessageDigest digest = CheckpointWriter.digest();
+        long count = 0;
+        boolean eof = false;
+        while (!eof) {
+            buf.clear();
+            while (buf.hasRemaining()) {
+                if (in.read(buf) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            buf.flip();
+            if (index == null) {
+                _machine.convert(buf);
+            } else {
+                count = convert(buf, count, index, digest);
+            }
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        }
+    }
+
+    /** Convert BUF in place as for process, where its first byte is
+     *  number COUNT of the stream, recording checkpoints in INDEX and
+     *  accumulating in DIGEST the input since the last one.  Returns the
+     *  number of the byte after BUF. */
+    private long convert(ByteBuffer buf, long count, CheckpointWriter index,
+                         MessageDigest digest) throws IOException {
+        int end = buf.limit();
+        long interval = index.interval();
+        while (buf.position() < end) {
+            if (count % interval == 0) {
+                index.record(count, count, count, _machine.settings(),
+                             digest.digest());
+            }
+            int n = (int) Math.min(end - buf.position(),
+                                   interval - count % interval);
+            buf.limit(buf.position() + n);
+            digest.update(buf.duplicate());
+            _machine.convert(buf);
+            buf.position(buf.limit());
+            count += n;
+        }
+        buf.position(0).limit(end);
+        return count;
+    }
+
+    /** Convert the file INPUT to the file OUTPUT as process does,
+     *  where OUTPUT and INDEX may hold the conversion of an earlier
+     *  version of INPUT, and its checkpoint index, by this same
+     *  configuration and settings with a checkpoint every INTERVAL
+     *  bytes.  INPUT is read in the pieces between checkpoints, and
+     *  only those whose digests differ from the ones INDEX recorded are
+     *  converted and written, starting from the machine state at the
+     *  checkpoint before each; the rest of OUTPUT is left as it was.
+     *  Since the machine steps the same whatever the bytes, an edit
+     *  costs the pieces it touches and an append the new bytes plus
+     *  the piece after the last checkpoint.  INDEX is rewritten for
+     *  the new INPUT.  Returns the number of bytes converted. */
+    long update(Path input, Path output, Path index, long interval)
+        throws IOException {
+        ArrayList<int[]> states = new ArrayList<>();
+        ArrayList<byte[]> digests = new ArrayList<>();
+        readIndex(index, output, interval, states, digests);
+        Files.deleteIfExists(index);
+        Path temp = index.resolveSibling(index.getFileName() + ".tmp");
+        long converted = 0;
+        try (FileChannel in = FileChannel.open(input, READ);
+             FileChannel out = FileChannel.open(output, WRITE, CREATE);
+             CheckpointWriter writer =
+                 new CheckpointWriter(temp, interval, _machine.numRotors(),
+                                      _settings, _configuration)) {
+            MessageDigest digest = CheckpointWriter.digest();
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            long length = in.size();
+            byte[] previous = digest.digest();
+            boolean skipped = false;
+            for (int k = 0; (long) k * interval < length; k += 1) {
+                long start = k * interval;
+                long end = Math.min(start + interval, length);
+                for (long pos = start; pos < end; pos += buf.limit()) {
+                    read(in, buf, pos, end);
+                    digest.update(buf);
+                }
+                byte[] current = digest.digest();
+                if (skipped) {
+                    _machine.restoreSettings(states.get(k));
+                }
+                writer.record(start, start, start, _machine.settings(),
+                              previous);
+                skipped = end - start == interval && k + 1 < digests.size()
+                    && Arrays.equals(current, digests.get(k + 1));
+                for (long pos = start; !skipped && pos < end;
+                     pos += buf.limit()) {
+                    read(in, buf, pos, end);
+                    _machine.convert(buf);
+                    while (buf.hasRemaining()) {
+                        out.write(buf, pos + buf.position());
+                    }
+                    converted += buf.limit();
+                }
+                previous = current;
+            }
+            out.truncate(length);
+        } catch (IOException | RuntimeException excp) {
+            Files.deleteIfExists(temp);
+            throw excp;
+        }
+        Files.move(temp, index, ATOMIC_MOVE, REPLACE_EXISTING);
+        return converted;
+    }
+
+    /** Add to STATES and DIGESTS the machine settings and input digests
+     *  of the checkpoints in INDEX, if it is an index of the conversion
+     *  to OUTPUT by my configuration and settings with a checkpoint
+     *  every INTERVAL bytes. */
+    private void readIndex(Path index, Path output, long interval,
+                           ArrayList<int[]> states, ArrayList<byte[]> digests)
+        throws IOException {
+        if (!Files.exists(index) || !Files.exists(output)) {
+            return;
+        }
+        CheckpointIndex old;
+        try {
+            old = new CheckpointIndex(index);
+        } catch (EnigmaException excp) {
+            return;
+        }
+        if (old.configuration() == null || old.interval() != interval
+            || !Arrays.equals(old.configuration(), _configuration)
+            || !old.settings().equals(_settings) || old.size() == 0
+            || Files.size(output) < old.outputOffset(old.size() - 1)) {
+            return;
+        }
+        for (int k = 0; k < old.size(); k += 1) {
+            if (old.symbol(k) != k * interval
+                || old.settings(k).length != _machine.numRotors()) {
+                return;
+            }
+        }
+        for (int k = 0; k < old.size(); k += 1) {
+            states.add(old.settings(k));
+            digests.add(old.digest(k));
+        }
+    }
+
+    /** Fill BUF, flipped, with the bytes of IN from POS up to at most
+     *  END. */
+    private static void read(FileChannel in, ByteBuffer buf, long pos,
+                             long end) throws IOException {
+        buf.clear();
+        buf.limit((int) Math.min(BUFFER_SIZE, end - pos));
+        while (buf.hasRemaining()) {
+            if (in.read(buf, pos + buf.position()) < 0) {
+                throw error("input ends before byte %d", end);
+            }
+        }
+        buf.flip();
+    }
+
+    /** Convert LENGTH bytes starting at byte START of the stream in IN,
+     *  which was indexed in INDEX, writing the results to OUT.  Only the
+     *  bytes from the nearest checkpoint at or before START are
+     *  stepped through, and only the requested ones are read. */
+    void convertRange(CheckpointIndex index, FileChannel in, long start,
+                      long length, WritableByteChannel out)
+        throws IOException {
+        if (!index.settings().equals(_settings)) {
+            throw error("index was written with different settings");
+        }
+        byte[] configuration = index.configuration();
+        if (configuration != null
+            && !Arrays.equals(configuration, new byte[configuration.length])
+            && !Arrays.equals(configuration, _configuration)) {
+            throw error("index was written with a different configuration");
+        }
+        int k = index.floor(start);
+        if (k == -1) {
+            throw error("no checkpoint before byte %d", start);
+        }
+        _machine.restoreSettings(index.settings(k));
+        for (long i = index.symbol(k); i < start; i += 1) {
+            _machine.checkDouble();
+        }
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        long base = index.outputOffset(k) - index.symbol(k);
+        long pos = base + start;
+        long end = Math.min(pos + length, in.size());
+        while (pos < end) {
+            buf.clear();
+            buf.limit((int) Math.min(BUFFER_SIZE, end - pos));
+            while (buf.hasRemaining()) {
+                int n = in.read(buf, pos + buf.position());
+                if (n < 0) {
+                    throw error("input ends before byte %d", end);
+                }
+            }
+            buf.flip();
+            _machine.convert(buf);
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            pos += buf.limit();
+        }
+    }
+
+    /** Return a machine configured from CONFIG, with its settings
+     *  applied. */
+    private Machine readConfig(Scanner config) {
+        if (!config.hasNextLine()
+            || !config.nextLine().trim().equals("BYTES")) {
+            throw error("binary configuration must begin with BYTES");
+        }
+        ArrayList<String> counts = tokens(nextLine(config));
+        if (counts.size() != 2) {
+            throw error("bad rotor and pawl counts");
+        }
+        long s = number(counts.get(0));
+        long p = number(counts.get(1));
+        if (s < 0 || s > Integer.MAX_VALUE || p < 0 || p > s) {
+            throw error("bad rotor and pawl counts");
+        }
+        ArrayList<Rotor> allRotors = new ArrayList<>();
+        ArrayList<int[]> wirings = new ArrayList<>();
+        ArrayList<String[]> heads = new ArrayList<>();
+        String settings = null;
+        while (config.hasNextLine()) {
+            String line = config.nextLine().trim();
+            ArrayList<String> items = tokens(line);
+            if (items.isEmpty()) {
+                continue;
+            } else if (line.startsWith("*")) {
+                settings = line.substring(1);
+            } else if (line.startsWith("(")) {
+                if (wirings.isEmpty()) {
+                    throw error("cycles without a rotor");
+                }
+                addCycles(wirings.get(wirings.size() - 1), items);
+            } else if (items.size() < 3) {
+                throw error("bad rotor description");
+            } else {
+                heads.add(new String[] { items.get(0), items.get(1) });
+                if (items.get(2).startsWith("#")) {
+                    long seed = number(items.get(2).substring(1));
+                    wirings.add(wiring(seed, items.get(1).startsWith("R")));
+                } else {
+                    int[] map = identity();
+                    addCycles(map, items.subList(2, items.size()));
+                    wirings.add(map);
+                }
+            }
+        }
+        for (int i = 0; i < heads.size(); i += 1) {
+            allRotors.add(rotor(heads.get(i)[0], heads.get(i)[1],
+                                new Permutation(wirings.get(i), BYTES)));
+        }
+        if (settings == null) {
+            throw error("binary configuration has no settings line");
+        }
+        _settings = settings.trim();
+        Machine m = new Machine(BYTES, (int) s, (int) p, allRotors);
+        setUp(m, settings);
+        return m;
+    }
+
+    /** Return a rotor named NAME of the type given by PROPERTIES, with
+     *  permutation PERM. */
+    private Rotor rotor(String name, String properties, Permutation perm) {
+        if (properties.startsWith("M")) {
+            return new MovingRotor(name, perm, text(properties.substring(1)));
+        } else if (properties.equals("N")) {
+            return new FixedRotor(name, perm);
+        } else if (properties.equals("R")) {
+            return new Reflector(name, perm);
+        } else {
+            throw error("bad rotor type %s", properties);
+        }
+    }
+
+    /** Set M according to SETTINGS, the text of a settings line after
+     *  its '*'. */
+    private void setUp(Machine m, String settings) {
+        String[] items = settings.trim().split("\\s+");
+        int n = m.numRotors();
+        if (items.length < n + 1) {
+            throw error("wrong rotors");
+        }
+        m.insertRotors(Arrays.copyOf(items, n));
+        m.setRotors(text(items[n]));
+        ArrayList<Integer> swaps = new ArrayList<>();
+        for (int i = n + 1; i < items.length; i += 1) {
+            if (!items[i].startsWith("(")) {
+                m.setRotorsRings(text(items[i]));
+                continue;
+            }
+            for (String pair : tokens(items[i])) {
+                int[] ends = hex(pair);
+                if (ends.length != 2) {
+                    throw error("plugboard entries must be pairs");
+                }
+                swaps.add(ends[0]);
+                swaps.add(ends[1]);
+            }
+        }
+        if (!swaps.isEmpty()) {
+            m.setPlugboard(swaps.stream().mapToInt(x -> x).toArray());
+        }
+    }
+
+    /** Add to MAP each of CYCLES, written in hexadecimal. */
+    private static void addCycles(int[] map, Iterable<String> cycles) {
+        for (String cycle : cycles) {
+            int[] c = hex(cycle);
+            for (int i = 0; i < c.length; i += 1) {
+                map[c[i]] = c[(i + 1) % c.length];
+            }
+        }
+    }
+
+    /** Return a wiring generated from SEED: a random permutation, or a
+     *  random pairing with no fixed points if REFLECTOR. */
+    static int[] wiring(long seed, boolean reflector) {
+        Random random = new Random(seed);
+        int[] order = identity();
+        for (int i = order.length - 1; i > 0; i -= 1) {
+            int k = random.nextInt(i + 1);
+            int t = order[i];
+            order[i] = order[k];
+            order[k] = t;
+        }
+        if (!reflector) {
+            return order;
+        }
+        int[] map = new int[order.length];
+        for (int i = 0; i < order.length; i += 2) {
+            map[order[i]] = order[i + 1];
+            map[order[i + 1]] = order[i];
+        }
+        return map;
+    }
+
+    /** Return the bytes written in hexadecimal in HEX. */
+    static int[] hex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw error("bad hexadecimal symbols: %s", hex);
+        }
+        int[] result = new int[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw error("bad hexadecimal symbols: %s", hex);
+            }
+            result[i] = hi * 16 + lo;
+        }
+        return result;
+    }
+
+    /** Return the characters of BYTES written in hexadecimal in HEX. */
+    private static String text(String hex) {
+        int[] cps = hex(hex);
+        return new String(cps, 0, cps.length);
+    }
+
+    /** Return the decimal number TEXT. */
+    private static long number(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException excp) {
+            throw error("bad number %s", text);
+        }
+    }
+
+    /** Return the whitespace- and parenthesis-separated items of LINE. */
+    private static ArrayList<String> tokens(String line) {
+        ArrayList<String> result = new ArrayList<>();
+        Matcher matcher = Pattern.compile("[^\\s\\(\\)]+").matcher(line);
+        while (matcher.find()) {
+            result.add(matcher.group());
+        }
+        return result;
+    }
+
+    /** Return the next line of CONFIG. */
+    private static String nextLine(Scanner config) {
+        if (!config.hasNextLine()) {
+            throw error("configuration file truncated");
+        }
+        return config.nextLine();
+    }
+
+    /** Return the identity wiring on bytes. */
+    private static int[] identity() {
+        int[] result = new int[SIZE];
+        for (int i = 0; i < SIZE; i += 1) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    /** Return the alphabet of all byte values. */
+    private static Alphabet bytes() {
+        return new Alphabet(identity());
+    }
+
+    /** Number of byte values. */
+    private static final int SIZE = 256;
+
+    /** Size of the buffer used for bulk transfers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** My machine. */
+    private final Machine _machine;
+
+    /** Digest of the text of my configuration. */
+    private final byte[] _configuration;
+
+    /** The settings line applied to my machine, without its '*'. */
+    private String _settings;
+}
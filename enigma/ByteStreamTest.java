@@ -0,0 +1,204 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+import static java.nio.file.StandardOpenOption.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the ByteStream class.
+ *  @author Yuan Sun
+ */
+public class ByteStreamTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A configuration with generated and explicit wirings. */
+    static final String CONFIG =
+        "BYTES\n"
+        + "5 3\n"
+        + " I M10     #1\n"
+        + " II M80    #2\n"
+        + " III M00FF #3\n"
+        + " IV MFF    (00FF) (0102030405)\n"
+        + "           (AABB)\n"
+        + " Beta N    #5\n"
+        + " B R       #6\n"
+        + "* B Beta I II IV 00A1FFC3 01020304 (0A1B) (2C3D)\n";
+
+    /** Return the result of running DATA through a stream configured by
+     *  CONFIG. */
+    private byte[] run(byte[] data) throws IOException {
+        ByteStream stream = new ByteStream(new Scanner(CONFIG));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stream.process(Channels.newChannel(new ByteArrayInputStream(data)),
+                       Channels.newChannel(out));
+        return out.toByteArray();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRoundTrip() throws IOException {
+        byte[] data = new byte[200000];
+        new Random(42).nextBytes(data);
+        byte[] enc = run(data);
+        assertEquals(data.length, enc.length);
+        assertFalse(Arrays.equals(data, enc));
+        assertArrayEquals(data, run(enc));
+    }
+
+    @Test
+    public void checkMatchesTextPath() throws IOException {
+        byte[] data = new byte[1000];
+        new Random(7).nextBytes(data);
+        Machine m = new ByteStream(new Scanner(CONFIG)).machine();
+        byte[] enc = run(data);
+        for (int i = 0; i < data.length; i += 1) {
+            assertEquals(enc[i] & 0xFF, m.convert(data[i] & 0xFF));
+        }
+    }
+
+    @Test
+    public void checkRangeFromIndex() throws IOException {
+        byte[] data = new byte[50000];
+        new Random(3).nextBytes(data);
+        Path enc = Files.createTempFile("enigma", ".enc");
+        Path idx = Files.createTempFile("enigma", ".idx");
+        try {
+            ByteStream stream = new ByteStream(new Scanner(CONFIG));
+            try (FileChannel out = FileChannel.open(enc, WRITE);
+                 CheckpointWriter index =
+                     new CheckpointWriter(idx, 1000, 5, stream.settings())) {
+                stream.process(Channels.newChannel(
+                                   new ByteArrayInputStream(data)),
+                               out, index);
+            }
+            CheckpointIndex index = new CheckpointIndex(idx);
+            assertEquals(50, index.size());
+            assertEquals(12000, index.symbol(index.floor(12345)));
+            ByteArrayOutputStream part = new ByteArrayOutputStream();
+            try (FileChannel in = FileChannel.open(enc, READ)) {
+                new ByteStream(new Scanner(CONFIG))
+                    .convertRange(index, in, 12345, 4321,
+                                  Channels.newChannel(part));
+            }
+            assertArrayEquals(Arrays.copyOfRange(data, 12345, 12345 + 4321),
+                              part.toByteArray());
+        } finally {
+            Files.delete(enc);
+            Files.delete(idx);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkRangeNeedsSameConfiguration() throws IOException {
+        byte[] data = new byte[5000];
+        new Random(4).nextBytes(data);
+        Path enc = Files.createTempFile("enigma", ".enc");
+        Path idx = Files.createTempFile("enigma", ".idx");
+        try {
+            ByteStream stream = new ByteStream(new Scanner(CONFIG));
+            try (FileChannel out = FileChannel.open(enc, WRITE);
+                 CheckpointWriter index =
+                     new CheckpointWriter(idx, 1000, 5, stream.settings(),
+                                          stream.configuration())) {
+                stream.process(Channels.newChannel(
+                                   new ByteArrayInputStream(data)),
+                               out, index);
+            }
+            CheckpointIndex index = new CheckpointIndex(idx);
+            try (FileChannel in = FileChannel.open(enc, READ)) {
+                new ByteStream(new Scanner(CONFIG.replace("#1", "#9")))
+                    .convertRange(index, in, 1234, 100,
+                                  Channels.newChannel(
+                                      new ByteArrayOutputStream()));
+            }
+        } finally {
+            Files.delete(enc);
+            Files.delete(idx);
+        }
+    }
+
+    @Test
+    public void checkIncrementalUpdate() throws IOException {
+        byte[] data = new byte[53000];
+        new Random(5).nextBytes(data);
+        Path dir = Files.createTempDirectory("enigma");
+        Path in = dir.resolve("in");
+        Path enc = dir.resolve("enc");
+        Path idx = dir.resolve("idx");
+        try {
+            long[][] steps = {
+                { 50000, 1000, 50000 }, { 53000, 1000, 4000 },
+                { -12345, 1000, 2000 }, { 20500, 1000, 500 },
+                { 20500, 700, 20500 },
+            };
+            for (long[] step : steps) {
+                if (step[0] < 0) {
+                    data[(int) -step[0]] += 1;
+                } else {
+                    data = Arrays.copyOf(data, (int) step[0]);
+                }
+                Files.write(in, data);
+                ByteStream stream = new ByteStream(new Scanner(CONFIG));
+                assertEquals(step[2], stream.update(in, enc, idx, step[1]));
+                assertArrayEquals(run(data), Files.readAllBytes(enc));
+                CheckpointIndex index = new CheckpointIndex(idx);
+                assertEquals((data.length + step[1] - 1) / step[1],
+                             index.size());
+            }
+        } finally {
+            Files.deleteIfExists(in);
+            Files.deleteIfExists(enc);
+            Files.deleteIfExists(idx);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void checkWirings() {
+        int[] reflector = ByteStream.wiring(6, true);
+        int[] rotor = ByteStream.wiring(6, false);
+        boolean[] seen = new boolean[256];
+        for (int i = 0; i < 256; i += 1) {
+            assertNotEquals(i, reflector[i]);
+            assertEquals(i, reflector[reflector[i]]);
+            assertFalse(seen[rotor[i]]);
+            seen[rotor[i]] = true;
+        }
+    }
+
+    @Test
+    public void checkHex() {
+        assertArrayEquals(new int[] { 0, 0x3f, 0xa1 },
+                          ByteStream.hex("003Fa1"));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadHex() {
+        ByteStream.hex("0G");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadSeed() {
+        new ByteStream(new Scanner(CONFIG.replace("#1",
+                                                  "#99999999999999999999")));
+    }
+
+}
@@ -0,0 +1,69 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** An engine that converts with another engine and checks a sample of
+ *  its results against a ReferenceEngine driving the same rotors.
+ *  @author Yuan Sun
+ */
+class CheckedEngine implements Engine {
+
+    /** An engine that converts with ENGINE, checking its result for one
+     *  character in every INTERVAL (> 0). */
+    CheckedEngine(Engine engine, long interval) {
+        if (interval <= 0) {
+            throw error("check interval must be positive");
+        }
+        _engine = engine;
+        _interval = interval;
+    }
+
+    @Override
+    public String name() {
+        return _engine.name();
+    }
+
+    @Override
+    public Engine fresh() {
+        return new CheckedEngine(_engine.fresh(), _interval);
+    }
+
+    @Override
+    public void reset(Rotor[] slots, int alphabetSize) {
+        _engine.reset(slots, alphabetSize);
+        _reference.reset(slots, alphabetSize);
+    }
+
+    @Override
+    public void moved(int j) {
+        _engine.moved(j);
+    }
+
+    @Override
+    public int convert(int k) {
+        int result = _engine.convert(k);
+        _count += 1;
+        if (_count == _interval) {
+            _count = 0;
+            int expected = _reference.convert(k);
+            if (result != expected) {
+                throw error("engine %s converted %d to %d where the"
+                            + " reference gives %d", _engine.name(), k,
+                            result, expected);
+            }
+        }
+        return result;
+    }
+
+    /** The engine being checked. */
+    private final Engine _engine;
+
+    /** The engine it is checked against. */
+    private final ReferenceEngine _reference = new ReferenceEngine();
+
+    /** One character in this many is checked. */
+    private final long _interval;
+
+    /** Characters converted since the last check. */
+    private long _count;
+}
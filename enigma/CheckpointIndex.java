@@ -0,0 +1,149 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static enigma.EnigmaException.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/** A checkpoint index written by CheckpointWriter, mapped into memory.
+ *  Finding the checkpoint nearest a symbol is a binary search over the
+ *  mapped records, so opening a large index costs nothing up front.
+ *  @author Yuan Sun
+ */
+class CheckpointIndex {
+
+    /** The index in FILE. */
+    CheckpointIndex(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, READ)) {
+            _map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        }
+        _version = _map.limit() < 24 ? 0 : _map.getInt(4);
+        if (_map.limit() < 24 || _map.getInt(0) != CheckpointWriter.MAGIC
+            || _version < 1 || _version > CheckpointWriter.VERSION) {
+            throw error("%s is not a checkpoint index", file);
+        }
+        _interval = _map.getLong(8);
+        _slots = _map.getInt(16);
+        byte[] text = new byte[_map.getInt(20)];
+        _map.get(CheckpointWriter.settingsOffset(_version), text);
+        _settings = new String(text, UTF_8);
+        _start = CheckpointWriter.headerSize(_version, text.length);
+        _recordSize = CheckpointWriter.recordSize(_version, _slots);
+        _size = (_map.limit() - _start) / _recordSize;
+    }
+
+    /** Return the number of symbols between checkpoints. */
+    long interval() {
+        return _interval;
+    }
+
+    /** Return the settings line of the indexed conversion. */
+    String settings() {
+        return _settings;
+    }
+
+    /** Return the digest of the configuration of the indexed
+     *  conversion, which is all zeros if unknown, or null if the index
+     *  has no digests. */
+    byte[] configuration() {
+        if (_version == 1) {
+            return null;
+        }
+        byte[] result = new byte[CheckpointWriter.DIGEST_SIZE];
+        _map.get(24, result);
+        return result;
+    }
+
+    /** Return the number of checkpoints. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the symbol number of checkpoint K. */
+    long symbol(int k) {
+        return _map.getLong(record(k));
+    }
+
+    /** Return the input byte offset of checkpoint K. */
+    long inputOffset(int k) {
+        return _map.getLong(record(k) + 8);
+    }
+
+    /** Return the output byte offset of checkpoint K. */
+    long outputOffset(int k) {
+        return _map.getLong(record(k) + 16);
+    }
+
+    /** Return the slot settings of checkpoint K. */
+    int[] settings(int k) {
+        int[] result = new int[_slots];
+        for (int i = 0; i < _slots; i += 1) {
+            result[i] = _map.getInt(record(k) + 24 + 4 * i);
+        }
+        return result;
+    }
+
+    /** Return the digest of the input from checkpoint K-1 to checkpoint
+     *  K, which is all zeros if unknown, or null if the index has no
+     *  digests. */
+    byte[] digest(int k) {
+        if (_version == 1) {
+            return null;
+        }
+        byte[] result = new byte[CheckpointWriter.DIGEST_SIZE];
+        _map.get(record(k) + 24 + 4 * _slots, result);
+        return result;
+    }
+
+    /** Return the last checkpoint at or before symbol SYMBOL, or -1 if
+     *  there is none. */
+    int floor(long symbol) {
+        int lo = 0, hi = _size - 1, result = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (symbol(mid) <= symbol) {
+                result = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the position of record K in _map. */
+    private int record(int k) {
+        if (k < 0 || k >= _size) {
+            throw error("no checkpoint %d", k);
+        }
+        return _start + k * _recordSize;
+    }
+
+    /** The mapped index. */
+    private final MappedByteBuffer _map;
+
+    /** Version of the format of the index. */
+    private final int _version;
+
+    /** Symbols between checkpoints. */
+    private final long _interval;
+
+    /** Number of rotor slots per record. */
+    private final int _slots;
+
+    /** Settings line of the indexed conversion. */
+    private final String _settings;
+
+    /** Offset of the first record. */
+    private final int _start;
+
+    /** Size of each record. */
+    private final int _recordSize;
+
+    /** Number of records. */
+    private final int _size;
+}
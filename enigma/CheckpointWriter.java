@@ -0,0 +1,164 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static enigma.EnigmaException.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/** Writes the sidecar checkpoint index read by CheckpointIndex: the
+ *  complete machine state every interval() symbols of a conversion,
+ *  together with the input and output byte offsets of that symbol and
+ *  a digest of the input since the previous checkpoint, by which a
+ *  later conversion can tell which parts of its input have changed.
+ *
+ *  The file holds a header, padded to a multiple of 8 bytes,
+ *
+ *      int magic, int version, long interval, int slots,
+ *      int n, the DIGEST_SIZE bytes of the digest of the configuration,
+ *      followed by the n UTF-8 bytes of the settings line,
+ *
+ *  and then fixed-size records, each
+ *
+ *      long symbol, long input offset, long output offset,
+ *      int setting of each of the slots,
+ *      the DIGEST_SIZE bytes of the digest of the input since the
+ *      previous record (of nothing, for the first),
+ *
+ *  all big-endian, so that a reader can map the file and find record
+ *  K by arithmetic alone.  Digests are SHA-256; one that is unknown is
+ *  written as zeros.  Version 1 had neither digest.
+ *  @author Yuan Sun
+ */
+class CheckpointWriter implements AutoCloseable {
+
+    /** Identifies an index file. */
+    static final int MAGIC = 0x454e4958;
+
+    /** Version of the format written. */
+    static final int VERSION = 2;
+
+    /** Size of a digest. */
+    static final int DIGEST_SIZE = 32;
+
+    /** A writer of an index to FILE with a checkpoint every INTERVAL
+     *  symbols of a conversion of a machine with SLOTS rotor slots,
+     *  configured by the settings line SETTINGS and an unknown
+     *  configuration. */
+    CheckpointWriter(Path file, long interval, int slots, String settings)
+        throws IOException {
+        this(file, interval, slots, settings, new byte[DIGEST_SIZE]);
+    }
+
+    /** A writer of an index to FILE with a checkpoint every INTERVAL
+     *  symbols of a conversion of a machine with SLOTS rotor slots,
+     *  configured by the settings line SETTINGS and the configuration
+     *  whose digest is CONFIGURATION. */
+    CheckpointWriter(Path file, long interval, int slots, String settings,
+                     byte[] configuration) throws IOException {
+        if (interval <= 0) {
+            throw error("checkpoint interval must be positive");
+        }
+        _interval = interval;
+        _slots = slots;
+        _out = FileChannel.open(file, WRITE, CREATE, TRUNCATE_EXISTING);
+        byte[] text = settings.getBytes(UTF_8);
+        ByteBuffer header =
+            ByteBuffer.allocate(headerSize(VERSION, text.length));
+        header.putInt(MAGIC).putInt(VERSION).putLong(interval)
+            .putInt(slots).putInt(text.length).put(configuration)
+            .put(text);
+        header.clear();
+        write(header);
+        _record = ByteBuffer.allocate(recordSize(VERSION, slots));
+    }
+
+    /** Return the number of symbols between checkpoints. */
+    long interval() {
+        return _interval;
+    }
+
+    /** Record that the machine had settings SETTINGS just before
+     *  converting symbol number SYMBOL, which is read at byte offset
+     *  INPUT and written at byte offset OUTPUT, with no digest of the
+     *  input before it. */
+    void record(long symbol, long input, long output, int[] settings)
+        throws IOException {
+        record(symbol, input, output, settings, new byte[DIGEST_SIZE]);
+    }
+
+    /** Record that the machine had settings SETTINGS just before
+     *  converting symbol number SYMBOL, which is read at byte offset
+     *  INPUT and written at byte offset OUTPUT, where the input since
+     *  the previous record has digest DIGEST. */
+    void record(long symbol, long input, long output, int[] settings,
+                byte[] digest) throws IOException {
+        if (settings.length != _slots) {
+            throw error("checkpoint for the wrong number of slots");
+        }
+        _record.clear();
+        _record.putLong(symbol).putLong(input).putLong(output);
+        for (int s : settings) {
+            _record.putInt(s);
+        }
+        _record.put(digest);
+        _record.flip();
+        write(_record);
+    }
+
+    @Override
+    public void close() throws IOException {
+        _out.close();
+    }
+
+    /** Return the size of a header of version VERSION whose settings
+     *  line takes N bytes. */
+    static int headerSize(int version, int n) {
+        return (settingsOffset(version) + n + 7) & ~7;
+    }
+
+    /** Return the offset of the settings line in a header of version
+     *  VERSION. */
+    static int settingsOffset(int version) {
+        return version == 1 ? 24 : 24 + DIGEST_SIZE;
+    }
+
+    /** Return the size of a record of version VERSION for a machine with
+     *  SLOTS slots. */
+    static int recordSize(int version, int slots) {
+        return 24 + 4 * slots + (version == 1 ? 0 : DIGEST_SIZE);
+    }
+
+    /** Return a new SHA-256 digest. */
+    static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new AssertionError(excp);
+        }
+    }
+
+    /** Write all of BUF. */
+    private void write(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            _out.write(buf);
+        }
+    }
+
+    /** Symbols between checkpoints. */
+    private final long _interval;
+
+    /** Number of rotor slots recorded. */
+    private final int _slots;
+
+    /** Destination of the index. */
+    private final FileChannel _out;
+
+    /** Buffer for one record. */
+    private final ByteBuffer _record;
+}
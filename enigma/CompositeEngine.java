@@ -0,0 +1,122 @@
+package enigma;
+
+import java.util.Arrays;
+
+/** The engine that, beyond the table of TurnaroundEngine, keeps for each
+ *  slot a table of the round trip through that slot and everything to
+ *  its left, filled only as characters need it.  The table for a slot
+ *  stays valid until that slot or one to its left moves, so in a normal
+ *  run each character costs a pass through the fastest rotor and one
+ *  lookup however many slots there are.  It needs two tables the size
+ *  of the alphabet for every slot.
+ *  @author Yuan Sun
+ */
+class CompositeEngine implements Engine {
+
+    @Override
+    public String name() {
+        return "composite";
+    }
+
+    @Override
+    public Engine fresh() {
+        return new CompositeEngine();
+    }
+
+    @Override
+    public void reset(Rotor[] slots, int alphabetSize) {
+        _slots = slots;
+        _turnStart = TurnaroundEngine.turnStart(slots);
+        _turnaround = TurnaroundEngine.turnaround(slots, _turnStart);
+        _firstSlot = new int[slots.length];
+        for (int j = 0; j < slots.length; j += 1) {
+            int i = 0;
+            while (slots[i] != slots[j]) {
+                i += 1;
+            }
+            _firstSlot[j] = i;
+        }
+        if (_composites == null || _composites.length != slots.length
+            || _composites[0].length != alphabetSize) {
+            _composites = new int[slots.length][alphabetSize];
+            _stamps = new int[slots.length][alphabetSize];
+            _epochs = new int[slots.length];
+            Arrays.fill(_epochs, 1);
+        } else {
+            invalidateFrom(0);
+        }
+    }
+
+    @Override
+    public void moved(int j) {
+        if (!_slots[j].rotates()) {
+            _turnaround = TurnaroundEngine.turnaround(_slots, _turnStart);
+        }
+        invalidateFrom(_firstSlot[j]);
+    }
+
+    @Override
+    public int convert(int k) {
+        int last = _slots.length - 1;
+        if (_turnStart > last) {
+            return _turnaround[k];
+        }
+        Rotor fast = _slots[last];
+        return fast.convertBackward(composite(last - 1,
+                                              fast.convertForward(k)));
+    }
+
+    /** Return the signal that comes back out of the left side of slot
+     *  J + 1 when K leaves it, having passed through slot J and all the
+     *  slots to its left. */
+    private int composite(int j, int k) {
+        if (j < _turnStart) {
+            return _turnaround[k];
+        }
+        if (_stamps[j][k] == _epochs[j]) {
+            return _composites[j][k];
+        }
+        Rotor r = _slots[j];
+        int result = r.convertBackward(composite(j - 1, r.convertForward(k)));
+        _composites[j][k] = result;
+        _stamps[j][k] = _epochs[j];
+        return result;
+    }
+
+    /** Note that the rotor in slot J has moved, so that the composite
+     *  tables of slot J and the slots to its right are stale. */
+    private void invalidateFrom(int j) {
+        for (; j < _epochs.length; j += 1) {
+            _epochs[j] += 1;
+            if (_epochs[j] == 0) {
+                Arrays.fill(_stamps[j], 0);
+                _epochs[j] = 1;
+            }
+        }
+    }
+
+    /** The rotors I pass characters through, reflector first. */
+    private Rotor[] _slots;
+
+    /** The reflector and leading fixed rotors folded into one table. */
+    private int[] _turnaround;
+
+    /** Index of the first slot not folded into _turnaround. */
+    private int _turnStart;
+
+    /** For each slot, the leftmost slot holding the same rotor, which
+     *  is where that rotor's moving first makes tables stale. */
+    private int[] _firstSlot;
+
+    /** For each slot J, the cached values of composite(J, K); entry K is
+     *  valid only if _stamps[J][K] == _epochs[J]. */
+    private int[][] _composites;
+
+    /** The value of _epochs[J] when each entry of _composites[J] was
+     *  filled. */
+    private int[][] _stamps;
+
+    /** For each slot, incremented whenever its composite table becomes
+     *  stale; never 0. */
+    private int[] _epochs;
+}
@@ -0,0 +1,320 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static enigma.EnigmaException.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** Configurations read from files, kept for reuse within a budget of
+ *  memory, for processes that serve machines from many configuration
+ *  files.  A configuration is kept under its file's path and a hash of
+ *  the file's contents, so that a changed file is read afresh.  Each is
+ *  read by Configuration.parse, with all its rotors built, and weighed
+ *  by its estimated size (see Configuration.weight).
+ *
+ *  When a configuration that is not kept is asked for, it is read by
+ *  the thread that asked first; threads that ask for it meanwhile wait
+ *  for that reading instead of repeating it.  It is then kept if it
+ *  fits, or if it is asked for at least as often as each of the least
+ *  recently used configurations that would have to be dropped to make
+ *  room, so that one configuration asked for once cannot push out those
+ *  in steady use.  How often each configuration is asked for is
+ *  estimated, in little space, by a count-min sketch whose counts are
+ *  halved from time to time, so that past popularity fades.
+ *  @author Yuan Sun
+ */
+final class ConfigCache {
+
+    /** A cache keeping configurations of at most CAPACITY bytes. */
+    ConfigCache(long capacity) {
+        _capacity = capacity;
+    }
+
+    /** Return the configuration in the file FILE. */
+    Configuration get(Path file) {
+        byte[] contents;
+        try {
+            contents = Files.readAllBytes(file);
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+        Key key = new Key(file.toAbsolutePath().normalize().toString(),
+                          hash(contents));
+        CompletableFuture<Configuration> loading;
+        boolean mine = false;
+        synchronized (this) {
+            _sketch.increment(key.hashCode());
+            Entry entry = _entries.get(key);
+            if (entry != null) {
+                _hits += 1;
+                return entry._configuration;
+            }
+            _misses += 1;
+            loading = _loading.get(key);
+            if (loading == null) {
+                loading = new CompletableFuture<>();
+                _loading.put(key, loading);
+                mine = true;
+            }
+        }
+        if (!mine) {
+            try {
+                return loading.join();
+            } catch (CompletionException excp) {
+                throw (RuntimeException) excp.getCause();
+            }
+        }
+        try {
+            Configuration result =
+                Configuration.parse(new String(contents, UTF_8));
+            synchronized (this) {
+                _loads += 1;
+                _loading.remove(key);
+                admit(key, result);
+            }
+            loading.complete(result);
+            return result;
+        } catch (RuntimeException excp) {
+            synchronized (this) {
+                _loading.remove(key);
+            }
+            loading.completeExceptionally(excp);
+            throw excp;
+        }
+    }
+
+    /** Return my statistics so far. */
+    synchronized Stats stats() {
+        return new Stats(_hits, _misses, _loads, _evictions, _rejections,
+                         _entries.size(), _weight);
+    }
+
+    /** Keep CONFIGURATION under KEY if it fits, or if it is asked for at
+     *  least as often as each configuration that must be dropped to make
+     *  room for it, dropping those. */
+    private void admit(Key key, Configuration configuration) {
+        long weight = configuration.weight();
+        if (weight > _capacity) {
+            _rejections += 1;
+            return;
+        }
+        ArrayList<Key> victims = new ArrayList<>();
+        long free = _capacity - _weight;
+        int frequency = _sketch.frequency(key.hashCode());
+        Iterator<Map.Entry<Key, Entry>> lru = _entries.entrySet().iterator();
+        while (free < weight) {
+            Map.Entry<Key, Entry> victim = lru.next();
+            if (_sketch.frequency(victim.getKey().hashCode()) > frequency) {
+                _rejections += 1;
+                return;
+            }
+            victims.add(victim.getKey());
+            free += victim.getValue()._weight;
+        }
+        for (Key victim : victims) {
+            _weight -= _entries.remove(victim)._weight;
+            _evictions += 1;
+        }
+        _entries.put(key, new Entry(configuration, weight));
+        _weight += weight;
+    }
+
+    /** Return the SHA-256 hash of CONTENTS, in hexadecimal. */
+    private static String hash(byte[] contents) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            StringBuilder hex = new StringBuilder();
+            for (byte x : md.digest(contents)) {
+                hex.append(String.format("%02x", x & 0xFF));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new AssertionError(excp);
+        }
+    }
+
+    /** Counts of what a ConfigCache has done. */
+    static final class Stats {
+
+        /** Counts of HITS, MISSES, LOADS, EVICTIONS and REJECTIONS, with
+         *  SIZE configurations of WEIGHT bytes kept. */
+        Stats(long hits, long misses, long loads, long evictions,
+              long rejections, int size, long weight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.loads = loads;
+            this.evictions = evictions;
+            this.rejections = rejections;
+            this.size = size;
+            this.weight = weight;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d loads=%d evictions=%d"
+                                 + " rejections=%d size=%d weight=%d",
+                                 hits, misses, loads, evictions, rejections,
+                                 size, weight);
+        }
+
+        /** Requests answered from the cache. */
+        final long hits;
+
+        /** Requests not answered from the cache. */
+        final long misses;
+
+        /** Configurations read. */
+        final long loads;
+
+        /** Configurations dropped to make room for others. */
+        final long evictions;
+
+        /** Configurations read but not kept. */
+        final long rejections;
+
+        /** Configurations kept. */
+        final int size;
+
+        /** Estimated bytes of the configurations kept. */
+        final long weight;
+    }
+
+    /** The name under which a configuration is kept. */
+    private static final class Key {
+
+        /** The key for a file named PATH with contents hashing to
+         *  HASH. */
+        Key(String path, String hash) {
+            _path = path;
+            _hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && _path.equals(((Key) obj)._path)
+                && _hash.equals(((Key) obj)._hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * _path.hashCode() + _hash.hashCode();
+        }
+
+        /** The absolute path of the file. */
+        private final String _path;
+
+        /** The hash of its contents. */
+        private final String _hash;
+    }
+
+    /** A configuration kept, with its weight. */
+    private static final class Entry {
+
+        /** An entry for CONFIGURATION of WEIGHT bytes. */
+        Entry(Configuration configuration, long weight) {
+            _configuration = configuration;
+            _weight = weight;
+        }
+
+        /** The configuration. */
+        private final Configuration _configuration;
+
+        /** Its estimated bytes. */
+        private final long _weight;
+    }
+
+    /** An estimate of how often each of many hash codes has been seen
+     *  lately: a count-min sketch of small counters, all halved once
+     *  enough codes have been counted. */
+    private static final class Sketch {
+
+        /** Count the hash code H once more. */
+        void increment(int h) {
+            for (int row = 0; row < ROWS; row += 1) {
+                int i = index(h, row);
+                if (_counts[i] < MAX_COUNT) {
+                    _counts[i] += 1;
+                }
+            }
+            _counted += 1;
+            if (_counted == RESET_COUNT) {
+                for (int i = 0; i < _counts.length; i += 1) {
+                    _counts[i] >>>= 1;
+                }
+                _counted /= 2;
+            }
+        }
+
+        /** Return the estimated number of times H has been counted
+         *  lately. */
+        int frequency(int h) {
+            int result = MAX_COUNT;
+            for (int row = 0; row < ROWS; row += 1) {
+                result = Math.min(result, _counts[index(h, row)]);
+            }
+            return result;
+        }
+
+        /** Return the index in _counts of the counter for H in row
+         *  ROW. */
+        private static int index(int h, int row) {
+            int x = (h + SEEDS[row]) * 0x9e3779b9;
+            x ^= x >>> 16;
+            return row * WIDTH + (x & (WIDTH - 1));
+        }
+
+        /** Number of rows. */
+        private static final int ROWS = 4;
+
+        /** Number of counters in each row, a power of two. */
+        private static final int WIDTH = 1 << 10;
+
+        /** Largest count kept. */
+        private static final int MAX_COUNT = 15;
+
+        /** Number of codes counted between halvings. */
+        private static final int RESET_COUNT = 10 * WIDTH;
+
+        /** Seeds distinguishing the rows' hash functions. */
+        private static final int[] SEEDS = {
+            0x2f0b3c5d, 0x6a09e667, 0x3c6ef372, 0x510e527f,
+        };
+
+        /** The counters, row by row. */
+        private final byte[] _counts = new byte[ROWS * WIDTH];
+
+        /** Codes counted since the last halving. */
+        private int _counted;
+    }
+
+    /** Most bytes of configurations to keep. */
+    private final long _capacity;
+
+    /** The configurations kept, least recently used first. */
+    private final LinkedHashMap<Key, Entry> _entries =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Readings in progress, by key. */
+    private final HashMap<Key, CompletableFuture<Configuration>> _loading =
+        new HashMap<>();
+
+    /** Estimates how often each key is asked for. */
+    private final Sketch _sketch = new Sketch();
+
+    /** Estimated bytes of the configurations kept. */
+    private long _weight;
+
+    /** Counts for stats. */
+    private long _hits, _misses, _loads, _evictions, _rejections;
+}
@@ -0,0 +1,144 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+/** The suite of all JUnit tests for the ConfigCache class.
+ *  @author Yuan Sun
+ */
+public class ConfigCacheTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return COUNT new files holding the default configuration, in a
+     *  new directory. */
+    private Path[] files(int count) throws Exception {
+        String conf = TestUtils.DEFAULT_CONF;
+        Path dir = Files.createTempDirectory("configs");
+        Path[] result = new Path[count];
+        for (int i = 0; i < count; i += 1) {
+            result[i] = dir.resolve("c" + i + ".conf");
+            Files.writeString(result[i], conf);
+        }
+        return result;
+    }
+
+    /** Delete FILES and their directory. */
+    private void delete(Path[] files) throws Exception {
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        Files.delete(files[0].getParent());
+    }
+
+    /** Return the weight of the configuration in FILE. */
+    private long weight(Path file) {
+        return new ConfigCache(Long.MAX_VALUE).get(file).weight();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkHitsAndChanges() throws Exception {
+        Path[] files = files(1);
+        try {
+            ConfigCache cache = new ConfigCache(Long.MAX_VALUE);
+            Configuration first = cache.get(files[0]);
+            assertSame(first, cache.get(files[0]));
+            Files.writeString(files[0], Files.readString(files[0])
+                              .replace("(BKNW)", "(BK) (NW)"));
+            assertNotSame(first, cache.get(files[0]));
+            ConfigCache.Stats stats = cache.stats();
+            assertEquals(1, stats.hits);
+            assertEquals(2, stats.misses);
+            assertEquals(2, stats.loads);
+            assertEquals(2, stats.size);
+            assertEquals(2 * weight(files[0]), stats.weight);
+        } finally {
+            delete(files);
+        }
+    }
+
+    @Test
+    public void checkFrequentEntriesSurvive() throws Exception {
+        Path[] files = files(4);
+        try {
+            long weight = weight(files[0]);
+            ConfigCache cache = new ConfigCache(2 * weight + weight / 2);
+            Configuration a = cache.get(files[0]);
+            cache.get(files[1]);
+            cache.get(files[0]);
+            cache.get(files[2]);
+            assertEquals(1, cache.stats().evictions);
+            cache.get(files[3]);
+            assertEquals(1, cache.stats().rejections);
+            assertSame(a, cache.get(files[0]));
+            cache.get(files[3]);
+            cache.get(files[3]);
+            ConfigCache.Stats stats = cache.stats();
+            assertEquals(2, stats.size);
+            assertTrue(stats.weight <= 2 * weight + weight / 2);
+            assertEquals(2, stats.evictions);
+            assertEquals(1, stats.rejections);
+        } finally {
+            delete(files);
+        }
+    }
+
+    @Test
+    public void checkConcurrentLoadsShared() throws Exception {
+        Path[] files = files(1);
+        try {
+            ConfigCache cache = new ConfigCache(Long.MAX_VALUE);
+            CountDownLatch start = new CountDownLatch(1);
+            Configuration[] results = new Configuration[8];
+            ArrayList<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < results.length; i += 1) {
+                int k = i;
+                Thread t = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException excp) {
+                        return;
+                    }
+                    results[k] = cache.get(files[0]);
+                });
+                t.start();
+                threads.add(t);
+            }
+            start.countDown();
+            for (Thread t : threads) {
+                t.join();
+            }
+            for (Configuration c : results) {
+                assertSame(results[0], c);
+            }
+            assertEquals(1, cache.stats().loads);
+            assertEquals(8, cache.stats().hits + cache.stats().misses);
+        } finally {
+            delete(files);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadConfiguration() throws Exception {
+        Path[] files = files(1);
+        try {
+            Files.writeString(files[0], "ABC\n 3 1\n (AB)\n");
+            new ConfigCache(Long.MAX_VALUE).get(files[0]);
+        } finally {
+            delete(files);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/** A configuration file watched for changes, for processes that run
+ *  long enough for it to be edited under them.  A background thread
+ *  notices each change to the file, through a WatchService on its
+ *  directory, and rereads it with Configuration.parse, which builds
+ *  every rotor then, so that a bad rotor description is found at once
+ *  and the new configuration does not depend on the file staying as it
+ *  was.  If it reads without error, it replaces the current
+ *  configuration in one step; otherwise the current configuration
+ *  stays, and the error is kept for lastError.
+ *
+ *  Whoever wants a machine asks for the current configuration and makes
+ *  one from it.  A machine made before a change goes on converting with
+ *  the configuration it was made from, so a session in progress
+ *  finishes as it began.
+ *  @author Yuan Sun
+ */
+final class ConfigWatcher implements Closeable {
+
+    /** A watcher of the configuration file FILE, which must read without
+     *  error now. */
+    ConfigWatcher(Path file) {
+        _file = file.toAbsolutePath();
+        _text = text();
+        _current = Configuration.parse(_text);
+        try {
+            _watcher = _file.getFileSystem().newWatchService();
+            _file.getParent().register(_watcher, ENTRY_CREATE,
+                                       ENTRY_MODIFY);
+        } catch (IOException excp) {
+            throw error("could not watch %s: %s", file, excp.getMessage());
+        }
+        Thread thread = new Thread(this::watch, "enigma-config");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Return the current configuration. */
+    Configuration current() {
+        return _current;
+    }
+
+    /** Return the number of configurations read, including the first. */
+    synchronized int version() {
+        return _version;
+    }
+
+    /** Return the error that kept the most recent change from being
+     *  used, or null if it was used. */
+    synchronized EnigmaException lastError() {
+        return _lastError;
+    }
+
+    /** Reread the file now, replacing the current configuration if it
+     *  has changed and reads without error, and return true iff it was
+     *  replaced. */
+    synchronized boolean reload() {
+        String text;
+        Configuration next;
+        try {
+            text = text();
+            if (text.equals(_text)) {
+                return false;
+            }
+            next = Configuration.parse(text);
+        } catch (EnigmaException excp) {
+            _text = null;
+            _lastError = excp;
+            return false;
+        }
+        _text = text;
+        _current = next;
+        _version += 1;
+        _lastError = null;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _watcher.close();
+    }
+
+    /** Return the contents of my file. */
+    private String text() {
+        try {
+            return Files.readString(_file, UTF_8);
+        } catch (IOException excp) {
+            throw error("could not read %s", _file);
+        }
+    }
+
+    /** Reload my file whenever it changes, until closed.  Changes that
+     *  come close together, as an editor saving a file may make, are
+     *  read once. */
+    private void watch() {
+        try {
+            while (true) {
+                boolean changed = events(_watcher.take());
+                WatchKey more;
+                while ((more = _watcher.poll(SETTLE_MILLIS,
+                                             TimeUnit.MILLISECONDS))
+                       != null) {
+                    changed |= events(more);
+                }
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException excp) {
+            return;
+        }
+    }
+
+    /** Return true iff KEY reports a change to my file, then ready KEY
+     *  for further events. */
+    private boolean events(WatchKey key) {
+        boolean result = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            result |= event.kind() == OVERFLOW
+                || _file.getFileName().equals(event.context());
+        }
+        key.reset();
+        return result;
+    }
+
+    /** Milliseconds without further changes to wait before rereading. */
+    static final long SETTLE_MILLIS = 50;
+
+    /** The watched file. */
+    private final Path _file;
+
+    /** Watches the directory of _file. */
+    private final WatchService _watcher;
+
+    /** The current configuration. */
+    private volatile Configuration _current;
+
+    /** Number of configurations read. */
+    private int _version = 1;
+
+    /** The contents of _file from which _current was read, or null if
+     *  the file has since changed to something unusable. */
+    private String _text;
+
+    /** The error from the most recent unusable change, or null. */
+    private EnigmaException _lastError;
+}
@@ -0,0 +1,106 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** The suite of all JUnit tests for the ConfigWatcher class.
+ *  @author Yuan Sun
+ */
+public class ConfigWatcherTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings line used throughout. */
+    private static final String SETTINGS = "* B Beta III IV I AXLE (YF)";
+
+    /** Return the text of the default configuration. */
+    private String defaultConf() {
+        return TestUtils.DEFAULT_CONF;
+    }
+
+    /** Wait until WATCHER has read CONFIGURATIONS configurations, or
+     *  noted an error if ERROR, failing after a few seconds. */
+    private void await(ConfigWatcher watcher, int configurations,
+                       boolean error) throws InterruptedException {
+        for (int i = 0; i < 500; i += 1) {
+            if (error ? watcher.lastError() != null
+                : watcher.version() >= configurations) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("change not noticed");
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkReloads() throws Exception {
+        Path dir = Files.createTempDirectory("watched");
+        Path file = dir.resolve("enigma.conf");
+        try {
+            String conf = defaultConf();
+            Files.writeString(file, conf);
+            try (ConfigWatcher watcher = new ConfigWatcher(file)) {
+                Configuration first = watcher.current();
+                Machine old = first.machine();
+                Main.setUp(old, SETTINGS);
+                String before = old.convert("HELLOWORLD");
+                Files.writeString(file, conf.replace("(BKNW)", "(BK) (NW)"));
+                await(watcher, 2, false);
+                assertNull(watcher.lastError());
+                assertNotSame(first, watcher.current());
+                assertEquals(2, watcher.version());
+
+                Machine reference = first.machine();
+                Main.setUp(reference, SETTINGS);
+                reference.convert("HELLOWORLD");
+                assertEquals(reference.convert("GOODBYEWORLD"),
+                             old.convert("GOODBYEWORLD"));
+
+                Machine fresh = watcher.current().machine();
+                Main.setUp(fresh, SETTINGS);
+                assertNotEquals(before, fresh.convert("HELLOWORLD"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void checkRejectsBadConfiguration() throws Exception {
+        Path dir = Files.createTempDirectory("watched");
+        Path file = dir.resolve("enigma.conf");
+        try {
+            Files.writeString(file, defaultConf());
+            try (ConfigWatcher watcher = new ConfigWatcher(file)) {
+                Configuration first = watcher.current();
+                Files.writeString(file, defaultConf()
+                                  .replace("(DFG)", "(DF7)"));
+                await(watcher, 0, true);
+                assertSame(first, watcher.current());
+                assertEquals(1, watcher.version());
+                assertFalse(watcher.reload());
+
+                Files.writeString(file, defaultConf());
+                watcher.reload();
+                await(watcher, 2, false);
+                assertNull(watcher.lastError());
+                assertEquals(2, watcher.version());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package enigma;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static enigma.EnigmaException.*;
+
+/** The definition of a machine read from a configuration file: its
+ *  alphabet, its numbers of slots and pawls, and its library of rotors.
+ *  A configuration does not change once read.  Each machine made from
+ *  it gets its own copies of the rotors, so that machines made from the
+ *  same configuration, before or after it is replaced by a newer one
+ *  (see ConfigWatcher), convert independently.
+ *  @author Yuan Sun
+ */
+final class Configuration {
+
+    /** A configuration with alphabet ALPHABET, NUMROTORS slots, PAWLS
+     *  pawls and the rotors of ROTORS, which I then own. */
+    private Configuration(Alphabet alphabet, int numRotors, int pawls,
+                          RotorCatalogue rotors) {
+        _alphabet = alphabet;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _rotors = rotors;
+    }
+
+    /** Return the configuration with alphabet ALPHABET, NUMROTORS
+     *  slots, PAWLS pawls and the rotors ROTORS, which it then owns. */
+    static Configuration of(Alphabet alphabet, int numRotors, int pawls,
+                            Collection<Rotor> rotors) {
+        return new Configuration(alphabet, numRotors, pawls,
+                                 new RotorCatalogue(rotors));
+    }
+
+    /** Return the configuration read from CONFIG, the contents of a
+     *  configuration file.  Rotors are built only as they are used, from
+     *  the file FILE, keeping at most about ROTORCACHE bytes of them
+     *  (see RotorCatalogue), except when the number of pawls is not on
+     *  the second line, or FILE is null, when all are built now. */
+    static Configuration read(Scanner config, Path file, long rotorCache) {
+        try {
+            String alpha = "";
+            int s = 0;
+            int p = 0;
+            boolean lazy = file != null;
+            Alphabet alphabet = new Alphabet();
+            if (config.hasNextLine()) {
+                alpha = config.nextLine();
+                alphabet = new Alphabet(
+                        getWhatIWant(alpha,
+                                "[^\\s\\*\\(\\)]+",
+                                0));
+            }
+            if (config.hasNextLine()) {
+                String cur = config.nextLine();
+                String cleanedCur = cur.replaceAll("\\s", "");
+                String integers = getWhatIWant(cleanedCur, "^\\d{1,2}", 0);
+                if (integers.length() == 2) {
+                    s = Integer.parseInt(integers.substring(0, 1));
+                    p = Integer.parseInt(integers.substring(1));
+                } else if (integers.length() == 1) {
+                    s = Integer.parseInt(integers);
+                    lazy = false;
+                    if (config.hasNext()) {
+                        String pStr = config.next();
+                        if (pStr.matches("\\d")) {
+                            p = Integer.parseInt(pStr);
+                        }
+                    }
+                }
+            }
+            RotorCatalogue allRotors = !lazy
+                ? new RotorCatalogue(rotors(config, alphabet))
+                : new RotorCatalogue(file, alphabet, rotorCache);
+            return new Configuration(alphabet, s, p, allRotors);
+        } catch (NoSuchElementException excp) {
+            throw error("configuration file truncated");
+        }
+    }
+
+    /** Return the configuration whose file contains TEXT, as read, with
+     *  all its rotors built, by read.  It must describe a machine with
+     *  at least two slots and fewer pawls than slots: an empty or
+     *  half-written file reads without error, but describes no such
+     *  machine.  Any fault in TEXT is reported as an EnigmaException. */
+    static Configuration parse(String text) {
+        Configuration result;
+        try {
+            result = read(new Scanner(text), null, Long.MAX_VALUE);
+        } catch (EnigmaException excp) {
+            throw excp;
+        } catch (RuntimeException excp) {
+            throw error("bad configuration: %s", excp);
+        }
+        if (result._numRotors < 2 || result._pawls >= result._numRotors) {
+            throw error("configuration has %d slots and %d pawls",
+                        result._numRotors, result._pawls);
+        }
+        return result;
+    }
+
+    /** Return a new machine as I describe it, with its own rotors. */
+    Machine machine() {
+        return new Machine(_alphabet, _numRotors, _pawls,
+                           _rotors.copy(new IdentityHashMap<>()));
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return my number of rotor slots. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return my number of pawls. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return the estimated bytes of memory I take: my alphabet's tables
+     *  and the rotors I have built. */
+    long weight() {
+        return CONFIGURATION_BYTES + 8L * _alphabet.size() + _rotors.bytes();
+    }
+
+    /** Given IN, return the string that match with REGEX and GROUP.*/
+    private static String getWhatIWant(String in, String regex, int group)
+            throws EnigmaException {
+        String cleanedIn = in.trim();
+        Pattern pattern = Pattern.compile(regex);
+        Matcher matcher = pattern.matcher(cleanedIn);
+        if (matcher.find()) {
+            return matcher.group(group);
+        } else {
+            throw error("getwhatiwant");
+        }
+    }
+
+    /** Get a list of rotors over ALPHABET available from CONFIG,
+     *  including the preset rotors it names (see Presets). return. */
+    private static ArrayList<Rotor> rotors(Scanner config,
+                                           Alphabet alphabet) {
+        ArrayList<Rotor> allRotors = new ArrayList<>();
+        boolean preset = false;
+        while (config.hasNextLine()) {
+            String thisLine = config.nextLine();
+            String leftOut = RotorCatalogue.checkCycles(thisLine);
+            if (thisLine.matches("\\s+")) {
+                return allRotors;
+            } else if (Presets.isPreset(thisLine.trim())) {
+                for (String name : Presets.rotorNames(thisLine)) {
+                    allRotors.add(Presets.rotor(name, alphabet));
+                }
+                preset = true;
+            } else if (leftOut.compareTo("") != 0) {
+                if (preset) {
+                    throw error("bad rotor description");
+                }
+                Rotor lastRotor = allRotors.get(allRotors.size() - 1);
+                lastRotor.permutation().addCycle(leftOut);
+            } else {
+                preset = false;
+                Rotor r = RotorCatalogue.readRotor(thisLine, alphabet);
+                allRotors.add(r);
+            }
+        }
+        return allRotors;
+    }
+
+    /** Estimated bytes of a configuration, apart from its tables. */
+    private static final long CONFIGURATION_BYTES = 512;
+
+    /** My alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** My rotors, from which each machine's are copied. */
+    private final RotorCatalogue _rotors;
+}
@@ -0,0 +1,596 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** A catalogue of the cycle structures of a machine's keys, on disk.
+ *
+ *  Let E1, E2, ... be the permutations a machine applies to the first,
+ *  second, ... characters typed after it is set to some key.  The
+ *  characteristic of the key is the cycle type (the lengths of the
+ *  cycles, longest first) of each of the SPAN products of Ei and
+ *  Ei+SPAN, for 1 <= i <= SPAN.  It does not depend on the plugboard.
+ *  A catalogue records the characteristic of every key of a KeySpace so
+ *  that the keys having a given characteristic can be found quickly.
+ *
+ *  A catalogue file starts with a header of HEADER_SIZE bytes: the
+ *  magic number MAGIC, the format VERSION, the alphabet size, the ring
+ *  slots of the key space, SPAN, FANOUT_BITS and the number of bits B
+ *  of a key number (ints), then the number of keys (a long).  Next come
+ *  2^FANOUT_BITS + 1 longs, the fan-out index, and then one long entry
+ *  per key, in increasing order.  An entry holds the key number in its
+ *  low B bits and the top bits of a hash of the key's characteristic
+ *  above them; the fan-out index gives the first entry whose top
+ *  FANOUT_BITS bits (after the sign bit) are each possible value.  A
+ *  lookup therefore reads one fan-out slot and binary-searches a small
+ *  range, and recomputes the characteristic of each key found to weed
+ *  out hash collisions.  Numbers are big-endian.
+ *
+ *  A catalogue is built in parallel: each thread takes a shard of the
+ *  key space, computes characteristics into a buffer, and sorts and
+ *  writes each full buffer to a run file; the runs are then merged
+ *  into the catalogue, which is written under a temporary name and
+ *  renamed into place.
+ *  @author Yuan Sun
+ */
+final class CycleCatalogue implements Closeable {
+
+    /** Number of products in a characteristic. */
+    static final int SPAN = 3;
+
+    /** First int of a catalogue file ("ENCC"). */
+    static final int MAGIC = 0x454e4343;
+
+    /** Catalogue file format version. */
+    static final int VERSION = 1;
+
+    /** Bytes of header before the fan-out index. */
+    static final int HEADER_SIZE = 64;
+
+    /** Number of bits of entry used to index the fan-out. */
+    static final int FANOUT_BITS = 16;
+
+    /** Entries sorted in memory at once by each building thread. */
+    static final int RUN_ENTRIES = 1 << 20;
+
+    /** Open the catalogue in FILE of the keys of MACHINE, with the rings
+     *  of the rightmost RINGSLOTS slots varied (see KeySpace). */
+    CycleCatalogue(Path file, Machine machine, int ringSlots) {
+        _machine = machine.copy();
+        _keys = new KeySpace(_machine, ringSlots);
+        _bits = indexBits(_keys.size());
+        try {
+            _file = FileChannel.open(file, READ);
+        } catch (IOException excp) {
+            throw error("could not open catalogue %s", file);
+        }
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, 0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw error("%s is not a cycle catalogue", file);
+            }
+            if (header.getInt(8) != machine.alphabet().size()
+                || header.getInt(12) != ringSlots
+                || header.getInt(16) != SPAN
+                || header.getInt(20) != FANOUT_BITS
+                || header.getInt(24) != _bits
+                || header.getLong(28) != _keys.size()) {
+                throw error("catalogue %s is for different keys", file);
+            }
+            ByteBuffer fanout = ByteBuffer.allocate(8 * (FANOUT + 1));
+            readFully(fanout, HEADER_SIZE);
+            fanout.flip();
+            _fanout = new long[FANOUT + 1];
+            fanout.asLongBuffer().get(_fanout);
+        } catch (IOException | EnigmaException excp) {
+            try {
+                _file.close();
+            } catch (IOException ignored) {
+                /* Report the original failure. */
+            }
+            if (excp instanceof EnigmaException) {
+                throw (EnigmaException) excp;
+            }
+            throw error("could not read catalogue %s: %s", file,
+                        excp.getMessage());
+        }
+    }
+
+    /** Return the number of keys catalogued. */
+    long size() {
+        return _keys.size();
+    }
+
+    /** Return the key numbers with characteristic CHARACTERISTIC, in
+     *  increasing order. */
+    List<Long> lookup(int[][] characteristic) {
+        long mask = (1L << _bits) - 1;
+        long lo = (hash(characteristic) >>> (_bits + 1)) << _bits;
+        int bucket = (int) (lo >>> (Long.SIZE - 1 - FANOUT_BITS));
+        long first = _fanout[bucket], last = _fanout[bucket + 1];
+        while (first < last) {
+            long mid = (first + last) >>> 1;
+            if (entry(mid) < lo) {
+                first = mid + 1;
+            } else {
+                last = mid;
+            }
+        }
+        ArrayList<Long> result = new ArrayList<>();
+        Characteristics found = new Characteristics(_machine);
+        for (long e = first; e < _fanout[bucket + 1]; e += 1) {
+            long entry = entry(e);
+            if ((entry & ~mask) != lo) {
+                break;
+            }
+            KeySpace.Cursor c = _keys.cursor(entry & mask,
+                                             (entry & mask) + 1);
+            c.next();
+            c.apply(_machine);
+            found.compute(_machine);
+            if (Arrays.deepEquals(found.lengths(), characteristic)) {
+                result.add(entry & mask);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /** Return key number KEY as a settings line. */
+    String settings(long key) {
+        KeySpace.Cursor c = _keys.cursor(key, key + 1);
+        c.next();
+        return c.settings();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _file.close();
+    }
+
+    /** Return entry number K. */
+    private long entry(long k) {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        try {
+            readFully(buf, HEADER_SIZE + 8L * (FANOUT + 1) + 8 * k);
+        } catch (IOException excp) {
+            throw error("could not read catalogue: %s", excp.getMessage());
+        }
+        return buf.getLong(0);
+    }
+
+    /** Fill BUF from my file starting at byte POSITION. */
+    private void readFully(ByteBuffer buf, long position)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            if (_file.read(buf, position + buf.position()) < 0) {
+                throw new IOException("catalogue is truncated");
+            }
+        }
+    }
+
+    /** Return the characteristic of the key MACHINE is set to, leaving
+     *  MACHINE 2 * SPAN characters further on. */
+    static int[][] characteristic(Machine machine) {
+        Characteristics c = new Characteristics(machine);
+        c.compute(machine);
+        return c.lengths();
+    }
+
+    /** Return CHARACTERISTIC as text: the cycle lengths of each product
+     *  separated by commas, and the products separated by slashes. */
+    static String format(int[][] characteristic) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < characteristic.length; i += 1) {
+            for (int j = 0; j < characteristic[i].length; j += 1) {
+                result.append(j == 0 ? i == 0 ? "" : "/" : ",");
+                result.append(characteristic[i][j]);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the characteristic written as TEXT by format. */
+    static int[][] parse(String text) {
+        String[] products = text.trim().split("/");
+        if (products.length != SPAN) {
+            throw error("a characteristic has %d products", SPAN);
+        }
+        int[][] result = new int[SPAN][];
+        for (int i = 0; i < SPAN; i += 1) {
+            String[] lengths = products[i].split(",");
+            result[i] = new int[lengths.length];
+            for (int j = 0; j < lengths.length; j += 1) {
+                if (!lengths[j].trim().matches("\\d{1,9}")) {
+                    throw error("bad characteristic %s", text);
+                }
+                result[i][j] = Integer.parseInt(lengths[j].trim());
+            }
+            Arrays.sort(result[i]);
+            for (int lo = 0, hi = result[i].length - 1; lo < hi;
+                 lo += 1, hi -= 1) {
+                int t = result[i][lo];
+                result[i][lo] = result[i][hi];
+                result[i][hi] = t;
+            }
+        }
+        return result;
+    }
+
+    /** Return the hash of CHARACTERISTIC used to order a catalogue. */
+    static long hash(int[][] characteristic) {
+        long h = FNV_BASIS;
+        for (int[] lengths : characteristic) {
+            for (int len : lengths) {
+                h = (h ^ len) * FNV_PRIME;
+            }
+            h = (h ^ -1) * FNV_PRIME;
+        }
+        return h ^ (h >>> 29);
+    }
+
+    /** Build into FILE the catalogue of the keys of MACHINE, with the
+     *  rings of the rightmost RINGSLOTS slots varied, on THREADS
+     *  threads. */
+    static void build(Machine machine, int ringSlots, Path file,
+                      int threads) {
+        KeySpace keys = new KeySpace(machine, ringSlots);
+        int bits = indexBits(keys.size());
+        Path dir = file.toAbsolutePath().getParent();
+        Path runs = null;
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread worker = new Thread(r, "enigma-catalogue");
+            worker.setDaemon(true);
+            return worker;
+        });
+        try {
+            runs = Files.createTempDirectory(dir, "catalogue");
+            long[] bounds = keys.shards(threads);
+            ArrayList<Future<List<Path>>> shards = new ArrayList<>();
+            for (int i = 0; i < threads; i += 1) {
+                Machine copy = machine.copy();
+                long start = bounds[i], end = bounds[i + 1];
+                Path into = runs;
+                shards.add(pool.submit(() -> writeRuns(copy, keys, bits,
+                                                       start, end, into)));
+            }
+            ArrayList<Path> runFiles = new ArrayList<>();
+            for (Future<List<Path>> shard : shards) {
+                runFiles.addAll(shard.get());
+            }
+            Path tmp = Files.createTempFile(dir, "catalogue", ".tmp");
+            try {
+                merge(runFiles, tmp, machine.alphabet().size(), ringSlots,
+                      bits, keys.size());
+                Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException | UncheckedIOException excp) {
+            throw error("could not build catalogue %s: %s", file,
+                        excp.getMessage());
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("could not build catalogue %s: %s", file,
+                        excp.getCause());
+        } catch (InterruptedException excp) {
+            throw error("catalogue build interrupted");
+        } finally {
+            pool.shutdownNow();
+            deleteRuns(runs);
+        }
+    }
+
+    /** Compute the entries of keys START up to END of KEYS, whose
+     *  numbers have BITS bits, with MACHINE, writing them in sorted runs
+     *  to files in DIR and returning their names.  MACHINE is returned
+     *  to each key's settings after its characteristic is computed, so
+     *  that applying the next key changes only one slot. */
+    private static List<Path> writeRuns(Machine machine, KeySpace keys,
+                                        int bits, long start, long end,
+                                        Path dir) throws IOException {
+        ArrayList<Path> result = new ArrayList<>();
+        long[] run = new long[(int) Math.min(RUN_ENTRIES, end - start)];
+        int n = 0;
+        Characteristics found = new Characteristics(machine);
+        KeySpace.Cursor c = keys.cursor(start, end);
+        while (c.next()) {
+            c.apply(machine);
+            int[] settings = machine.settings();
+            found.compute(machine);
+            machine.restoreSettings(settings);
+            run[n] = ((found.hash() >>> (bits + 1)) << bits) | c.index();
+            n += 1;
+            if (n == run.length) {
+                result.add(writeRun(run, n, dir));
+                n = 0;
+            }
+        }
+        if (n > 0) {
+            result.add(writeRun(run, n, dir));
+        }
+        return result;
+    }
+
+    /** Sort the first N entries of RUN and write them to a new file in
+     *  DIR, returning its name. */
+    private static Path writeRun(long[] run, int n, Path dir)
+        throws IOException {
+        Arrays.sort(run, 0, n);
+        Path file = Files.createTempFile(dir, "run", ".tmp");
+        try (FileChannel out = FileChannel.open(file, WRITE)) {
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            for (int i = 0; i < n; i += 1) {
+                if (!buf.hasRemaining()) {
+                    writeFully(out, buf.flip());
+                    buf.clear();
+                }
+                buf.putLong(run[i]);
+            }
+            writeFully(out, buf.flip());
+        }
+        return file;
+    }
+
+    /** Merge the sorted runs in RUNFILES into a catalogue in FILE for
+     *  an alphabet of ALPHABETSIZE, RINGSLOTS ring slots and SIZE keys
+     *  with numbers of BITS bits. */
+    private static void merge(List<Path> runFiles, Path file,
+                              int alphabetSize, int ringSlots, int bits,
+                              long size) throws IOException {
+        PriorityQueue<Run> heads =
+            new PriorityQueue<>((a, b) -> Long.compare(a.head, b.head));
+        long[] fanout = new long[FANOUT];
+        try (FileChannel out = FileChannel.open(file, WRITE)) {
+            for (Path p : runFiles) {
+                Run r = new Run(p);
+                if (r.next()) {
+                    heads.add(r);
+                }
+            }
+            out.position(HEADER_SIZE + 8L * (FANOUT + 1));
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            long count = 0;
+            while (!heads.isEmpty()) {
+                Run r = heads.poll();
+                if (!buf.hasRemaining()) {
+                    writeFully(out, buf.flip());
+                    buf.clear();
+                }
+                buf.putLong(r.head);
+                fanout[(int) (r.head >>> (Long.SIZE - 1 - FANOUT_BITS))]
+                    += 1;
+                count += 1;
+                if (r.next()) {
+                    heads.add(r);
+                } else {
+                    r.close();
+                }
+            }
+            writeFully(out, buf.flip());
+            if (count != size) {
+                throw error("catalogue has %d entries for %d keys", count,
+                            size);
+            }
+            ByteBuffer head =
+                ByteBuffer.allocate(HEADER_SIZE + 8 * (FANOUT + 1));
+            head.putInt(MAGIC).putInt(VERSION).putInt(alphabetSize)
+                .putInt(ringSlots).putInt(SPAN).putInt(FANOUT_BITS)
+                .putInt(bits).putLong(size);
+            head.position(HEADER_SIZE);
+            long start = 0;
+            for (int i = 0; i <= FANOUT; i += 1) {
+                head.putLong(start);
+                if (i < FANOUT) {
+                    start += fanout[i];
+                }
+            }
+            out.position(0);
+            writeFully(out, head.flip());
+        } finally {
+            for (Run r : heads) {
+                r.close();
+            }
+        }
+    }
+
+    /** Write all of BUF to OUT. */
+    private static void writeFully(FileChannel out, ByteBuffer buf)
+        throws IOException {
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+    }
+
+    /** Delete the directory of runs RUNS, if not null, and its
+     *  contents. */
+    private static void deleteRuns(Path runs) {
+        if (runs == null) {
+            return;
+        }
+        try (var files = Files.list(runs)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(p);
+            }
+            Files.deleteIfExists(runs);
+        } catch (IOException excp) {
+            /* Leave the temporary files behind. */
+        }
+    }
+
+    /** Return the number of bits needed for the numbers of SIZE keys. */
+    private static int indexBits(long size) {
+        int bits = Math.max(1, Long.SIZE - Long.numberOfLeadingZeros(size));
+        if (bits > Long.SIZE - 1 - FANOUT_BITS) {
+            throw error("too many keys for a catalogue");
+        }
+        return bits;
+    }
+
+    /** A sorted run being merged. */
+    private static class Run {
+
+        /** A run read from FILE. */
+        Run(Path file) throws IOException {
+            _in = FileChannel.open(file, READ);
+            _buf.flip();
+        }
+
+        /** Advance to the next entry, putting it in head; return false
+         *  if there is none. */
+        boolean next() throws IOException {
+            if (_buf.remaining() < 8) {
+                _buf.compact();
+                while (_buf.position() < 8 && _in.read(_buf) > 0) {
+                    continue;
+                }
+                _buf.flip();
+                if (_buf.remaining() < 8) {
+                    return false;
+                }
+            }
+            head = _buf.getLong();
+            return true;
+        }
+
+        /** Close my file. */
+        void close() throws IOException {
+            _in.close();
+        }
+
+        /** The current entry. */
+        long head;
+
+        /** My file. */
+        private final FileChannel _in;
+
+        /** Entries read and not yet merged. */
+        private final ByteBuffer _buf = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /** Computes characteristics, reusing its storage. */
+    private static class Characteristics {
+
+        /** Computes the characteristics of keys of MACHINE. */
+        Characteristics(Machine machine) {
+            int n = machine.alphabet().size();
+            _perms = new int[2 * SPAN][n];
+            _counts = new int[SPAN][n + 1];
+            _seen = new boolean[n];
+        }
+
+        /** Compute the characteristic of the key MACHINE is set to,
+         *  leaving MACHINE 2 * SPAN characters further on. */
+        void compute(Machine machine) {
+            for (int[] p : _perms) {
+                machine.permutation(p);
+            }
+            for (int i = 0; i < SPAN; i += 1) {
+                int[] first = _perms[i], second = _perms[i + SPAN];
+                int[] counts = _counts[i];
+                Arrays.fill(counts, 0);
+                Arrays.fill(_seen, false);
+                for (int k = 0; k < _seen.length; k += 1) {
+                    int len = 0;
+                    for (int x = k; !_seen[x]; x = second[first[x]]) {
+                        _seen[x] = true;
+                        len += 1;
+                    }
+                    counts[len] += 1;
+                }
+            }
+        }
+
+        /** Return the hash of the last characteristic computed, as by
+         *  CycleCatalogue.hash. */
+        long hash() {
+            long h = FNV_BASIS;
+            for (int[] counts : _counts) {
+                for (int len = counts.length - 1; len > 0; len -= 1) {
+                    for (int j = counts[len]; j > 0; j -= 1) {
+                        h = (h ^ len) * FNV_PRIME;
+                    }
+                }
+                h = (h ^ -1) * FNV_PRIME;
+            }
+            return h ^ (h >>> 29);
+        }
+
+        /** Return the last characteristic computed. */
+        int[][] lengths() {
+            int[][] result = new int[SPAN][];
+            for (int i = 0; i < SPAN; i += 1) {
+                int[] counts = _counts[i];
+                int cycles = 0;
+                for (int len = 1; len < counts.length; len += 1) {
+                    cycles += counts[len];
+                }
+                result[i] = new int[cycles];
+                int j = 0;
+                for (int len = counts.length - 1; len > 0; len -= 1) {
+                    for (int c = counts[len]; c > 0; c -= 1) {
+                        result[i][j] = len;
+                        j += 1;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /** The permutations at the 2 * SPAN positions. */
+        private final int[][] _perms;
+
+        /** Number of cycles of each length in each product. */
+        private final int[][] _counts;
+
+        /** Marks the symbols whose cycle has been counted. */
+        private final boolean[] _seen;
+    }
+
+    /** Number of fan-out slots. */
+    private static final int FANOUT = 1 << FANOUT_BITS;
+
+    /** Bytes buffered when reading and writing runs. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** FNV-1a offset basis. */
+    private static final long FNV_BASIS = 0xcbf29ce484222325L;
+
+    /** FNV-1a prime. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** A machine used to check the keys found. */
+    private final Machine _machine;
+
+    /** The keys catalogued. */
+    private final KeySpace _keys;
+
+    /** Bits in a key number. */
+    private final int _bits;
+
+    /** The catalogue file. */
+    private final FileChannel _file;
+
+    /** The fan-out index. */
+    private final long[] _fanout;
+}
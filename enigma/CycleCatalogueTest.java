@@ -0,0 +1,127 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** The suite of all JUnit tests for the CycleCatalogue class.
+ *  @author Yuan Sun
+ */
+public class CycleCatalogueTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a four-slot, two-pawl machine over ABCDEF with two
+     *  reflectors, one fixed rotor and three moving ones. */
+    private Machine smallMachine() {
+        Alphabet abc = new Alphabet("ABCDEF");
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R1",
+                                 new Permutation("(AB) (CD) (EF)", abc)));
+        rotors.add(new Reflector("R2",
+                                 new Permutation("(AF) (BD) (CE)", abc)));
+        rotors.add(new FixedRotor("F", new Permutation("(ABC) (DE)", abc)));
+        rotors.add(new MovingRotor("M1", new Permutation("(ABCDEF)", abc),
+                                   "A"));
+        rotors.add(new MovingRotor("M2", new Permutation("(AB) (CF)", abc),
+                                   "B"));
+        rotors.add(new MovingRotor("M3", new Permutation("(ACB) (DF)", abc),
+                                   "C"));
+        return new Machine(abc, 4, 2, rotors);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkCharacteristic() {
+        Machine m = smallMachine();
+        Main.setUp(m, "* R1 F M1 M2 ABC (AD)");
+        int[][] c = CycleCatalogue.characteristic(m);
+        assertEquals(CycleCatalogue.SPAN, c.length);
+        for (int[] lengths : c) {
+            int total = 0;
+            for (int j = 0; j < lengths.length; j += 1) {
+                total += lengths[j];
+                assertTrue(j == 0 || lengths[j] <= lengths[j - 1]);
+            }
+            assertEquals(6, total);
+        }
+        Machine plain = smallMachine();
+        Main.setUp(plain, "* R1 F M1 M2 ABC");
+        assertEquals(CycleCatalogue.format(c), CycleCatalogue.format(
+                         CycleCatalogue.characteristic(plain)));
+    }
+
+    @Test
+    public void checkFormat() {
+        int[][] c = CycleCatalogue.parse("1,3,3/2,2,1,1/6");
+        assertEquals("3,3,1/2,2,1,1/6", CycleCatalogue.format(c));
+        assertEquals(CycleCatalogue.hash(c), CycleCatalogue.hash(
+                         CycleCatalogue.parse("3,3,1/2,2,1,1/6")));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkShortCharacteristic() {
+        CycleCatalogue.parse("3,3/6");
+    }
+
+    @Test
+    public void checkBuildAndLookup() throws Exception {
+        Path dir = Files.createTempDirectory("enigma-catalogue");
+        Path file = dir.resolve("small.cat");
+        try {
+            Machine m = smallMachine();
+            CycleCatalogue.build(m, 1, file, 3);
+            KeySpace keys = new KeySpace(m, 1);
+            HashMap<String, List<Long>> expected = new HashMap<>();
+            Machine probe = smallMachine();
+            KeySpace.Cursor c = keys.cursor(0, keys.size());
+            while (c.next()) {
+                c.apply(probe);
+                String key = CycleCatalogue.format(
+                    CycleCatalogue.characteristic(probe));
+                expected.computeIfAbsent(key, k -> new ArrayList<>())
+                    .add(c.index());
+            }
+            try (CycleCatalogue catalogue =
+                     new CycleCatalogue(file, smallMachine(), 1)) {
+                assertEquals(keys.size(), catalogue.size());
+                long found = 0;
+                for (String key : expected.keySet()) {
+                    List<Long> hits =
+                        catalogue.lookup(CycleCatalogue.parse(key));
+                    assertEquals(key, expected.get(key), hits);
+                    found += hits.size();
+                }
+                assertEquals(keys.size(), found);
+                assertEquals(List.of(), catalogue.lookup(
+                                 CycleCatalogue.parse("6/6/6,0")));
+                Machine k = smallMachine();
+                long key = expected.values().iterator().next().get(0);
+                Main.setUp(k, catalogue.settings(key));
+                assertTrue(expected.get(CycleCatalogue.format(
+                    CycleCatalogue.characteristic(k))).contains(key));
+            }
+            try {
+                new CycleCatalogue(file, smallMachine(), 0);
+                fail("catalogue opened for different keys");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("different keys"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+}
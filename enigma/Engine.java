@@ -0,0 +1,33 @@
+package enigma;
+
+/** A way of computing the path of a signal through the rotors of a
+ *  machine.  The Machine steps its rotors and applies its plugboard;
+ *  an engine does the rest, and may keep tables derived from the rotors
+ *  between characters so long as it heeds reset and moved.  Engines
+ *  differ only in speed and memory: for the same rotors in the same
+ *  state, all give the same results.  See Engines for the ones
+ *  available.
+ *  @author Yuan Sun
+ */
+interface Engine {
+
+    /** Return my name, as accepted by Engines.create. */
+    String name();
+
+    /** Return a new engine of my kind, not yet reset. */
+    Engine fresh();
+
+    /** Start converting with the rotors in SLOTS (the reflector first),
+     *  over an alphabet of ALPHABETSIZE characters, discarding anything
+     *  I derived from the previous rotors, settings or rings. */
+    void reset(Rotor[] slots, int alphabetSize);
+
+    /** Note that the setting of the rotor in slot J has changed since
+     *  the last conversion, usually by its advancing one position. */
+    void moved(int j);
+
+    /** Return the index that comes back out of the right side of the
+     *  rightmost slot when K is fed into it, with the rotors as they
+     *  are now. */
+    int convert(int k);
+}
@@ -0,0 +1,149 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the engines and their selection.
+ *  @author Yuan Sun
+ */
+public class EngineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A message long enough to move the middle rotors several times. */
+    private static final String LONG;
+    static {
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 2000; i += 1) {
+            msg.append((char) ('A' + (i * 7 + i / 26) % 26));
+        }
+        LONG = msg.toString();
+    }
+
+    /** Return the result of converting LONG with a six-slot naval
+     *  machine using ENGINE after applying SETTINGS. */
+    private String convert(Engine engine, String settings) {
+        Machine m = navalMachine(6, 3);
+        m.setEngine(engine);
+        Main.setUp(m, settings);
+        return m.convert(LONG);
+    }
+
+    /** An engine that gives the wrong answer for index 0 only. */
+    private static class BrokenEngine extends TurnaroundEngine {
+        @Override
+        public int convert(int k) {
+            int result = super.convert(k);
+            return k == 0 ? (result + 1) % UPPER.size() : result;
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkEnginesAgree() {
+        String[] settings = {
+            "* B Beta Gamma III IV I AXLEQ BCDEF (AQ) (ZK)",
+            "* C Gamma Beta VI VII VIII ZZZZZ",
+            "* B Beta Gamma I II I AQDVA",
+        };
+        for (String setting : settings) {
+            String expected = convert(new ReferenceEngine(), setting);
+            for (String name : Engines.NAMES) {
+                assertEquals(name, expected,
+                             convert(Engines.create(name), setting));
+                assertEquals(name, expected,
+                             convert(new CheckedEngine(
+                                         Engines.create(name), 1),
+                                     setting));
+            }
+        }
+    }
+
+    @Test
+    public void checkSelect() {
+        assertEquals("composite",
+                     Engines.select(26, 5, 3, -1, 1 << 20));
+        assertEquals("turnaround",
+                     Engines.select(26, 5, 1, -1, 1 << 20));
+        assertEquals("turnaround",
+                     Engines.select(256, 5, 3, 100, 1 << 20));
+        assertEquals("turnaround",
+                     Engines.select(1 << 16, 20, 10, -1, 1 << 20));
+        assertEquals("reference",
+                     Engines.select(1 << 20, 20, 10, -1, 1 << 20));
+    }
+
+    @Test
+    public void checkCheckedEngineCatchesErrors() {
+        Engine checked = new CheckedEngine(new BrokenEngine(), 1);
+        try {
+            convert(checked, "* B Beta Gamma III IV I AXLEQ");
+            fail("disagreement not detected");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("reference"));
+        }
+    }
+
+    @Test
+    public void checkSharedTables() throws IOException {
+        String first = "* B Beta Gamma III IV I AXLEQ BCDEF (AQ) (ZK)";
+        String moved = "* B Beta Gamma III IV I AXQQQ BCDEF (AQ) (ZK)";
+        String rerung = "* B Beta Gamma III IV I AXLEQ BCDEA";
+        Path dir = Files.createTempDirectory("tables");
+        try {
+            assertEquals(convert(new ReferenceEngine(), first),
+                         convert(new FullTableEngine(dir), first));
+            Path[] files = Files.list(dir).toArray(Path[]::new);
+            assertEquals(1, files.length);
+            long built = Files.getLastModifiedTime(files[0]).toMillis();
+            assertEquals(convert(new ReferenceEngine(), moved),
+                         convert(new FullTableEngine(dir), moved));
+            assertEquals(1, Files.list(dir).count());
+            assertEquals(built,
+                         Files.getLastModifiedTime(files[0]).toMillis());
+            assertEquals(convert(new ReferenceEngine(), rerung),
+                         convert(new FullTableEngine(dir), rerung));
+            assertEquals(2, Files.list(dir).count());
+        } finally {
+            for (Path p : Files.list(dir).toArray(Path[]::new)) {
+                Files.delete(p);
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void checkSpecializedChainsShared() {
+        String first = "* C Gamma Beta VIII V II AXLEQ BCDEF (AQ) (ZK)";
+        String moved = "* C Gamma Beta VIII V II QQQQQ ZZZZZ";
+        String other = "* C Gamma Beta II V VIII AXLEQ";
+        assertEquals(convert(new ReferenceEngine(), first),
+                     convert(new SpecializedEngine(), first));
+        int generated = SpecializedEngine.generated();
+        assertEquals(convert(new ReferenceEngine(), moved),
+                     convert(new SpecializedEngine(), moved));
+        assertEquals(generated, SpecializedEngine.generated());
+        assertEquals(convert(new ReferenceEngine(), other),
+                     convert(new SpecializedEngine(), other));
+        assertEquals(generated + 1, SpecializedEngine.generated());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnknownEngine() {
+        Engines.create("warp");
+    }
+
+}
@@ -0,0 +1,172 @@
+package enigma;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** The engines available to a Machine, and the choice among them.
+ *
+ *  Unless told otherwise, a machine uses the fastest engine that fits
+ *  its shape and a memory budget (see select).  The system property
+ *  enigma.engine, or Main's --engine option, names an engine to use
+ *  instead; the property enigma.check, or Main's --check option, makes
+ *  the chosen engine check one character in every N (default 1)
+ *  against the reference engine, failing on the first disagreement.
+ *  The property enigma.tables, or Main's --tables option, names a
+ *  directory in which full-machine tables are kept between runs.
+ *  @author Yuan Sun
+ */
+final class Engines {
+
+    /** Not instantiable. */
+    private Engines() {
+    }
+
+    /** Names of the available engines, slowest first. */
+    static final List<String> NAMES =
+        Arrays.asList("reference", "turnaround", "specialized", "composite",
+                      "full");
+
+    /** System property naming the engine to use. */
+    static final String ENGINE_PROPERTY = "enigma.engine";
+
+    /** System property giving the check interval, if any. */
+    static final String CHECK_PROPERTY = "enigma.check";
+
+    /** System property naming the table directory, if any. */
+    static final String TABLES_PROPERTY = "enigma.tables";
+
+    /** The largest full-machine table, in bytes, chosen by select. */
+    static final long FULL_LIMIT = 1L << 30;
+
+    /** Messages shorter than this many times the alphabet size do not
+     *  reuse composite tables enough to pay for filling them. */
+    static final int COMPOSITE_MIN_LENGTH = 4;
+
+    /** Return a new engine named NAME. */
+    static Engine create(String name) {
+        switch (name) {
+        case "reference":
+            return new ReferenceEngine();
+        case "turnaround":
+            return new TurnaroundEngine();
+        case "specialized":
+            return new SpecializedEngine();
+        case "composite":
+            return new CompositeEngine();
+        case "full":
+            return new FullTableEngine(tableDirectory());
+        default:
+            throw error("unknown engine %s (expected one of %s)", name,
+                        String.join(", ", NAMES));
+        }
+    }
+
+    /** Return the number of bytes of tables the engine NAME keeps on the
+     *  heap for a machine with NUMROTORS slots and an alphabet of
+     *  ALPHABETSIZE characters. */
+    static long memory(String name, int alphabetSize, int numRotors) {
+        switch (name) {
+        case "reference":
+            return 0;
+        case "turnaround":
+            return 4L * alphabetSize;
+        case "specialized":
+            return 8L * alphabetSize * (3L * numRotors + 1);
+        case "composite":
+            return 4L * alphabetSize * (2L * numRotors + 1);
+        case "full":
+            return 0;
+        default:
+            throw error("unknown engine %s", name);
+        }
+    }
+
+    /** Return the name of the fastest engine for a machine with an
+     *  alphabet of ALPHABETSIZE characters, NUMROTORS slots and PAWLS
+     *  pawls, converting messages of about LENGTH characters (negative
+     *  if unknown), whose tables fit in BUDGET bytes.  A full-machine
+     *  table, which is kept off the heap, is chosen if it is at most
+     *  FULL_LIMIT bytes and either is kept in the table directory or
+     *  has no more entries than LENGTH, so that building it pays, and
+     *  fits beside the tables other engines already hold (see
+     *  MachineTables.available). */
+    static String select(int alphabetSize, int numRotors, int pawls,
+                         long length, long budget) {
+        long full = MachineTables.size(alphabetSize, pawls);
+        long entries = full / MachineTables.width(alphabetSize);
+        if (full <= FULL_LIMIT
+            && (tableDirectory() != null
+                || (entries <= length
+                    && full <= MachineTables.available()))) {
+            return "full";
+        }
+        boolean longEnough =
+            length < 0 || length >= COMPOSITE_MIN_LENGTH * alphabetSize;
+        if (pawls > 1 && longEnough
+            && memory("composite", alphabetSize, numRotors) <= budget) {
+            return "composite";
+        } else if (memory("turnaround", alphabetSize, numRotors)
+                   <= budget) {
+            return "turnaround";
+        }
+        return "reference";
+    }
+
+    /** Return the directory in which full-machine tables are kept, or
+     *  null if they are kept only in memory. */
+    static synchronized Path tableDirectory() {
+        if (_tableDirectory == null
+            && System.getProperty(TABLES_PROPERTY) != null) {
+            _tableDirectory = Paths.get(System.getProperty(TABLES_PROPERTY));
+        }
+        return _tableDirectory;
+    }
+
+    /** Keep full-machine tables in DIR, or only in memory if DIR is
+     *  null. */
+    static synchronized void setTableDirectory(Path dir) {
+        _tableDirectory = dir;
+    }
+
+    /** Return the default memory budget for an engine's tables: a
+     *  sixteenth of the most memory the JVM will use. */
+    static long budget() {
+        return Runtime.getRuntime().maxMemory() / 16;
+    }
+
+    /** Return the engine for a machine with an alphabet of ALPHABETSIZE
+     *  characters, NUMROTORS slots and PAWLS pawls, converting messages
+     *  of about LENGTH characters (negative if unknown).  NAME, if not
+     *  null, names the engine to use, and CHECK, if not null, is the
+     *  check interval as a string (empty for 1); otherwise the system
+     *  properties are consulted, and then select. */
+    static Engine forMachine(int alphabetSize, int numRotors, int pawls,
+                             long length, String name, String check) {
+        if (name == null) {
+            name = System.getProperty(ENGINE_PROPERTY);
+        }
+        if (name == null) {
+            name = select(alphabetSize, numRotors, pawls, length, budget());
+        }
+        if (check == null) {
+            check = System.getProperty(CHECK_PROPERTY);
+        }
+        Engine engine = create(name);
+        if (check == null) {
+            return engine;
+        }
+        try {
+            return new CheckedEngine(engine, check.isEmpty() ? 1
+                                     : Long.parseLong(check));
+        } catch (NumberFormatException excp) {
+            throw error("bad check interval %s", check);
+        }
+    }
+
+    /** The table directory, once set. */
+    private static Path _tableDirectory;
+}
@@ -0,0 +1,306 @@
+package enigma;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static enigma.EnigmaException.*;
+
+/** A Flow.Processor that runs chunks of input through a machine and
+ *  publishes the converted chunks, one for each chunk of message text.
+ *
+ *  A CharBuffer chunk is text: characters of the machine's alphabet are
+ *  converted, and all others (spacing, line breaks, punctuation) pass
+ *  through unchanged without advancing the rotors.  A CharBuffer whose
+ *  first non-blank character is '*' is instead a settings line, applied
+ *  as by Main to the machine before the chunks that follow it; it
+ *  produces no output.  A ByteBuffer chunk holds alphabet indices as
+ *  unsigned bytes, as for Machine.convert(ByteBuffer).
+ *
+ *  The machine's state carries over from one chunk to the next, even
+ *  when a supplementary character is split between two CharBuffers; a
+ *  high surrogate left unpaired at the end of the input is an error.
+ *  Chunks are requested from upstream only as the subscriber asks for
+ *  results, so a slow subscriber slows the publisher instead of making
+ *  this processor buffer its input.
+ *  @author Yuan Sun
+ */
+class EnigmaProcessor implements Flow.Processor<Buffer, Buffer> {
+
+    /** A processor that converts its input with MACHINE, which it then
+     *  owns. */
+    EnigmaProcessor(Machine machine) {
+        _machine = machine;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Buffer> subscriber) {
+        synchronized (this) {
+            if (_downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(
+                    new IllegalStateException("already subscribed"));
+                return;
+            }
+            _downstream = subscriber;
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                if (n <= 0) {
+                    Flow.Subscription upstream;
+                    synchronized (EnigmaProcessor.this) {
+                        upstream = _upstream;
+                    }
+                    if (upstream != null) {
+                        upstream.cancel();
+                    }
+                    fail(new IllegalArgumentException(
+                             "non-positive request"));
+                    return;
+                }
+                synchronized (EnigmaProcessor.this) {
+                    _demand += Math.min(n, Long.MAX_VALUE - _demand);
+                }
+                pull();
+                drain();
+            }
+
+            @Override
+            public void cancel() {
+                Flow.Subscription upstream;
+                synchronized (EnigmaProcessor.this) {
+                    _cancelled = true;
+                    _queue.clear();
+                    upstream = _upstream;
+                }
+                if (upstream != null) {
+                    upstream.cancel();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (_upstream != null || _cancelled || _error != null) {
+                subscription.cancel();
+                return;
+            }
+            _upstream = subscription;
+        }
+        pull();
+    }
+
+    @Override
+    public void onNext(Buffer item) {
+        synchronized (this) {
+            _requested -= 1;
+            if (_done || _cancelled) {
+                return;
+            }
+        }
+        Buffer result;
+        try {
+            result = convert(item);
+        } catch (RuntimeException excp) {
+            _upstream.cancel();
+            fail(excp);
+            return;
+        }
+        synchronized (this) {
+            if (result != null && !_cancelled) {
+                _queue.add(result);
+            }
+        }
+        pull();
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        if (_pendingHigh != 0) {
+            fail(error("input ends with an unpaired surrogate"));
+            return;
+        }
+        synchronized (this) {
+            _done = true;
+        }
+        drain();
+    }
+
+    /** Return the result of converting ITEM, or null if it is a settings
+     *  line. */
+    private Buffer convert(Buffer item) {
+        if (!(item instanceof CharBuffer) && !_configured) {
+            throw error("no settings line before the first message");
+        }
+        if (item instanceof ByteBuffer) {
+            ByteBuffer in = (ByteBuffer) item;
+            ByteBuffer out = ByteBuffer.allocate(in.remaining());
+            out.put(in).flip();
+            _machine.convert(out);
+            return out;
+        } else if (item instanceof CharBuffer) {
+            return convert((CharBuffer) item);
+        } else {
+            throw new IllegalArgumentException("unsupported buffer type");
+        }
+    }
+
+    /** Return the result of converting the text in IN, or null if it is
+     *  a settings line. */
+    private CharBuffer convert(CharBuffer in) {
+        String text = in.toString();
+        String trimmed = text.trim();
+        if (_pendingHigh == 0 && trimmed.startsWith("*")) {
+            Main.setUp(_machine, trimmed);
+            _configured = true;
+            return null;
+        }
+        if (!_configured) {
+            throw error("no settings line before the first message");
+        }
+        if (_pendingHigh != 0) {
+            text = _pendingHigh + text;
+            _pendingHigh = 0;
+        }
+        if (!text.isEmpty()
+            && Character.isHighSurrogate(text.charAt(text.length() - 1))) {
+            _pendingHigh = text.charAt(text.length() - 1);
+            text = text.substring(0, text.length() - 1);
+        }
+        Alphabet alpha = _machine.alphabet();
+        StringBuilder out = new StringBuilder(text.length());
+        text.codePoints().forEach(c -> {
+            int i = alpha.toInt(c);
+            out.appendCodePoint(i == -1 ? c
+                                : alpha.toCodePoint(_machine.convert(i)));
+        });
+        return CharBuffer.wrap(out);
+    }
+
+    /** Request enough input from upstream to cover the outstanding
+     *  demand for results. */
+    private void pull() {
+        long want;
+        Flow.Subscription upstream;
+        synchronized (this) {
+            upstream = _upstream;
+            want = _demand - _queue.size() - _requested;
+            if (upstream == null || _done || _cancelled || want <= 0) {
+                return;
+            }
+            _requested += want;
+        }
+        upstream.request(want);
+    }
+
+    /** Deliver queued results, completion or failure downstream, as far
+     *  as demand allows.  Only one thread drains at a time. */
+    private void drain() {
+        if (_wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (true) {
+                Buffer next = null;
+                Throwable error = null;
+                boolean complete = false;
+                Flow.Subscriber<? super Buffer> downstream;
+                synchronized (this) {
+                    downstream = _downstream;
+                    if (downstream == null || _cancelled) {
+                        break;
+                    }
+                    if (_demand > 0 && !_queue.isEmpty()) {
+                        next = _queue.poll();
+                        _demand -= 1;
+                    } else if (_queue.isEmpty() && _done && !_finished) {
+                        _finished = true;
+                        error = _error;
+                        complete = error == null;
+                    } else {
+                        break;
+                    }
+                }
+                if (next != null) {
+                    downstream.onNext(next);
+                } else if (complete) {
+                    downstream.onComplete();
+                } else {
+                    downstream.onError(error);
+                }
+            }
+        } while (_wip.decrementAndGet() != 0);
+    }
+
+    /** Terminate the stream with ERROR once queued results have been
+     *  delivered. */
+    private void fail(Throwable error) {
+        synchronized (this) {
+            if (_done) {
+                return;
+            }
+            _done = true;
+            _error = error;
+        }
+        drain();
+    }
+
+    /** The machine that converts my input. */
+    private final Machine _machine;
+
+    /** Results waiting for demand. */
+    private final ArrayDeque<Buffer> _queue = new ArrayDeque<>();
+
+    /** Number of threads that want to drain; only the first does. */
+    private final AtomicInteger _wip = new AtomicInteger();
+
+    /** My publisher's subscription, once subscribed. */
+    private Flow.Subscription _upstream;
+
+    /** My subscriber. */
+    private Flow.Subscriber<? super Buffer> _downstream;
+
+    /** Results requested by my subscriber and not yet delivered. */
+    private long _demand;
+
+    /** Chunks requested from upstream and not yet received. */
+    private long _requested;
+
+    /** True once upstream has finished or the stream has failed. */
+    private boolean _done;
+
+    /** True once my subscriber has been told the stream ended. */
+    private boolean _finished;
+
+    /** True once my subscriber has cancelled. */
+    private boolean _cancelled;
+
+    /** The failure that ends the stream, if any. */
+    private Throwable _error;
+
+    /** True once a settings line has been applied. */
+    private boolean _configured;
+
+    /** A high surrogate left at the end of the last text chunk, or 0. */
+    private char _pendingHigh;
+}
@@ -0,0 +1,143 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.Buffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the EnigmaProcessor class.
+ *  @author Yuan Sun
+ */
+public class EnigmaProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A subscriber that asks for one result at a time and collects
+     *  them. */
+    private static class Collector implements Flow.Subscriber<Buffer> {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(Buffer item) {
+            results.add(item.toString());
+            _subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        /** Results received. */
+        final ArrayList<String> results = new ArrayList<>();
+        /** Failure received, if any. */
+        Throwable error;
+        /** Released when the stream ends. */
+        final CountDownLatch done = new CountDownLatch(1);
+        /** My subscription. */
+        private Flow.Subscription _subscription;
+    }
+
+    /** Run CHUNKS through a processor on a naval machine, returning the
+     *  collector of its output. */
+    private Collector run(String... chunks) throws InterruptedException {
+        Collector out = new Collector();
+        EnigmaProcessor proc = new EnigmaProcessor(navalMachine(5, 3));
+        proc.subscribe(out);
+        try (SubmissionPublisher<Buffer> source =
+                 new SubmissionPublisher<>()) {
+            source.subscribe(proc);
+            for (String chunk : chunks) {
+                source.submit(CharBuffer.wrap(chunk));
+            }
+        }
+        assertTrue(out.done.await(4, TimeUnit.SECONDS));
+        return out;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkChunksCarryState() throws InterruptedException {
+        Collector whole = run("* B Beta III IV I AXLE (HQ) (EX) (IP) (TR)",
+                              "HELLO WORLD\n");
+        Collector split = run("* B Beta III IV I AXLE (HQ) (EX) (IP) (TR)",
+                              "HEL", "LO WO", "RLD\n");
+        assertNull(whole.error);
+        assertEquals("UPVGJ ZUNSG\n", whole.results.get(0));
+        assertEquals(String.join("", whole.results),
+                     String.join("", split.results));
+        assertEquals(3, split.results.size());
+    }
+
+    @Test
+    public void checkSettingsResetState() throws InterruptedException {
+        Collector out = run("* B Beta III IV I AXLE", "AAAAA",
+                            "* B Beta III IV I AXLE", "AAAAA");
+        assertEquals(2, out.results.size());
+        assertEquals(out.results.get(0), out.results.get(1));
+    }
+
+    @Test
+    public void checkMessageBeforeSettings() throws InterruptedException {
+        Collector out = run("HELLO");
+        assertTrue(out.error instanceof EnigmaException);
+    }
+
+    @Test
+    public void checkUnpairedSurrogate() throws InterruptedException {
+        Collector out = run("* B Beta III IV I AXLE", "HELLO\uD83D");
+        assertEquals("HELLO".length(), out.results.get(0).length());
+        assertTrue(out.error instanceof EnigmaException);
+    }
+
+    @Test
+    public void checkBadRequestCancelsUpstream() {
+        boolean[] cancelled = { false };
+        EnigmaProcessor proc = new EnigmaProcessor(navalMachine(5, 3));
+        proc.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+                cancelled[0] = true;
+            }
+        });
+        Collector out = new Collector() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(0);
+            }
+        };
+        proc.subscribe(out);
+        assertTrue(cancelled[0]);
+        assertTrue(out.error instanceof IllegalArgumentException);
+    }
+
+}
@@ -0,0 +1,110 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/** The engine that looks each character up in a full-machine table
+ *  covering every position of the moving rotors (see MachineTables), so
+ *  that a character costs one lookup whatever the rotors do.  The table
+ *  is kept outside the heap and, given a table directory, in a file
+ *  shared with other processes and later runs.  It needs a table of
+ *  (alphabet size)^(moving rotors + 1) entries.
+ *  @author Yuan Sun
+ */
+class FullTableEngine implements Engine {
+
+    /** An engine keeping its tables in files in DIR, or only in memory
+     *  if DIR is null. */
+    FullTableEngine(Path dir) {
+        _dir = dir;
+    }
+
+    @Override
+    public String name() {
+        return "full";
+    }
+
+    @Override
+    public Engine fresh() {
+        return new FullTableEngine(_dir);
+    }
+
+    @Override
+    public void reset(Rotor[] slots, int alphabetSize) {
+        _slots = slots;
+        int start = TurnaroundEngine.turnStart(slots);
+        int[] turnaround = TurnaroundEngine.turnaround(slots, start);
+        _table = MachineTables.table(slots, alphabetSize, start,
+                                     turnaround, _dir);
+        _width = MachineTables.width(alphabetSize);
+        _n = alphabetSize;
+        int moving = 0;
+        for (int j = start; j < slots.length; j += 1) {
+            moving += slots[j].rotates() ? 1 : 0;
+        }
+        _moving = new Rotor[moving];
+        for (int j = start, i = 0; j < slots.length; j += 1) {
+            if (slots[j].rotates()) {
+                _moving[i] = slots[j];
+                i += 1;
+            }
+        }
+        _dirty = true;
+    }
+
+    @Override
+    public void moved(int j) {
+        if (!_slots[j].rotates()) {
+            _table = null;
+        }
+        _dirty = true;
+    }
+
+    @Override
+    public int convert(int k) {
+        if (_table == null) {
+            reset(_slots, _n);
+        }
+        if (_dirty) {
+            int base = 0;
+            for (Rotor r : _moving) {
+                base = base * _n + r.setting();
+            }
+            _base = base * _n;
+            _dirty = false;
+        }
+        int i = _base + k;
+        if (_width == 1) {
+            return _table.get(i) & 0xFF;
+        } else if (_width == 2) {
+            return _table.getShort(2 * i) & 0xFFFF;
+        } else {
+            return _table.getInt(4 * i);
+        }
+    }
+
+    /** Directory of table files, or null. */
+    private final Path _dir;
+
+    /** The rotors I pass characters through, reflector first. */
+    private Rotor[] _slots;
+
+    /** The table for the current rotors, or null if a rotor whose
+     *  setting it depends on has changed. */
+    private ByteBuffer _table;
+
+    /** Bytes per entry of _table. */
+    private int _width;
+
+    /** The alphabet size. */
+    private int _n;
+
+    /** The rotors whose positions index _table, leftmost first. */
+    private Rotor[] _moving;
+
+    /** Index of the first entry for the current rotor positions. */
+    private int _base;
+
+    /** True iff a rotor has moved since _base was computed. */
+    private boolean _dirty;
+}
@@ -0,0 +1,290 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/** Reading and writing files compressed by gzip, which Main does for
+ *  files whose names end in ".gz".  Compressed files are read through
+ *  a GZIPInputStream.  They are written by a ParallelOutput, which
+ *  compresses blocks of its input on a pool of threads, so that
+ *  compression keeps up with conversion.
+ *  @author Yuan Sun
+ */
+final class Gzip {
+
+    /** Not instantiable. */
+    private Gzip() {
+    }
+
+    /** Return true iff the file named NAME is to be compressed: its
+     *  name ends in ".gz". */
+    static boolean isCompressed(String name) {
+        return name.endsWith(SUFFIX);
+    }
+
+    /** Return a stream reading the contents of FILE, decompressed if
+     *  its name ends in ".gz". */
+    static InputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (!isCompressed(file.toString())) {
+            return new BufferedInputStream(in, BUFFER_SIZE);
+        }
+        try {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        } catch (IOException excp) {
+            in.close();
+            throw excp;
+        }
+    }
+
+    /** Return a stream writing to FILE, compressing what it writes on
+     *  THREADS threads if FILE's name ends in ".gz". */
+    static OutputStream create(Path file, int threads) throws IOException {
+        OutputStream out = Files.newOutputStream(file);
+        if (!isCompressed(file.toString())) {
+            return out;
+        }
+        return new ParallelOutput(out, threads, BLOCK_SIZE);
+    }
+
+    /** A stream that writes gzip-compressed data, compressing blocks of
+     *  it concurrently, as pigz does.  Each block is compressed on its
+     *  own, with the 32K bytes before it (as much as deflate can refer
+     *  back) given as a preset dictionary, so that it compresses almost
+     *  as well as one long stream would.  Each block but the last ends
+     *  with a sync flush, which ends it on a byte boundary without
+     *  ending the stream, so that the compressed blocks, in order, make
+     *  up a single deflate stream.  The writing thread computes the
+     *  CRC of the data and writes the compressed blocks in order,
+     *  keeping at most two blocks per thread in flight. */
+    static final class ParallelOutput extends OutputStream {
+
+        /** A stream writing to OUT data compressed on THREADS threads in
+         *  blocks of BLOCKSIZE bytes. */
+        ParallelOutput(OutputStream out, int threads, int blockSize)
+            throws IOException {
+            _out = out;
+            _block = new byte[blockSize];
+            _maxPending = 2 * threads;
+            _pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread worker = new Thread(r, "enigma-gzip");
+                worker.setDaemon(true);
+                return worker;
+            });
+            _out.write(HEADER);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (_used == _block.length) {
+                submit(false);
+            }
+            _block[_used] = (byte) b;
+            _used += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (_used == _block.length) {
+                    submit(false);
+                }
+                int n = Math.min(len, _block.length - _used);
+                System.arraycopy(b, off, _block, _used, n);
+                _used += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /** Write out everything written so far, compressing the
+         *  partial block on its own. */
+        @Override
+        public void flush() throws IOException {
+            if (_used > 0) {
+                submit(false);
+            }
+            drain(0);
+            _out.flush();
+        }
+
+        /** Finish the stream, writing its last block and trailer. */
+        @Override
+        public void close() throws IOException {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            try {
+                submit(true);
+                drain(0);
+                long crc = _crc.getValue();
+                byte[] trailer = new byte[TRAILER_SIZE];
+                for (int i = 0; i < 4; i += 1) {
+                    trailer[i] = (byte) (crc >>> (8 * i));
+                    trailer[i + 4] = (byte) (_length >>> (8 * i));
+                }
+                _out.write(trailer);
+            } finally {
+                _pool.shutdownNow();
+                _out.close();
+            }
+        }
+
+        /** Hand the current block to the pool for compression, as the
+         *  last iff LAST, and start another, writing out finished blocks
+         *  if too many are in flight. */
+        private void submit(boolean last) throws IOException {
+            if (_closed && !last) {
+                throw new IOException("stream closed");
+            }
+            byte[] data = _block;
+            int length = _used;
+            byte[] dictionary = _windowUsed == 0 ? null
+                : Arrays.copyOf(_window, _windowUsed);
+            _pending.add(_pool.submit(() -> deflate(data, length,
+                                                    dictionary, last)));
+            _crc.update(data, 0, length);
+            _length += length;
+            slide(data, length);
+            _block = new byte[data.length];
+            _used = 0;
+            drain(_maxPending);
+        }
+
+        /** Add the first LENGTH bytes of DATA to the end of _window. */
+        private void slide(byte[] data, int length) {
+            if (length >= WINDOW_SIZE) {
+                System.arraycopy(data, length - WINDOW_SIZE, _window, 0,
+                                 WINDOW_SIZE);
+                _windowUsed = WINDOW_SIZE;
+                return;
+            }
+            int keep = Math.min(_windowUsed, WINDOW_SIZE - length);
+            System.arraycopy(_window, _windowUsed - keep, _window, 0, keep);
+            System.arraycopy(data, 0, _window, keep, length);
+            _windowUsed = keep + length;
+        }
+
+        /** Write out finished blocks, in order, until no more than
+         *  LIMIT remain in flight. */
+        private void drain(int limit) throws IOException {
+            while (_pending.size() > limit) {
+                try {
+                    _out.write(_pending.remove().get());
+                } catch (ExecutionException excp) {
+                    throw new IOException("compression failed",
+                                          excp.getCause());
+                } catch (InterruptedException excp) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("compression interrupted");
+                }
+            }
+        }
+
+        /** Return the raw deflate encoding of the first LENGTH bytes of
+         *  DATA, given the preceding bytes DICTIONARY (if not null),
+         *  finishing the stream iff LAST and otherwise ending with a
+         *  sync flush. */
+        private static byte[] deflate(byte[] data, int length,
+                                      byte[] dictionary, boolean last) {
+            Deflater deflater =
+                new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(data, 0, length);
+                ByteArrayOutputStream result =
+                    new ByteArrayOutputStream(length / 2 + 64);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        result.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    int n;
+                    do {
+                        n = deflater.deflate(buffer, 0, buffer.length,
+                                             Deflater.SYNC_FLUSH);
+                        result.write(buffer, 0, n);
+                    } while (n == buffer.length);
+                }
+                return result.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        /** Where the compressed stream goes. */
+        private final OutputStream _out;
+
+        /** The block being filled, and the number of bytes in it. */
+        private byte[] _block;
+
+        /** See _block. */
+        private int _used;
+
+        /** The last bytes written, up to WINDOW_SIZE, and their
+         *  number. */
+        private final byte[] _window = new byte[WINDOW_SIZE];
+
+        /** See _window. */
+        private int _windowUsed;
+
+        /** Blocks being compressed, in order. */
+        private final ArrayDeque<Future<byte[]>> _pending =
+            new ArrayDeque<>();
+
+        /** Most blocks in flight. */
+        private final int _maxPending;
+
+        /** The compressing threads. */
+        private final ExecutorService _pool;
+
+        /** CRC of the data written. */
+        private final CRC32 _crc = new CRC32();
+
+        /** Number of bytes of data written. */
+        private long _length;
+
+        /** True once closed. */
+        private boolean _closed;
+    }
+
+    /** Suffix of the names of compressed files. */
+    private static final String SUFFIX = ".gz";
+
+    /** Size of the blocks compressed concurrently. */
+    private static final int BLOCK_SIZE = 1 << 17;
+
+    /** Size of buffers for reading and compressing. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** How far back deflate may refer. */
+    private static final int WINDOW_SIZE = 1 << 15;
+
+    /** Header of a gzip stream: magic number, deflate, no flags, no
+     *  time, no extra flags, unknown operating system. */
+    private static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff,
+    };
+
+    /** Size of the trailer of a gzip stream: CRC and length. */
+    private static final int TRAILER_SIZE = 8;
+}
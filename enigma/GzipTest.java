@@ -0,0 +1,123 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/** The suite of all JUnit tests for the Gzip class.
+ *  @author Yuan Sun
+ */
+public class GzipTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return LENGTH bytes of compressible text, using RANDOM. */
+    private byte[] text(Random random, int length) {
+        String[] words = { "ENIGMA ", "ROTOR ", "REFLECTOR ", "PLUGBOARD ",
+                           "NOTCH ", "RING ", "SETTING ", "\n" };
+        byte[] result = new byte[length];
+        for (int i = 0; i < length; ) {
+            String word = words[random.nextInt(words.length)];
+            for (int k = 0; k < word.length() && i < length; k += 1) {
+                result[i] = (byte) word.charAt(k);
+                i += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the decompression of the gzip stream DATA. */
+    private byte[] gunzip(byte[] data) throws Exception {
+        try (InputStream in =
+             new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkRoundTrips() throws Exception {
+        Random random = new Random(42);
+        for (int length : new int[] { 0, 1, 999, 1000, 1001, 40000 }) {
+            byte[] data = text(random, length);
+            if (length < 2000) {
+                random.nextBytes(data);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (OutputStream out =
+                 new Gzip.ParallelOutput(bytes, 3, 1000)) {
+                for (int i = 0; i < data.length; ) {
+                    int n = Math.min(data.length - i, random.nextInt(2500));
+                    if (n == 1) {
+                        out.write(data[i]);
+                    } else {
+                        out.write(data, i, n);
+                    }
+                    i += n;
+                    if (random.nextInt(10) == 0) {
+                        out.flush();
+                    }
+                }
+            }
+            assertArrayEquals(data, gunzip(bytes.toByteArray()));
+        }
+    }
+
+    @Test
+    public void checkCompressesLikeOneStream() throws Exception {
+        byte[] data = text(new Random(7), 1 << 20);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        try (OutputStream out = new Gzip.ParallelOutput(parallel, 4,
+                                                        1 << 15)) {
+            out.write(data);
+        }
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(serial)) {
+            out.write(data);
+        }
+        assertArrayEquals(data, gunzip(parallel.toByteArray()));
+        assertTrue(parallel.size() < serial.size() * 1.05);
+    }
+
+    @Test
+    public void checkFiles() throws Exception {
+        byte[] data = text(new Random(1), 300000);
+        Path dir = Files.createTempDirectory("gzip");
+        Path plain = dir.resolve("data");
+        Path compressed = dir.resolve("data.gz");
+        try {
+            for (Path file : new Path[] { plain, compressed }) {
+                try (OutputStream out = Gzip.create(file, 2)) {
+                    out.write(data);
+                }
+                try (InputStream in = Gzip.open(file)) {
+                    assertArrayEquals(data, in.readAllBytes());
+                }
+            }
+            assertArrayEquals(data, Files.readAllBytes(plain));
+            assertArrayEquals(data,
+                              gunzip(Files.readAllBytes(compressed)));
+            assertTrue(Files.size(compressed) < data.length / 2);
+        } finally {
+            Files.deleteIfExists(plain);
+            Files.deleteIfExists(compressed);
+            Files.delete(dir);
+        }
+    }
+}
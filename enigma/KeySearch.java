@@ -0,0 +1,267 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static enigma.EnigmaException.*;
+
+/** A search of a machine's key space (see KeySpace) for the keys under
+ *  which a ciphertext decrypts to the most language-like text, judged
+ *  by the index of coincidence.  The key space is divided into units of
+ *  consecutive keys, which SearchWorkers search and a SearchCoordinator
+ *  hands out; this class does the searching of one unit and keeps the
+ *  best results.
+ *  @author Yuan Sun
+ */
+class KeySearch {
+
+    /** A search of the keys of MACHINE, varying the rings of the
+     *  rightmost RINGSLOTS slots, for those best decrypting CIPHERTEXT
+     *  (alphabet indices), keeping the TOP best, in units of UNIT keys.
+     *  CONFIG is the text of the configuration MACHINE was made from,
+     *  which identifies the search along with the other arguments. */
+    KeySearch(Machine machine, String config, int[] ciphertext,
+              int ringSlots, int top, long unit) {
+        if (top < 1 || unit < 1 || ciphertext.length < 2) {
+            throw error("bad search parameters");
+        }
+        _machine = machine;
+        _ciphertext = ciphertext;
+        _keys = new KeySpace(machine, ringSlots);
+        _top = top;
+        _unit = unit;
+        _counts = new long[machine.alphabet().size()];
+        _id = digest(config, ciphertext, ringSlots, top, unit);
+    }
+
+    /** Return the identity of this search: a digest of everything that
+     *  determines its results. */
+    String id() {
+        return _id;
+    }
+
+    /** Return my key space. */
+    KeySpace keys() {
+        return _keys;
+    }
+
+    /** Return the number of units. */
+    long units() {
+        return (_keys.size() + _unit - 1) / _unit;
+    }
+
+    /** Return the number of results kept. */
+    int top() {
+        return _top;
+    }
+
+    /** Return the first key number of unit U. */
+    long start(long u) {
+        return u * _unit;
+    }
+
+    /** Return the key number after the last of unit U. */
+    long end(long u) {
+        return Math.min(_keys.size(), (u + 1) * _unit);
+    }
+
+    /** Search the keys from number START up to END, returning the best
+     *  results among them, best first.  PROGRESS, if not null, is run
+     *  about once a second. */
+    List<Result> search(long start, long end, Runnable progress) {
+        Best best = new Best(_top);
+        KeySpace.Cursor c = _keys.cursor(start, end);
+        long nextReport = System.nanoTime() + REPORT_NANOS;
+        while (c.next()) {
+            c.apply(_machine);
+            int[] settings = _machine.settings();
+            long score = score();
+            _machine.restoreSettings(settings);
+            if (best.admits(score, c.index())) {
+                best.add(new Result(score, c.index(), c.settings()));
+            }
+            if (progress != null && (c.index() & 0xFFF) == 0
+                && System.nanoTime() > nextReport) {
+                progress.run();
+                nextReport = System.nanoTime() + REPORT_NANOS;
+            }
+        }
+        return best.results();
+    }
+
+    /** Return the score of the machine's decryption of the ciphertext,
+     *  the number of ordered pairs of equal symbols in it.  This steps
+     *  the machine, which search then returns to the key's settings, so
+     *  that the next key's apply changes only the slots the key order
+     *  does. */
+    private long score() {
+        long[] counts = _counts;
+        Arrays.fill(counts, 0);
+        for (int c : _ciphertext) {
+            counts[_machine.convert(c)] += 1;
+        }
+        long score = 0;
+        for (long f : counts) {
+            score += f * (f - 1);
+        }
+        return score;
+    }
+
+    /** Return the index of coincidence corresponding to SCORE. */
+    double indexOfCoincidence(long score) {
+        long n = _ciphertext.length;
+        return (double) score / (n * (n - 1));
+    }
+
+    /** Return a digest of CONFIG, CIPHERTEXT, RINGSLOTS, TOP and UNIT in
+     *  hexadecimal. */
+    private static String digest(String config, int[] ciphertext,
+                                 int ringSlots, int top, long unit) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(config.getBytes(StandardCharsets.UTF_8));
+            ByteBuffer b = ByteBuffer.allocate(4 * ciphertext.length + 16);
+            for (int c : ciphertext) {
+                b.putInt(c);
+            }
+            b.putInt(ringSlots).putInt(top).putLong(unit);
+            md.update(b.array());
+            StringBuilder hex = new StringBuilder();
+            for (byte x : md.digest()) {
+                hex.append(String.format("%02x", x & 0xFF));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** A key and its score. */
+    static class Result {
+
+        /** A result for key number INDEX, the settings line SETTINGS,
+         *  with score SCORE. */
+        Result(long score, long index, String settings) {
+            this.score = score;
+            this.index = index;
+            this.settings = settings;
+        }
+
+        /** Return this result as a line of text, as read by parse. */
+        @Override
+        public String toString() {
+            return score + " " + index + " " + settings;
+        }
+
+        /** Return the result written as LINE by toString. */
+        static Result parse(String line) {
+            String[] parts = line.split(" ", 3);
+            if (parts.length != 3) {
+                throw error("bad search result %s", line);
+            }
+            try {
+                return new Result(Long.parseLong(parts[0]),
+                                  Long.parseLong(parts[1]), parts[2]);
+            } catch (NumberFormatException excp) {
+                throw error("bad search result %s", line);
+            }
+        }
+
+        /** The score: higher is better. */
+        final long score;
+
+        /** The key number. */
+        final long index;
+
+        /** The key as a settings line. */
+        final String settings;
+    }
+
+    /** Orders results best first: by score, then by key number. */
+    static final Comparator<Result> BEST_FIRST =
+        Comparator.<Result>comparingLong(r -> -r.score)
+        .thenComparingLong(r -> r.index);
+
+    /** The best results seen. */
+    static class Best {
+
+        /** Keeps the best TOP results. */
+        Best(int top) {
+            _top = top;
+        }
+
+        /** Return true iff a result with SCORE and key number INDEX would
+         *  be kept. */
+        boolean admits(long score, long index) {
+            if (_worst.size() < _top) {
+                return true;
+            }
+            Result worst = _worst.peek();
+            return score > worst.score
+                || score == worst.score && index < worst.index;
+        }
+
+        /** Add RESULT, dropping the worst if there are too many. */
+        void add(Result result) {
+            _worst.add(result);
+            if (_worst.size() > _top) {
+                _worst.poll();
+            }
+        }
+
+        /** Add all of RESULTS. */
+        void addAll(Collection<Result> results) {
+            for (Result r : results) {
+                if (admits(r.score, r.index)) {
+                    add(r);
+                }
+            }
+        }
+
+        /** Return the results kept, best first. */
+        List<Result> results() {
+            ArrayList<Result> result = new ArrayList<>(_worst);
+            result.sort(BEST_FIRST);
+            return result;
+        }
+
+        /** Number kept. */
+        private final int _top;
+
+        /** The results kept, worst at the head. */
+        private final PriorityQueue<Result> _worst =
+            new PriorityQueue<>(BEST_FIRST.reversed());
+    }
+
+    /** Time between progress reports. */
+    private static final long REPORT_NANOS = 1_000_000_000L;
+
+    /** The machine trying keys. */
+    private final Machine _machine;
+
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _ciphertext;
+
+    /** The keys searched. */
+    private final KeySpace _keys;
+
+    /** Number of results kept. */
+    private final int _top;
+
+    /** Keys per unit. */
+    private final long _unit;
+
+    /** Symbol counts of the current decryption. */
+    private final long[] _counts;
+
+    /** Identity of this search. */
+    private final String _id;
+}
@@ -0,0 +1,242 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** The suite of all JUnit tests for KeySearch, SearchCoordinator and
+ *  SearchWorker.
+ *  @author Yuan Sun
+ */
+public class KeySearchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A plaintext with many repeated letters. */
+    private static final String PLAIN = "AAABAAACAAAAADAABAAAACAAAAAAAB";
+
+    /** The key PLAIN is encrypted with. */
+    private static final String KEY = "* R2 F M3 M1 BDA";
+
+    /** Return a four-slot, two-pawl machine over ABCD with two
+     *  reflectors, one fixed rotor and three moving ones. */
+    private Machine smallMachine() {
+        Alphabet abcd = new Alphabet("ABCD");
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R1", new Permutation("(AB) (CD)", abcd)));
+        rotors.add(new Reflector("R2", new Permutation("(AC) (BD)", abcd)));
+        rotors.add(new FixedRotor("F", new Permutation("(ABC)", abcd)));
+        rotors.add(new MovingRotor("M1", new Permutation("(ABCD)", abcd),
+                                   "A"));
+        rotors.add(new MovingRotor("M2", new Permutation("(AB) (C)", abcd),
+                                   "B"));
+        rotors.add(new MovingRotor("M3", new Permutation("(ACB)", abcd),
+                                   "C"));
+        return new Machine(abcd, 4, 2, rotors);
+    }
+
+    /** Return PLAIN encrypted with KEY. */
+    private int[] ciphertext() {
+        Machine m = smallMachine();
+        Main.setUp(m, KEY);
+        int[] result = new int[PLAIN.length()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = m.convert(m.alphabet().toInt(PLAIN.charAt(i)));
+        }
+        return result;
+    }
+
+    /** Return a search of the small machine, keeping TOP results in
+     *  units of UNIT keys. */
+    private KeySearch search(int top, long unit) {
+        return new KeySearch(smallMachine(), "small", ciphertext(), 1, top,
+                             unit);
+    }
+
+    /** Return RESULTS as lines. */
+    private List<String> lines(List<KeySearch.Result> results) {
+        ArrayList<String> lines = new ArrayList<>();
+        for (KeySearch.Result r : results) {
+            lines.add(r.toString());
+        }
+        return lines;
+    }
+
+    /** Start COUNT worker threads on searches like search(TOP, UNIT) for
+     *  the coordinator on PORT, returning them. */
+    private List<Thread> startWorkers(int count, int port, int top,
+                                      long unit) {
+        ArrayList<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < count; i += 1) {
+            KeySearch s = search(top, unit);
+            Thread t = new Thread(() -> {
+                new SearchWorker(s).run("127.0.0.1", port);
+            });
+            t.setDaemon(true);
+            t.start();
+            workers.add(t);
+        }
+        return workers;
+    }
+
+    /** Run COORDINATOR to the end, returning its output. */
+    private String run(SearchCoordinator coordinator) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, UTF_8);
+        coordinator.run(0, null, out);
+        return bytes.toString(UTF_8);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkFindsKey() {
+        KeySearch s = search(3, 1000);
+        List<KeySearch.Result> best = s.search(0, s.keys().size(), null);
+        assertEquals(3, best.size());
+        long[] counts = new long[4];
+        for (char c : PLAIN.toCharArray()) {
+            counts[c - 'A'] += 1;
+        }
+        long plainScore = 0;
+        for (long f : counts) {
+            plainScore += f * (f - 1);
+        }
+        assertTrue(best.get(0).score >= plainScore);
+        assertTrue(best.get(0).score >= best.get(1).score);
+        assertTrue(best.get(1).score >= best.get(2).score);
+        Machine m = smallMachine();
+        Main.setUp(m, best.get(0).settings);
+        counts = new long[4];
+        for (int c : ciphertext()) {
+            counts[m.convert(c)] += 1;
+        }
+        long score = 0;
+        for (long f : counts) {
+            score += f * (f - 1);
+        }
+        assertEquals(best.get(0).score, score);
+    }
+
+    @Test
+    public void checkCoordinated() {
+        KeySearch whole = search(5, 100);
+        List<String> expected =
+            lines(whole.search(0, whole.keys().size(), null));
+        SearchCoordinator c =
+            new SearchCoordinator(search(5, 100), 0, null, 10000);
+        int port = c.listen();
+        startWorkers(3, port, 5, 100);
+        String out = run(c);
+        assertEquals(lines(c.results()), expected);
+        assertEquals(5, out.split("\n").length);
+        assertTrue(out.endsWith(" " + expected.get(4).split(" ", 3)[1]
+                                + " " + expected.get(4).split(" ", 3)[2]
+                                + "\n"));
+    }
+
+    @Test
+    public void checkLostWorker() throws Exception {
+        SearchCoordinator c =
+            new SearchCoordinator(search(5, 100), 0, null, 10000);
+        int port = c.listen();
+        try (Socket socket = new Socket("127.0.0.1", port);
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), UTF_8));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(),
+                                               true, UTF_8)) {
+            out.println("HELLO " + search(5, 100).id());
+            assertEquals("OK", in.readLine());
+            out.println("WORK");
+            assertEquals("UNIT 0 0 100", in.readLine());
+            out.println("RESULT 1000000 0 * R1 F M1 M2 AAA A");
+        }
+        startWorkers(1, port, 5, 100);
+        run(c);
+        KeySearch whole = search(5, 100);
+        assertEquals(lines(whole.search(0, whole.keys().size(), null)),
+                     lines(c.results()));
+    }
+
+    @Test
+    public void checkAllWorkersFail() {
+        SearchCoordinator c =
+            new SearchCoordinator(search(5, 100), 0, null, 10000);
+        List<String> command =
+            List.of(ProcessHandle.current().info().command().orElse("java"),
+                    "-cp", "no-such-directory", "NoSuchClass");
+        try {
+            c.run(2, port -> command, new PrintStream(
+                      new ByteArrayOutputStream(), true, UTF_8));
+            fail("search with only failing workers ended");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("all workers failed"));
+        }
+        assertEquals(0, c.doneUnits());
+    }
+
+    @Test
+    public void checkWrongSearch() throws Exception {
+        SearchCoordinator c =
+            new SearchCoordinator(search(5, 100), 0, null, 10000);
+        int port = c.listen();
+        try {
+            new SearchWorker(search(4, 100)).run("127.0.0.1", port);
+            fail("worker on a different search was accepted");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().contains("not the search"));
+        }
+    }
+
+    @Test
+    public void checkCheckpoint() throws Exception {
+        Path dir = Files.createTempDirectory("enigma-search");
+        Path file = dir.resolve("search.ckpt");
+        try {
+            SearchCoordinator first =
+                new SearchCoordinator(search(5, 1000), 0, file, 10000);
+            startWorkers(2, first.listen(), 5, 1000);
+            String out = run(first);
+            List<String> saved = Files.readAllLines(file, UTF_8);
+            assertEquals(SearchCoordinator.HEADER, saved.get(0));
+            assertEquals("done 0-3", saved.get(2));
+            assertEquals(3 + 5, saved.size());
+
+            SearchCoordinator again =
+                new SearchCoordinator(search(5, 1000), 0, file, 10000);
+            again.listen();
+            assertEquals(4, again.doneUnits());
+            assertEquals(out, run(again));
+
+            SearchCoordinator other =
+                new SearchCoordinator(search(6, 1000), 0, file, 10000);
+            try {
+                other.listen();
+                fail("checkpoint of a different search was accepted");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("different search"));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+}
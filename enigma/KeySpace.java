@@ -0,0 +1,302 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** The set of keys (reflector, rotor order, rotor settings and rings)
+ *  for a machine, made from the rotors available to it, in an order
+ *  suited to searching.
+ *
+ *  A key is a number in a mixed radix whose digits are, fastest first:
+ *  the setting of each slot from the rightmost leftwards, the rings of
+ *  the rightmost ringSlots slots (others are left at the first
+ *  character), the rotor order and the reflector.  Rotor orders put
+ *  distinct non-moving rotors in the slots left of the moving ones and
+ *  distinct moving rotors in the rest.  The keys are visited in
+ *  reflected Gray-code order, so consecutive keys differ in one digit,
+ *  and nearly always in the setting of one rotor; consecutive rotor
+ *  orders mostly differ in a single slot too.  A Cursor walks a range
+ *  of keys and applies each to a machine by changing only the slots
+ *  that differ, so that the machine's engine updates its tables
+ *  incrementally.  Ranges of keys can be split into contiguous shards
+ *  for separate workers.  The plugboard is not part of a key.
+ *  @author Yuan Sun
+ */
+class KeySpace {
+
+    /** The keys for MACHINE's rotors, with the rings of the rightmost
+     *  RINGSLOTS slots (0 <= RINGSLOTS < numRotors()) varied. */
+    KeySpace(Machine machine, int ringSlots) {
+        int slots = machine.numRotors();
+        if (ringSlots < 0 || ringSlots >= slots) {
+            throw error("ring slots must be between 0 and %d", slots - 1);
+        }
+        _numRotors = slots;
+        _ringSlots = ringSlots;
+        _alphabet = machine.alphabet();
+        ArrayList<String> fixed = new ArrayList<>();
+        ArrayList<String> moving = new ArrayList<>();
+        ArrayList<String> reflectors = new ArrayList<>();
+        RotorCatalogue rotors = machine.rotors();
+        for (String name : rotors.names()) {
+            switch (rotors.kind(name)) {
+            case RotorCatalogue.REFLECTOR:
+                reflectors.add(name);
+                break;
+            case RotorCatalogue.MOVING:
+                moving.add(name);
+                break;
+            default:
+                fixed.add(name);
+                break;
+            }
+        }
+        fixed.sort(null);
+        moving.sort(null);
+        reflectors.sort(null);
+        _reflectors = reflectors.toArray(new String[0]);
+        int numFixed = slots - 1 - machine.numPawls();
+        String[][] choices = new String[slots - 1][];
+        for (int j = 0; j < choices.length; j += 1) {
+            choices[j] = (j < numFixed ? fixed : moving)
+                .toArray(new String[0]);
+        }
+        _orders = orders(choices);
+
+        int n = _alphabet.size();
+        _radices = new int[2 * (slots - 1) + 2];
+        Arrays.fill(_radices, 0, slots - 1 + ringSlots, n);
+        Arrays.fill(_radices, slots - 1 + ringSlots, _radices.length, 1);
+        _orderDigit = 2 * (slots - 1);
+        _radices[_orderDigit] = _orders.size();
+        _radices[_orderDigit + 1] = _reflectors.length;
+        long size = 1;
+        for (int radix : _radices) {
+            if (radix == 0) {
+                throw error("no rotors fit the machine's slots");
+            } else if (size > Long.MAX_VALUE / radix) {
+                throw error("key space too large");
+            }
+            size *= radix;
+        }
+        _size = size;
+    }
+
+    /** Return the number of keys. */
+    long size() {
+        return _size;
+    }
+
+    /** Return the start of each of COUNT shards of roughly equal size
+     *  covering all the keys, followed by size(). */
+    long[] shards(int count) {
+        long[] bounds = new long[count + 1];
+        for (int i = 0; i <= count; i += 1) {
+            bounds[i] = _size / count * i + Math.min(i, _size % count);
+        }
+        return bounds;
+    }
+
+    /** Return a cursor over the keys from number START up to END. */
+    Cursor cursor(long start, long end) {
+        if (start < 0 || start > end || end > _size) {
+            throw error("bad key range %d:%d", start, end);
+        }
+        return new Cursor(start, end);
+    }
+
+    /** Walks a range of keys in order. */
+    class Cursor {
+
+        /** A cursor before key number START, ending before key END. */
+        Cursor(long start, long end) {
+            _next = start;
+            _end = end;
+            _counter = new int[_radices.length];
+            _digits = new int[_radices.length];
+            long rest = start;
+            for (int i = 0; i < _radices.length; i += 1) {
+                _counter[i] = (int) (rest % _radices[i]);
+                rest /= _radices[i];
+            }
+        }
+
+        /** Move to the next key, returning false if there is none. */
+        boolean next() {
+            if (_next >= _end) {
+                return false;
+            }
+            if (_started) {
+                for (int i = 0; ; i += 1) {
+                    _counter[i] += 1;
+                    if (_counter[i] < _radices[i]) {
+                        break;
+                    }
+                    _counter[i] = 0;
+                }
+            }
+            _started = true;
+            boolean reversed = false;
+            for (int i = _radices.length - 1; i >= 0; i -= 1) {
+                int d = reversed ? _radices[i] - 1 - _counter[i]
+                    : _counter[i];
+                _digits[i] = d;
+                reversed ^= (d & 1) == 1;
+            }
+            _index = _next;
+            _next += 1;
+            return true;
+        }
+
+        /** Return the number of the current key. */
+        long index() {
+            return _index;
+        }
+
+        /** Return the name of the rotor that the current key puts in slot
+         *  SLOT (0 for the reflector). */
+        String rotor(int slot) {
+            if (slot == 0) {
+                return _reflectors[_digits[_orderDigit + 1]];
+            }
+            return _orders.get(_digits[_orderDigit])[slot - 1];
+        }
+
+        /** Return the setting, as an alphabet index, of slot SLOT
+         *  (1 <= SLOT < numRotors) in the current key. */
+        int setting(int slot) {
+            return _digits[_numRotors - 1 - slot];
+        }
+
+        /** Return the ring, as an alphabet index, of slot SLOT
+         *  (1 <= SLOT < numRotors) in the current key. */
+        int ring(int slot) {
+            return _digits[2 * (_numRotors - 1) - slot];
+        }
+
+        /** Put MACHINE into the current key, changing only the slots, rings
+         *  and settings that differ from its present state.  Its
+         *  plugboard is left alone. */
+        void apply(Machine machine) {
+            if (machine.rotorName(0) == null) {
+                String[] names = new String[_numRotors];
+                for (int j = 0; j < _numRotors; j += 1) {
+                    names[j] = rotor(j);
+                }
+                machine.insertRotors(names);
+            }
+            for (int j = 0; j < _numRotors; j += 1) {
+                if (!rotor(j).equals(machine.rotorName(j))) {
+                    machine.replaceRotor(j, rotor(j));
+                }
+            }
+            for (int j = 1; j < _numRotors; j += 1) {
+                if (machine.ring(j) != ring(j)) {
+                    machine.setRing(j, ring(j));
+                }
+                if (machine.setting(j) != setting(j)) {
+                    machine.setSetting(j, setting(j));
+                }
+            }
+        }
+
+        /** Return the current key as a settings line without plugboard,
+         *  as accepted by Main. */
+        String settings() {
+            StringBuilder line = new StringBuilder("*");
+            for (int j = 0; j < _numRotors; j += 1) {
+                line.append(' ').append(rotor(j));
+            }
+            line.append(' ');
+            for (int j = 1; j < _numRotors; j += 1) {
+                line.appendCodePoint(_alphabet.toCodePoint(setting(j)));
+            }
+            line.append(' ');
+            for (int j = 1; j < _numRotors; j += 1) {
+                line.appendCodePoint(_alphabet.toCodePoint(ring(j)));
+            }
+            return line.toString();
+        }
+
+        /** Number of the next key. */
+        private long _next;
+
+        /** Number of the key after the last. */
+        private final long _end;
+
+        /** Number of the current key. */
+        private long _index = -1;
+
+        /** True once next has been called. */
+        private boolean _started;
+
+        /** The digits of the current key's number, fastest first. */
+        private final int[] _counter;
+
+        /** The Gray-code digits of the current key, fastest first. */
+        private final int[] _digits;
+    }
+
+    /** Return the rotor orders in which slot J holds one of
+     *  CHOICES[J] and no rotor appears twice, each as an array of
+     *  names, in an order in which consecutive orders mostly differ in
+     *  one slot. */
+    private static List<String[]> orders(String[][] choices) {
+        ArrayList<String[]> result = new ArrayList<>();
+        orders(choices, choices.length - 1, new String[choices.length],
+               false, result);
+        return result;
+    }
+
+    /** Add to RESULT the orders that extend CURRENT, whose slots after J
+     *  are filled, by filling slots J and to its left, visiting the
+     *  choices for slot J backwards iff REVERSED. */
+    private static void orders(String[][] choices, int j, String[] current,
+                               boolean reversed, List<String[]> result) {
+        if (j < 0) {
+            result.add(current.clone());
+            return;
+        }
+        int count = 0;
+        for (int k = 0; k < choices[j].length; k += 1) {
+            String name =
+                choices[j][reversed ? choices[j].length - 1 - k : k];
+            if (Arrays.asList(current).subList(j + 1, current.length)
+                .contains(name)) {
+                continue;
+            }
+            current[j] = name;
+            orders(choices, j - 1, current, reversed ^ (count & 1) == 1,
+                   result);
+            count += 1;
+        }
+        current[j] = null;
+    }
+
+    /** The number of slots of the machine. */
+    private final int _numRotors;
+
+    /** The number of slots, from the right, whose rings vary. */
+    private final int _ringSlots;
+
+    /** The machine's alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Names of the reflectors. */
+    private final String[] _reflectors;
+
+    /** The rotor orders, each naming the rotors of slots 1 on. */
+    private final List<String[]> _orders;
+
+    /** Index of the rotor order digit; the reflector digit follows. */
+    private final int _orderDigit;
+
+    /** Radix of each digit of a key, fastest first. */
+    private final int[] _radices;
+
+    /** The number of keys. */
+    private final long _size;
+}
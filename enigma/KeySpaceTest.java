@@ -0,0 +1,142 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the KeySpace class.
+ *  @author Yuan Sun
+ */
+public class KeySpaceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** A message to convert. */
+    private static final String MSG = "ABCDDCBAACBDBDCA";
+
+    /** Return a four-slot, two-pawl machine over ABCD with two
+     *  reflectors, one fixed rotor and three moving ones. */
+    private Machine smallMachine() {
+        Alphabet abcd = new Alphabet("ABCD");
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R1", new Permutation("(AB) (CD)", abcd)));
+        rotors.add(new Reflector("R2", new Permutation("(AC) (BD)", abcd)));
+        rotors.add(new FixedRotor("F", new Permutation("(ABC)", abcd)));
+        rotors.add(new MovingRotor("M1", new Permutation("(ABCD)", abcd),
+                                   "A"));
+        rotors.add(new MovingRotor("M2", new Permutation("(AB) (C)", abcd),
+                                   "B"));
+        rotors.add(new MovingRotor("M3", new Permutation("(ACB)", abcd),
+                                   "C"));
+        return new Machine(abcd, 4, 2, rotors);
+    }
+
+    /** Return the number of places where settings lines A and B
+     *  differ: rotor names, and setting and ring characters. */
+    private int differences(String a, String b) {
+        String[] x = a.split(" "), y = b.split(" ");
+        int count = 0;
+        for (int i = 0; i < x.length; i += 1) {
+            if (x[i].length() == 0 || i < x.length - 2) {
+                count += x[i].equals(y[i]) ? 0 : 1;
+            } else {
+                for (int k = 0; k < x[i].length(); k += 1) {
+                    count += x[i].charAt(k) == y[i].charAt(k) ? 0 : 1;
+                }
+            }
+        }
+        return count;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkGrayOrder() {
+        KeySpace keys = new KeySpace(smallMachine(), 1);
+        assertEquals(2 * 6 * 64 * 4, keys.size());
+        HashSet<String> seen = new HashSet<>();
+        KeySpace.Cursor c = keys.cursor(0, keys.size());
+        String last = null;
+        int orderChanges = 0;
+        while (c.next()) {
+            String key = c.settings();
+            assertTrue(key, seen.add(key));
+            if (last != null) {
+                int d = differences(last, key);
+                assertTrue(last + " -> " + key, d == 1 || d == 2);
+                orderChanges += d - 1;
+            }
+            last = key;
+        }
+        assertEquals(keys.size(), seen.size());
+        assertTrue(orderChanges <= 6);
+    }
+
+    @Test
+    public void checkApply() {
+        Machine fresh = smallMachine();
+        for (String engine : Engines.NAMES) {
+            Machine m = smallMachine();
+            m.setEngine(Engines.create(engine));
+            KeySpace keys = new KeySpace(m, 2);
+            KeySpace.Cursor c = keys.cursor(0, keys.size());
+            while (c.next()) {
+                c.apply(m);
+                String result = m.convert(MSG);
+                Main.setUp(fresh, c.settings());
+                assertEquals(engine + " " + c.settings(), fresh.convert(MSG),
+                             result);
+            }
+        }
+    }
+
+    @Test
+    public void checkApplyNaval() {
+        Machine m = navalMachine(5, 3);
+        m.setEngine(new CompositeEngine());
+        Machine fresh = navalMachine(5, 3);
+        KeySpace keys = new KeySpace(m, 1);
+        long middle = keys.size() / 3;
+        KeySpace.Cursor c = keys.cursor(middle, middle + 3000);
+        while (c.next()) {
+            c.apply(m);
+            String result = m.convert("HELLOWORLD");
+            Main.setUp(fresh, c.settings());
+            assertEquals(c.settings(), fresh.convert("HELLOWORLD"), result);
+        }
+    }
+
+    @Test
+    public void checkShards() {
+        KeySpace keys = new KeySpace(smallMachine(), 0);
+        ArrayList<String> all = new ArrayList<>();
+        KeySpace.Cursor c = keys.cursor(0, keys.size());
+        while (c.next()) {
+            all.add(c.settings());
+        }
+        long[] bounds = keys.shards(7);
+        assertEquals(0, bounds[0]);
+        assertEquals(keys.size(), bounds[7]);
+        int i = 0;
+        for (int s = 0; s < 7; s += 1) {
+            c = keys.cursor(bounds[s], bounds[s + 1]);
+            while (c.next()) {
+                assertEquals(i, c.index());
+                assertEquals(all.get(i), c.settings());
+                i += 1;
+            }
+        }
+        assertEquals(all.size(), i);
+    }
+
+}
@@ -0,0 +1,290 @@
+package enigma;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import static enigma.EnigmaException.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** A load driver: replays messages, such as those of a Workload, each a
+ *  settings line and the lines after it, on a number of threads at
+ *  once, and measures the time and memory each takes.  The target
+ *  MACHINE converts each message line through the Machine interface,
+ *  as an embedding program would; the target MAIN runs each message
+ *  through the same TextPipeline that Main uses, formatting included.
+ *  Each thread has its own machine and takes the next message not yet
+ *  taken, so that the threads stay busy (a closed loop).
+ *
+ *  The report has one measure to a line, as a name and its value
+ *  separated by a tab, always in the same order, so that the reports
+ *  of two runs can be compared with diff.  It includes a checksum of
+ *  the converted text, which is the same on every run of the same
+ *  messages and target, whatever the number of threads, so long as
+ *  each settings line sets the whole machine, rings and plugboard
+ *  included, as those of a Workload do.  Allocation is
+ *  counted on the replaying thread only, and is reported as -1 where
+ *  the JVM cannot count it.
+ *  @author Yuan Sun
+ */
+final class LoadDriver {
+
+    /** Names of the targets. */
+    static final String MACHINE = "machine", MAIN = "main";
+
+    /** A load driver replaying MESSAGES against TARGET on THREADS threads,
+     *  each converting with a machine from MACHINES. */
+    LoadDriver(Supplier<Machine> machines, List<String> messages,
+               String target, int threads) {
+        if (!target.equals(MACHINE) && !target.equals(MAIN)) {
+            throw error("unknown load test target %s", target);
+        }
+        if (threads < 1) {
+            throw error("a load test needs at least one thread");
+        }
+        _machines = new Machine[threads];
+        for (int i = 0; i < threads; i += 1) {
+            _machines[i] = machines.get();
+        }
+        _messages = new ArrayList<>(messages);
+        _target = target;
+        _latencies = new long[_messages.size()];
+        _allocations = new long[_messages.size()];
+        _checksums = new long[_messages.size()];
+        for (String message : _messages) {
+            _symbols += symbols(message);
+        }
+    }
+
+    /** Replay all the messages WARMUP times, discarding the results, so
+     *  that the code under test is compiled, and then once more,
+     *  measuring each. */
+    void run(int warmup) {
+        ExecutorService pool =
+            Executors.newFixedThreadPool(_machines.length, r -> {
+                Thread worker = new Thread(r, "enigma-load");
+                worker.setDaemon(true);
+                return worker;
+            });
+        try {
+            for (int pass = 0; pass <= warmup; pass += 1) {
+                long start = System.nanoTime();
+                replay(pool);
+                _nanos = System.nanoTime() - start;
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Write my report to OUT. */
+    void report(PrintStream out) {
+        out.printf("target\t%s%n", _target);
+        out.printf("threads\t%d%n", _machines.length);
+        out.printf("messages\t%d%n", _messages.size());
+        out.printf("symbols\t%d%n", _symbols);
+        out.printf("checksum\t%08x%n", checksum());
+        double seconds = _nanos / 1e9;
+        out.printf("seconds\t%.3f%n", seconds);
+        out.printf("messages/s\t%.1f%n", _messages.size() / seconds);
+        out.printf("symbols/s\t%.1f%n", _symbols / seconds);
+        for (String q : QUANTILES) {
+            out.printf("latency-p%s-us\t%.1f%n", q,
+                       quantile(_latencies, Double.parseDouble("0." + q))
+                       / 1e3);
+        }
+        out.printf("latency-max-us\t%.1f%n",
+                   quantile(_latencies, 1) / 1e3);
+        out.printf("alloc-mean-bytes\t%.1f%n", mean(_allocations));
+        for (String q : QUANTILES) {
+            out.printf("alloc-p%s-bytes\t%d%n", q,
+                       quantile(_allocations,
+                                Double.parseDouble("0." + q)));
+        }
+        out.flush();
+    }
+
+    /** Return the messages of INPUT: each settings line and the lines
+     *  after it up to the next, every line ending in a newline.  Lines
+     *  before the first settings line are an error. */
+    static List<String> messages(String input) {
+        ArrayList<String> result = new ArrayList<>();
+        StringBuilder message = null;
+        for (String line : input.split("\n")) {
+            if (line.trim().startsWith("*")) {
+                if (message != null) {
+                    result.add(message.toString());
+                }
+                message = new StringBuilder();
+            } else if (message == null && !line.trim().isEmpty()) {
+                throw error("message without a settings line");
+            } else if (message == null) {
+                continue;
+            }
+            message.append(line).append('\n');
+        }
+        if (message != null) {
+            result.add(message.toString());
+        }
+        return result;
+    }
+
+    /** Return the checksum of the converted text of all the messages, in
+     *  order, as of the last pass. */
+    long checksum() {
+        CRC32 result = new CRC32();
+        for (long crc : _checksums) {
+            for (int i = 0; i < 4; i += 1) {
+                result.update((int) (crc >>> (8 * i)));
+            }
+        }
+        return result.getValue();
+    }
+
+    /** Return the time in nanoseconds within which fraction Q of the
+     *  messages were converted in the last pass. */
+    long latency(double q) {
+        return quantile(_latencies, q);
+    }
+
+    /** Return the number of symbols in the messages. */
+    long symbols() {
+        return _symbols;
+    }
+
+    /** Replay all the messages on POOL, one worker to a machine,
+     *  recording the measures of each. */
+    private void replay(ExecutorService pool) {
+        AtomicInteger next = new AtomicInteger();
+        ArrayList<Future<?>> workers = new ArrayList<>();
+        for (Machine machine : _machines) {
+            workers.add(pool.submit(() -> work(machine, next)));
+        }
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) excp.getCause();
+            }
+            throw error("load test failed: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("load test interrupted");
+        }
+    }
+
+    /** Using MACHINE, replay messages until there are none left, taking
+     *  the number of the next from NEXT. */
+    private void work(Machine machine, AtomicInteger next) {
+        for (int i = next.getAndIncrement(); i < _messages.size();
+             i = next.getAndIncrement()) {
+            String message = _messages.get(i);
+            CRC32 crc = new CRC32();
+            long allocated = allocated();
+            long start = System.nanoTime();
+            if (_target.equals(MAIN)) {
+                pipe(machine, message, crc);
+            } else {
+                convert(machine, message, crc);
+            }
+            _latencies[i] = System.nanoTime() - start;
+            _allocations[i] = allocated < 0 ? -1 : allocated() - allocated;
+            _checksums[i] = crc.getValue();
+        }
+    }
+
+    /** Convert MESSAGE with MACHINE line by line, adding the results to
+     *  CRC. */
+    private static void convert(Machine machine, String message, CRC32 crc) {
+        String[] lines = message.split("\n");
+        Main.setUp(machine, lines[0]);
+        for (int i = 1; i < lines.length; i += 1) {
+            String text = machine.convert(lines[i].replaceAll("\\s", ""));
+            crc.update(text.getBytes(UTF_8));
+        }
+    }
+
+    /** Return the number of symbols in the lines of MESSAGE after its
+     *  settings line. */
+    private static long symbols(String message) {
+        int start = message.indexOf('\n') + 1;
+        return message.substring(start).codePoints()
+            .filter(c -> !Character.isWhitespace(c)).count();
+    }
+
+    /** Run MESSAGE through a TextPipeline using MACHINE, adding its
+     *  output to CRC. */
+    private static void pipe(Machine machine, String message, CRC32 crc) {
+        PrintStream out =
+            new PrintStream(new CheckedOutputStream(OutputStream
+                                                    .nullOutputStream(),
+                                                    crc), false, UTF_8);
+        new TextPipeline(machine, new StringReader(message), out).run();
+        out.flush();
+    }
+
+    /** Return the number of bytes allocated so far by the current
+     *  thread, or -1 if the JVM does not count them. */
+    private static long allocated() {
+        if (ManagementFactory.getThreadMXBean()
+            instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)
+                    ManagementFactory.getThreadMXBean())
+                .getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    /** Return the value within which fraction Q of VALUES lie (by the
+     *  nearest rank), or 0 if there are none. */
+    private static long quantile(long[] values, double q) {
+        if (values.length == 0) {
+            return 0;
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(q * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    /** Return the mean of VALUES, or 0 if there are none. */
+    private static double mean(long[] values) {
+        return Arrays.stream(values).average().orElse(0);
+    }
+
+    /** Quantiles reported, as the digits after "0.". */
+    private static final String[] QUANTILES = { "50", "99", "999" };
+
+    /** The machine of each thread. */
+    private final Machine[] _machines;
+
+    /** The messages replayed. */
+    private final ArrayList<String> _messages;
+
+    /** The target replayed against. */
+    private final String _target;
+
+    /** Time, bytes allocated, and checksum of the output of each
+     *  message, in the last pass. */
+    private final long[] _latencies, _allocations, _checksums;
+
+    /** Duration of the last pass, in nanoseconds. */
+    private long _nanos;
+
+    /** Symbols in the messages. */
+    private long _symbols;
+}
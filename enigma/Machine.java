@@ -1,9 +1,10 @@
 package enigma;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Collection;
-import java.util.Iterator;
 
 import static enigma.EnigmaException.*;
 
@@ -19,15 +20,53 @@ class Machine {
      *  available rotors. */
     Machine(Alphabet alpha, int numRotors, int pawls,
             Collection<Rotor> allRotors) {
+        this(alpha, numRotors, pawls, new RotorCatalogue(allRotors));
+    }
+
+    /** A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
+     *  and 0 <= PAWLS < NUMROTORS pawls, whose available rotors are
+     *  those of ROTORS. */
+    Machine(Alphabet alpha, int numRotors, int pawls, RotorCatalogue rotors) {
         _alphabet = alpha;
         _numRotors = numRotors;
         _pawls = pawls;
-        _allRotors = allRotors;
-        _allRotorsNames = new HashMap<>();
-        setRotorMap();
+        _rotors = rotors;
+        _slots = new ArrayList<>();
+        _plugBoard = identity();
+        _engine = Engines.forMachine(alpha.size(), numRotors, pawls, -1,
+                                     null, null);
+    }
+
+    /** A copy of ORIGINAL, with its own copies of ORIGINAL's rotors
+     *  in their current settings and rings, so that it can convert
+     *  independently.  A rotor that fills several slots of ORIGINAL
+     *  fills the same slots of the copy. */
+    private Machine(Machine original) {
+        _alphabet = original._alphabet;
+        _numRotors = original._numRotors;
+        _pawls = original._pawls;
+        IdentityHashMap<Rotor, Rotor> copies = new IdentityHashMap<>();
+        _rotors = original._rotors.copy(copies);
         _slots = new ArrayList<>();
-        _plugBoard = new HashMap<>();
+        for (Rotor r : original._slots) {
+            _slots.add(copies.computeIfAbsent(r, Rotor::copy));
+        }
+        _slotArray = _slots.toArray(new Rotor[0]);
+        _rotors.hold(_slotArray);
+        _checked = original._checked;
+        _plugBoard = original._plugBoard.clone();
+        _engine = original._engine.fresh();
+    }
+
+    /** Return a copy of me, in my current state, that converts
+     *  independently of me. */
+    Machine copy() {
+        return new Machine(this);
+    }
 
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
     }
 
     /** Return the number of rotor slots I have. */
@@ -40,34 +79,37 @@ class Machine {
         return _pawls;
     }
 
-    /** RETURN my rotorMaps. */
+    /** RETURN my rotorMaps, building every rotor available. */
     HashMap<String, Rotor> rotorMaps() {
-        return _allRotorsNames;
+        return _rotors.all();
     }
 
-    /** initialize a hashmap for all rotors. */
-    void setRotorMap() {
-        Iterator<Rotor> rotor = _allRotors.iterator();
-        while (rotor.hasNext()) {
-            Rotor cur = rotor.next();
-            String name = cur.name();
-            _allRotorsNames.put(name, cur);
-        }
+    /** Return the catalogue of my available rotors. */
+    RotorCatalogue rotors() {
+        return _rotors;
     }
+
     /** Set my rotor slots to the rotors named ROTORS from my set of
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) throws EnigmaException {
+        invalidate();
         _slots = new ArrayList<>();
+        _checked = false;
         int c = 0;
         for (String name : rotors) {
-            Rotor target = _allRotorsNames.get(name);
+            Rotor target = _rotors.get(name);
+            if (target == null) {
+                throw error("no rotor named %s", name);
+            }
             if (c == 0 && !target.reflecting()) {
                 throw new EnigmaException("wrong reflector");
             }
             _slots.add(target);
             c += 1;
         }
+        _slotArray = _slots.toArray(new Rotor[0]);
+        _rotors.hold(_slotArray);
     }
 
     /** Set my rotors according to param SETTING, which must be a string of
@@ -76,50 +118,185 @@ class Machine {
      *  doesn't return.
      *  set my pawls. */
     void setRotors(String setting) {
-        if (setting.length() < numRotors() - 1) {
+        invalidate();
+        int[] cps = setting.codePoints().toArray();
+        if (cps.length < numRotors() - 1) {
             throw error("Wheel settings too short");
-        } else if (setting.length() > numRotors() - 1) {
+        } else if (cps.length > numRotors() - 1) {
             throw error("Wheel settings too long");
         } else {
-            for (int i = 0; i < setting.length(); i++) {
-                char cur = setting.charAt(i);
-                int curI = _alphabet.toInt(cur);
+            for (int i = 0; i < cps.length; i++) {
+                int curI = _alphabet.toInt(cps[i]);
+                if (curI == -1) {
+                    throw error("bad wheel setting");
+                }
                 _slots.get(i + 1).set(curI);
             }
         }
     }
 
+    /** Return the name of the rotor in slot SLOT (0 for the reflector),
+     *  or null if my slots are not filled. */
+    String rotorName(int slot) {
+        if (_slotArray == null || slot >= _slotArray.length) {
+            return null;
+        }
+        return _slotArray[slot].name();
+    }
+
+    /** Put the rotor named NAME from my set of available rotors in slot
+     *  SLOT, which must be filled, leaving the other slots alone.  The
+     *  rotor keeps its own setting and ring. */
+    void replaceRotor(int slot, String name) {
+        Rotor target = _rotors.get(name);
+        if (target == null) {
+            throw error("no rotor named %s", name);
+        }
+        if (slot == 0 && !target.reflecting()) {
+            throw new EnigmaException("wrong reflector");
+        }
+        _slots.set(slot, target);
+        _slotArray[slot] = target;
+        _rotors.hold(_slotArray);
+        _checked = false;
+        invalidate();
+    }
+
+    /** Set the rotor in slot SLOT (1 <= SLOT < numRotors()) to the
+     *  setting POSN, an alphabet index.  Cheaper than setRotors when
+     *  few slots change. */
+    void setSetting(int slot, int posn) {
+        _slotArray[slot].set(posn);
+        moved(slot);
+    }
+
+    /** Return the setting, as an alphabet index, of the rotor in slot
+     *  SLOT. */
+    int setting(int slot) {
+        return _slotArray[slot].setting();
+    }
+
+    /** Return the ring setting, as an alphabet index, of the rotor in
+     *  slot SLOT. */
+    int ring(int slot) {
+        return _slotArray[slot].ringIndex();
+    }
+
+    /** Set the ring of the rotor in slot SLOT (1 <= SLOT < numRotors())
+     *  to the alphabet index RING. */
+    void setRing(int slot, int ring) {
+        _slotArray[slot].ring(ring);
+        invalidate();
+    }
+
+    /** Return the current setting of each of my slots, leftmost (the
+     *  reflector) first.  Together with the rotors, rings and plugboard
+     *  in force, this is the whole state of the machine. */
+    int[] settings() {
+        int[] result = new int[_slotArray.length];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = _slotArray[i].setting();
+        }
+        return result;
+    }
+
+    /** Return my slots to SETTINGS, as returned by settings() for the
+     *  same rotors, telling my engine only of the slots that change. */
+    void restoreSettings(int[] settings) {
+        if (settings.length != _slotArray.length) {
+            throw error("saved settings are for %d slots", settings.length);
+        }
+        for (int i = 0; i < settings.length; i += 1) {
+            if (_slotArray[i].setting() != settings[i]) {
+                _slotArray[i].set(settings[i]);
+                moved(i);
+            }
+        }
+    }
+
     /** Set my RINGS in place, doesn't return. */
     void setRotorsRings(String rings) {
-        for (int i = 0; i < rings.length(); i++) {
-            char cur = rings.charAt(i);
-            String curS = Character.toString(cur);
+        invalidate();
+        int[] cps = rings.codePoints().toArray();
+        for (int i = 0; i < cps.length; i++) {
+            String curS = new String(cps, i, 1);
             _slots.get(i + 1).ring(curS);
         }
     }
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
-        _plugBoard = new HashMap<>();
-        String p = plugboard.returnCycles(plugboard);
-        for (int i = 0; i < p.length(); i += 2) {
-            char cur = p.charAt(i);
-            char next = p.charAt(i + 1);
-            int curI = _alphabet.toInt(cur);
-            int nextI = _alphabet.toInt(next);
-            _plugBoard.put(curI, nextI);
-            _plugBoard.put(nextI, curI);
+        int[] p = plugboard.returnCycles(plugboard).codePoints().toArray();
+        for (int i = 0; i < p.length; i += 1) {
+            p[i] = _alphabet.toInt(p[i]);
         }
+        setPlugboard(p);
+    }
+
+    /** Set the plugboard to swap the alphabet indices SWAPS[2k] and
+     *  SWAPS[2k + 1] for each k. */
+    void setPlugboard(int[] swaps) {
+        _plugBoard = identity();
+        for (int i = 0; i < swaps.length; i += 2) {
+            _plugBoard[swaps[i]] = swaps[i + 1];
+            _plugBoard[swaps[i + 1]] = swaps[i];
+        }
+    }
+
+    /** Return my plugboard, as the image of each index. */
+    int[] plugboard() {
+        return _plugBoard.clone();
+    }
+
+    /** Return an identity mapping on my alphabet's indices. */
+    private int[] identity() {
+        int[] result = new int[_alphabet.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = i;
+        }
+        return result;
     }
 
     /** Returns the result of converting the input character C (as an
      *  index in the range 0..alphabet size - 1), after first advancing
      *  the machine. */
     int convert(int c) {
-        Rotor last = _slots.get(_slots.size() - 1);
-        char nextC = _alphabet.toChar(last.setting() + 1);
-        int nextI = _alphabet.toInt(nextC);
-        return nextI;
+        checkDouble();
+        if (_stale) {
+            _engine.reset(_slotArray, _alphabet.size());
+            _stale = false;
+        }
+        return _plugBoard[_engine.convert(_plugBoard[c])];
+    }
+
+    /** Advance my rotors as for one character and store in INTO[K] the
+     *  conversion of every index K at the new position, so that INTO
+     *  holds the whole permutation I apply there. */
+    void permutation(int[] into) {
+        checkDouble();
+        if (_stale) {
+            _engine.reset(_slotArray, _alphabet.size());
+            _stale = false;
+        }
+        for (int k = 0; k < into.length; k += 1) {
+            into[k] = _plugBoard[_engine.convert(_plugBoard[k])];
+        }
+    }
+
+    /** Return the engine that converts my characters. */
+    Engine engine() {
+        return _engine;
+    }
+
+    /** Convert my characters with ENGINE from now on. */
+    void setEngine(Engine engine) {
+        _engine = engine;
+        _stale = true;
+    }
+
+    /** Note that my rotors, settings or rings have changed. */
+    private void invalidate() {
+        _stale = true;
     }
 
     /** Given I, advance me one position, check if I'm notch,
@@ -132,11 +309,9 @@ class Machine {
     /** converting parameter O from the rightmost rotor to the leftmost.
         Then return */
     int keepTurningForward(int o) {
-        int i = _slots.size() - 2;
-        while (i >= 0) {
-            Rotor r = _slots.get(i);
-            o = r.convertForward(o);
-            i -= 1;
+        Rotor[] slots = _slotArray;
+        for (int i = slots.length - 2; i >= 0; i -= 1) {
+            o = slots[i].convertForward(o);
         }
         return o;
     }
@@ -144,11 +319,9 @@ class Machine {
     /** converting number C from the leftmost rotor to the rightmost.
      * return last converted number */
     int keepTurningBackward(int c) {
-        int i = 1;
-        while (i <= _slots.size() - 1) {
-            Rotor r = _slots.get(i);
-            c = r.convertBackward(c);
-            i += 1;
+        Rotor[] slots = _slotArray;
+        for (int i = 1; i < slots.length; i += 1) {
+            c = slots[i].convertBackward(c);
         }
         return c;
     }
@@ -156,12 +329,10 @@ class Machine {
     /** check multiple conditions and then advance, doesn't
      * return. */
     void checkDouble() throws EnigmaException {
-        Rotor reflet = _slots.get(0);
-        if (!reflet.reflecting()) {
-            throw new EnigmaException("wrong reflector.");
+        if (!_checked) {
+            checkSlots();
         }
         int i = 1;
-        int p = 0;
         Rotor last = _slots.get(_slots.size() - 1);
         int lastI = last.setting();
         while (i < numRotors() - 1) {
@@ -171,6 +342,8 @@ class Machine {
                 if (next.atNotch()) {
                     me.advance();
                     next.advance();
+                    moved(i);
+                    moved(i + 1);
                     i += 2;
                 }
                 i += 1;
@@ -178,8 +351,32 @@ class Machine {
                 i += 1;
             }
         }
+        if (last.pawl() == 1) {
+            if (lastI == last.setting()) {
+                last.advance();
+                moved(_slotArray.length - 1);
+            }
+        }
+    }
+
+    /** Tell my engine that the rotor in slot J has advanced, unless it
+     *  is to be reset anyway. */
+    private void moved(int j) {
+        if (!_stale) {
+            _engine.moved(j);
+        }
+    }
 
-        for (i = 0; i < _slots.size(); i++) {
+    /** Check that my slots hold a reflector on the left and numPawls()
+     *  moving rotors.  Done once per insertRotors, before the first
+     *  character is converted. */
+    private void checkSlots() throws EnigmaException {
+        Rotor reflet = _slots.get(0);
+        if (!reflet.reflecting()) {
+            throw new EnigmaException("wrong reflector.");
+        }
+        int p = 0;
+        for (int i = 0; i < _slots.size(); i++) {
             if (_slots.get(i).pawl() == 1) {
                 p += 1;
             }
@@ -187,9 +384,23 @@ class Machine {
         if (p != numPawls()) {
             throw new EnigmaException("wrong moving rotors.");
         }
-        if (last.pawl() == 1) {
-            if (lastI == last.setting()) {
-                last.advance();
+        _checked = true;
+    }
+
+    /** Convert, in place, the symbols between the position and limit of
+     *  BUF, each an alphabet index stored as an unsigned byte, updating
+     *  the state of the rotors as for convert(String).  My alphabet must
+     *  have at most 256 characters. */
+    void convert(ByteBuffer buf) {
+        if (buf.hasArray()) {
+            byte[] a = buf.array();
+            int end = buf.arrayOffset() + buf.limit();
+            for (int i = buf.arrayOffset() + buf.position(); i < end; i += 1) {
+                a[i] = (byte) convert(a[i] & 0xFF);
+            }
+        } else {
+            for (int i = buf.position(); i < buf.limit(); i += 1) {
+                buf.put(i, (byte) convert(buf.get(i) & 0xFF));
             }
         }
     }
@@ -197,34 +408,23 @@ class Machine {
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        int j = _numRotors - 1;
-        Rotor curRotor = _slots.get(j);
-        String out = "";
-        for (int i = 0; i < msg.length(); i++) {
-            checkDouble();
-            char cur = msg.charAt(i);
+        StringBuilder out = new StringBuilder(msg.length());
+        msg.codePoints().forEach(cur -> {
             int curI = _alphabet.toInt(cur);
-            if (_plugBoard.get(curI) != null) {
-                curI = _plugBoard.get(curI);
+            if (curI == -1) {
+                throw error("character %s not in alphabet",
+                            new String(Character.toChars(cur)));
             }
-            int conversion = curRotor.convertForward(curI);
-            int cTail = keepTurningForward(conversion);
-            int cHead = keepTurningBackward(cTail);
-            if (_plugBoard.get(cHead) != null) {
-                cHead = _plugBoard.get(cHead);
-            }
-            char c = _alphabet.toChar(cHead);
-            String s = Character.toString(c);
-            out += s;
-        }
-        return out;
+            out.appendCodePoint(_alphabet.toCodePoint(convert(curI)));
+        });
+        return out.toString();
     }
 
     /** Common alphabet of my rotors. */
     private final Alphabet _alphabet;
 
-    /** An arraylist with interface Collection of ALLROTORS. */
-    private Collection<Rotor> _allRotors;
+    /** The rotors available to me. */
+    private final RotorCatalogue _rotors;
 
     /** number of pawls. */
     private int _pawls;
@@ -235,9 +435,19 @@ class Machine {
     /** number of slots. */
     private ArrayList<Rotor> _slots;
 
-    /** allRotors names in a hashmap. */
-    private HashMap<String, Rotor> _allRotorsNames;
+    /** The contents of _slots, for iteration in convert. */
+    private Rotor[] _slotArray;
+
+    /** The engine that converts my characters. */
+    private Engine _engine;
+
+    /** True iff my rotors, settings or rings have changed since _engine
+     *  was last reset. */
+    private boolean _stale = true;
+
+    /** True iff checkSlots has passed since the last insertRotors. */
+    private boolean _checked;
 
-    /** plugboard info in hashmap. */
-    private HashMap<Integer, Integer> _plugBoard;
+    /** plugboard, as the image of each index (identity if unplugged). */
+    private int[] _plugBoard;
 }
@@ -0,0 +1,456 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.lang.ref.Cleaner;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+import static java.nio.file.StandardCopyOption.*;
+import static java.nio.file.StandardOpenOption.*;
+
+/** Full-machine tables, kept outside the Java heap and shared.
+ *
+ *  A machine table gives, for every combination of positions of the
+ *  moving rotors of a machine, the mapping that the rotors and
+ *  reflector apply to a signal entering the rightmost slot.  It depends
+ *  only on the wirings and rings of the rotors and the settings of the
+ *  ones that do not move, so it is identified by a SHA-256 digest of
+ *  those (its key) and can be reused by any machine with the same
+ *  rotors, whatever their starting positions.
+ *
+ *  Tables live in direct buffers.  When a table directory is given, a
+ *  table is built once into a file named by its key and thereafter
+ *  memory-mapped, so that every process using it, now or later, shares
+ *  one copy through the page cache.  A file starts with a header of
+ *  HEADER_SIZE bytes: the magic number MAGIC, the format VERSION, the
+ *  entry width in bytes and the alphabet size (ints), the number of
+ *  entries (a long) and the key.  The entries follow in native byte
+ *  order: the one for input K with the moving rotors at positions
+ *  P1, ..., Pm (leftmost first) is entry (P1 ... Pm K) read as a
+ *  number in base alphabet size.  Files are written under a
+ *  temporary name and then renamed, so a reader never sees a partial
+ *  table.
+ *  @author Yuan Sun
+ */
+final class MachineTables {
+
+    /** Not instantiable. */
+    private MachineTables() {
+    }
+
+    /** First int of a table file ("ENXT"). */
+    static final int MAGIC = 0x454e5854;
+
+    /** Table file format version. */
+    static final int VERSION = 1;
+
+    /** Bytes of header before the entries of a table file. */
+    static final int HEADER_SIZE = 64;
+
+    /** Return the most bytes of tables kept open in one process: half
+     *  the memory the JVM may use, which is also, by default, its limit
+     *  on memory allocated outside the heap. */
+    static long cacheLimit() {
+        return Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /** Return the bytes of tables built in memory that are not in the
+     *  cache of open tables but have not yet been freed: those still
+     *  used by engines, and those dropped but not yet collected. */
+    static long held() {
+        synchronized (OPEN) {
+            return Math.max(0, LIVE.get() - _openInMemory);
+        }
+    }
+
+    /** Return the most bytes a new table built in memory may take
+     *  without exceeding cacheLimit(), counting the tables held by
+     *  engines (see held()). */
+    static long available() {
+        return Math.max(0, cacheLimit() - held());
+    }
+
+    /** Return the width in bytes of an entry of a table over an
+     *  alphabet of ALPHABETSIZE characters. */
+    static int width(int alphabetSize) {
+        return alphabetSize <= 1 << 8 ? 1 : alphabetSize <= 1 << 16 ? 2 : 4;
+    }
+
+    /** Return the size in bytes of the table for a machine with an
+     *  alphabet of ALPHABETSIZE characters and MOVING moving rotors, or
+     *  Long.MAX_VALUE if it would not fit in a long. */
+    static long size(int alphabetSize, int moving) {
+        long size = (long) width(alphabetSize) * alphabetSize;
+        for (int i = 0; i < moving; i += 1) {
+            if (size > Long.MAX_VALUE / alphabetSize) {
+                return Long.MAX_VALUE;
+            }
+            size *= alphabetSize;
+        }
+        return size;
+    }
+
+    /** Return the table for the rotors in SLOTS (reflector first) over
+     *  an alphabet of ALPHABETSIZE characters, where the slots from
+     *  START on hold the rotors not folded into TURNAROUND (see
+     *  TurnaroundEngine).  The table's entries begin at position 0 of
+     *  the result.  If DIR is not null, the table is kept in a file in
+     *  that directory. */
+    static ByteBuffer table(Rotor[] slots, int alphabetSize, int start,
+                            int[] turnaround, Path dir) {
+        int moving = 0;
+        for (int j = start; j < slots.length; j += 1) {
+            moving += slots[j].rotates() ? 1 : 0;
+        }
+        long size = size(alphabetSize, moving);
+        if (size > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw error("machine table of %d bytes is too large", size);
+        }
+        byte[] key = key(slots, alphabetSize, start, turnaround);
+        String name = hex(key);
+        String where = dir == null ? name : dir.resolve(name).toString();
+        synchronized (OPEN) {
+            ByteBuffer table = OPEN.get(where);
+            if (table == null) {
+                evict(size);
+                Builder builder =
+                    new Builder(slots, alphabetSize, start, turnaround);
+                if (dir == null) {
+                    table = allocate((int) size);
+                    builder.fill(table);
+                    table.clear();
+                    _openInMemory += size;
+                } else {
+                    table = mapped(dir.resolve(name + ".tbl"), key,
+                                   alphabetSize, (int) size, builder);
+                }
+                OPEN.put(where, table);
+                _openBytes += size;
+            }
+            return table.duplicate().order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /** Drop the least recently used open tables until there is room for
+     *  one of SIZE more bytes, or none are left.  Tables built in memory
+     *  are the writable ones; those mapped from files are read-only. */
+    private static void evict(long size) {
+        Iterator<Map.Entry<String, ByteBuffer>> eldest =
+            OPEN.entrySet().iterator();
+        while (_openBytes + size > cacheLimit() && eldest.hasNext()) {
+            Map.Entry<String, ByteBuffer> entry = eldest.next();
+            long bytes = entry.getValue().capacity();
+            _openBytes -= bytes;
+            if (!entry.getValue().isReadOnly()) {
+                _openInMemory -= bytes;
+            }
+            eldest.remove();
+        }
+    }
+
+    /** Return a new table of SIZE bytes outside the heap, counted in
+     *  LIVE until it is collected. */
+    private static ByteBuffer allocate(int size) {
+        ByteBuffer table;
+        try {
+            table = ByteBuffer.allocateDirect(size);
+        } catch (OutOfMemoryError excp) {
+            throw error("no room for a machine table of %d bytes", size);
+        }
+        LIVE.addAndGet(size);
+        CLEANER.register(table, () -> LIVE.addAndGet(-size));
+        return table.order(ByteOrder.nativeOrder());
+    }
+
+    /** Return the entries of the table file FILE for the key KEY over
+     *  an alphabet of ALPHABETSIZE characters, occupying SIZE bytes,
+     *  first writing the file with BUILDER if it is missing or
+     *  damaged. */
+    private static ByteBuffer mapped(Path file, byte[] key,
+                                     int alphabetSize, int size,
+                                     Builder builder) {
+        try {
+            if (!valid(file, key, alphabetSize, size)) {
+                Files.createDirectories(file.getParent());
+                Path tmp = Files.createTempFile(file.getParent(),
+                                                "table", ".tmp");
+                try (FileChannel out = FileChannel.open(tmp, WRITE)) {
+                    ByteBuffer header = header(key, alphabetSize, size);
+                    while (header.hasRemaining()) {
+                        out.write(header);
+                    }
+                    builder.write(out);
+                    out.force(true);
+                } catch (IOException | RuntimeException excp) {
+                    Files.deleteIfExists(tmp);
+                    throw excp;
+                }
+                Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            }
+            try (FileChannel in = FileChannel.open(file, READ)) {
+                return in.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                              size);
+            }
+        } catch (IOException excp) {
+            throw error("could not use machine table %s: %s", file,
+                        excp.getMessage());
+        }
+    }
+
+    /** Return true iff FILE is a complete table file for KEY over an
+     *  alphabet of ALPHABETSIZE characters with entries occupying SIZE
+     *  bytes. */
+    private static boolean valid(Path file, byte[] key, int alphabetSize,
+                                 int size) throws IOException {
+        if (!Files.isRegularFile(file)
+            || Files.size(file) != HEADER_SIZE + (long) size) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel in = FileChannel.open(file, READ)) {
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                continue;
+            }
+        }
+        header.flip();
+        return header.equals(header(key, alphabetSize, size));
+    }
+
+    /** Return the header of a table file for KEY over an alphabet of
+     *  ALPHABETSIZE characters with entries occupying SIZE bytes. */
+    private static ByteBuffer header(byte[] key, int alphabetSize,
+                                     int size) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(width(alphabetSize))
+            .putInt(alphabetSize).putLong(size / width(alphabetSize))
+            .put(key);
+        header.clear();
+        return header;
+    }
+
+    /** Return the key of the table for SLOTS, ALPHABETSIZE, START and
+     *  TURNAROUND, as for table.  It covers everything the table depends
+     *  on: TURNAROUND, and for each later slot, the wiring and ring of a
+     *  moving rotor or the current mapping of a fixed one. */
+    private static byte[] key(Rotor[] slots, int alphabetSize, int start,
+                              int[] turnaround) {
+        ByteBuffer data =
+            ByteBuffer.allocate(4 * (2 + (slots.length - start + 1)
+                                     * (alphabetSize + 2)));
+        data.putInt(VERSION).putInt(alphabetSize);
+        for (int c : turnaround) {
+            data.putInt(c);
+        }
+        for (int j = start; j < slots.length; j += 1) {
+            Rotor r = slots[j];
+            if (r.rotates()) {
+                data.putInt(1).putInt(ring(r));
+                for (int c : r.permutation().forwardTable()) {
+                    data.putInt(c);
+                }
+            } else {
+                data.putInt(0).putInt(0);
+                for (int c : r.currentPermutation().forwardTable()) {
+                    data.putInt(c);
+                }
+            }
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256")
+                .digest(Arrays.copyOf(data.array(), data.position()));
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalStateException(excp);
+        }
+    }
+
+    /** Return the ring-setting index of R, the amount by which its
+     *  setting exceeds its offset. */
+    static int ring(Rotor r) {
+        return r.permutation().wrap(r.setting() - r.settingAfterRing());
+    }
+
+    /** Return BYTES in lower-case hexadecimal. */
+    private static String hex(byte[] bytes) {
+        StringBuilder result = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            result.append(String.format("%02x", b & 0xFF));
+        }
+        return result.toString();
+    }
+
+    /** Computes the entries of a table, in order. */
+    private static class Builder {
+
+        /** A builder for the table of SLOTS, ALPHABETSIZE, START and
+         *  TURNAROUND, as for table. */
+        Builder(Rotor[] slots, int alphabetSize, int start,
+                int[] turnaround) {
+            _slots = slots;
+            _n = alphabetSize;
+            _start = start;
+            _turnaround = turnaround;
+            _width = width(alphabetSize);
+            _maps = new int[slots.length + 1][];
+            for (int j = start + 1; j <= slots.length; j += 1) {
+                _maps[j] = new int[alphabetSize];
+            }
+        }
+
+        /** Put all the entries into OUT. */
+        void fill(ByteBuffer out) {
+            _out = out;
+            _channel = null;
+            fill(_start, _turnaround);
+        }
+
+        /** Write all the entries to OUT. */
+        void write(FileChannel out) throws IOException {
+            _out = ByteBuffer.allocate(CHUNK).order(ByteOrder.nativeOrder());
+            _channel = out;
+            try {
+                fill(_start, _turnaround);
+            } catch (UncheckedIOException excp) {
+                throw excp.getCause();
+            }
+            flush();
+        }
+
+        /** Emit the entries for every position of the rotors in slot J
+         *  and those to its right, where INNER maps a signal leaving the
+         *  left side of slot J to the one that comes back into it. */
+        private void fill(int j, int[] inner) {
+            if (j == _slots.length) {
+                emit(inner);
+                return;
+            }
+            Rotor r = _slots[j];
+            int[] fwd = r.permutation().forwardTable();
+            int[] inv = r.permutation().inverseTable();
+            int[] outer = _maps[j + 1];
+            if (!r.rotates()) {
+                compose(fwd, inv, r.settingAfterRing(), inner, outer);
+                fill(j + 1, outer);
+                return;
+            }
+            int ring = ring(r);
+            for (int p = 0; p < _n; p += 1) {
+                compose(fwd, inv, r.permutation().wrap(p - ring), inner,
+                        outer);
+                fill(j + 1, outer);
+            }
+        }
+
+        /** Set OUTER to the round trip through a rotor with wiring FWD
+         *  (whose inverse is INV) at offset OFFSET, then INNER, then back
+         *  through the rotor. */
+        private void compose(int[] fwd, int[] inv, int offset, int[] inner,
+                             int[] outer) {
+            for (int k = 0; k < _n; k += 1) {
+                int e = inner[shift(fwd, k, offset)];
+                outer[k] = shift(inv, e, offset);
+            }
+        }
+
+        /** Return TABLE applied to P as seen through OFFSET, as for
+         *  Rotor.convertForward. */
+        private int shift(int[] table, int p, int offset) {
+            int now = p + offset;
+            if (now >= _n) {
+                now -= _n;
+            }
+            int result = table[now] - offset;
+            return result < 0 ? result + _n : result;
+        }
+
+        /** Append the entries MAP. */
+        private void emit(int[] map) {
+            for (int c : map) {
+                if (_out.remaining() < _width) {
+                    flush();
+                }
+                if (_width == 1) {
+                    _out.put((byte) c);
+                } else if (_width == 2) {
+                    _out.putShort((short) c);
+                } else {
+                    _out.putInt(c);
+                }
+            }
+        }
+
+        /** Write out the entries collected for a file. */
+        private void flush() {
+            if (_channel == null) {
+                return;
+            }
+            _out.flip();
+            try {
+                while (_out.hasRemaining()) {
+                    _channel.write(_out);
+                }
+            } catch (IOException excp) {
+                throw new UncheckedIOException(excp);
+            }
+            _out.clear();
+        }
+
+        /** Bytes of entries collected before writing them to a file. */
+        private static final int CHUNK = 1 << 16;
+
+        /** The rotors, reflector first. */
+        private final Rotor[] _slots;
+
+        /** The alphabet size. */
+        private final int _n;
+
+        /** First slot not folded into _turnaround. */
+        private final int _start;
+
+        /** The folded reflector and leading fixed rotors. */
+        private final int[] _turnaround;
+
+        /** Bytes per entry. */
+        private final int _width;
+
+        /** Scratch maps, one for each depth of fill. */
+        private final int[][] _maps;
+
+        /** Where entries are put. */
+        private ByteBuffer _out;
+
+        /** The file _out is written to, or null. */
+        private FileChannel _channel;
+    }
+
+    /** Tables opened by this process, by key (prefixed by the table
+     *  directory for files), least recently used first, taking at most
+     *  cacheLimit() bytes in all, unless one alone takes more. */
+    private static final Map<String, ByteBuffer> OPEN =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Bytes of the tables in OPEN, and of those of them built in
+     *  memory rather than mapped from files. */
+    private static long _openBytes, _openInMemory;
+
+    /** Bytes of the tables built in memory and not yet collected. */
+    private static final AtomicLong LIVE = new AtomicLong();
+
+    /** Counts tables out of LIVE as they are collected. */
+    private static final Cleaner CLEANER = Cleaner.create(r -> {
+        Thread cleaner = new Thread(r, "enigma-tables");
+        cleaner.setDaemon(true);
+        return cleaner;
+    });
+}
@@ -0,0 +1,120 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the Machine class.
+ *  @author Yuan Sun
+ */
+public class MachineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Fifty A's. */
+    private static final String A50 =
+        "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    /** A pangram. */
+    private static final String FOX = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+
+    /** Return the result of converting MSG with machine M after applying
+     *  the settings line SETTINGS. */
+    private String convert(Machine m, String settings, String msg) {
+        Main.setUp(m, settings);
+        return m.convert(msg);
+    }
+
+    /** Return what a new machine, set up by the settings line SETTINGS
+     *  with rings RINGS and its slots at SLOTS, makes of C: the result of
+     *  a conversion with no cached tables. */
+    private int uncached(String settings, String rings, int[] slots, int c) {
+        Machine m = navalMachine(5, 3);
+        Main.setUp(m, settings);
+        m.setRotorsRings(rings);
+        m.restoreSettings(slots);
+        return m.convert(c);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkFiveSlots() {
+        Machine m = navalMachine(5, 3);
+        assertEquals("AVDPQJJWCWIXFSDSTDDLXKQFFALKSNVQEEPKXMXX"
+                     + "ULHOEMMAOGBESXGNRWVGQCQQLMDHMD",
+                     convert(m, "* C Beta VI VII VIII ZMZM ABCD",
+                             FOX + FOX));
+    }
+
+    @Test
+    public void checkTwoFixedRotors() {
+        Machine m = navalMachine(6, 3);
+        assertEquals("XMBURQFXDVWXGGLNEPJVNHCEJBWRXIILGGOPVVRH"
+                     + "DXTEZOXUSJ",
+                     convert(m, "* B Beta Gamma III IV I AXLEQ BCDEF"
+                             + " (AQ) (ZK)", A50));
+        assertEquals("YYMMPHLMODSRTKMTAZNRYSEJAKCRWHTPZYM",
+                     convert(m, "* C Gamma Beta VI VII VIII ZZZZZ", FOX));
+    }
+
+    @Test
+    public void checkReconfigure() {
+        Machine m = navalMachine(6, 3);
+        String first = convert(m, "* C Gamma Beta VI VII VIII ZZZZZ", FOX);
+        m.setRotors("AAAAA");
+        m.setRotors("ZZZZZ");
+        assertEquals(first, m.convert(FOX));
+        m.setRotorsRings("BAAAA");
+        assertNotEquals(first, m.convert(FOX));
+    }
+
+    @Test
+    public void checkCachedTables() {
+        String settings = "* B Beta III IV I AXLE (HQ) (EX)";
+        String rings = "AAAA";
+        Machine m = navalMachine(5, 3);
+        Main.setUp(m, settings);
+        for (int i = 0; i < 26 * 40; i += 1) {
+            if (i == 400) {
+                m.setRotors("AEJQ");
+            } else if (i == 700) {
+                rings = "BCDE";
+                m.setRotorsRings(rings);
+            }
+            int c = FOX.charAt(i % FOX.length()) - 'A';
+            assertEquals(uncached(settings, rings, m.settings(), c),
+                         m.convert(c));
+        }
+    }
+
+    @Test
+    public void checkSettingsRestore() {
+        Machine m = navalMachine(5, 3);
+        Main.setUp(m, "* B Beta III IV I AXLE");
+        m.convert(A50);
+        int[] saved = m.settings();
+        String rest = m.convert(FOX);
+        m.restoreSettings(saved);
+        assertEquals(rest, m.convert(FOX));
+    }
+
+    @Test
+    public void checkCopy() {
+        Machine m = navalMachine(5, 3);
+        Main.setUp(m, "* B Beta III IV III AXLE BCDE (AQ) (TZ)");
+        m.convert(A50);
+        Machine copy = m.copy();
+        String expected = m.convert(FOX);
+        m.setRotors("QQQQ");
+        assertEquals(expected, copy.convert(FOX));
+    }
+
+}
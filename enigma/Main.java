@@ -1,16 +1,31 @@
 package enigma;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import java.util.ArrayList;
-import java.util.NoSuchElementException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static enigma.EnigmaException.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
 
 /** Enigma simulator.
  *  @author Yuan Sun
@@ -19,35 +34,152 @@ public final class Main {
 
     /** Process a sequence of encryptions and decryptions, as
      *  specified by ARGS, where 1 <= ARGS.length <= 3.
-     *  ARGS[0] is the name of a configuration file.
+     *  ARGS[0] is the name of a configuration file, or of a preset
+     *  machine, such as @M4 (see Presets).
      *  ARGS[1] is optional; when present, it names an input file
      *  containing messages.  Otherwise, input comes from the standard
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.  Input and output files whose names end
+     *  in ".gz" are read and written compressed by gzip (see Gzip),
+     *  throughout.
+     *
+     *  ARGS may also contain options, which begin with "--" and may be
+     *  given anywhere:
+     *    --binary  treats the input as raw bytes, transformed by the
+     *              byte-alphabet machine described in the configuration
+     *              (see ByteStream), with no grouping or line handling.
+     *    --index=F  in binary mode, writes a checkpoint index of the
+     *              conversion to F (see CheckpointWriter), or, with
+     *              --range, reads one from F.
+     *    --interval=N  the number of bytes between checkpoints written
+     *              to an index (default 1048576).
+     *    --range=S:L  in binary mode, converts only the L bytes starting
+     *              at byte S of the input, which must be a file indexed
+     *              by --index.
+     *    --incremental  in binary mode, converts only the parts of the
+     *              input file that changed since the output file and
+     *              the index given by --index were written, and
+     *              rewrites the index (see ByteStream.update).  Text
+     *              mode has no incremental form: its output is regrouped
+     *              and its settings lines reset the machine, so output
+     *              bytes do not line up with input bytes.
+     *    --engine=E  converts with the engine named E (see Engines)
+     *              rather than the one chosen for the machine.
+     *    --check[=N]  checks the engine's result for one character in
+     *              every N (default 1) against the reference engine.
+     *    --threads=N  converts the message sections following
+     *              different settings lines on N threads at once
+     *              (default: one per processor).
+     *    --tables=D  keeps full-machine tables in directory D, building
+     *              each once and sharing it with other runs.
+     *    --rotor-cache=B  keeps at most about B bytes of rotors built
+     *              from the configuration's rotor descriptions, which
+     *              are built as needed.
+     *
+     *  With --coordinate or --work, ARGS[1] instead names a ciphertext
+     *  file, and the machine's keys are searched for those that best
+     *  decrypt it (see KeySearch), the results going to ARGS[2] or the
+     *  standard output:
+     *    --coordinate[=P]  hands out the search on port P (default: any
+     *              free port) of this host (see SearchCoordinator).
+     *    --work=H:P  searches for the coordinator at H:P.
+     *    --workers=N  with --coordinate, starts N local worker processes.
+     *    --checkpoint=F  with --coordinate, saves progress to F, and
+     *              resumes from it if it exists.
+     *    --lease=MS  with --coordinate, gives up on a worker silent for
+     *              MS milliseconds (default 60000).
+     *    --rings=K  also tries every ring setting of the rightmost K
+     *              slots (default 0).
+     *    --top=N  keeps the N best keys (default 10).
+     *    --unit=N  hands out N keys at a time (default 1048576).
+     *
+     *  With --analyze, the arguments after ARGS[0] instead name any
+     *  number of files of messages, or none for the standard input,
+     *  whose statistics over the alphabet of the configuration are
+     *  written to the standard output (see Analytics), using --threads
+     *  as above:
+     *    --shifts=N  runs the kappa test for shifts up to N (default
+     *              26).
+     *    --top=N  reports the N most common bigrams and trigrams
+     *              (default 10).
+     *
+     *  With --catalogue=F, builds in F the catalogue of the cycle
+     *  structures of the machine's keys (see CycleCatalogue), using
+     *  --rings and --threads as above, or, with --characteristic=C,
+     *  looks up the keys with characteristic C there, writing their
+     *  settings lines to ARGS[1] or the standard output.
+     *
+     *  With --generate[=SEED], writes a synthetic workload (see
+     *  Workload) generated from SEED (default 1): its configuration to
+     *  the file ARGS[0], and its messages to ARGS[1] or the standard
+     *  output:
+     *    --messages=N  generates N messages (default 1000).
+     *    --length=N  makes their median length N symbols (default 200).
+     *
+     *  With --load[=T], replays the messages of ARGS[1] or the standard
+     *  input against target T, machine (the default) or main, on
+     *  --threads threads, using --engine and --check as above, and
+     *  writes a report of throughput, latency, and allocation to ARGS[2]
+     *  or the standard output (see LoadDriver):
+     *    --warmup=N  first replays the messages N times unmeasured
+     *              (default 1). */
     public static void main(String... args) {
         try {
             new Main(args).process();
             return;
         } catch (EnigmaException excp) {
             System.err.printf("Error: %s%n", excp.getMessage());
+        } catch (OutOfMemoryError excp) {
+            System.err.printf("Error: out of memory: %s%n",
+                              excp.getMessage());
         }
         System.exit(1);
     }
 
     /** Check ARGS and open the necessary files (see comment on main). */
     Main(String[] args) {
+        args = readOptions(args);
+        if (_options.containsKey("generate")) {
+            if (args.length < 1 || args.length > 2) {
+                throw error("--generate needs a configuration file and"
+                            + " optionally an input file");
+            }
+            _configName = args[0];
+            _outputName = args.length > 1 ? args[1] : null;
+            return;
+        }
+        if (_options.containsKey("analyze") && args.length >= 1) {
+            _configName = args[0];
+            _config = Presets.isPreset(args[0]) ? null : getInput(args[0]);
+            _inputNames = Arrays.copyOfRange(args, 1, args.length);
+            return;
+        }
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        _configName = args[0];
+        _config = Presets.isPreset(args[0]) ? null : getInput(args[0]);
+
+        if (_options.containsKey("catalogue")) {
+            _outputName = args.length > 1 ? args[1] : null;
+            return;
+        }
+        if (_options.containsKey("binary")
+            || _options.containsKey("load")
+            || _options.containsKey("coordinate")
+            || _options.containsKey("work")) {
+            _inputName = args.length > 1 ? args[1] : null;
+            _outputName = args.length > 2 ? args[2] : null;
+            return;
+        }
 
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            _input = getReader(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            _input = new InputStreamReader(System.in, UTF_8);
         }
 
         if (args.length > 2) {
@@ -57,10 +189,42 @@ public final class Main {
         }
     }
 
+    /** Record the options in ARGS in _options, returning the remaining
+     *  arguments. */
+    private String[] readOptions(String[] args) {
+        ArrayList<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                rest.add(arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            String name = arg.substring(2, eq < 0 ? arg.length() : eq);
+            if (!OPTIONS.contains(name)) {
+                throw error("unknown option %s", arg);
+            }
+            _options.put(name, eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        return rest.toArray(new String[0]);
+    }
+
     /** Return a Scanner reading from the file named NAME. */
     private Scanner getInput(String name) {
         try {
-            return new Scanner(new File(name));
+            return new Scanner(new File(name), UTF_8);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a Reader reading from the file named NAME. */
+    private Reader getReader(String name) {
+        try {
+            if (Gzip.isCompressed(name)) {
+                return new InputStreamReader(Gzip.open(Paths.get(name)),
+                                             UTF_8);
+            }
+            return new InputStreamReader(new FileInputStream(name), UTF_8);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -69,207 +233,431 @@ public final class Main {
     /** Return a PrintStream writing to the file named NAME. */
     private PrintStream getOutput(String name) {
         try {
-            return new PrintStream(new File(name));
+            if (Gzip.isCompressed(name)) {
+                return new PrintStream(Gzip.create(Paths.get(name),
+                                                   threads()),
+                                       false, UTF_8);
+            }
+            return new PrintStream(new File(name), UTF_8);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
+    /** Close OUTPUT, unless it is the standard output, reporting any
+     *  error in writing it. */
+    private static void closeOutput(PrintStream output) {
+        if (output == System.out) {
+            output.flush();
+        } else {
+            output.close();
+        }
+        if (output.checkError()) {
+            throw error("could not write output");
+        }
+    }
+
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
      *  results to _output. */
     private void process() {
+        if (_options.containsKey("tables")) {
+            Engines.setTableDirectory(Paths.get(_options.get("tables")));
+        }
+        if (_options.containsKey("generate")) {
+            processGenerate();
+            return;
+        }
+        if (_options.containsKey("binary")) {
+            processBytes();
+            return;
+        }
+        if (_options.containsKey("load")) {
+            processLoad();
+            return;
+        }
+        if (_options.containsKey("coordinate")
+            || _options.containsKey("work")) {
+            processSearch();
+            return;
+        }
+        if (_options.containsKey("catalogue")) {
+            processCatalogue();
+            return;
+        }
+        if (_options.containsKey("analyze")) {
+            processAnalytics();
+            return;
+        }
+        if (_options.containsKey("incremental")) {
+            throw error("--incremental needs --binary");
+        }
+        Machine m = readConfig();
+        chooseEngine(m, -1);
+        try {
+            new TextPipeline(m, _input, _output, threads()).run();
+        } finally {
+            closeOutput(_output);
+        }
+    }
+
+    /** Return the number of threads to use, as given by --threads. */
+    private int threads() {
+        int threads = (int) longOption("threads",
+                                       Runtime.getRuntime()
+                                       .availableProcessors());
+        if (threads < 1) {
+            throw error("bad value for --threads");
+        }
+        return threads;
+    }
+
+    /** Build the cycle catalogue named by --catalogue for the machine
+     *  configured from _config, or look up the keys with the
+     *  characteristic given by --characteristic in it. */
+    private void processCatalogue() {
         Machine m = readConfig();
-        String msg;
-        String output;
-        String res = "";
-        String settingRegex = "\\*.*\\)*";
-        String msgRegex = "[^\\s\\*\\(\\)]+";
-        if (_input.hasNextLine()) {
-            String thisLine = _input.nextLine();
-            setting = getWhatIWant(thisLine, settingRegex, 0);
-            setUp(m, setting);
-        }
-        while (_input.hasNextLine()) {
-            String thisLine = _input.nextLine();
-            if (thisLine.matches("\\s+")) {
-                res += thisLine;
+        chooseEngine(m, -1);
+        Path file = Paths.get(_options.get("catalogue"));
+        int rings = (int) longOption("rings", 0);
+        if (!_options.containsKey("characteristic")) {
+            CycleCatalogue.build(m, rings, file, threads());
+            return;
+        }
+        int[][] characteristic =
+            CycleCatalogue.parse(_options.get("characteristic"));
+        PrintStream output = _outputName == null ? System.out
+            : getOutput(_outputName);
+        try (CycleCatalogue catalogue = new CycleCatalogue(file, m, rings)) {
+            for (long key : catalogue.lookup(characteristic)) {
+                output.println(catalogue.settings(key));
+            }
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+        closeOutput(output);
+    }
+
+    /** Write the statistics of the messages in the files named
+     *  _inputNames, or in the standard input if there are none, over the
+     *  alphabet of the machine configured from _config, to the standard
+     *  output. */
+    private void processAnalytics() {
+        Alphabet alphabet = readConfig().alphabet();
+        int shifts = (int) longOption("shifts", 26);
+        if (shifts < 1) {
+            throw error("bad value for --shifts");
+        }
+        Analytics analytics = new Analytics(alphabet, shifts, threads());
+        if (_inputNames.length == 0) {
+            analytics.analyze(Channels.newChannel(System.in), "-");
+        }
+        ArrayList<Path> files = new ArrayList<>();
+        for (String name : _inputNames) {
+            if (!Gzip.isCompressed(name)) {
+                files.add(Paths.get(name));
+                continue;
             }
-            if (thisLine.contains("*")) {
-                setting = getWhatIWant(thisLine, settingRegex, 0);
-                setUp(m, setting);
-            } else {
-                msg = getAllMsg(thisLine, msgRegex, 0);
-                output = m.convert(msg);
-                res += printMessageLine(output);
+            if (!files.isEmpty()) {
+                analytics.analyze(files);
+                files.clear();
             }
+            try (InputStream in = Gzip.open(Paths.get(name))) {
+                analytics.analyze(Channels.newChannel(in), name);
+            } catch (IOException excp) {
+                throw error("could not read %s", name);
+            }
+        }
+        if (!files.isEmpty()) {
+            analytics.analyze(files);
         }
-        _output.printf(res);
+        analytics.report(System.out, (int) longOption("top", 10));
     }
 
-    /** Given IN, return the string that match with REGEX and GROUP.*/
-    private String getWhatIWant(String in, String regex, int group)
-            throws EnigmaException {
-        String cleanedIn = in.trim();
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(cleanedIn);
-        if (matcher.find()) {
-            return matcher.group(group);
-        } else {
-            throw error("getwhatiwant");
+    /** Write the workload given by the --generate option to the files
+     *  named _configName and _outputName (or the standard output). */
+    private void processGenerate() {
+        String seed = _options.get("generate");
+        Workload workload;
+        try {
+            workload = new Workload(seed.isEmpty() ? 1 : Long.parseLong(seed),
+                                    (int) longOption("messages", 1000),
+                                    (int) longOption("length", 200));
+        } catch (NumberFormatException excp) {
+            throw error("bad value for --generate");
+        }
+        try {
+            Files.writeString(Paths.get(_configName), workload.config(),
+                              UTF_8);
+        } catch (IOException excp) {
+            throw error("could not write %s", _configName);
         }
+        PrintStream output = _outputName == null ? System.out
+            : getOutput(_outputName);
+        output.print(workload.input());
+        closeOutput(output);
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
-     *  file _config. */
-    private Machine readConfig() {
+    /** Replay the messages in the file named _inputName (or the standard
+     *  input) against the machine configured from _config, as the --load
+     *  option asks, writing the report to _outputName (or the standard
+     *  output). */
+    private void processLoad() {
+        Configuration conf = readConfiguration();
+        String input;
         try {
-            String alpha = "";
-            int s = 0;
-            int p = 0;
-            _alphabet = new Alphabet();
-            if (_config.hasNextLine()) {
-                alpha = _config.nextLine();
-                _alphabet = new Alphabet(
-                        getWhatIWant(alpha,
-                                "[^\\s\\*\\(\\)]+",
-                                0));
-            }
-            if (_config.hasNextLine()) {
-                String cur = _config.nextLine();
-                String cleanedCur = cur.replaceAll("\\s", "");
-                String integers = getWhatIWant(cleanedCur, "^\\d{1,2}", 0);
-                if (integers.length() == 2) {
-                    s = Integer.parseInt(integers.substring(0, 1));
-                    p = Integer.parseInt(integers.substring(1));
-                } else if (integers.length() == 1) {
-                    s = Integer.parseInt(integers);
-                    if (_config.hasNext()) {
-                        String pStr = _config.next();
-                        if (pStr.matches("\\d")) {
-                            p = Integer.parseInt(pStr);
-                        }
-                    }
-                }
-            }
-            ArrayList<Rotor> allRotors = rotors();
-            Machine m = new Machine(_alphabet, s, p, allRotors);
-            return m;
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+            input = _inputName == null
+                ? new String(System.in.readAllBytes(), UTF_8)
+                : readString(_inputName);
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
         }
+        String target = _options.get("load");
+        LoadDriver driver =
+            new LoadDriver(() -> {
+                Machine m = conf.machine();
+                chooseEngine(m, -1);
+                return m;
+            }, LoadDriver.messages(input),
+                target.isEmpty() ? LoadDriver.MACHINE : target, threads());
+        driver.run((int) longOption("warmup", 1));
+        PrintStream output = _outputName == null ? System.out
+            : getOutput(_outputName);
+        driver.report(output);
+        closeOutput(output);
     }
 
-    /** Get a list of rotors available. return. */
-    private ArrayList<Rotor> rotors() {
-        ArrayList<Rotor> allRotors = new ArrayList<>();
-        while (_config.hasNextLine()) {
-            String thisLine = _config.nextLine();
-            String leftOut = checkCycles(thisLine);
-            if (thisLine.matches("\\s+")) {
-                return allRotors;
-            } else if (leftOut.compareTo("") != 0) {
-                Rotor lastRotor = allRotors.get(allRotors.size() - 1);
-                lastRotor.permutation().addCycle(leftOut);
-            } else {
-                Rotor r = readRotor(thisLine);
-                allRotors.add(r);
+    /** Configure a byte-alphabet machine from _config and apply it to
+     *  the raw bytes of the file named _inputName (or the standard
+     *  input), writing the results to _outputName (or the standard
+     *  output). */
+    private void processBytes() {
+        if (_config == null) {
+            throw error("binary mode needs a configuration file");
+        }
+        ByteStream stream = new ByteStream(_config);
+        boolean compressed =
+            _inputName != null && Gzip.isCompressed(_inputName);
+        chooseEngine(stream.machine(), _inputName == null || compressed ? -1
+                     : new File(_inputName).length());
+        if (_options.containsKey("range")) {
+            processRange(stream);
+            return;
+        }
+        if (_options.containsKey("incremental")) {
+            processIncremental(stream);
+            return;
+        }
+        try (ReadableByteChannel in = _inputName == null
+                 ? Channels.newChannel(System.in)
+                 : compressed
+                 ? Channels.newChannel(Gzip.open(Paths.get(_inputName)))
+                 : FileChannel.open(Paths.get(_inputName), READ);
+             WritableByteChannel out = openBytesOutput();
+             CheckpointWriter index = !_options.containsKey("index") ? null
+                 : new CheckpointWriter(Paths.get(_options.get("index")),
+                                        longOption("interval", 1 << 20),
+                                        stream.machine().numRotors(),
+                                        stream.settings(),
+                                        stream.configuration())) {
+            stream.process(in, out, index);
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
+
+    /** Search the keys of the machine configured from _config for
+     *  those best decrypting the ciphertext in the file named
+     *  _inputName, as coordinator or worker. */
+    private void processSearch() {
+        if (_inputName == null) {
+            throw error("a key search needs a ciphertext file");
+        }
+        Machine m = readConfig();
+        chooseEngine(m, -1);
+        String config;
+        int[] ciphertext;
+        try {
+            config = _config == null ? _configName
+                : Files.readString(Paths.get(_configName), UTF_8);
+            ciphertext = readString(_inputName).codePoints()
+                .map(c -> m.alphabet().toInt(c))
+                .filter(i -> i >= 0).toArray();
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+        KeySearch search =
+            new KeySearch(m, config, ciphertext, (int) longOption("rings", 0),
+                          (int) longOption("top", 10),
+                          longOption("unit", 1 << 20));
+        if (_options.containsKey("work")) {
+            String[] address = _options.get("work").split(":");
+            if (address.length != 2) {
+                throw error("--work=HOST:PORT expected");
             }
+            new SearchWorker(search).run(address[0], parsePort(address[1]));
+            return;
         }
-        return allRotors;
+        String port = _options.get("coordinate");
+        PrintStream output = _outputName == null ? System.out
+            : getOutput(_outputName);
+        new SearchCoordinator(search, port.isEmpty() ? 0 : parsePort(port),
+                              _options.containsKey("checkpoint")
+                              ? Paths.get(_options.get("checkpoint")) : null,
+                              (int) longOption("lease", 60000))
+            .run((int) longOption("workers", 0), this::workerCommand,
+                 output);
+        closeOutput(output);
     }
 
-    /** Given IN, return the string that match with REGEX and GROUP. */
-    private String matchOne(String in, String regex, int group)
-            throws EnigmaException {
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(in);
-        if (matcher.find()) {
-            return matcher.group(group);
-        } else {
-            throw error("string not found" + in);
+    /** Return the contents of the file named NAME, as text. */
+    private static String readString(String name) throws IOException {
+        try (InputStream in = Gzip.open(Paths.get(name))) {
+            return new String(in.readAllBytes(), UTF_8);
         }
     }
 
-    /** Given IN, REGEX, GROUP, return last next index of the last matched. */
-    private Integer endIndex(String in, String regex, int group) {
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(in);
-        if (matcher.find()) {
-            return matcher.end();
-        } else {
-            return -1;
+    /** Return the command line running a local worker for the search
+     *  being coordinated on PORT. */
+    private List<String> workerCommand(int port) {
+        ArrayList<String> result = new ArrayList<>();
+        result.add(ProcessHandle.current().info().command().orElse("java"));
+        result.add("-cp");
+        result.add(System.getProperty("java.class.path"));
+        result.add(Main.class.getName());
+        result.add("--work=127.0.0.1:" + port);
+        for (String name : SEARCH_OPTIONS) {
+            if (_options.containsKey(name)) {
+                result.add("--" + name + "=" + _options.get(name));
+            }
         }
+        result.add(_configName);
+        result.add(_inputName);
+        return result;
     }
 
-    /** Given LINE, return CYCLES. */
-    private String checkCycles(String line) {
-        String cycles = "";
-        if (line.matches("^\\s*\\(.*\\)")) {
-            cycles = matchOne(line, "^\\s*\\(.*\\)", 0);
+    /** Return the port number PORT. */
+    private static int parsePort(String port) {
+        if (!port.matches("\\d{1,5}")
+            || Integer.parseInt(port) >= (1 << 16)) {
+            throw error("bad port %s", port);
         }
-        return cycles;
+        return Integer.parseInt(port);
     }
 
-    /** Return a rotor, reading its description from _config in THISLINE. */
-    private Rotor readRotor(String thisLine) {
+    /** Using STREAM, convert the byte range given by the --range option
+     *  of the input file, as located by the --index option. */
+    private void processRange(ByteStream stream) {
+        String[] range = _options.get("range").split(":");
+        if (range.length != 2 || _inputName == null
+            || !_options.containsKey("index")) {
+            throw error("--range=START:LENGTH needs --index and an input"
+                        + " file");
+        }
+        if (Gzip.isCompressed(_inputName)) {
+            throw error("--range needs an uncompressed input file");
+        }
+        try (FileChannel in = FileChannel.open(Paths.get(_inputName), READ);
+             WritableByteChannel out = openBytesOutput()) {
+            CheckpointIndex index =
+                new CheckpointIndex(Paths.get(_options.get("index")));
+            stream.convertRange(index, in, Long.parseLong(range[0]),
+                                Long.parseLong(range[1]), out);
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        } catch (NumberFormatException excp) {
+            throw error("bad range %s", _options.get("range"));
+        }
+    }
+
+    /** Using STREAM, convert the input file to the output file,
+     *  reusing what an earlier conversion indexed by the --index option
+     *  left there. */
+    private void processIncremental(ByteStream stream) {
+        if (_inputName == null || _outputName == null
+            || !_options.containsKey("index")) {
+            throw error("--incremental needs --index and input and output"
+                        + " files");
+        }
+        if (Gzip.isCompressed(_inputName) || Gzip.isCompressed(_outputName)) {
+            throw error("--incremental needs uncompressed files");
+        }
         try {
-            String name = matchOne(thisLine, "[^\\s\\(\\)]+", 0);
-            int newStart = endIndex(thisLine, "[^\\s\\(\\)]+", 0);
-            thisLine = thisLine.substring(newStart);
-
-            String properties = matchOne(thisLine, "[^\\s\\(\\)]+", 0);
-            newStart = endIndex(thisLine, "[^\\s\\(\\)]+", 0);
-            thisLine = thisLine.substring(newStart);
-
-            String cycles = matchOne(thisLine, "\\(.*\\)", 0);
-            Permutation perm = new Permutation(cycles, _alphabet);
-
-            if (properties.contains("M")) {
-                int i = properties.indexOf("M");
-                String notch = properties.substring(i + 1);
-                MovingRotor r = new MovingRotor(name, perm, notch);
-                return r;
-            } else if (properties.contains("N")) {
-                FixedRotor r = new FixedRotor(name, perm);
-                return r;
-            } else {
-                Reflector r = new Reflector(name, perm);
-                return r;
-            }
+            stream.update(Paths.get(_inputName), Paths.get(_outputName),
+                          Paths.get(_options.get("index")),
+                          longOption("interval", 1 << 20));
+        } catch (IOException excp) {
+            throw error("I/O error: %s", excp.getMessage());
+        }
+    }
 
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+    /** Return a channel writing to _outputName, or to the standard
+     *  output if it is null. */
+    private WritableByteChannel openBytesOutput() throws IOException {
+        if (_outputName == null) {
+            return Channels.newChannel(System.out);
         }
+        if (Gzip.isCompressed(_outputName)) {
+            return Channels.newChannel(Gzip.create(Paths.get(_outputName),
+                                                   threads()));
+        }
+        return FileChannel.open(Paths.get(_outputName), WRITE, CREATE,
+                                TRUNCATE_EXISTING);
     }
 
-    /** Given IN, keep finding the string that match with REGEX and GROUP.
-     *  Return all msgs. */
-    private String getAllMsg(String in, String regex, int group) {
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(in);
-        String msg = "";
-        while (matcher.find()) {
-            msg += matcher.group(group);
+    /** Give M the engine named by the --engine option, checked as the
+     *  --check option asks, or else the engine best suited to an input
+     *  of LENGTH characters.  Leaves M's engine alone if neither option
+     *  was given and LENGTH is -1 (unknown). */
+    private void chooseEngine(Machine m, long length) {
+        if (_options.containsKey("engine") || _options.containsKey("check")
+            || length >= 0) {
+            m.setEngine(Engines.forMachine(m.alphabet().size(),
+                                           m.numRotors(), m.numPawls(),
+                                           length, _options.get("engine"),
+                                           _options.get("check")));
+        }
+    }
+
+    /** Return the value of option NAME as a long, or DEFAULTVALUE if it
+     *  was not given. */
+    private long longOption(String name, long defaultValue) {
+        if (!_options.containsKey(name)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(_options.get(name));
+        } catch (NumberFormatException excp) {
+            throw error("bad value for --%s", name);
+        }
+    }
+
+    /** Return an Enigma machine configured from the contents of configuration
+     *  file _config, or the preset machine _configName if _config is null.
+     *  Rotors are built only as they are used (see RotorCatalogue),
+     *  except when the number of pawls is not on the second line. */
+    private Machine readConfig() {
+        return readConfiguration().machine();
+    }
+
+    /** Return the configuration read from configuration file _config, or
+     *  the preset machine _configName if _config is null. */
+    private Configuration readConfiguration() {
+        if (_config == null) {
+            return Presets.machine(_configName);
         }
-        return msg;
+        return Configuration.read(_config, Paths.get(_configName),
+                                  longOption("rotor-cache", Long.MAX_VALUE));
     }
 
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
-    private void setUp(Machine M, String settings) throws EnigmaException {
+    static void setUp(Machine M, String settings) throws EnigmaException {
         try {
             int size = M.numRotors();
-            String regex = "[^\\s\\*\\(\\)]+";
-            Pattern pattern = Pattern.compile(regex);
-            Matcher matcher = pattern.matcher(settings);
             String[] names = new String[size];
             String plugBoard = "";
-            ArrayList<String> allItems = new ArrayList<>();
-
-            while (matcher.find()) {
-                allItems.add((matcher.group()));
-            }
+            ArrayList<String> allItems = settingsItems(settings);
             for (int i = 0; i < size; i++) {
                 names[i] = allItems.get(i);
             }
@@ -281,7 +669,8 @@ public final class Main {
             int i = size;
             while (allItems.size() > i + 1) {
                 String item = allItems.get(i + 1);
-                if (item.length() == M.numRotors() - 1) {
+                int len = item.codePointCount(0, item.length());
+                if (len == M.numRotors() - 1) {
                     M.setRotorsRings(item);
                 } else {
                     plugBoard += allItems.get(i + 1);
@@ -289,7 +678,8 @@ public final class Main {
                 i += 1;
             }
             if (plugBoard.compareTo("") != 0) {
-                Permutation plugboard = new Permutation(plugBoard, _alphabet);
+                Permutation plugboard =
+                    new Permutation(plugBoard, M.alphabet());
                 M.setPlugboard(plugboard);
             }
         } catch (IndexOutOfBoundsException excp) {
@@ -297,40 +687,58 @@ public final class Main {
         }
     }
 
-
-
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters).
-     *  return the formatted string */
-    private String printMessageLine(String msg) {
-        int rem = msg.length() % 5;
-        int start = 0;
-        String output = "";
-        for (int i = 5; i <= msg.length() - rem; i += 5) {
-            output += msg.substring(start, i);
-            output += " ";
-            start = i;
-        }
-        if (rem != 0) {
-            String remStr = msg.substring(start);
-            output += remStr;
+    /** Return the items of the settings line SETTINGS, as setUp reads
+     *  them: its words, without asterisks or parentheses. */
+    static ArrayList<String> settingsItems(String settings) {
+        Matcher matcher = SETTINGS_ITEM.matcher(settings);
+        ArrayList<String> result = new ArrayList<>();
+        while (matcher.find()) {
+            result.add(matcher.group());
         }
-        output += "\n";
-        return output;
+        return result;
     }
 
-    /** Alphabet used in this machine. */
-    private Alphabet _alphabet;
+    /** An item of a settings line. */
+    private static final Pattern SETTINGS_ITEM =
+        Pattern.compile("[^\\s\\*\\(\\)]+");
+
+    /** Names of the options accepted on the command line. */
+    private static final List<String> OPTIONS =
+        Arrays.asList("binary", "index", "interval", "range", "engine",
+                      "check", "tables", "threads", "coordinate", "work",
+                      "workers", "checkpoint", "lease", "rings", "top",
+                      "unit", "catalogue", "characteristic",
+                      "rotor-cache", "analyze", "shifts", "incremental",
+                      "generate", "messages", "length", "load", "warmup");
+
+    /** Options passed on to the workers of a search. */
+    private static final List<String> SEARCH_OPTIONS =
+        Arrays.asList("engine", "check", "tables", "rings", "top",
+                      "unit");
+
+    /** Options given on the command line, mapped to their values (empty
+     *  for options given without one). */
+    private final HashMap<String, String> _options = new HashMap<>();
+
+    /** Name of the configuration file. */
+    private String _configName;
+
+    /** Input file in binary mode, or null for the standard input; the
+     *  ciphertext file in a key search. */
+    private String _inputName;
+
+    /** Input files for --analyze. */
+    private String[] _inputNames;
+
+    /** Output file in binary mode, or null for the standard output. */
+    private String _outputName;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private Reader _input;
 
-    /** Source of machine configuration. */
+    /** Source of machine configuration, or null for a preset machine. */
     private Scanner _config;
 
     /** File for encoded/decoded messages. */
     private PrintStream _output;
-
-    /** Current setting for machine. */
-    private String setting;
 }
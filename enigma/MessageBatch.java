@@ -0,0 +1,123 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** The conversion of many messages that all start from the same
+ *  settings of one machine.  The rotors step alike for every such
+ *  message, so the permutation the machine applies at each position is
+ *  the same for all of them: it is computed once, for every position of
+ *  the longest message, and applied to the symbols at that position of
+ *  every message long enough to have one.  Converting N messages of L
+ *  symbols thus costs L passes of the whole alphabet through the rotors
+ *  and N * L table lookups, instead of N * L passes of one symbol, so
+ *  the cost per message falls as the batch grows.
+ *
+ *  The permutations are computed for a block of positions at a time,
+ *  small enough to stay in the cache while each message's symbols at
+ *  those positions are converted, and laid out one after another, so
+ *  that the symbol C at position P of a block is converted by entry
+ *  P * N + C, N being the size of the alphabet.  A batch that decrypts
+ *  applies the inverse of each permutation, which, for the usual
+ *  machine whose reflector is an involution, is the permutation itself.
+ *  @author Yuan Sun
+ */
+class MessageBatch {
+
+    /** A batch converting messages with MACHINE from its current
+     *  settings, decrypting them if DECRYPT.  MACHINE is left at those
+     *  settings after each conversion. */
+    MessageBatch(Machine machine, boolean decrypt) {
+        _machine = machine;
+        _decrypt = decrypt;
+        int n = machine.alphabet().size();
+        _block = Math.max(1, BLOCK_BYTES / (4 * n));
+        _tables = new int[_block * n];
+    }
+
+    /** Return the conversions of MESSAGES, each a sequence of alphabet
+     *  indices converted as though it were the first message after the
+     *  settings line in force. */
+    int[][] convert(int[][] messages) {
+        int n = _machine.alphabet().size();
+        int span = 0;
+        int[][] result = new int[messages.length][];
+        for (int i = 0; i < messages.length; i += 1) {
+            span = Math.max(span, messages[i].length);
+            result[i] = new int[messages[i].length];
+        }
+        int[] saved = _machine.settings();
+        int[] row = new int[n];
+        try {
+            for (int start = 0; start < span; start += _block) {
+                int end = Math.min(span, start + _block);
+                for (int p = start; p < end; p += 1) {
+                    _machine.permutation(row);
+                    int base = (p - start) * n;
+                    for (int c = 0; c < n; c += 1) {
+                        if (_decrypt) {
+                            _tables[base + row[c]] = c;
+                        } else {
+                            _tables[base + c] = row[c];
+                        }
+                    }
+                }
+                for (int i = 0; i < messages.length; i += 1) {
+                    int[] msg = messages[i], out = result[i];
+                    int last = Math.min(end, msg.length);
+                    for (int p = start, base = 0; p < last;
+                         p += 1, base += n) {
+                        out[p] = _tables[base + msg[p]];
+                    }
+                }
+            }
+        } finally {
+            _machine.restoreSettings(saved);
+        }
+        return result;
+    }
+
+    /** Return the conversions of MESSAGES, each a string of characters
+     *  of the machine's alphabet, as for convert(int[][]). */
+    String[] convert(String[] messages) {
+        Alphabet alphabet = _machine.alphabet();
+        int[][] symbols = new int[messages.length][];
+        for (int i = 0; i < messages.length; i += 1) {
+            symbols[i] = messages[i].codePoints().toArray();
+            for (int p = 0; p < symbols[i].length; p += 1) {
+                int c = alphabet.toInt(symbols[i][p]);
+                if (c == -1) {
+                    throw error("character %s not in alphabet",
+                                new String(Character.toChars(
+                                               symbols[i][p])));
+                }
+                symbols[i][p] = c;
+            }
+        }
+        int[][] converted = convert(symbols);
+        String[] result = new String[messages.length];
+        for (int i = 0; i < messages.length; i += 1) {
+            StringBuilder out = new StringBuilder(messages[i].length());
+            for (int c : converted[i]) {
+                out.appendCodePoint(alphabet.toCodePoint(c));
+            }
+            result[i] = out.toString();
+        }
+        return result;
+    }
+
+    /** Bytes of permutations computed at a time. */
+    static final int BLOCK_BYTES = 1 << 16;
+
+    /** The machine converting my messages. */
+    private final Machine _machine;
+
+    /** True iff I decrypt. */
+    private final boolean _decrypt;
+
+    /** Number of positions whose permutations are computed at a time. */
+    private final int _block;
+
+    /** The permutations at the positions of the current block, one after
+     *  another. */
+    private final int[] _tables;
+}
@@ -0,0 +1,109 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** The suite of all JUnit tests for the MessageBatch class.
+ *  @author Yuan Sun
+ */
+public class MessageBatchTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings line for the naval machine, with rings and plugboard. */
+    private static final String SETTINGS =
+        "* B Beta III IV I AXLE BCDA (YF) (ZH)";
+
+    /** Return COUNT random messages of up to MAXLENGTH upper-case
+     *  letters, using RANDOM. */
+    private String[] messages(Random random, int count, int maxLength) {
+        String[] result = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            char[] msg = new char[random.nextInt(maxLength + 1)];
+            for (int p = 0; p < msg.length; p += 1) {
+                msg[p] = (char) ('A' + random.nextInt(26));
+            }
+            result[i] = new String(msg);
+        }
+        return result;
+    }
+
+    /** Return the conversions of MESSAGES by M, each from SETTINGS. */
+    private String[] oneByOne(Machine m, String[] messages) {
+        String[] result = new String[messages.length];
+        for (int i = 0; i < messages.length; i += 1) {
+            Main.setUp(m, SETTINGS);
+            result[i] = m.convert(messages[i]);
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkMatchesMachine() {
+        Random random = new Random(42);
+        String[] messages = messages(random, 300, 2000);
+        messages[7] = "";
+        Machine m = navalMachine(5, 3);
+        String[] expected = oneByOne(m, messages);
+        Main.setUp(m, SETTINGS);
+        int[] start = m.settings();
+        String[] batch = new MessageBatch(m, false).convert(messages);
+        assertEquals(Arrays.asList(expected), Arrays.asList(batch));
+        assertArrayEquals(start, m.settings());
+        assertEquals(expected[0], m.convert(messages[0]));
+    }
+
+    @Test
+    public void checkDecrypts() {
+        Random random = new Random(43);
+        String[] messages = messages(random, 50, 300);
+        Machine m = navalMachine(5, 3);
+        Main.setUp(m, SETTINGS);
+        String[] cipher = new MessageBatch(m, false).convert(messages);
+        assertEquals(Arrays.asList(messages),
+                     Arrays.asList(new MessageBatch(m, true)
+                                   .convert(cipher)));
+    }
+
+    @Test
+    public void checkDecryptsWithoutInvolution() {
+        Alphabet abcd = new Alphabet("ABCD");
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", new Permutation("(ABC)", abcd)));
+        rotors.add(new MovingRotor("M1", new Permutation("(ABCD)", abcd),
+                                   "A"));
+        rotors.add(new MovingRotor("M2", new Permutation("(AB) (C)", abcd),
+                                   "B"));
+        Machine m = new Machine(abcd, 3, 2, rotors);
+        Main.setUp(m, "* R M1 M2 AC");
+        String[] messages = { "ABCDDCBAACBDBDCA", "DDDD", "" };
+        String[] cipher = new MessageBatch(m, false).convert(messages);
+        assertEquals(Arrays.asList(messages),
+                     Arrays.asList(new MessageBatch(m, true)
+                                   .convert(cipher)));
+        assertNotEquals(Arrays.asList(messages),
+                        Arrays.asList(new MessageBatch(m, false)
+                                      .convert(cipher)));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadCharacter() {
+        Machine m = navalMachine(5, 3);
+        Main.setUp(m, SETTINGS);
+        new MessageBatch(m, false).convert(new String[] { "HELLO WORLD" });
+    }
+}
@@ -17,12 +17,18 @@ class MovingRotor extends Rotor {
     MovingRotor(String name, Permutation perm, String notches) {
         super(name, perm);
         _notches = notches;
+        _notchAt = new boolean[perm.size()];
+        notches.codePoints().forEach(c -> {
+            int i = perm.alphabet().toInt(c);
+            if (i != -1) {
+                _notchAt[i] = true;
+            }
+        });
     }
 
     @Override
     boolean atNotch() {
-        String current = Character.toString(alphabet().toChar(setting()));
-        return _notches.contains(current);
+        return _notchAt[setting()];
     }
 
     @Override
@@ -43,4 +49,7 @@ class MovingRotor extends Rotor {
     /** indicate the notch a moving rotor is at. */
     private String _notches;
 
+    /** Whether each setting is a notch, indexed by setting. */
+    private boolean[] _notchAt;
+
 }
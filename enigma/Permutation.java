@@ -1,12 +1,14 @@
 package enigma;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import static enigma.EnigmaException.*;
 
 /** Represents a permutation of a range of integers starting at 0 corresponding
- *  to the characters of an alphabet.
+ *  to the characters of an alphabet.  The mapping is kept in a pair of
+ *  int arrays of the alphabet's size, so applying it or its inverse
+ *  takes constant time.
  *  @author Yuan Sun
  */
 class Permutation {
@@ -20,11 +22,57 @@ class Permutation {
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
         _permutation = cycles;
-        _permuteMap = new HashMap<>(size());
-        _invertMap = new HashMap<>(size());
+        _forward = new int[size()];
+        _inverse = new int[size()];
+        for (int i = 0; i < size(); i += 1) {
+            _forward[i] = _inverse[i] = i;
+        }
         addCycle(cycles);
     }
 
+    /** A permutation of the indices of ALPHABET in which index K maps to
+     *  MAP[K].  MAP must contain each index exactly once. */
+    Permutation(int[] map, Alphabet alphabet) {
+        _alphabet = alphabet;
+        if (map.length != size()) {
+            throw error("permutation of %d indices for alphabet of %d",
+                        map.length, size());
+        }
+        _forward = map.clone();
+        _inverse = new int[size()];
+        Arrays.fill(_inverse, -1);
+        for (int i = 0; i < size(); i += 1) {
+            int k = _forward[i];
+            if (k < 0 || k >= size() || _inverse[k] != -1) {
+                throw error("not a permutation");
+            }
+            _inverse[k] = i;
+        }
+        _permutation = cycleString();
+    }
+
+    /** Return my cycles, in the notation accepted by the constructor,
+     *  leaving out fixed points. */
+    private String cycleString() {
+        StringBuilder result = new StringBuilder();
+        boolean[] seen = new boolean[size()];
+        for (int i = 0; i < size(); i += 1) {
+            if (seen[i] || _forward[i] == i) {
+                continue;
+            }
+            if (result.length() > 0) {
+                result.append(' ');
+            }
+            result.append('(');
+            for (int k = i; !seen[k]; k = _forward[k]) {
+                seen[k] = true;
+                result.appendCodePoint(_alphabet.toCodePoint(k));
+            }
+            result.append(')');
+        }
+        return result.toString();
+    }
+
     /** Return cycles of P.*/
     String returnCycles(Permutation p) {
         return p._permutation;
@@ -37,27 +85,26 @@ class Permutation {
         Pattern pattern = Pattern.compile(regex);
         Matcher matcher = pattern.matcher(cycle);
         while (matcher.find()) {
-            String c = matcher.group();
-            int i = 0;
-            for (i = 0; i < c.length() - 1; i++) {
-                char cur = c.charAt(i);
-                char next = c.charAt(i + 1);
-                int icur = alphabet().toInt(cur);
-                int inext = alphabet().toInt(next);
-                _permuteMap.put(icur, inext);
-                _invertMap.put(inext, icur);
-            }
-            if (i == c.length() - 1) {
-                char cur = c.charAt(i);
-                char next = c.charAt(0);
-                int icur = alphabet().toInt(cur);
-                int inext = alphabet().toInt(next);
-                _permuteMap.put(icur, inext);
-                _invertMap.put(inext, icur);
+            int[] c = matcher.group().codePoints().toArray();
+            for (int i = 0; i < c.length; i += 1) {
+                int icur = index(c[i]);
+                int inext = index(c[(i + 1) % c.length]);
+                _forward[icur] = inext;
+                _inverse[inext] = icur;
             }
         }
     }
 
+    /** Return the index of code point C in my alphabet, which must
+     *  contain it. */
+    private int index(int c) {
+        int i = alphabet().toInt(c);
+        if (i == -1) {
+            throw error("character %s not in alphabet",
+                        new String(Character.toChars(c)));
+        }
+        return i;
+    }
 
     /** Return the value of P modulo the size of this permutation. */
     final int wrap(int p) {
@@ -76,29 +123,13 @@ class Permutation {
     /** Return the result of applying this permutation to P modulo the
      *  alphabet size. */
     int permute(int p) {
-        if (_permutation.equals("")) {
-            return wrap(p);
-        }
-        if ((_permuteMap.get(p)) != null) {
-            int iNext = _permuteMap.get(p);
-            return (wrap(iNext));
-        } else {
-            return wrap(p);
-        }
+        return _forward[wrap(p)];
     }
 
     /** Return the result of applying the inverse of this permutation
      *  to  C modulo the alphabet size. */
     int invert(int c) {
-        if (_permutation.equals("")) {
-            return wrap(c);
-        }
-        if ((_permuteMap.get(c)) != null) {
-            int iPrev = _invertMap.get(c);
-            return (wrap(iPrev));
-        } else {
-            return (wrap(c));
-        }
+        return _inverse[wrap(c)];
     }
 
     /** Return the result of applying this permutation to the index of P
@@ -112,6 +143,18 @@ class Permutation {
         return (alphabet().toChar(invert(alphabet().toInt(c))));
     }
 
+    /** Return my forward table, whose entry K is permute(K).  The array
+     *  is shared with me and must not be modified. */
+    int[] forwardTable() {
+        return _forward;
+    }
+
+    /** Return my inverse table, whose entry K is invert(K).  The array
+     *  is shared with me and must not be modified. */
+    int[] inverseTable() {
+        return _inverse;
+    }
+
     /** Return the alphabet used to initialize this Permutation. */
     Alphabet alphabet() {
         return _alphabet;
@@ -121,24 +164,102 @@ class Permutation {
      *  permutation for which no value maps to itself). */
     boolean derangement() {
         for (int i = 0; i < size(); i++) {
-            if (_permuteMap.get(i) == null) {
-                return false;
-            } else if ((_permuteMap.get(i) == i)) {
+            if (_forward[i] == i) {
                 return false;
             }
         }
         return true;
     }
 
+    /** Return the permutation that applies me and then Q, which must be
+     *  a permutation of an alphabet of the same size. */
+    Permutation compose(Permutation q) {
+        if (q.size() != size()) {
+            throw error("cannot compose permutations of different sizes");
+        }
+        int[] map = new int[size()];
+        for (int i = 0; i < map.length; i += 1) {
+            map[i] = q._forward[_forward[i]];
+        }
+        return new Permutation(map, _alphabet);
+    }
+
+    /** Return my inverse. */
+    Permutation inverse() {
+        return new Permutation(_inverse, _alphabet);
+    }
+
+    /** Return the result of applying me K times (my inverse -K times if
+     *  K is negative). */
+    Permutation power(long k) {
+        int[] map = new int[size()];
+        int[] cycle = new int[size()];
+        boolean[] seen = new boolean[size()];
+        for (int i = 0; i < map.length; i += 1) {
+            if (seen[i]) {
+                continue;
+            }
+            int len = 0;
+            for (int j = i; !seen[j]; j = _forward[j]) {
+                seen[j] = true;
+                cycle[len++] = j;
+            }
+            int step = (int) Math.floorMod(k, (long) len);
+            for (int j = 0; j < len; j += 1) {
+                map[cycle[j]] = cycle[(j + step) % len];
+            }
+        }
+        return new Permutation(map, _alphabet);
+    }
+
+    /** Return me as seen by a rotor whose ring-adjusted setting is SHIFT:
+     *  the permutation taking P to permute(P + SHIFT) - SHIFT, modulo the
+     *  alphabet size, which is what Rotor.convertForward applies. */
+    Permutation conjugate(int shift) {
+        int s = wrap(shift);
+        int[] map = new int[size()];
+        for (int i = 0; i < map.length; i += 1) {
+            map[i] = wrap(_forward[wrap(i + s)] - s);
+        }
+        return new Permutation(map, _alphabet);
+    }
+
+    /** Return the lengths of my cycles, including fixed points, longest
+     *  first.  Two permutations have the same cycle structure iff they
+     *  are conjugate. */
+    int[] cycleStructure() {
+        boolean[] seen = new boolean[size()];
+        int[] lengths = new int[size()];
+        int n = 0;
+        for (int i = 0; i < size(); i += 1) {
+            int len = 0;
+            for (int j = i; !seen[j]; j = _forward[j]) {
+                seen[j] = true;
+                len += 1;
+            }
+            if (len > 0) {
+                lengths[n++] = len;
+            }
+        }
+        int[] result = Arrays.copyOf(lengths, n);
+        Arrays.sort(result);
+        for (int i = 0, j = n - 1; i < j; i += 1, j -= 1) {
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
     /** Alphabet of this permutation. */
     private Alphabet _alphabet;
 
     /** Permutation that specifies a cycle. */
     private String _permutation;
 
-    /** Hashmap that stores a forward permutation. */
-    private HashMap<Integer, Integer> _permuteMap;
+    /** Image of each index under the permutation. */
+    private int[] _forward;
 
-    /** Hashmap that stores a backward invert. */
-    private HashMap<Integer, Integer> _invertMap;
+    /** Image of each index under the inverse permutation. */
+    private int[] _inverse;
 }
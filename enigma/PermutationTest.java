@@ -59,5 +59,61 @@ public class PermutationTest {
         checkPerm("forward1", UPPER_STRING, "EKMFLGDQVZNTOWYHXUSPAIBRCJ");
     }
 
+    @Test
+    public void checkCompose() {
+        Permutation p = new Permutation(NAVALA.get("I"), UPPER);
+        Permutation q = new Permutation(NAVALA.get("II"), UPPER);
+        Permutation pq = p.compose(q);
+        for (int i = 0; i < 26; i += 1) {
+            assertEquals(q.permute(p.permute(i)), pq.permute(i));
+            assertEquals(i, pq.invert(pq.permute(i)));
+        }
+        perm = p.compose(p.inverse());
+        checkPerm("identity", UPPER_STRING, UPPER_STRING);
+    }
+
+    @Test
+    public void checkPower() {
+        Permutation p = new Permutation(NAVALA.get("I"), UPPER);
+        Permutation p3 = p.compose(p).compose(p);
+        perm = p.power(3);
+        checkPerm("cube", UPPER_STRING, mapped(p3));
+        perm = p.power(-1);
+        checkPerm("inverse", UPPER_STRING, mapped(p.inverse()));
+        perm = p.power(0);
+        checkPerm("zero", UPPER_STRING, UPPER_STRING);
+        perm = p.power(1L << 40);
+        checkPerm("big", UPPER_STRING, mapped(p.power((1L << 40) % 120)));
+    }
+
+    @Test
+    public void checkConjugate() {
+        Permutation p = new Permutation(NAVALA.get("I"), UPPER);
+        perm = p.conjugate(1);
+        checkPerm("shift B", UPPER_STRING, NAVALB_MAP.get("I"));
+        perm = p.conjugate(25);
+        checkPerm("shift Z", UPPER_STRING, NAVALZ_MAP.get("I"));
+        perm = p.conjugate(-1);
+        checkPerm("shift -1", UPPER_STRING, NAVALZ_MAP.get("I"));
+    }
+
+    @Test
+    public void checkCycleStructure() {
+        Permutation p = new Permutation(NAVALA.get("I"), UPPER);
+        assertArrayEquals(new int[] { 10, 4, 4, 3, 2, 2, 1 },
+                          p.cycleStructure());
+        assertArrayEquals(p.cycleStructure(),
+                          p.conjugate(7).cycleStructure());
+        assertEquals(26, new Permutation("", UPPER).cycleStructure().length);
+    }
+
+    /** Return the images of the upper-case letters under P. */
+    private String mapped(Permutation p) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < 26; i += 1) {
+            result.append(UPPER.toChar(p.permute(i)));
+        }
+        return result.toString();
+    }
 
 }
@@ -0,0 +1,167 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static enigma.EnigmaException.*;
+
+/** The standard rotors and machines, built in, so that they need not be
+ *  described in, or read from, a configuration file.  The rotors are
+ *  those of testing/correct/default.conf: the moving rotors I to VIII,
+ *  the fixed rotors Beta and Gamma, and the reflectors B and C, over the
+ *  alphabet A to Z.  Each is kept as the table of its permutation, so
+ *  that building it needs no parsing of cycles.
+ *
+ *  A configuration file may name preset rotors on a line of its own, as
+ *  in "@I @II @B", instead of describing them; "@M3" or "@M4" there
+ *  names all the rotors of that machine.  Main accepts "@M3" or "@M4"
+ *  in place of the name of a configuration file, for the three-rotor
+ *  Enigma (four slots, three pawls) or the naval four-rotor one (five
+ *  slots, three pawls) with all their standard rotors.
+ *  @author Yuan Sun
+ */
+final class Presets {
+
+    /** Not instantiable. */
+    private Presets() {
+    }
+
+    /** The alphabet of the preset rotors. */
+    static final String LETTERS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    /** Names of the preset rotors. */
+    static final List<String> ROTORS =
+        Arrays.asList("I", "II", "III", "IV", "V", "VI", "VII", "VIII",
+                      "Beta", "Gamma", "B", "C");
+
+    /** Names of the preset machines. */
+    static final List<String> MACHINES = Arrays.asList("M3", "M4");
+
+    /** Return true iff TOKEN refers to presets: it starts with '@'. */
+    static boolean isPreset(String token) {
+        return token.startsWith("@");
+    }
+
+    /** Return the names of the preset rotors referred to by the line
+     *  LINE of a configuration file, which holds one or more names of
+     *  preset rotors or machines, each preceded by '@'. */
+    static List<String> rotorNames(String line) {
+        ArrayList<String> result = new ArrayList<>();
+        for (String token : line.trim().split("\\s+")) {
+            if (!isPreset(token)) {
+                throw error("%s is not a preset name", token);
+            }
+            String name = token.substring(1);
+            if (MACHINES.contains(name)) {
+                result.addAll(machineRotors(name));
+            } else if (ROTORS.contains(name)) {
+                result.add(name);
+            } else {
+                throw error("no preset rotor or machine named %s", name);
+            }
+        }
+        return result;
+    }
+
+    /** Return the kind of the preset rotor NAME, as in RotorCatalogue. */
+    static char kind(String name) {
+        return KINDS[index(name)];
+    }
+
+    /** Return a new preset rotor named NAME over ALPHABET, which must be
+     *  the letters A to Z in order. */
+    static Rotor rotor(String name, Alphabet alphabet) {
+        checkAlphabet(alphabet);
+        int r = index(name);
+        Permutation perm = new Permutation(FORWARD[r], alphabet);
+        switch (KINDS[r]) {
+        case RotorCatalogue.MOVING:
+            return new MovingRotor(name, perm, NOTCHES[r]);
+        case RotorCatalogue.FIXED:
+            return new FixedRotor(name, perm);
+        default:
+            return new Reflector(name, perm);
+        }
+    }
+
+    /** Check that preset rotors may be used over ALPHABET. */
+    static void checkAlphabet(Alphabet alphabet) {
+        if (!alphabet.toString().equals(LETTERS)) {
+            throw error("preset rotors need the alphabet %s", LETTERS);
+        }
+    }
+
+    /** Return the configuration of the preset machine named NAME, with
+     *  its leading '@'. */
+    static Configuration machine(String name) {
+        String machine = name.substring(1);
+        if (!MACHINES.contains(machine)) {
+            throw error("no preset machine named %s", machine);
+        }
+        Alphabet alphabet = new Alphabet(LETTERS);
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (String rotor : machineRotors(machine)) {
+            rotors.add(rotor(rotor, alphabet));
+        }
+        return Configuration.of(alphabet, machine.equals("M3") ? 4 : 5, 3,
+                                rotors);
+    }
+
+    /** Return the names of the rotors of the preset machine MACHINE. */
+    private static List<String> machineRotors(String machine) {
+        if (machine.equals("M3")) {
+            return Arrays.asList("I", "II", "III", "IV", "V", "VI", "VII",
+                                 "VIII", "B", "C");
+        }
+        return ROTORS;
+    }
+
+    /** Return the index of the preset rotor NAME in ROTORS. */
+    private static int index(String name) {
+        int result = ROTORS.indexOf(name);
+        if (result < 0) {
+            throw error("no preset rotor named %s", name);
+        }
+        return result;
+    }
+
+    /** The kind of each preset rotor. */
+    private static final char[] KINDS = {
+        'M', 'M', 'M', 'M', 'M', 'M', 'M', 'M', 'N', 'N', 'R', 'R',
+    };
+
+    /** The notches of each preset rotor, as a string of letters. */
+    private static final String[] NOTCHES = {
+        "Q", "E", "V", "J", "Z", "ZM", "ZM", "ZM", "", "", "", "",
+    };
+
+    /** The permutation of each preset rotor, as the index to which each
+     *  index maps. */
+    private static final int[][] FORWARD = {
+        { 4, 10, 12, 5, 11, 6, 3, 16, 21, 25, 13, 19, 14, 22, 24, 7, 23,
+          20, 18, 15, 0, 8, 1, 17, 2, 9 },
+        { 0, 9, 3, 10, 18, 8, 17, 20, 23, 1, 11, 7, 22, 19, 12, 2, 16, 6,
+          25, 13, 15, 24, 5, 21, 14, 4 },
+        { 1, 3, 5, 7, 9, 11, 2, 15, 17, 19, 23, 21, 25, 13, 24, 4, 8, 22,
+          6, 0, 10, 12, 20, 18, 16, 14 },
+        { 4, 18, 14, 21, 15, 25, 9, 0, 24, 16, 20, 8, 17, 7, 23, 11, 13, 5,
+          19, 6, 10, 3, 2, 12, 22, 1 },
+        { 21, 25, 1, 17, 6, 8, 19, 24, 20, 15, 18, 3, 13, 7, 11, 23, 0, 22,
+          12, 9, 16, 14, 5, 4, 2, 10 },
+        { 9, 15, 6, 21, 14, 20, 12, 5, 24, 16, 1, 4, 13, 7, 25, 17, 3, 10,
+          0, 18, 23, 11, 8, 2, 19, 22 },
+        { 13, 25, 9, 7, 6, 17, 2, 23, 12, 24, 18, 22, 1, 14, 20, 5, 0, 8,
+          21, 11, 15, 4, 10, 16, 3, 19 },
+        { 5, 10, 16, 7, 19, 11, 23, 14, 2, 1, 9, 18, 15, 3, 25, 17, 0, 12,
+          4, 22, 13, 8, 20, 24, 6, 21 },
+        { 11, 4, 24, 9, 21, 2, 13, 8, 23, 22, 15, 1, 16, 12, 3, 17, 19, 0,
+          10, 25, 6, 5, 20, 7, 14, 18 },
+        { 5, 18, 14, 10, 0, 13, 20, 4, 17, 7, 12, 1, 19, 8, 24, 2, 22, 11,
+          16, 15, 25, 23, 21, 6, 9, 3 },
+        { 4, 13, 10, 16, 0, 20, 24, 22, 9, 8, 2, 14, 15, 1, 11, 12, 3, 23,
+          25, 21, 5, 19, 7, 17, 6, 18 },
+        { 17, 3, 14, 1, 9, 13, 19, 10, 21, 4, 7, 12, 11, 5, 2, 22, 25, 0,
+          23, 6, 24, 8, 15, 18, 20, 16 },
+    };
+}
@@ -0,0 +1,111 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+/** The suite of all JUnit tests for the Presets class.
+ *  @author Yuan Sun
+ */
+public class PresetsTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings lines and messages exercising every preset rotor. */
+    private static final String[] MESSAGES = {
+        "* B Beta III IV I AXLE (YF) (ZH)", "HELLOWORLDHELLOWORLDHELLOWORLD",
+        "* C Gamma VI VII VIII ZZZZ BCDE", "HELLOWORLDHELLOWORLDHELLOWORLD",
+        "* B Gamma II V VI AQEV", "HELLOWORLDHELLOWORLDHELLOWORLD",
+    };
+
+    /** Return the text of the default configuration, checking it
+     *  against testing/correct/default.conf when that can be found from
+     *  here, at the top of the repository or in enigma/. */
+    private String defaultConf() throws Exception {
+        for (String top : new String[] { ".", ".." }) {
+            Path file = Paths.get(top, "testing", "correct", "default.conf");
+            if (Files.exists(file)) {
+                assertEquals(Files.readString(file).replaceAll(" +\n", "\n"),
+                             TestUtils.DEFAULT_CONF);
+            }
+        }
+        return TestUtils.DEFAULT_CONF;
+    }
+
+    /** Return the result of running MESSAGES through M. */
+    private String run(Machine m) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < MESSAGES.length; i += 2) {
+            Main.setUp(m, MESSAGES[i]);
+            result.append(m.convert(MESSAGES[i + 1])).append('\n');
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkMatchesDefaultConf() throws Exception {
+        Configuration conf = Configuration.parse(defaultConf());
+        Machine described = conf.machine();
+        Machine preset = Presets.machine("@M4").machine();
+        assertEquals(run(described), run(preset));
+        for (String name : Presets.ROTORS) {
+            Rotor r = described.rotors().get(name);
+            Rotor p = Presets.rotor(name, conf.alphabet());
+            assertArrayEquals(name, r.permutation().forwardTable(),
+                              p.permutation().forwardTable());
+            assertEquals(name, r.rotates(), p.rotates());
+            assertEquals(name, r.reflecting(), p.reflecting());
+            for (int k = 0; r.rotates() && k < r.size(); k += 1) {
+                r.set(k);
+                p.set(k);
+                assertEquals(name, r.atNotch(), p.atNotch());
+            }
+        }
+    }
+
+    @Test
+    public void checkPresetLines() throws Exception {
+        String conf = "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 5 3\n"
+            + " @I @II @III\n @Beta @Gamma @B @C @V @VI @VII @VIII\n"
+            + " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n";
+        String expected = run(Configuration.parse(defaultConf()).machine());
+        Path file = Files.createTempFile("presets", ".conf");
+        try {
+            Files.writeString(file, conf);
+            Machine lazy = Configuration.read(new Scanner(file), file,
+                                              Long.MAX_VALUE).machine();
+            assertEquals(RotorCatalogue.MOVING, lazy.rotors().kind("II"));
+            assertEquals(RotorCatalogue.REFLECTOR, lazy.rotors().kind("B"));
+            assertEquals(expected, run(lazy));
+        } finally {
+            Files.delete(file);
+        }
+        Machine built = Configuration.parse(conf).machine();
+        assertEquals(expected, run(built));
+        assertEquals(12, Configuration.parse("ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+                                             + " 5 3\n @M4\n")
+                     .machine().rotors().names().size());
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkPresetAlphabet() {
+        Configuration.parse("ABCDEFGHIJKLMNOPQRSTUVWXY\n 5 3\n @M4\n");
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnknownPreset() {
+        Configuration.parse("ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 5 3\n @IX\n");
+    }
+}
@@ -0,0 +1,43 @@
+package enigma;
+
+/** The engine that passes each character through every rotor in turn,
+ *  keeping no tables of its own.  It is the slowest engine, and the
+ *  standard against which the others are checked.
+ *  @author Yuan Sun
+ */
+class ReferenceEngine implements Engine {
+
+    @Override
+    public String name() {
+        return "reference";
+    }
+
+    @Override
+    public Engine fresh() {
+        return new ReferenceEngine();
+    }
+
+    @Override
+    public void reset(Rotor[] slots, int alphabetSize) {
+        _slots = slots;
+    }
+
+    @Override
+    public void moved(int j) {
+    }
+
+    @Override
+    public int convert(int k) {
+        Rotor[] slots = _slots;
+        for (int i = slots.length - 1; i >= 0; i -= 1) {
+            k = slots[i].convertForward(k);
+        }
+        for (int i = 1; i < slots.length; i += 1) {
+            k = slots[i].convertBackward(k);
+        }
+        return k;
+    }
+
+    /** The rotors I pass characters through, reflector first. */
+    private Rotor[] _slots;
+}
@@ -5,7 +5,7 @@ import static enigma.EnigmaException.*;
 /** Superclass that represents a rotor in the enigma machine.
  *  @author Yuan Sun
  */
-class Rotor {
+class Rotor implements Cloneable {
 
     /** A rotor named NAME whose permutation is given by PERM. */
     Rotor(String name, Permutation perm) {
@@ -55,11 +55,13 @@ class Rotor {
     /** Set setting() to POSN.  */
     void set(int posn) {
         _setting = posn;
+        updateOffset();
     }
 
     /** Set setting() to character CPOSN. */
     void set(char cposn) {
         _setting = cposn;
+        updateOffset();
     }
 
     /** return my pawl(), default to 0, unless I'm a mover. */
@@ -75,36 +77,63 @@ class Rotor {
     /** set my ring to R. */
     void ring(String r) {
         _ring = r;
+        _ringIndex = alphabet().toInt(r.codePointAt(0));
+        updateOffset();
+    }
+
+    /** Set my ring to character number INDEX of my alphabet. */
+    void ring(int index) {
+        ring(new String(Character.toChars(alphabet().toCodePoint(index))));
+    }
+
+    /** Return the index of my ring character (0 if I have none). */
+    int ringIndex() {
+        return _ringIndex;
     }
 
     /** return MySetting if possible. */
     int settingAfterRing() {
-        if (this.ringSetting() != null) {
-            String ringS = this.ringSetting();
-            char ring = (ringS.charAt(0));
-            int setting = setting() - alphabet().toInt(ring);
-            return permutation().wrap(setting);
+        return _offset;
+    }
+
+    /** Recompute settingAfterRing() from my setting and ring, so that
+     *  conversions need not look the ring character up again. */
+    private void updateOffset() {
+        if (_ring != null) {
+            _offset = permutation().wrap(_setting - _ringIndex);
+        } else {
+            _offset = permutation().wrap(_setting);
         }
-        return _setting;
     }
+
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        int setting = this.settingAfterRing();
-        int now = permutation().wrap(setting + p);
-        int permuteMiddle = permutation().permute(now);
-        int getBack = _permutation.wrap(permuteMiddle - setting);
-        return (getBack);
+        return shift(_permutation.forwardTable(), p);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        int setting = this.settingAfterRing();
-        int now = permutation().wrap(e + setting);
-        int permuteMiddle = permutation().invert(now);
-        int getBack = _permutation.wrap(permuteMiddle - setting);
-        return (getBack);
+        return shift(_permutation.inverseTable(), e);
+    }
+
+    /** Return the permutation I apply in convertForward at my current
+     *  setting and ring; its inverse is what convertBackward applies. */
+    Permutation currentPermutation() {
+        return _permutation.conjugate(_offset);
+    }
+
+    /** Return TABLE applied to P (an integer in the range 0..size()-1)
+     *  as seen through my current ring-adjusted offset. */
+    private int shift(int[] table, int p) {
+        int n = table.length;
+        int now = p + _offset;
+        if (now >= n) {
+            now -= n;
+        }
+        int getBack = table[now] - _offset;
+        return getBack < 0 ? getBack + n : getBack;
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -118,6 +147,16 @@ class Rotor {
         set(permutation().wrap(setting() + 1));
     }
 
+    /** Return a new rotor like me, at my current setting and ring,
+     *  sharing my permutation. */
+    Rotor copy() {
+        try {
+            return (Rotor) clone();
+        } catch (CloneNotSupportedException excp) {
+            throw new AssertionError(excp);
+        }
+    }
+
     @Override
     public String toString() {
         return "Rotor " + _name;
@@ -135,6 +174,12 @@ class Rotor {
     /** ring. */
     private String _ring;
 
+    /** Index of my ring character in my alphabet. */
+    private int _ringIndex;
+
+    /** My setting adjusted by my ring, as returned by settingAfterRing. */
+    private int _offset;
+
     /** pawl. */
     private int _pawl;
 }
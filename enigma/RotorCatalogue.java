@@ -0,0 +1,500 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static enigma.EnigmaException.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/** The rotors available to a machine, by name.
+ *
+ *  A catalogue either holds a collection of rotors already built, or
+ *  indexes the rotor descriptions of a configuration file.  An index
+ *  keeps only the name, kind and byte range of each description; a
+ *  rotor's wiring is read and its permutation built the first time the
+ *  rotor is asked for, so that a library of thousands of rotors costs
+ *  little more to load than the handful a run uses.  Built rotors are
+ *  kept in a cache that may be bounded in (estimated) bytes, dropping
+ *  the least recently used; rotors in a machine's slots are never
+ *  dropped, and a dropped rotor's ring is remembered, so that dropping
+ *  rotors never changes what a machine does.  Since descriptions are
+ *  read only when needed, the file must not change while the catalogue
+ *  is in use; a change to its size or modification time, or a
+ *  description that no longer names its rotor, is reported as an
+ *  error rather than building the wrong rotor.
+ *  @author Yuan Sun
+ */
+class RotorCatalogue {
+
+    /** Kind of a moving rotor. */
+    static final char MOVING = 'M';
+
+    /** Kind of a fixed rotor. */
+    static final char FIXED = 'N';
+
+    /** Kind of a reflector. */
+    static final char REFLECTOR = 'R';
+
+    /** A catalogue of ROTORS, each under its name; a later rotor
+     *  replaces an earlier one of the same name. */
+    RotorCatalogue(Collection<Rotor> rotors) {
+        _file = null;
+        _alphabet = null;
+        _size = -1;
+        _modified = null;
+        _limit = Long.MAX_VALUE;
+        _index = new HashMap<>();
+        _names = new ArrayList<>();
+        _kinds = new byte[rotors.size()];
+        for (Rotor r : rotors) {
+            Integer e = _index.get(r.name());
+            if (e == null) {
+                e = _names.size();
+                _index.put(r.name(), e);
+                _names.add(r.name());
+            }
+            _kinds[e] = (byte) kindOf(r);
+            _cache.put(r.name(), r);
+        }
+        for (Rotor r : _cache.values()) {
+            _bytes += weight(r);
+        }
+        _starts = _ends = null;
+    }
+
+    /** A catalogue of the rotors described in the configuration file
+     *  FILE, whose alphabet is ALPHABET, keeping built rotors of at most
+     *  about LIMIT bytes in all.  The descriptions start on the third
+     *  line of FILE and end at the first blank line; a line naming
+     *  preset rotors (see Presets) stands for their descriptions. */
+    RotorCatalogue(Path file, Alphabet alphabet, long limit) {
+        _file = file;
+        _alphabet = alphabet;
+        _limit = limit;
+        _index = new HashMap<>();
+        _names = new ArrayList<>();
+        ArrayList<long[]> ranges = new ArrayList<>();
+        ArrayList<Character> kinds = new ArrayList<>();
+        try {
+            _size = Files.size(file);
+            _modified = Files.getLastModifiedTime(file);
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+        try (InputStream in =
+                 new BufferedInputStream(Files.newInputStream(file))) {
+            Lines lines = new Lines(in);
+            int current = -1;
+            for (int k = 0; lines.next(); k += 1) {
+                String line = lines.text;
+                if (k < 2) {
+                    continue;
+                } else if (line.matches("\\s+")) {
+                    break;
+                } else if (Presets.isPreset(line.trim())) {
+                    Presets.checkAlphabet(alphabet);
+                    for (String name : Presets.rotorNames(line)) {
+                        int e = describe(name, ranges, kinds);
+                        ranges.set(e, PRESET);
+                        kinds.set(e, Presets.kind(name));
+                    }
+                    current = -1;
+                    continue;
+                } else if (!checkCycles(line).isEmpty()) {
+                    if (current < 0) {
+                        throw error("bad rotor description");
+                    }
+                    ranges.get(current)[1] = lines.end;
+                    continue;
+                }
+                String name = matchOne(line, NAME, 0);
+                line = line.substring(endIndex(line, NAME, 0));
+                String properties = matchOne(line, NAME, 0);
+                matchOne(line.substring(endIndex(line, NAME, 0)),
+                         "\\(.*\\)", 0);
+                int e = describe(name, ranges, kinds);
+                ranges.set(e, new long[] { lines.start, lines.end });
+                kinds.set(e, properties.contains("M") ? MOVING
+                          : properties.contains("N") ? FIXED : REFLECTOR);
+                current = e;
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+        _starts = new long[ranges.size()];
+        _ends = new long[ranges.size()];
+        _kinds = new byte[ranges.size()];
+        for (int e = 0; e < _starts.length; e += 1) {
+            _starts[e] = ranges.get(e)[0];
+            _ends[e] = ranges.get(e)[1];
+            _kinds[e] = (byte) (char) kinds.get(e);
+        }
+    }
+
+    /** Return the number of the rotor named NAME, adding it to my names,
+     *  and a place for it to RANGES and KINDS, if it is new. */
+    private int describe(String name, ArrayList<long[]> ranges,
+                         ArrayList<Character> kinds) {
+        Integer e = _index.get(name);
+        if (e == null) {
+            e = _names.size();
+            _index.put(name, e);
+            _names.add(name);
+            ranges.add(null);
+            kinds.add(null);
+        }
+        return e;
+    }
+
+    /** A copy of ORIGINAL holding, in place of each built rotor R,
+     *  COPIES.get(R), which is made with R.copy() if missing. */
+    private RotorCatalogue(RotorCatalogue original,
+                           IdentityHashMap<Rotor, Rotor> copies) {
+        _file = original._file;
+        _alphabet = original._alphabet;
+        _size = original._size;
+        _modified = original._modified;
+        _limit = original._limit;
+        _index = original._index;
+        _names = original._names;
+        _kinds = original._kinds;
+        _starts = original._starts;
+        _ends = original._ends;
+        for (Map.Entry<String, Rotor> e : original._cache.entrySet()) {
+            _cache.put(e.getKey(),
+                       copies.computeIfAbsent(e.getValue(), Rotor::copy));
+        }
+        _bytes = original._bytes;
+        _rings.putAll(original._rings);
+    }
+
+    /** Return a copy of me whose built rotors are the copies in COPIES
+     *  of mine, adding a copy to COPIES of each rotor missing from it. */
+    RotorCatalogue copy(IdentityHashMap<Rotor, Rotor> copies) {
+        return new RotorCatalogue(this, copies);
+    }
+
+    /** Return the rotor named NAME, building it if need be, or null if
+     *  there is none. */
+    Rotor get(String name) {
+        Rotor result = _cache.get(name);
+        if (result == null) {
+            Integer e = _index.get(name);
+            if (e == null) {
+                return null;
+            }
+            result = build(e);
+            String ring = _rings.remove(name);
+            if (ring != null) {
+                result.ring(ring);
+            }
+            _cache.put(name, result);
+            _bytes += weight(result);
+        }
+        return result;
+    }
+
+    /** Return the names of my rotors, in the order described. */
+    List<String> names() {
+        return Collections.unmodifiableList(_names);
+    }
+
+    /** Return the kind (MOVING, FIXED or REFLECTOR) of the rotor named
+     *  NAME, or 0 if there is none, without building it. */
+    char kind(String name) {
+        Integer e = _index.get(name);
+        return e == null ? 0 : (char) _kinds[e];
+    }
+
+    /** Return all my rotors by name, building them all. */
+    HashMap<String, Rotor> all() {
+        HashMap<String, Rotor> result = new HashMap<>();
+        for (String name : _names) {
+            result.put(name, get(name));
+        }
+        return result;
+    }
+
+    /** Return the number of rotors built and kept. */
+    int built() {
+        return _cache.size();
+    }
+
+    /** Return the estimated bytes of the rotors built and kept. */
+    long bytes() {
+        return _bytes;
+    }
+
+    /** Note that SLOTS (which may change later) holds the rotors in use,
+     *  which are never dropped, and drop unused rotors as needed to keep
+     *  within my limit. */
+    void hold(Rotor[] slots) {
+        _held = slots;
+        Iterator<Rotor> built = _cache.values().iterator();
+        while (_bytes > _limit && built.hasNext()) {
+            Rotor r = built.next();
+            if (!Arrays.asList(_held).contains(r)) {
+                built.remove();
+                _bytes -= weight(r);
+                if (r.ringSetting() != null) {
+                    _rings.put(r.name(), r.ringSetting());
+                }
+            }
+        }
+    }
+
+    /** Return a rotor built from description number E of my file. */
+    private Rotor build(int e) {
+        if (_starts[e] < 0) {
+            return Presets.rotor(_names.get(e), _alphabet);
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) (_ends[e] - _starts[e]));
+        try (FileChannel in = FileChannel.open(_file, READ)) {
+            if (in.size() != _size
+                || !Files.getLastModifiedTime(_file).equals(_modified)) {
+                throw error("%s changed while in use", _file);
+            }
+            while (bytes.hasRemaining()) {
+                if (in.read(bytes, _starts[e] + bytes.position()) < 0) {
+                    throw error("%s changed while in use", _file);
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", _file);
+        }
+        String[] lines = new String(bytes.array(), UTF_8).split(LINE_BREAK);
+        Rotor result;
+        try {
+            result = readRotor(lines[0], _alphabet);
+        } catch (EnigmaException excp) {
+            throw error("%s changed while in use", _file);
+        }
+        if (!result.name().equals(_names.get(e))) {
+            throw error("%s changed while in use", _file);
+        }
+        for (int i = 1; i < lines.length; i += 1) {
+            result.permutation().addCycle(checkCycles(lines[i]));
+        }
+        return result;
+    }
+
+    /** Return the kind of ROTOR. */
+    private static char kindOf(Rotor rotor) {
+        return rotor.reflecting() ? REFLECTOR
+            : rotor.rotates() ? MOVING : FIXED;
+    }
+
+    /** Return the estimated size in bytes of ROTOR. */
+    private static long weight(Rotor rotor) {
+        return ROTOR_BYTES + 12L * rotor.size();
+    }
+
+    /** Return a rotor over ALPHABET described by the line THISLINE of a
+     *  configuration file. */
+    static Rotor readRotor(String thisLine, Alphabet alphabet) {
+        try {
+            String name = matchOne(thisLine, NAME, 0);
+            int newStart = endIndex(thisLine, NAME, 0);
+            thisLine = thisLine.substring(newStart);
+
+            String properties = matchOne(thisLine, NAME, 0);
+            newStart = endIndex(thisLine, NAME, 0);
+            thisLine = thisLine.substring(newStart);
+
+            String cycles = matchOne(thisLine, "\\(.*\\)", 0);
+            Permutation perm = new Permutation(cycles, alphabet);
+
+            if (properties.contains("M")) {
+                int i = properties.indexOf("M");
+                String notch = properties.substring(i + 1);
+                MovingRotor r = new MovingRotor(name, perm, notch);
+                return r;
+            } else if (properties.contains("N")) {
+                FixedRotor r = new FixedRotor(name, perm);
+                return r;
+            } else {
+                Reflector r = new Reflector(name, perm);
+                return r;
+            }
+
+        } catch (NoSuchElementException excp) {
+            throw error("bad rotor description");
+        }
+    }
+
+    /** Given LINE, return CYCLES: the whole of LINE if it continues the
+     *  cycles of the rotor on the lines before, or else "". */
+    static String checkCycles(String line) {
+        String cycles = "";
+        if (line.matches("^\\s*\\(.*\\)")) {
+            cycles = matchOne(line, "^\\s*\\(.*\\)", 0);
+        }
+        return cycles;
+    }
+
+    /** Given IN, return the string that match with REGEX and GROUP. */
+    private static String matchOne(String in, String regex, int group)
+            throws EnigmaException {
+        Pattern pattern = Pattern.compile(regex);
+        Matcher matcher = pattern.matcher(in);
+        if (matcher.find()) {
+            return matcher.group(group);
+        } else {
+            throw error("string not found" + in);
+        }
+    }
+
+    /** Given IN, REGEX, GROUP, return last next index of the last matched. */
+    private static Integer endIndex(String in, String regex, int group) {
+        Pattern pattern = Pattern.compile(regex);
+        Matcher matcher = pattern.matcher(in);
+        if (matcher.find()) {
+            return matcher.end();
+        } else {
+            return -1;
+        }
+    }
+
+    /** The lines of a UTF-8 stream, with their byte offsets, split as by
+     *  Scanner.nextLine. */
+    private static class Lines {
+
+        /** The lines of IN, which must support mark. */
+        Lines(InputStream in) {
+            _in = in;
+        }
+
+        /** Read the next line into text, start and end, returning false
+         *  at the end of the input. */
+        boolean next() throws IOException {
+            _line.reset();
+            start = end;
+            int b = _in.read();
+            if (b < 0) {
+                return false;
+            }
+            for (; b >= 0; b = _in.read()) {
+                end += 1;
+                if (b == '\n') {
+                    break;
+                } else if (b == '\r') {
+                    if (follows('\n')) {
+                        end += 1;
+                    }
+                    break;
+                } else if (b == 0xC2 && follows(0x85)) {
+                    end += 1;
+                    break;
+                } else if (b == 0xE2 && (follows(0x80, 0xA8)
+                                         || follows(0x80, 0xA9))) {
+                    end += 2;
+                    break;
+                }
+                _line.write(b);
+            }
+            text = new String(_line.toByteArray(), UTF_8);
+            return true;
+        }
+
+        /** Return true, consuming them, iff the next bytes are BYTES. */
+        private boolean follows(int... bytes) throws IOException {
+            _in.mark(bytes.length);
+            for (int b : bytes) {
+                if (_in.read() != b) {
+                    _in.reset();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** The last line read, without its terminator. */
+        String text;
+
+        /** Offsets of the first byte of the last line and of the byte
+         *  after its terminator. */
+        long start, end;
+
+        /** The input. */
+        private final InputStream _in;
+
+        /** The bytes of the line being read. */
+        private final ByteArrayOutputStream _line =
+            new ByteArrayOutputStream();
+    }
+
+    /** A rotor name or property token. */
+    private static final String NAME = "[^\\s\\(\\)]+";
+
+    /** The line terminators recognized by Scanner.nextLine. */
+    private static final String LINE_BREAK =
+        "\r\n|[\n\r\\u2028\\u2029\\u0085]";
+
+    /** The byte range of the description of a preset rotor. */
+    private static final long[] PRESET = { -1, -1 };
+
+    /** Estimated bytes of a rotor, apart from its tables. */
+    private static final long ROTOR_BYTES = 256;
+
+    /** My configuration file, or null if I was given built rotors. */
+    private final Path _file;
+
+    /** The alphabet of my rotors, if read from _file. */
+    private final Alphabet _alphabet;
+
+    /** The size of _file when I indexed it, or -1. */
+    private final long _size;
+
+    /** The modification time of _file when I indexed it, or null. */
+    private final FileTime _modified;
+
+    /** Most bytes of built rotors to keep. */
+    private final long _limit;
+
+    /** The number of each rotor name, in _names and the arrays below. */
+    private final HashMap<String, Integer> _index;
+
+    /** Rotor names in the order described. */
+    private final ArrayList<String> _names;
+
+    /** The kind of each rotor. */
+    private final byte[] _kinds;
+
+    /** The byte offset of the description of each rotor in _file, and
+     *  of the byte after it (null if built from rotors). */
+    private final long[] _starts, _ends;
+
+    /** Rotors built, least recently used first. */
+    private final LinkedHashMap<String, Rotor> _cache =
+        new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Estimated bytes of the rotors in _cache. */
+    private long _bytes;
+
+    /** The rings of rotors dropped from _cache with their rings set. */
+    private final HashMap<String, String> _rings = new HashMap<>();
+
+    /** The slots of the machine using me. */
+    private Rotor[] _held = new Rotor[0];
+}
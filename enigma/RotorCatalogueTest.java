@@ -0,0 +1,216 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/** The suite of all JUnit tests for the RotorCatalogue class.
+ *  @author Yuan Sun
+ */
+public class RotorCatalogueTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Number of generated rotors of each kind. */
+    private static final int ROTORS = 300;
+
+    /** Return a random wiring of the upper-case alphabet in cycle
+     *  notation, using RANDOM, with the cycles split over two lines if
+     *  SPLIT. */
+    private String wiring(Random random, boolean split) {
+        ArrayList<Character> letters = new ArrayList<>();
+        for (char c : TestUtils.UPPER_STRING.toCharArray()) {
+            letters.add(c);
+        }
+        Collections.shuffle(letters, random);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < letters.size(); i += 2) {
+            if (split && i == 12) {
+                result.append("\n    ");
+            }
+            result.append('(').append(letters.get(i))
+                .append(letters.get(i + 1)).append(") ");
+        }
+        return result.toString().trim();
+    }
+
+    /** Return the text of a configuration with COUNT reflectors, fixed
+     *  and moving rotors with random wirings. */
+    private String library(int count) {
+        Random random = new Random(61);
+        StringBuilder conf = new StringBuilder();
+        conf.append(TestUtils.UPPER_STRING).append("\r\n 5 3\n");
+        for (int i = 0; i < count; i += 1) {
+            conf.append(" R").append(i).append(" R ")
+                .append(wiring(random, false)).append('\n');
+            conf.append(" F").append(i).append(" N ")
+                .append(wiring(random, true)).append('\n');
+            conf.append(" M").append(i).append(" M")
+                .append((char) ('A' + i % 26)).append(' ')
+                .append(wiring(random, i % 2 == 0)).append('\n');
+        }
+        return conf.toString();
+    }
+
+    /** Return the result of running MESSAGES, alternating settings lines
+     *  and messages, through M. */
+    private String run(Machine m, String... messages) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < messages.length; i += 2) {
+            Main.setUp(m, messages[i]);
+            for (char c : messages[i + 1].toCharArray()) {
+                result.append(m.alphabet().toChar(
+                                  m.convert(m.alphabet().toInt(c))));
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Return the rotors described in CONF, built eagerly. */
+    private ArrayList<Rotor> eager(String conf) {
+        ArrayList<Rotor> result = new ArrayList<>();
+        String[] lines = conf.split("\r?\n");
+        for (int i = 2; i < lines.length; i += 1) {
+            String cycles = RotorCatalogue.checkCycles(lines[i]);
+            if (cycles.isEmpty()) {
+                result.add(RotorCatalogue.readRotor(lines[i],
+                                                    TestUtils.UPPER));
+            } else {
+                result.get(result.size() - 1).permutation()
+                    .addCycle(cycles);
+            }
+        }
+        return result;
+    }
+
+    /** Settings lines and messages exercising several rotors, including
+     *  one whose ring must persist after it leaves the machine. */
+    private static final String[] MESSAGES = {
+        "* R3 F7 M10 M250 M99 ABCD AQRS", "HELLOWORLDHELLOWORLD",
+        "* R4 F8 M11 M12 M13 ZZZZ", "HELLOWORLDHELLOWORLD",
+        "* R3 F7 M10 M250 M99 ABCD", "HELLOWORLDHELLOWORLD",
+        "* R3 F7 M10 M250 M98 AXCD", "HELLOWORLDHELLOWORLD",
+    };
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkLazy() throws Exception {
+        Path file = Files.createTempFile("library", ".conf");
+        try {
+            String conf = library(ROTORS);
+            Files.writeString(file, conf);
+            RotorCatalogue rotors =
+                new RotorCatalogue(file, TestUtils.UPPER, Long.MAX_VALUE);
+            assertEquals(3 * ROTORS, rotors.names().size());
+            assertEquals(0, rotors.built());
+            assertEquals(RotorCatalogue.FIXED, rotors.kind("F17"));
+            assertEquals(RotorCatalogue.MOVING, rotors.kind("M17"));
+            assertEquals(RotorCatalogue.REFLECTOR, rotors.kind("R17"));
+            assertEquals(0, rotors.kind("X"));
+            Machine lazy = new Machine(TestUtils.UPPER, 5, 3, rotors);
+            Machine built = new Machine(TestUtils.UPPER, 5, 3, eager(conf));
+            assertEquals(run(built, MESSAGES), run(lazy, MESSAGES));
+            assertEquals(11, rotors.built());
+            assertNull(rotors.get("X"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void checkBounded() throws Exception {
+        Path file = Files.createTempFile("library", ".conf");
+        try {
+            String conf = library(ROTORS);
+            Files.writeString(file, conf);
+            RotorCatalogue rotors =
+                new RotorCatalogue(file, TestUtils.UPPER, 1);
+            Machine lazy = new Machine(TestUtils.UPPER, 5, 3, rotors);
+            Machine built = new Machine(TestUtils.UPPER, 5, 3, eager(conf));
+            assertEquals(run(built, MESSAGES), run(lazy, MESSAGES));
+            assertEquals(5, rotors.built());
+            Machine copy = lazy.copy();
+            assertEquals(run(built, MESSAGES), run(copy, MESSAGES));
+            assertEquals(run(built, MESSAGES), run(lazy, MESSAGES));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void checkKeySpaceDoesNotBuild() throws Exception {
+        Path file = Files.createTempFile("library", ".conf");
+        try {
+            Files.writeString(file, library(8));
+            RotorCatalogue rotors =
+                new RotorCatalogue(file, TestUtils.UPPER, Long.MAX_VALUE);
+            Machine m = new Machine(TestUtils.UPPER, 5, 3, rotors);
+            KeySpace keys = new KeySpace(m, 0);
+            assertEquals(8L * 8 * 8 * 7 * 6 * 26 * 26 * 26 * 26, keys.size());
+            assertEquals(0, rotors.built());
+            KeySpace.Cursor c = keys.cursor(12345678, 12345679);
+            c.next();
+            c.apply(m);
+            assertEquals(5, rotors.built());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void checkChangedLibrary() throws Exception {
+        Path file = Files.createTempFile("library", ".conf");
+        try {
+            String conf = library(20);
+            Files.writeString(file, conf);
+            RotorCatalogue rotors =
+                new RotorCatalogue(file, TestUtils.UPPER, Long.MAX_VALUE);
+            assertEquals("M10", rotors.get("M10").name());
+            FileTime modified = Files.getLastModifiedTime(file);
+            Files.writeString(file, conf.replace(" M11 ", " M99 ")
+                              .replace(" M12 ", " M11 ")
+                              .replace(" M99 ", " M12 "));
+            Files.setLastModifiedTime(file, modified);
+            try {
+                rotors.get("M11");
+                fail("rotor built from a changed description");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("changed"));
+            }
+            Files.writeString(file, conf + " M99 MA (AB)\n");
+            try {
+                rotors.get("M13");
+                fail("rotor built from a changed file");
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().contains("changed"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkBadLibrary() throws Exception {
+        Path file = Files.createTempFile("library", ".conf");
+        try {
+            Files.writeString(file, "ABC\n 3 1\n (AB)\n");
+            new RotorCatalogue(file, new Alphabet("ABC"), Long.MAX_VALUE);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
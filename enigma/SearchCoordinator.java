@@ -0,0 +1,489 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import static enigma.EnigmaException.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.*;
+
+/** The coordinator of a KeySearch spread over worker processes.
+ *
+ *  The coordinator listens on a local socket and hands the units of the
+ *  search to SearchWorkers that connect to it, merging the best results
+ *  each reports.  A unit counts as done only when its worker has sent
+ *  all its results; if the worker disconnects or goes silent for longer
+ *  than the lease time first, the unit goes back to be handed out
+ *  again.  The done units and the best results so far are saved to a
+ *  checkpoint file after each unit, so a search that is stopped can be
+ *  resumed from there.
+ *
+ *  The protocol is line-oriented UTF-8 text.  A worker sends
+ *  "HELLO id", where id is KeySearch.id(), and is answered "OK" (or
+ *  "ERROR message" if it is doing a different search).  It then sends
+ *  "WORK" and is answered "UNIT u start end", "WAIT ms" (when all units
+ *  are out but not all done) or "DONE".  While searching unit u it
+ *  sends "PROGRESS u" about once a second, and at the end, one
+ *  "RESULT result" line for each of its best results (see
+ *  KeySearch.Result) and "FINISHED u".
+ *
+ *  The checkpoint file is text: "enigma-search 1", "id ID", "done
+ *  RANGES" (comma-separated unit numbers and ranges A-B), and then one
+ *  "result RESULT" line per result.  It is replaced atomically.
+ *  @author Yuan Sun
+ */
+class SearchCoordinator {
+
+    /** A coordinator of SEARCH, listening on port PORT of the loopback
+     *  interface (0 for any free port), saving progress to CHECKPOINT
+     *  (if not null) and considering a worker dead after LEASE
+     *  milliseconds of silence. */
+    SearchCoordinator(KeySearch search, int port, Path checkpoint,
+                      int lease) {
+        if (search.units() > Integer.MAX_VALUE) {
+            throw error("too many units; use a larger unit");
+        }
+        _search = search;
+        _port = port;
+        _checkpoint = checkpoint;
+        _lease = lease;
+        _units = (int) search.units();
+        _best = new KeySearch.Best(search.top());
+    }
+
+    /** Start accepting workers, loading the checkpoint if there is one,
+     *  and return the port I listen on. */
+    synchronized int listen() {
+        if (_server == null) {
+            if (_checkpoint != null && Files.exists(_checkpoint)) {
+                load();
+            }
+            try {
+                _server = new ServerSocket(_port, BACKLOG,
+                                           InetAddress.getLoopbackAddress());
+            } catch (IOException excp) {
+                throw error("could not listen on port %d: %s", _port,
+                            excp.getMessage());
+            }
+            ServerSocket server = _server;
+            Thread acceptor = new Thread(() -> accept(server),
+                                         "enigma-coordinator");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        return _server.getLocalPort();
+    }
+
+    /** Run the search to the end, starting WORKERS worker processes
+     *  whose command lines, given the port, are made by COMMAND, and
+     *  restarting any that fail.  Write the results to OUTPUT, best
+     *  first, one per line: the index of coincidence, the key number
+     *  and the settings line.  It is an error for all the workers to
+     *  fail with units left; with no WORKERS, wait for workers started
+     *  elsewhere for as long as it takes. */
+    void run(int workers, IntFunction<List<String>> command,
+             PrintStream output) {
+        int port = listen();
+        try {
+            System.err.printf("Coordinating search %s on port %d:"
+                              + " %d of %d units done%n",
+                              _search.id().substring(0, 12), port,
+                              doneUnits(), _units);
+            for (int i = 0; i < workers; i += 1) {
+                startWorker(command.apply(port));
+            }
+            awaitDone();
+        } finally {
+            synchronized (this) {
+                _finished = true;
+                for (Process p : _processes) {
+                    p.destroy();
+                }
+            }
+            try {
+                _server.close();
+            } catch (IOException excp) {
+                /* Ignore: no more workers are wanted. */
+            }
+        }
+        for (KeySearch.Result r : results()) {
+            output.printf("%.6f %d %s%n",
+                          _search.indexOfCoincidence(r.score), r.index,
+                          r.settings);
+        }
+        output.flush();
+    }
+
+    /** Return the number of units done. */
+    synchronized int doneUnits() {
+        return _done.cardinality();
+    }
+
+    /** Return the best results of the units done, best first. */
+    synchronized List<KeySearch.Result> results() {
+        return _best.results();
+    }
+
+    /** Wait until all units are done, or all my worker processes have
+     *  failed. */
+    private synchronized void awaitDone() {
+        while (_done.cardinality() < _units) {
+            if (_failed) {
+                throw error("all workers failed");
+            }
+            try {
+                wait();
+            } catch (InterruptedException excp) {
+                throw error("search interrupted");
+            }
+        }
+    }
+
+    /** Accept connections on SERVER, handling each on its own thread. */
+    private void accept(ServerSocket server) {
+        while (true) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException excp) {
+                return;
+            }
+            Thread handler = new Thread(() -> serve(socket),
+                                        "enigma-coordinator-"
+                                        + socket.getPort());
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    /** Talk to the worker on SOCKET until it leaves or dies, then take
+     *  back any unit it still holds. */
+    private void serve(Socket socket) {
+        Object worker = new Object();
+        try (socket;
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), UTF_8));
+             Writer out = new BufferedWriter(
+                 new OutputStreamWriter(socket.getOutputStream(), UTF_8))) {
+            socket.setSoTimeout(_lease);
+            String hello = in.readLine();
+            if (hello == null || !hello.equals("HELLO " + _search.id())) {
+                reply(out, "ERROR not the search being coordinated");
+                return;
+            }
+            reply(out, "OK");
+            ArrayList<KeySearch.Result> results = new ArrayList<>();
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String[] words = line.split(" ", 2);
+                switch (words[0]) {
+                case "WORK":
+                    int unit = assign(worker);
+                    if (unit >= 0) {
+                        reply(out, "UNIT " + unit + " " + _search.start(unit)
+                              + " " + _search.end(unit));
+                    } else if (unit == ALL_DONE) {
+                        reply(out, "DONE");
+                        return;
+                    } else {
+                        reply(out, "WAIT " + WAIT_MILLIS);
+                    }
+                    break;
+                case "PROGRESS":
+                    break;
+                case "RESULT":
+                    results.add(KeySearch.Result.parse(words[1]));
+                    break;
+                case "FINISHED":
+                    complete(worker, Integer.parseInt(words[1]), results);
+                    results.clear();
+                    break;
+                default:
+                    reply(out, "ERROR unknown request " + words[0]);
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException excp) {
+            System.err.printf("Worker on port %d timed out%n",
+                              socket.getPort());
+        } catch (IOException | RuntimeException excp) {
+            System.err.printf("Lost worker on port %d: %s%n",
+                              socket.getPort(), excp.getMessage());
+        } finally {
+            release(worker);
+        }
+    }
+
+    /** Send LINE to a worker through OUT. */
+    private static void reply(Writer out, String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+    }
+
+    /** Return a unit for WORKER to search, or NONE_FREE if every unit
+     *  not done is held by a worker, or ALL_DONE. */
+    private synchronized int assign(Object worker) {
+        if (_done.cardinality() == _units) {
+            return ALL_DONE;
+        }
+        while (!_returned.isEmpty()) {
+            int unit = _returned.poll();
+            if (!_done.get(unit) && !_holders.containsKey(unit)) {
+                _holders.put(unit, worker);
+                return unit;
+            }
+        }
+        while (_next < _units) {
+            int unit = _next;
+            _next += 1;
+            if (!_done.get(unit)) {
+                _holders.put(unit, worker);
+                return unit;
+            }
+        }
+        return NONE_FREE;
+    }
+
+    /** Record that WORKER has finished UNIT with best results RESULTS,
+     *  unless the unit has since been given to another worker. */
+    private synchronized void complete(Object worker, int unit,
+                                       List<KeySearch.Result> results) {
+        if (_holders.get(unit) != worker) {
+            return;
+        }
+        _holders.remove(unit);
+        _done.set(unit);
+        _best.addAll(results);
+        if (_checkpoint != null) {
+            save();
+        }
+        notifyAll();
+    }
+
+    /** Return the units held by WORKER to be handed out again. */
+    private synchronized void release(Object worker) {
+        _holders.entrySet().removeIf(e -> {
+            if (e.getValue() == worker) {
+                _returned.add(e.getKey());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /** Start a worker process running COMMAND, and start another if it
+     *  fails while there is work left, up to MAX_RESTARTS times per
+     *  worker. */
+    private synchronized void startWorker(List<String> command) {
+        _monitors += 1;
+        Thread monitor = new Thread(() -> {
+            try {
+                monitor(command);
+            } finally {
+                stopMonitor();
+            }
+        }, "enigma-worker-monitor");
+        monitor.setDaemon(true);
+        monitor.start();
+    }
+
+    /** Run worker processes running COMMAND, one after another, until
+     *  one succeeds, the search ends, or MAX_RESTARTS restarts have
+     *  failed. */
+    private void monitor(List<String> command) {
+        for (int tries = 0; tries <= MAX_RESTARTS; tries += 1) {
+            Process p;
+            synchronized (this) {
+                if (_finished) {
+                    return;
+                }
+                try {
+                    p = new ProcessBuilder(command)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                } catch (IOException excp) {
+                    System.err.printf("Could not start worker: %s%n",
+                                      excp.getMessage());
+                    return;
+                }
+                _processes.add(p);
+            }
+            try {
+                if (p.waitFor() == 0) {
+                    return;
+                }
+            } catch (InterruptedException excp) {
+                return;
+            }
+        }
+        System.err.printf("Worker failed %d times; giving up%n",
+                          MAX_RESTARTS + 1);
+    }
+
+    /** Note that a worker monitor has stopped, and if it was the last
+     *  with units left, that the search has failed. */
+    private synchronized void stopMonitor() {
+        _monitors -= 1;
+        if (_monitors == 0 && _done.cardinality() < _units) {
+            _failed = true;
+            notifyAll();
+        }
+    }
+
+    /** Write the checkpoint file. */
+    private void save() {
+        StringBuilder text = new StringBuilder();
+        text.append(HEADER).append('\n');
+        text.append("id ").append(_search.id()).append('\n');
+        text.append("done ").append(ranges(_done)).append('\n');
+        for (KeySearch.Result r : _best.results()) {
+            text.append("result ").append(r).append('\n');
+        }
+        try {
+            Path dir = _checkpoint.toAbsolutePath().getParent();
+            Path tmp = Files.createTempFile(dir, "search", ".tmp");
+            Files.writeString(tmp, text, UTF_8);
+            Files.move(tmp, _checkpoint, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not write checkpoint %s: %s", _checkpoint,
+                        excp.getMessage());
+        }
+    }
+
+    /** Read the checkpoint file. */
+    private void load() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(_checkpoint, UTF_8);
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", _checkpoint);
+        }
+        if (lines.size() < 3 || !lines.get(0).equals(HEADER)
+            || !lines.get(2).startsWith("done ")) {
+            throw error("%s is not a search checkpoint", _checkpoint);
+        }
+        if (!lines.get(1).equals("id " + _search.id())) {
+            throw error("checkpoint %s is for a different search",
+                        _checkpoint);
+        }
+        String done = lines.get(2).substring("done ".length());
+        try {
+            for (String range : done.isEmpty() ? new String[0]
+                     : done.split(",")) {
+                String[] ends = range.split("-");
+                int first = Integer.parseInt(ends[0]);
+                int last = Integer.parseInt(ends[ends.length - 1]);
+                _done.set(first, last + 1);
+            }
+        } catch (NumberFormatException excp) {
+            throw error("bad checkpoint %s", _checkpoint);
+        }
+        for (String line : lines.subList(3, lines.size())) {
+            if (!line.startsWith("result ")) {
+                throw error("bad checkpoint %s", _checkpoint);
+            }
+            _best.add(KeySearch.Result.parse(
+                          line.substring("result ".length())));
+        }
+    }
+
+    /** Return the members of SET as comma-separated numbers and ranges
+     *  A-B. */
+    private static String ranges(BitSet set) {
+        StringBuilder result = new StringBuilder();
+        for (int a = set.nextSetBit(0); a >= 0;
+             a = set.nextSetBit(set.nextClearBit(a))) {
+            int b = set.nextClearBit(a) - 1;
+            if (result.length() > 0) {
+                result.append(',');
+            }
+            result.append(a);
+            if (b > a) {
+                result.append('-').append(b);
+            }
+        }
+        return result.toString();
+    }
+
+    /** First line of a checkpoint file. */
+    static final String HEADER = "enigma-search 1";
+
+    /** Result of assign when all units are done. */
+    private static final int ALL_DONE = -1;
+
+    /** Result of assign when all remaining units are held. */
+    private static final int NONE_FREE = -2;
+
+    /** How long a worker with nothing to do waits before asking again. */
+    private static final int WAIT_MILLIS = 200;
+
+    /** Times a failing worker process is restarted. */
+    private static final int MAX_RESTARTS = 3;
+
+    /** Connections that may wait to be accepted. */
+    private static final int BACKLOG = 64;
+
+    /** The search. */
+    private final KeySearch _search;
+
+    /** Port to listen on. */
+    private final int _port;
+
+    /** The socket I listen on, once listening. */
+    private ServerSocket _server;
+
+    /** Checkpoint file, or null. */
+    private final Path _checkpoint;
+
+    /** Milliseconds of silence after which a worker is dead. */
+    private final int _lease;
+
+    /** Number of units. */
+    private final int _units;
+
+    /** The units done. */
+    private final BitSet _done = new BitSet();
+
+    /** The first unit never handed out. */
+    private int _next;
+
+    /** Units taken back from workers, to hand out again. */
+    private final ArrayDeque<Integer> _returned = new ArrayDeque<>();
+
+    /** The worker holding each unit out. */
+    private final HashMap<Integer, Object> _holders = new HashMap<>();
+
+    /** The best results of the units done. */
+    private final KeySearch.Best _best;
+
+    /** Worker processes started. */
+    private final ArrayList<Process> _processes = new ArrayList<>();
+
+    /** True once the search has ended. */
+    private boolean _finished;
+
+    /** Number of worker monitors still running. */
+    private int _monitors;
+
+    /** True if all my worker processes have failed with units left. */
+    private boolean _failed;
+}
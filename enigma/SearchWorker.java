@@ -0,0 +1,125 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.ConnectException;
+import java.net.Socket;
+
+import static enigma.EnigmaException.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** A worker in a KeySearch run by a SearchCoordinator, which searches
+ *  the units the coordinator hands it until there are none left.  See
+ *  SearchCoordinator for the protocol.
+ *  @author Yuan Sun
+ */
+class SearchWorker {
+
+    /** A worker on SEARCH, which must be the search the coordinator is
+     *  running. */
+    SearchWorker(KeySearch search) {
+        _search = search;
+    }
+
+    /** Work for the coordinator at HOST:PORT until the search is done,
+     *  returning the number of units I searched. */
+    int run(String host, int port) {
+        try (Socket socket = connect(host, port);
+             BufferedReader in = new BufferedReader(
+                 new InputStreamReader(socket.getInputStream(), UTF_8));
+             Writer out = new BufferedWriter(
+                 new OutputStreamWriter(socket.getOutputStream(), UTF_8))) {
+            send(out, "HELLO " + _search.id());
+            expect(in.readLine(), "OK");
+            int units;
+            for (units = 0; ; ) {
+                send(out, "WORK");
+                String reply = in.readLine();
+                String[] words = reply == null ? new String[] { "" }
+                    : reply.split(" ");
+                if (words[0].equals("DONE")) {
+                    return units;
+                } else if (words[0].equals("WAIT") && words.length == 2) {
+                    Thread.sleep(Long.parseLong(words[1]));
+                } else if (words[0].equals("UNIT") && words.length == 4) {
+                    String unit = words[1];
+                    long start = Long.parseLong(words[2]),
+                        end = Long.parseLong(words[3]);
+                    for (KeySearch.Result r
+                             : _search.search(start, end,
+                                              () -> send(out, "PROGRESS "
+                                                         + unit))) {
+                        send(out, "RESULT " + r);
+                    }
+                    send(out, "FINISHED " + unit);
+                    units += 1;
+                } else {
+                    expect(reply, "UNIT, WAIT or DONE");
+                }
+            }
+        } catch (IOException excp) {
+            throw error("lost coordinator %s:%d: %s", host, port,
+                        excp.getMessage());
+        } catch (UncheckedIOException excp) {
+            throw error("lost coordinator %s:%d: %s", host, port,
+                        excp.getCause().getMessage());
+        } catch (NumberFormatException excp) {
+            throw error("bad message from coordinator");
+        } catch (InterruptedException excp) {
+            throw error("search worker interrupted");
+        }
+    }
+
+    /** Return a connection to HOST:PORT, retrying for a while in case
+     *  the coordinator is still starting. */
+    private static Socket connect(String host, int port)
+        throws IOException, InterruptedException {
+        for (int tries = 1; ; tries += 1) {
+            try {
+                return new Socket(host, port);
+            } catch (ConnectException excp) {
+                if (tries == CONNECT_TRIES) {
+                    throw excp;
+                }
+                Thread.sleep(CONNECT_WAIT_MILLIS);
+            }
+        }
+    }
+
+    /** Send LINE through OUT. */
+    private static void send(Writer out, String line) {
+        try {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** Check that the coordinator's REPLY is EXPECTED. */
+    private static void expect(String reply, String expected) {
+        if (reply == null) {
+            throw error("coordinator closed the connection");
+        } else if (reply.startsWith("ERROR ")) {
+            throw error("coordinator: %s", reply.substring(6));
+        } else if (!reply.equals(expected)) {
+            throw error("expected %s from coordinator, got %s", expected,
+                        reply);
+        }
+    }
+
+    /** Attempts to connect to the coordinator. */
+    private static final int CONNECT_TRIES = 50;
+
+    /** Time between attempts to connect. */
+    private static final long CONNECT_WAIT_MILLIS = 100;
+
+    /** The search. */
+    private final KeySearch _search;
+}
@@ -0,0 +1,508 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** The engine that, like TurnaroundEngine, folds the reflector and the
+ *  fixed rotors next to it into a single table, but passes characters
+ *  through the moving rotors with code generated for their wirings: a
+ *  hidden class whose one method is the whole chain of moving rotors
+ *  unrolled, each rotor's wiring a constant table.  The classes are
+ *  kept, a few at a time, by the wirings of the moving rotors in
+ *  order, so every engine with those rotors shares one; settings and
+ *  rings, and the folded table, are passed in with each character.
+ *
+ *  The tables avoid any test for wrapping around the alphabet.  For a
+ *  wiring F of an alphabet of N characters, the generated code looks up
+ *  a signal K in [0, 2N) with offset P in [0, N) as G[K + P] - P, where
+ *  G[I] = F[I mod N] + N, which is again in [0, 2N) and equal modulo N
+ *  to what Rotor.convertForward gives.  The folded table and a final
+ *  table reducing modulo N take the place of the test.  Each engine
+ *  needs the folded table, twice over; each class needs six tables the
+ *  size of the alphabet per moving rotor.
+ *  @author Yuan Sun
+ */
+class SpecializedEngine implements Engine {
+
+    /** The chain of moving rotors, as generated for their wirings. */
+    interface Chain {
+        /** Return the result of passing K through the moving rotors
+         *  forward, through TURNAROUND and back, where OFFSETS holds the
+         *  rotors' settings after their rings, leftmost first. */
+        int convert(int k, int[] offsets, int[] turnaround);
+    }
+
+    @Override
+    public String name() {
+        return "specialized";
+    }
+
+    @Override
+    public Engine fresh() {
+        return new SpecializedEngine();
+    }
+
+    @Override
+    public void reset(Rotor[] slots, int alphabetSize) {
+        _slots = slots;
+        _turnStart = TurnaroundEngine.turnStart(slots);
+        _offsets = new int[slots.length - _turnStart];
+        _shared = new boolean[slots.length];
+        for (int i = 0; i < slots.length; i += 1) {
+            for (int j = 0; j < slots.length; j += 1) {
+                if (i != j && slots[i] == slots[j]) {
+                    _shared[i] = true;
+                }
+            }
+        }
+        int[][] wirings = new int[_offsets.length][];
+        for (int i = _turnStart; i < slots.length; i += 1) {
+            wirings[i - _turnStart] =
+                slots[i].permutation().forwardTable().clone();
+        }
+        _chain = chain(new Wirings(alphabetSize, wirings));
+        refresh();
+    }
+
+    @Override
+    public void moved(int j) {
+        if (_shared[j]) {
+            refresh();
+        } else if (j < _turnStart) {
+            _turnaround = doubled(TurnaroundEngine.turnaround(_slots,
+                                                               _turnStart));
+        } else {
+            _offsets[j - _turnStart] = _slots[j].settingAfterRing();
+        }
+    }
+
+    @Override
+    public int convert(int k) {
+        return _chain.convert(k, _offsets, _turnaround);
+    }
+
+    /** Return the number of chain classes generated so far. */
+    static synchronized int generated() {
+        return _generated;
+    }
+
+    /** Recompute the folded table and all the offsets. */
+    private void refresh() {
+        _turnaround = doubled(TurnaroundEngine.turnaround(_slots,
+                                                           _turnStart));
+        for (int i = _turnStart; i < _slots.length; i += 1) {
+            _offsets[i - _turnStart] = _slots[i].settingAfterRing();
+        }
+    }
+
+    /** Return TABLE repeated twice, so that it may be indexed by any
+     *  value in [0, 2 * TABLE.length). */
+    private static int[] doubled(int[] table) {
+        int[] result = Arrays.copyOf(table, 2 * table.length);
+        System.arraycopy(table, 0, result, table.length, table.length);
+        return result;
+    }
+
+    /** Return the chain for the moving rotors with WIRINGS, generating
+     *  it if it is not among those kept. */
+    private static synchronized Chain chain(Wirings wirings) {
+        Chain result = CHAINS.get(wirings);
+        if (result == null) {
+            result = generate(wirings._size, wirings._tables);
+            _generated += 1;
+            CHAINS.put(wirings, result);
+        }
+        return result;
+    }
+
+    /** Return a new chain for moving rotors over an alphabet of N
+     *  characters whose forward tables, from left to right, are
+     *  WIRINGS. */
+    private static Chain generate(int n, int[][] wirings) {
+        int m = wirings.length;
+        int[][] tables = new int[2 * m + 1][];
+        for (int i = 0; i < m; i += 1) {
+            int[] inverse = new int[n];
+            for (int c = 0; c < n; c += 1) {
+                inverse[wirings[i][c]] = c;
+            }
+            tables[i] = widened(wirings[i]);
+            tables[m + i] = widened(inverse);
+        }
+        tables[2 * m] = new int[2 * n];
+        for (int c = 0; c < 2 * n; c += 1) {
+            tables[2 * m][c] = c % n;
+        }
+        try {
+            MethodHandles.Lookup chain = MethodHandles.lookup()
+                .defineHiddenClassWithClassData(classFile(m), tables, true);
+            return (Chain) chain.lookupClass().getDeclaredConstructor()
+                .newInstance();
+        } catch (ReflectiveOperationException | IOException excp) {
+            throw error("could not generate rotor chain: %s", excp);
+        }
+    }
+
+    /** Return the table G for the wiring TABLE, such that G[I] is
+     *  TABLE[I mod N] + N, for I in [0, 3N), N being TABLE.length. */
+    private static int[] widened(int[] table) {
+        int n = table.length;
+        int[] result = new int[3 * n];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = table[i % n] + n;
+        }
+        return result;
+    }
+
+    /** Return the class file of a Chain for M moving rotors.  Its
+     *  static initializer takes its tables from its class data: the
+     *  widened forward tables of the rotors, left to right, then their
+     *  widened inverse tables, then the table reducing modulo the size
+     *  of the alphabet. */
+    private static byte[] classFile(int m) throws IOException {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(CHAIN_CLASS);
+        int superClass = pool.classRef("java/lang/Object");
+        int chainInterface = pool.classRef(CHAIN_INTERFACE);
+        int code = pool.utf8("Code");
+        int[] fields = new int[2 * m + 1];
+        int[] fieldNames = new int[fields.length];
+        for (int t = 0; t < fields.length; t += 1) {
+            fields[t] = pool.member(FIELDREF, CHAIN_CLASS, "t" + t, "[I");
+            fieldNames[t] = pool.utf8("t" + t);
+        }
+
+        ByteArrayOutputStream init = new ByteArrayOutputStream();
+        init.write(ALOAD_0);
+        u1u2(init, INVOKESPECIAL,
+             pool.member(METHODREF, "java/lang/Object", "<init>", "()V"));
+        init.write(RETURN);
+
+        ByteArrayOutputStream clinit = new ByteArrayOutputStream();
+        u1u2(clinit, INVOKESTATIC,
+             pool.member(METHODREF, "java/lang/invoke/MethodHandles",
+                         "lookup",
+                         "()Ljava/lang/invoke/MethodHandles$Lookup;"));
+        u1u2(clinit, LDC_W, pool.string("_"));
+        u1u2(clinit, LDC_W, pool.classRef("[[I"));
+        u1u2(clinit, INVOKESTATIC,
+             pool.member(METHODREF, "java/lang/invoke/MethodHandles",
+                         "classData",
+                         "(Ljava/lang/invoke/MethodHandles$Lookup;"
+                         + "Ljava/lang/String;Ljava/lang/Class;)"
+                         + "Ljava/lang/Object;"));
+        u1u2(clinit, CHECKCAST, pool.classRef("[[I"));
+        clinit.write(ASTORE_0);
+        for (int t = 0; t < fields.length; t += 1) {
+            clinit.write(ALOAD_0);
+            push(clinit, t);
+            clinit.write(AALOAD);
+            u1u2(clinit, PUTSTATIC, fields[t]);
+        }
+        clinit.write(RETURN);
+
+        ByteArrayOutputStream convert = new ByteArrayOutputStream();
+        for (int i = m - 1; i >= 0; i -= 1) {
+            lookUp(convert, fields[i], i);
+        }
+        convert.write(ALOAD_3);
+        convert.write(ILOAD_1);
+        convert.write(IALOAD);
+        convert.write(ISTORE_1);
+        for (int i = 0; i < m; i += 1) {
+            lookUp(convert, fields[m + i], i);
+        }
+        u1u2(convert, GETSTATIC, fields[2 * m]);
+        convert.write(ILOAD_1);
+        convert.write(IALOAD);
+        convert.write(IRETURN);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeShort(0);
+        out.writeShort(CLASS_VERSION);
+        int[] methods = {
+            pool.utf8("<init>"), pool.utf8("()V"),
+            pool.utf8("<clinit>"), pool.utf8("()V"),
+            pool.utf8("convert"), pool.utf8("(I[I[I)I"),
+        };
+        int fieldType = pool.utf8("[I");
+        pool.write(out);
+        out.writeShort(ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(chainInterface);
+        out.writeShort(fields.length);
+        for (int t = 0; t < fields.length; t += 1) {
+            out.writeShort(ACC_PRIVATE | ACC_STATIC | ACC_FINAL);
+            out.writeShort(fieldNames[t]);
+            out.writeShort(fieldType);
+            out.writeShort(0);
+        }
+        out.writeShort(3);
+        method(out, ACC_PUBLIC, methods[0], methods[1], code, 1, 1, init);
+        method(out, ACC_STATIC, methods[2], methods[3], code, 3, 1, clinit);
+        method(out, ACC_PUBLIC, methods[4], methods[5], code, 4, 4,
+               convert);
+        out.writeShort(0);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /** Append to CODE the instructions replacing the signal in local 1
+     *  with its image under the widened table in the static field at
+     *  constant FIELD, offset by element I of the array in local 2. */
+    private static void lookUp(ByteArrayOutputStream code, int field,
+                               int i) {
+        u1u2(code, GETSTATIC, field);
+        code.write(ILOAD_1);
+        code.write(ALOAD_2);
+        push(code, i);
+        code.write(IALOAD);
+        code.write(IADD);
+        code.write(IALOAD);
+        code.write(ALOAD_2);
+        push(code, i);
+        code.write(IALOAD);
+        code.write(ISUB);
+        code.write(ISTORE_1);
+    }
+
+    /** Append to CODE the instruction pushing the small constant V. */
+    private static void push(ByteArrayOutputStream code, int v) {
+        if (v <= ICONST_MAX) {
+            code.write(ICONST_0 + v);
+        } else {
+            code.write(BIPUSH);
+            code.write(v);
+        }
+    }
+
+    /** Append to CODE the instruction OPCODE with the two-byte operand
+     *  OPERAND. */
+    private static void u1u2(ByteArrayOutputStream code, int opcode,
+                             int operand) {
+        code.write(opcode);
+        code.write(operand >> 8);
+        code.write(operand);
+    }
+
+    /** Write to OUT the method with access flags ACCESS, name and
+     *  descriptor at constants NAME and DESCRIPTOR, whose Code attribute
+     *  (named by constant CODENAME) uses at most MAXSTACK stack entries
+     *  and MAXLOCALS locals and consists of CODE. */
+    private static void method(DataOutputStream out, int access, int name,
+                               int descriptor, int codeName, int maxStack,
+                               int maxLocals, ByteArrayOutputStream code)
+        throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(2 + 2 + 4 + code.size() + 2 + 2);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.size());
+        code.writeTo(out);
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    /** The constant pool of a class file being written, each constant
+     *  entered once. */
+    private static class ConstantPool {
+
+        /** Return the index of the Utf8 constant TEXT. */
+        int utf8(String text) {
+            return entry("U" + text, () -> {
+                    _out.writeByte(UTF8);
+                    _out.writeUTF(text);
+                });
+        }
+
+        /** Return the index of the Class constant for NAME, an internal
+         *  class name or array descriptor. */
+        int classRef(String name) {
+            int text = utf8(name);
+            return entry("C" + name, () -> {
+                    _out.writeByte(CLASS);
+                    _out.writeShort(text);
+                });
+        }
+
+        /** Return the index of the String constant TEXT. */
+        int string(String text) {
+            int utf8 = utf8(text);
+            return entry("S" + text, () -> {
+                    _out.writeByte(STRING);
+                    _out.writeShort(utf8);
+                });
+        }
+
+        /** Return the index of the field or method reference constant
+         *  with tag TAG to the member NAME with descriptor DESCRIPTOR of
+         *  class OWNER. */
+        int member(int tag, String owner, String name, String descriptor) {
+            int ownerClass = classRef(owner);
+            int nameUtf8 = utf8(name);
+            int descriptorUtf8 = utf8(descriptor);
+            int nameAndType =
+                entry("N" + name + " " + descriptor, () -> {
+                        _out.writeByte(NAME_AND_TYPE);
+                        _out.writeShort(nameUtf8);
+                        _out.writeShort(descriptorUtf8);
+                    });
+            return entry(tag + owner + " " + name + " " + descriptor, () -> {
+                    _out.writeByte(tag);
+                    _out.writeShort(ownerClass);
+                    _out.writeShort(nameAndType);
+                });
+        }
+
+        /** Write my count and constants to OUT. */
+        void write(DataOutputStream out) throws IOException {
+            out.writeShort(_indices.size() + 1);
+            _out.flush();
+            _bytes.writeTo(out);
+        }
+
+        /** Return the index of the constant known by KEY, first writing
+         *  it with WRITER if it is new. */
+        private int entry(String key, Writer writer) {
+            Integer index = _indices.get(key);
+            if (index == null) {
+                try {
+                    writer.write();
+                } catch (IOException excp) {
+                    throw new AssertionError(excp);
+                }
+                index = _indices.size() + 1;
+                _indices.put(key, index);
+            }
+            return index;
+        }
+
+        /** Something that writes a constant. */
+        private interface Writer {
+            /** Write the constant to _out. */
+            void write() throws IOException;
+        }
+
+        /** The indices of the constants so far, by key. */
+        private final HashMap<String, Integer> _indices = new HashMap<>();
+
+        /** The constants so far. */
+        private final ByteArrayOutputStream _bytes =
+            new ByteArrayOutputStream();
+
+        /** Writes to _bytes. */
+        private final DataOutputStream _out = new DataOutputStream(_bytes);
+    }
+
+    /** The forward tables of a sequence of moving rotors, as a key. */
+    private static final class Wirings {
+
+        /** The wirings over an alphabet of SIZE characters with forward
+         *  tables TABLES, left to right. */
+        Wirings(int size, int[][] tables) {
+            _size = size;
+            _tables = tables;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Wirings
+                && _size == ((Wirings) obj)._size
+                && Arrays.deepEquals(_tables, ((Wirings) obj)._tables);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * _size + Arrays.deepHashCode(_tables);
+        }
+
+        /** The size of the alphabet. */
+        private final int _size;
+
+        /** The forward tables, left to right. */
+        private final int[][] _tables;
+    }
+
+    /** The most chains kept at once. */
+    static final int CHAINS_KEPT = 64;
+
+    /** The chains kept, least recently used first. */
+    private static final Map<Wirings, Chain> CHAINS =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Wirings,
+                                                Chain> eldest) {
+                return size() > CHAINS_KEPT;
+            }
+        };
+
+    /** Number of chains generated so far. */
+    private static int _generated;
+
+    /** Internal name of the generated classes. */
+    private static final String CHAIN_CLASS = "enigma/SpecializedChain";
+
+    /** Internal name of Chain. */
+    private static final String CHAIN_INTERFACE =
+        "enigma/SpecializedEngine$Chain";
+
+    /** Class file magic number. */
+    private static final int MAGIC = 0xcafebabe;
+
+    /** Class file major version (Java 17). */
+    private static final int CLASS_VERSION = 61;
+
+    /** Constant pool tags. */
+    private static final int UTF8 = 1, CLASS = 7, STRING = 8,
+        FIELDREF = 9, METHODREF = 10, NAME_AND_TYPE = 12;
+
+    /** Access flags. */
+    private static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002,
+        ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    /** Opcodes. */
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10,
+        LDC_W = 0x13, ILOAD_1 = 0x1b, ALOAD_0 = 0x2a, ALOAD_2 = 0x2c,
+        ALOAD_3 = 0x2d, IALOAD = 0x2e, AALOAD = 0x32, ISTORE_1 = 0x3c,
+        ASTORE_0 = 0x4b, IADD = 0x60, ISUB = 0x64, IRETURN = 0xac,
+        RETURN = 0xb1, GETSTATIC = 0xb2, PUTSTATIC = 0xb3,
+        INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, CHECKCAST = 0xc0;
+
+    /** The largest constant pushed with an ICONST instruction. */
+    private static final int ICONST_MAX = 5;
+
+    /** The rotors I pass characters through, reflector first. */
+    private Rotor[] _slots;
+
+    /** The reflector and leading fixed rotors folded into one table,
+     *  repeated twice. */
+    private int[] _turnaround;
+
+    /** Index of the first slot not folded into _turnaround. */
+    private int _turnStart;
+
+    /** The settings after rings of the rotors from _turnStart on. */
+    private int[] _offsets;
+
+    /** For each slot, whether another slot holds the same rotor. */
+    private boolean[] _shared;
+
+    /** The generated chain for the rotors from _turnStart on. */
+    private Chain _chain;
+}
@@ -0,0 +1,127 @@
+package enigma;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/** A bounded ring of reusable slots passed from one producer thread to
+ *  one consumer thread.  The producer claims the next free slot, fills
+ *  it in and publishes it; the consumer takes the oldest published
+ *  slot, reads it and releases it for reuse.  The slots are allocated
+ *  once, so passing items allocates nothing.  A thread that must wait
+ *  spins briefly and then parks until the other side catches up.
+ *  @author Yuan Sun
+ */
+class SpscRing<T> {
+
+    /** A ring of CAPACITY slots (a power of two), made by SLOT. */
+    SpscRing(int capacity, Supplier<T> slot) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power"
+                                               + " of two");
+        }
+        @SuppressWarnings("unchecked")
+        T[] slots = (T[]) new Object[capacity];
+        for (int i = 0; i < capacity; i += 1) {
+            slots[i] = slot.get();
+        }
+        _slots = slots;
+        _mask = capacity - 1;
+    }
+
+    /** Return the next slot for the producer to fill, waiting for one to
+     *  be released if all are in use, or null if the ring is closed.
+     *  Until it is published, the same slot is returned again. */
+    T claim() {
+        long tail = _tail.get();
+        for (int tries = 0; tail - _head.get() > _mask; tries += 1) {
+            if (_closed) {
+                return null;
+            }
+            _producer = pause(tries, _producer);
+        }
+        return _closed ? null : _slots[(int) tail & _mask];
+    }
+
+    /** Hand the slot last returned by claim to the consumer. */
+    void publish() {
+        _tail.set(_tail.get() + 1);
+        wake(_consumer);
+    }
+
+    /** Return the oldest published slot, waiting for one if there is
+     *  none. */
+    T take() {
+        long head = _head.get();
+        for (int tries = 0; head == _tail.get(); tries += 1) {
+            _consumer = pause(tries, _consumer);
+        }
+        return _slots[(int) head & _mask];
+    }
+
+    /** Return the slot last returned by take to the producer. */
+    void release() {
+        _head.set(_head.get() + 1);
+        wake(_producer);
+    }
+
+    /** Return true iff no published slot is waiting to be taken. */
+    boolean isEmpty() {
+        return _head.get() == _tail.get();
+    }
+
+    /** Make claim return null from now on, releasing a waiting
+     *  producer. */
+    void close() {
+        _closed = true;
+        wake(_producer);
+    }
+
+    /** Wait a little, the TRIES'th time in a row.  WAITER is the
+     *  current thread, once it has been recorded as a possible sleeper;
+     *  returns the value to record. */
+    private static Thread pause(int tries, Thread waiter) {
+        if (tries < SPINS) {
+            Thread.onSpinWait();
+            return waiter;
+        } else if (waiter == null) {
+            return Thread.currentThread();
+        }
+        LockSupport.parkNanos(PARK_NANOS);
+        return waiter;
+    }
+
+    /** Unpark THREAD, if it is not null. */
+    private static void wake(Thread thread) {
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /** Attempts to spin before parking. */
+    private static final int SPINS = 64;
+
+    /** Longest park, bounding the delay should a wakeup be missed. */
+    private static final long PARK_NANOS = 1_000_000;
+
+    /** The slots. */
+    private final T[] _slots;
+
+    /** Capacity - 1. */
+    private final int _mask;
+
+    /** Number of slots ever taken. */
+    private final AtomicLong _head = new AtomicLong();
+
+    /** Number of slots ever published. */
+    private final AtomicLong _tail = new AtomicLong();
+
+    /** The producer thread, once it has had to wait. */
+    private volatile Thread _producer;
+
+    /** The consumer thread, once it has had to wait. */
+    private volatile Thread _consumer;
+
+    /** True once the ring has been closed. */
+    private volatile boolean _closed;
+}
@@ -1,5 +1,6 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /** Utility definitions for use in unit tests.
@@ -18,6 +19,58 @@ class TestUtils {
         return testId + " (" + String.format(msgFormat, args) + ")";
     }
 
+    /** The notches of the naval rotors, as in the default configuration;
+     *  Beta and Gamma are fixed and B and C are reflectors. */
+    static final HashMap<String, String> NAVAL_NOTCHES = new HashMap<>();
+    static {
+        NAVAL_NOTCHES.put("I", "Q");
+        NAVAL_NOTCHES.put("II", "E");
+        NAVAL_NOTCHES.put("III", "V");
+        NAVAL_NOTCHES.put("IV", "J");
+        NAVAL_NOTCHES.put("V", "Z");
+        NAVAL_NOTCHES.put("VI", "ZM");
+        NAVAL_NOTCHES.put("VII", "ZM");
+        NAVAL_NOTCHES.put("VIII", "ZM");
+    }
+
+    /** Return a new machine with NUMROTORS slots and PAWLS pawls and all
+     *  the naval rotors in their A settings. */
+    static Machine navalMachine(int numRotors, int pawls) {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        for (String name : NAVALA.keySet()) {
+            Permutation perm = new Permutation(NAVALA.get(name), UPPER);
+            if (NAVAL_NOTCHES.containsKey(name)) {
+                rotors.add(new MovingRotor(name, perm,
+                                           NAVAL_NOTCHES.get(name)));
+            } else if (name.length() == 1) {
+                rotors.add(new Reflector(name, perm));
+            } else {
+                rotors.add(new FixedRotor(name, perm));
+            }
+        }
+        return new Machine(UPPER, numRotors, pawls, rotors);
+    }
+
+    /** The text of the default configuration, testing/correct/
+     *  default.conf, for tests that need a configuration file. */
+    static final String DEFAULT_CONF =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+        + " 5 3\n"
+        + " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " V MZ      (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)\n"
+        + " VI MZM    (AJQDVLEOZWIYTS) (CGMNHFUX) (BPRK)\n"
+        + " VII MZM   (ANOUPFRIMBZTLWKSVEGCJYDHXQ)\n"
+        + " VIII MZM  (AFLSETWUNDHOZVICQ) (BKJ) (GXY) (MPR)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " Gamma N   (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n"
+        + " C R       (AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW)\n"
+        + "           (QZ) (SX) (UY)\n";
+
     /** The naval rotors in the A (0) setting. */
     static final HashMap<String, String> NAVALA = new HashMap<>();
     static {
@@ -0,0 +1,637 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static enigma.EnigmaException.*;
+
+/** The conversion of a text message file (see Main) in three stages,
+ *  each on its own thread: a reader that splits the input into lines
+ *  and each message line into alphabet indices, a converter (the
+ *  calling thread) that applies settings lines and runs the messages
+ *  through the machine, and a writer that formats the results in
+ *  groups of five and writes them out.  The stages are joined by
+ *  SpscRings of reusable Lines, so reading and writing overlap
+ *  conversion and, once the buffers have grown to fit the longest
+ *  line, message lines are converted without allocation.
+ *
+ *  Given more than one thread, the converter instead splits the input
+ *  at settings lines.  Each settings line is applied to the machine in
+ *  turn, but the messages up to the next one are converted by a pool of
+ *  workers, each section by a copy of the machine as that settings line
+ *  left it, so that sections are converted concurrently.  The writer
+ *  takes the sections in their original order, and the results ring
+ *  bounds the number of sections in flight.  A long section is passed
+ *  on in pieces, each converted after the one before it.
+ *
+ *  The output is exactly that of converting the lines one at a time.
+ *  An error stops the pipeline at the line that caused it, once the
+ *  output of the lines before it has been written.
+ *  @author Yuan Sun
+ */
+class TextPipeline {
+
+    /** A pipeline converting the lines of INPUT with MACHINE and
+     *  writing the results to OUTPUT. */
+    TextPipeline(Machine machine, Reader input, PrintStream output) {
+        this(machine, input, output, 1);
+    }
+
+    /** A pipeline converting the lines of INPUT with MACHINE and
+     *  writing the results to OUTPUT, converting sections on THREADS
+     *  worker threads if THREADS > 1. */
+    TextPipeline(Machine machine, Reader input, PrintStream output,
+                 int threads) {
+        _threads = threads;
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _input = input;
+        _output = output;
+    }
+
+    /** Convert all my input. */
+    void run() {
+        Thread reader = new Thread(this::read, "enigma-reader");
+        Thread writer = new Thread(this::write, "enigma-writer");
+        reader.setDaemon(true);
+        reader.start();
+        writer.start();
+        if (_threads > 1) {
+            _workers = Executors.newFixedThreadPool(_threads, r -> {
+                Thread worker = new Thread(r, "enigma-worker");
+                worker.setDaemon(true);
+                return worker;
+            });
+        }
+        try {
+            convert();
+        } finally {
+            _lines.close();
+            Line end = _results.claim();
+            end.kind = Line.END;
+            _results.publish();
+            joinUninterruptibly(writer);
+            if (_workers != null) {
+                _workers.shutdownNow();
+            }
+        }
+        if (_failure != null) {
+            throw _failure;
+        } else if (_writeError != null) {
+            throw error("I/O error: %s", _writeError.getMessage());
+        }
+    }
+
+    /** The converter stage: apply each line from the reader to the
+     *  machine, passing results to the writer, and pass on the first
+     *  error in their place. */
+    private void convert() {
+        try {
+            while (_failure == null) {
+                Line line = _lines.take();
+                if (line.kind == Line.END) {
+                    break;
+                } else if (line.kind == Line.ERROR) {
+                    throw line.error;
+                } else if (line.kind == Line.SETTINGS) {
+                    submit();
+                    Main.setUp(_machine, line.text.toString());
+                    if (_workers != null) {
+                        _section = new Section(_machine.copy(), null);
+                    }
+                } else if (_workers != null) {
+                    _section.add(line);
+                    if (_section.size() >= SECTION_LIMIT) {
+                        submit();
+                    }
+                } else {
+                    convert(line);
+                }
+                _lines.release();
+            }
+            submit();
+        } catch (RuntimeException excp) {
+            submit();
+            Line failed = _results.claim();
+            failed.kind = Line.ERROR;
+            failed.error = excp;
+            _results.publish();
+        }
+    }
+
+    /** Convert the message LINE and pass the result to the writer. */
+    private void convert(Line line) {
+        Line result = _results.claim();
+        result.kind = Line.MESSAGE;
+        result.text.setLength(0);
+        result.text.append(line.text);
+        result.ensureCapacity(line.length);
+        for (int i = 0; i < line.length; i += 1) {
+            result.symbols[i] = convert(_machine, line.symbols[i]);
+        }
+        result.length = line.length;
+        _results.publish();
+    }
+
+    /** Return the conversion by MACHINE of C, an alphabet index or ~C
+     *  for a character not in the alphabet. */
+    private static int convert(Machine machine, int c) {
+        if (c < 0) {
+            throw error("character %s not in alphabet",
+                        new String(Character.toChars(~c)));
+        }
+        return machine.convert(c);
+    }
+
+    /** Hand the current section, if it has any lines, to the workers and
+     *  the writer, and start another with the same machine to follow
+     *  it. */
+    private void submit() {
+        if (_section == null || _section.lines() == 0) {
+            return;
+        }
+        Section section = _section;
+        CompletableFuture<Section> previous = section.previous;
+        CompletableFuture<Section> done = previous == null
+            ? CompletableFuture.supplyAsync(section::convert, _workers)
+            : previous.thenApplyAsync(p -> section.convertAfter(p),
+                                      _workers);
+        Line result = _results.claim();
+        result.kind = Line.SECTION;
+        result.section = done;
+        _results.publish();
+        _section = new Section(section.machine, done);
+    }
+
+    /** The reader stage: pass each line of _input to the converter.  The
+     *  first line must be a settings line; after that, a line containing
+     *  '*' is a settings line and any other is a message line. */
+    private void read() {
+        StringBuilder buffer = new StringBuilder();
+        try {
+            boolean first = true;
+            while (readLine(buffer)) {
+                Line line = _lines.claim();
+                if (line == null) {
+                    return;
+                }
+                parse(buffer, first, line);
+                first = false;
+                _lines.publish();
+            }
+            Line end = _lines.claim();
+            if (end != null) {
+                end.kind = Line.END;
+                _lines.publish();
+            }
+        } catch (IOException | RuntimeException excp) {
+            Line failed = _lines.claim();
+            if (failed != null) {
+                failed.kind = Line.ERROR;
+                failed.error = excp instanceof RuntimeException
+                    ? (RuntimeException) excp
+                    : error("I/O error: %s", excp.getMessage());
+                _lines.publish();
+            }
+        }
+    }
+
+    /** Fill in LINE from the input line in TEXT, which is the first line
+     *  iff FIRST. */
+    private void parse(CharSequence text, boolean first, Line line) {
+        int star = indexOf(text, '*');
+        if (first || star >= 0) {
+            if (star < 0) {
+                throw error("getwhatiwant");
+            }
+            String settings = text.toString().trim();
+            line.kind = Line.SETTINGS;
+            line.text.setLength(0);
+            line.text.append(settings, settings.indexOf('*'),
+                             settings.length());
+            return;
+        }
+        line.kind = Line.MESSAGE;
+        line.text.setLength(0);
+        if (isBlank(text)) {
+            line.text.append(text);
+        }
+        line.ensureCapacity(text.length());
+        int n = 0;
+        for (int i = 0; i < text.length(); ) {
+            int c = Character.codePointAt(text, i);
+            i += Character.charCount(c);
+            if (!isSeparator(c)) {
+                int index = _alphabet.toInt(c);
+                line.symbols[n] = index == -1 ? ~c : index;
+                n += 1;
+            }
+        }
+        line.length = n;
+    }
+
+    /** The writer stage: write each result from the converter in turn,
+     *  then, after an error, discard the rest. */
+    private void write() {
+        try {
+            while (true) {
+                Line line = _results.take();
+                if (line.kind == Line.END) {
+                    _results.release();
+                    break;
+                } else if (_failure != null) {
+                    line.section = null;
+                } else if (line.kind == Line.ERROR) {
+                    fail(line.error);
+                } else if (line.kind == Line.SECTION) {
+                    write(line.section.join());
+                    line.section = null;
+                } else {
+                    write(line.text, line.symbols, 0, line.length);
+                }
+                _results.release();
+                if (_results.isEmpty()) {
+                    flush();
+                }
+            }
+            flush();
+            _output.flush();
+            if (_output.checkError()) {
+                throw new IOException("could not write output");
+            }
+        } catch (IOException excp) {
+            _writeError = excp;
+        }
+    }
+
+    /** Write the converted lines of SECTION, and then its error, if
+     *  any. */
+    private void write(Section section) {
+        int start = 0;
+        for (int i = 0; i < section.converted(); i += 1) {
+            int end = start + section.length(i);
+            write(section.echo(i), section.symbols(), start, end);
+            start = end;
+        }
+        if (section.error() != null) {
+            fail(section.error());
+        }
+    }
+
+    /** Write the result of a message line: ECHO (a blank input line or
+     *  empty), then the symbols SYMBOLS[START .. END-1] in groups of
+     *  five, each complete group followed by a space, then a newline. */
+    private void write(CharSequence echo, int[] symbols, int start,
+                       int end) {
+        for (int i = 0; i < echo.length(); i += 1) {
+            put(echo.charAt(i));
+        }
+        for (int i = start; i < end; i += 1) {
+            int c = _alphabet.toCodePoint(symbols[i]);
+            if (Character.isBmpCodePoint(c)) {
+                put((char) c);
+            } else {
+                put(Character.highSurrogate(c));
+                put(Character.lowSurrogate(c));
+            }
+            if ((i - start) % 5 == 4) {
+                put(' ');
+            }
+        }
+        put('\n');
+    }
+
+    /** Record EXCP as the error that stopped the pipeline. */
+    private void fail(RuntimeException excp) {
+        _failure = excp;
+    }
+
+    /** Append C to the output, writing it out when the chunk fills. */
+    private void put(char c) {
+        if (_used == _chunk.length) {
+            _output.print(_chunk);
+            _used = 0;
+        }
+        _chunk[_used] = c;
+        _used += 1;
+    }
+
+    /** Write out the partial chunk. */
+    private void flush() {
+        if (_used == _chunk.length) {
+            _output.print(_chunk);
+        } else if (_used > 0) {
+            _output.print(String.valueOf(_chunk, 0, _used));
+        }
+        _used = 0;
+    }
+
+    /** Read the next line of _input, without its terminator, into
+     *  BUFFER.  Return false if the input is exhausted.  Lines end as
+     *  for Scanner.nextLine: at "\r\n", '\n', '\r', U+2028, U+2029
+     *  or U+0085, or at the end of input. */
+    private boolean readLine(StringBuilder buffer) throws IOException {
+        buffer.setLength(0);
+        while (true) {
+            if (_pos == _limit) {
+                _limit = _input.read(_in);
+                _pos = 0;
+                if (_limit <= 0) {
+                    _limit = 0;
+                    return buffer.length() > 0;
+                }
+            }
+            char c = _in[_pos];
+            _pos += 1;
+            if (_sawReturn) {
+                _sawReturn = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+            if (c == '\r') {
+                _sawReturn = true;
+                return true;
+            } else if (c == '\n' || c == LINE_SEPARATOR
+                       || c == PARAGRAPH_SEPARATOR || c == NEXT_LINE) {
+                return true;
+            }
+            buffer.append(c);
+        }
+    }
+
+    /** Return the index of the first C in TEXT, or -1. */
+    private static int indexOf(CharSequence text, char c) {
+        for (int i = 0; i < text.length(); i += 1) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Return true iff TEXT is not empty and consists of white space
+     *  only (in the sense of the regular expression \s). */
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i += 1) {
+            if (!isSpace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return text.length() > 0;
+    }
+
+    /** Return true iff C is white space in the sense of the regular
+     *  expression \s. */
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f'
+            || c == '\r';
+    }
+
+    /** Return true iff C separates the symbols of a message line: white
+     *  space, '*', '(' or ')'. */
+    private static boolean isSeparator(int c) {
+        return isSpace(c) || c == '*' || c == '(' || c == ')';
+    }
+
+    /** Wait for THREAD to finish, even if interrupted. */
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException excp) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** A line passed between stages. */
+    private static class Line {
+
+        /** Values of kind. */
+        static final int MESSAGE = 0, SETTINGS = 1, END = 2, ERROR = 3,
+            SECTION = 4;
+
+        /** Make symbols hold at least N symbols. */
+        void ensureCapacity(int n) {
+            if (symbols.length < n) {
+                symbols = new int[Math.max(n, 2 * symbols.length)];
+            }
+        }
+
+        /** What this line is. */
+        int kind;
+
+        /** For a settings line, the settings; for a message line, the
+         *  input line to echo before the result, if it is blank. */
+        final StringBuilder text = new StringBuilder();
+
+        /** For a message line, its symbols: alphabet indices, or ~C for
+         *  a character C not in the alphabet. */
+        int[] symbols = new int[INITIAL_LINE];
+
+        /** Number of symbols in use. */
+        int length;
+
+        /** For an error line, the error to report. */
+        RuntimeException error;
+
+        /** For a section, its conversion. */
+        CompletableFuture<Section> section;
+    }
+
+    /** Some consecutive message lines converted together by one
+     *  worker. */
+    private static class Section {
+
+        /** A section converted by MACHINE after PREVIOUS, the section
+         *  before it with the same machine, or null if there is none. */
+        Section(Machine machine, CompletableFuture<Section> previous) {
+            this.machine = machine;
+            this.previous = previous;
+        }
+
+        /** Append the message LINE. */
+        void add(Line line) {
+            if (_lines == _lengths.length) {
+                _lengths = Arrays.copyOf(_lengths, 2 * _lines);
+                _echoes = Arrays.copyOf(_echoes, 2 * _lines);
+            }
+            if (_size + line.length > _symbols.length) {
+                _symbols = Arrays.copyOf(_symbols,
+                                         Math.max(_size + line.length,
+                                                  2 * _symbols.length));
+            }
+            System.arraycopy(line.symbols, 0, _symbols, _size, line.length);
+            _size += line.length;
+            _lengths[_lines] = line.length;
+            _echoes[_lines] = line.text.length() == 0 ? ""
+                : line.text.toString();
+            _lines += 1;
+        }
+
+        /** Convert my lines in place, stopping at the first error, and
+         *  return me. */
+        Section convert() {
+            int start = 0;
+            try {
+                for (; _converted < _lines; _converted += 1) {
+                    int end = start + _lengths[_converted];
+                    for (int i = start; i < end; i += 1) {
+                        _symbols[i] = TextPipeline.convert(machine,
+                                                           _symbols[i]);
+                    }
+                    start = end;
+                }
+            } catch (RuntimeException excp) {
+                _error = excp;
+            }
+            return this;
+        }
+
+        /** Convert me, as for convert, unless PREVIOUS failed; return
+         *  me. */
+        Section convertAfter(Section previous) {
+            return previous._error != null ? this : convert();
+        }
+
+        /** Return the number of lines added. */
+        int lines() {
+            return _lines;
+        }
+
+        /** Return the number of symbols added. */
+        int size() {
+            return _size;
+        }
+
+        /** Return the number of lines converted. */
+        int converted() {
+            return _converted;
+        }
+
+        /** Return the number of symbols in line I. */
+        int length(int i) {
+            return _lengths[i];
+        }
+
+        /** Return the blank input line to echo before line I, or "". */
+        String echo(int i) {
+            return _echoes[i];
+        }
+
+        /** Return the symbols of all my lines, one after another. */
+        int[] symbols() {
+            return _symbols;
+        }
+
+        /** Return the error that stopped my conversion, or null. */
+        RuntimeException error() {
+            return _error;
+        }
+
+        /** The machine converting me. */
+        final Machine machine;
+
+        /** The conversion of the section before me with the same
+         *  machine, or null. */
+        final CompletableFuture<Section> previous;
+
+        /** Symbols of my lines. */
+        private int[] _symbols = new int[INITIAL_LINE];
+
+        /** Number of symbols in use. */
+        private int _size;
+
+        /** Number of symbols in each line. */
+        private int[] _lengths = new int[16];
+
+        /** Blank input line to echo before each line, or "". */
+        private String[] _echoes = new String[16];
+
+        /** Number of lines. */
+        private int _lines;
+
+        /** Number of lines converted. */
+        private int _converted;
+
+        /** The error that stopped conversion, or null. */
+        private RuntimeException _error;
+    }
+
+    /** Line terminators recognised besides '\r' and '\n'. */
+    private static final char LINE_SEPARATOR = 0x2028,
+        PARAGRAPH_SEPARATOR = 0x2029, NEXT_LINE = 0x85;
+
+    /** Symbols in a piece of a section. */
+    private static final int SECTION_LIMIT = 1 << 16;
+
+    /** Slots in each ring. */
+    private static final int RING_SIZE = 64;
+
+    /** Initial capacity of a line, in symbols. */
+    private static final int INITIAL_LINE = 128;
+
+    /** Characters written to the output at a time. */
+    private static final int CHUNK = 8192;
+
+    /** Number of worker threads, or 1 to convert on the calling
+     *  thread. */
+    private final int _threads;
+
+    /** The workers, when _threads > 1. */
+    private ExecutorService _workers;
+
+    /** The section being collected, when there are workers. */
+    private Section _section;
+
+    /** The machine converting my messages. */
+    private final Machine _machine;
+
+    /** Its alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Source of input lines. */
+    private final Reader _input;
+
+    /** Destination of results. */
+    private final PrintStream _output;
+
+    /** Lines from the reader to the converter. */
+    private final SpscRing<Line> _lines = new SpscRing<>(RING_SIZE, Line::new);
+
+    /** Results from the converter to the writer. */
+    private final SpscRing<Line> _results =
+        new SpscRing<>(RING_SIZE, Line::new);
+
+    /** Input buffer of the reader. */
+    private final char[] _in = new char[CHUNK];
+
+    /** Next unread character in _in, and the end of the valid ones. */
+    private int _pos, _limit;
+
+    /** True iff the last line read ended with '\r'. */
+    private boolean _sawReturn;
+
+    /** Output buffer of the writer. */
+    private final char[] _chunk = new char[CHUNK];
+
+    /** Characters in use in _chunk. */
+    private int _used;
+
+    /** The error that stopped the pipeline, if any. */
+    private volatile RuntimeException _failure;
+
+    /** The failure to write output, if any. */
+    private volatile IOException _writeError;
+}
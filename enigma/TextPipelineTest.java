@@ -0,0 +1,138 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import static enigma.TestUtils.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** The suite of all JUnit tests for the TextPipeline class.
+ *  @author Yuan Sun
+ */
+public class TextPipelineTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Settings used by the tests. */
+    private static final String SETTINGS =
+        "* B Beta III IV I AXLE (HQ) (EX) (IP) (TR) (BY)";
+
+    /** Output written by the last call to run. */
+    private ByteArrayOutputStream _out;
+
+    /** Run INPUT through a pipeline with a five-slot naval machine,
+     *  returning its output. */
+    private String run(String input) {
+        return run(input, 1);
+    }
+
+    /** Run INPUT through a pipeline with a five-slot naval machine and
+     *  THREADS threads, returning its output. */
+    private String run(String input, int threads) {
+        _out = new ByteArrayOutputStream();
+        new TextPipeline(navalMachine(5, 3), new StringReader(input),
+                         new PrintStream(_out, true, UTF_8),
+                         threads).run();
+        return _out.toString(UTF_8);
+    }
+
+    /** Return an input of many short sections, using settings that rely
+     *  on rings and plugboards carrying over from earlier ones. */
+    private String sections() {
+        String[] rotors = { "I", "II", "III", "IV", "V" };
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 300; i += 1) {
+            input.append("* B Beta ").append(rotors[i % 5]).append(' ')
+                .append(rotors[(i + 1) % 5]).append(' ')
+                .append(rotors[(i + 3) % 5]).append(" AX")
+                .append((char) ('A' + i % 26)).append('Q');
+            if (i % 7 == 0) {
+                input.append(" BCD").append((char) ('A' + i % 26));
+            }
+            if (i % 11 == 0) {
+                input.append(" (AQ) (").append((char) ('B' + i % 20))
+                    .append("Z)");
+            }
+            input.append('\n');
+            for (int j = 0; j < i % 4; j += 1) {
+                input.append("HELLO WORLD FROM SECTION ").append('\n');
+            }
+            if (i % 13 == 0) {
+                input.append(" \t\n");
+            }
+        }
+        return input.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkFormatting() {
+        assertEquals("QVPQS OKOIL PUBKJ ZPISF XDW\n\n   \n"
+                     + "BHCNS CXNUO AAT\n",
+                     run(SETTINGS + "\r\nFROM HIS SHOULDER HIAWATHA\r\n"
+                         + "\r\n   \r\nTOOK THE CAMERA\r"));
+    }
+
+    @Test
+    public void checkSettingsBoundaries() {
+        assertEquals("UPVGJ \nZUNSG \nUPVGJ \n",
+                     run(SETTINGS + "\nHELLO\nWORLD\n" + SETTINGS
+                         + "\nHELLO"));
+    }
+
+    @Test
+    public void checkLongInput() {
+        StringBuilder input = new StringBuilder(SETTINGS + "\n");
+        StringBuilder expected = new StringBuilder();
+        Machine m = navalMachine(5, 3);
+        Main.setUp(m, SETTINGS);
+        for (int i = 0; i < 2000; i += 1) {
+            input.append("HELLO WORLD\n");
+            String result = m.convert("HELLOWORLD");
+            expected.append(result, 0, 5).append(' ')
+                .append(result, 5, 10).append(" \n");
+        }
+        assertEquals(expected.toString(), run(input.toString()));
+    }
+
+    @Test
+    public void checkParallelSections() {
+        String input = sections();
+        String expected = run(input, 1);
+        assertEquals(expected, run(input, 4));
+        assertEquals(expected, run(input, 2));
+    }
+
+    @Test
+    public void checkParallelErrorOrder() {
+        String input = sections() + "HE1LO\n" + sections();
+        try {
+            run(input, 4);
+            fail("bad character not reported");
+        } catch (EnigmaException excp) {
+            assertEquals(run(sections(), 1), _out.toString(UTF_8));
+        }
+    }
+
+    @Test
+    public void checkErrorStopsOutput() {
+        try {
+            run(SETTINGS + "\nHELLO\nHE1LO\nWORLD\n");
+            fail("bad character not reported");
+        } catch (EnigmaException excp) {
+            assertEquals("UPVGJ \n", _out.toString(UTF_8));
+        }
+    }
+
+}
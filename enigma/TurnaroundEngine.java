@@ -0,0 +1,83 @@
+package enigma;
+
+/** The engine that folds the reflector and the non-moving rotors next
+ *  to it into a single table, built when the rotors are reset, and
+ *  passes each character through the moving rotors one at a time.  It
+ *  needs one table the size of the alphabet.
+ *  @author Yuan Sun
+ */
+class TurnaroundEngine implements Engine {
+
+    @Override
+    public String name() {
+        return "turnaround";
+    }
+
+    @Override
+    public Engine fresh() {
+        return new TurnaroundEngine();
+    }
+
+    @Override
+    public void reset(Rotor[] slots, int alphabetSize) {
+        _slots = slots;
+        _turnStart = turnStart(slots);
+        _turnaround = turnaround(slots, _turnStart);
+    }
+
+    @Override
+    public void moved(int j) {
+        if (!_slots[j].rotates()) {
+            _turnaround = turnaround(_slots, _turnStart);
+        }
+    }
+
+    @Override
+    public int convert(int k) {
+        Rotor[] slots = _slots;
+        int start = _turnStart;
+        for (int i = slots.length - 1; i >= start; i -= 1) {
+            k = slots[i].convertForward(k);
+        }
+        k = _turnaround[k];
+        for (int i = start; i < slots.length; i += 1) {
+            k = slots[i].convertBackward(k);
+        }
+        return k;
+    }
+
+    /** Return the index of the first slot of SLOTS holding a rotor that
+     *  rotates, or SLOTS.length if there is none. */
+    static int turnStart(Rotor[] slots) {
+        int f = 1;
+        while (f < slots.length && !slots[f].rotates()) {
+            f += 1;
+        }
+        return f;
+    }
+
+    /** Return the table mapping a signal entering the left side of slot
+     *  START of SLOTS to the one coming back out of it, where all slots
+     *  to the left of START hold rotors that never step.  It stays valid
+     *  until those rotors' settings or rings are changed. */
+    static int[] turnaround(Rotor[] slots, int start) {
+        Permutation in = slots[start - 1].currentPermutation();
+        for (int i = start - 2; i >= 1; i -= 1) {
+            in = in.compose(slots[i].currentPermutation());
+        }
+        Permutation turn = slots[0].currentPermutation();
+        if (start > 1) {
+            turn = in.compose(turn).compose(in.inverse());
+        }
+        return turn.forwardTable();
+    }
+
+    /** The rotors I pass characters through, reflector first. */
+    private Rotor[] _slots;
+
+    /** The reflector and leading fixed rotors folded into one table. */
+    private int[] _turnaround;
+
+    /** Index of the first slot not folded into _turnaround. */
+    private int _turnStart;
+}
@@ -10,7 +10,16 @@ public class UnitTest {
     /** Run the JUnit tests in this package. Add xxxTest.class entries to
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
-        textui.runClasses(PermutationTest.class, MovingRotorTest.class);
+        textui.runClasses(PermutationTest.class, MovingRotorTest.class,
+                          AlphabetTest.class, ByteStreamTest.class,
+                          EnigmaProcessorTest.class, MachineTest.class,
+                          EngineTest.class, TextPipelineTest.class,
+                          KeySpaceTest.class, KeySearchTest.class,
+                          CycleCatalogueTest.class, RotorCatalogueTest.class,
+                          MessageBatchTest.class, BatchSchedulerTest.class,
+                          ConfigWatcherTest.class, ConfigCacheTest.class,
+                          PresetsTest.class, AnalyticsTest.class,
+                          GzipTest.class, WorkloadTest.class);
     }
 
 }
@@ -0,0 +1,249 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import static enigma.EnigmaException.*;
+
+/** A synthetic workload for load tests (see LoadDriver): a random but
+ *  valid machine configuration, and a random input for it made of
+ *  messages, each a settings line followed by lines of text.  The
+ *  workload is determined by its seed, so that runs against the same
+ *  seed can be compared.  The seed is mixed before use, since the
+ *  first values drawn by a Random from nearby seeds are much alike.
+ *
+ *  The configuration has an alphabet of between MIN_ALPHABET and
+ *  MAX_ALPHABET symbols (half the time the usual 26 letters), between
+ *  MIN_SLOTS and MAX_SLOTS slots with at least one pawl and fewer
+ *  pawls than slots, and a library of rotors a few larger than the machine
+ *  needs, from which each message picks its own.  Every settings line
+ *  gives the rings and plugboard as well as the rotors and positions,
+ *  so that no message depends on those before it.  Message lengths
+ *  follow a log-normal distribution, as real message traffic roughly
+ *  does: most messages are near the median length, and a few are many
+ *  times longer.  Messages are written in groups of five symbols,
+ *  GROUPS groups to the line.
+ *  @author Yuan Sun
+ */
+final class Workload {
+
+    /** A workload of MESSAGES messages of median length MEDIAN symbols,
+     *  generated from SEED. */
+    Workload(long seed, int messages, int median) {
+        if (messages < 0 || median < 1) {
+            throw error("bad workload size");
+        }
+        _seed = seed;
+        Random random = new Random(new SplittableRandom(seed).nextLong());
+        _alphabet = alphabet(random);
+        _slots = MIN_SLOTS + random.nextInt(MAX_SLOTS - MIN_SLOTS + 1);
+        _pawls = 1 + random.nextInt(_slots - 1);
+        _config = config(random);
+        for (int i = 0; i < messages; i += 1) {
+            _messages.add(message(random, median));
+        }
+    }
+
+    /** Return the seed I was generated from. */
+    long seed() {
+        return _seed;
+    }
+
+    /** Return the text of my configuration. */
+    String config() {
+        return _config;
+    }
+
+    /** Return my messages, each a settings line and the lines after it,
+     *  every line ending in a newline. */
+    List<String> messages() {
+        return Collections.unmodifiableList(_messages);
+    }
+
+    /** Return my input: all my messages, in order. */
+    String input() {
+        return String.join("", _messages);
+    }
+
+    /** Return the total number of symbols in my messages, not counting
+     *  settings lines. */
+    long symbols() {
+        return _symbols;
+    }
+
+    /** Return a random alphabet, using RANDOM. */
+    private static String alphabet(Random random) {
+        if (random.nextBoolean()) {
+            return SYMBOLS.substring(0, 26);
+        }
+        int size = MIN_ALPHABET
+            + 2 * random.nextInt((MAX_ALPHABET - MIN_ALPHABET) / 2 + 1);
+        return shuffle(random, SYMBOLS).substring(0, size);
+    }
+
+    /** Return the text of a configuration for my alphabet, slots, and
+     *  pawls, recording the names of its rotors by kind, using
+     *  RANDOM. */
+    private String config(Random random) {
+        StringBuilder result = new StringBuilder();
+        result.append(_alphabet).append('\n');
+        result.append(' ').append(_slots).append(' ').append(_pawls)
+            .append('\n');
+        int reflectors = 1 + random.nextInt(2);
+        int fixed = _slots - 1 - _pawls + random.nextInt(3);
+        int moving = _pawls + random.nextInt(5);
+        for (int i = 0; i < reflectors + fixed + moving; i += 1) {
+            String name = "R" + (i + 1);
+            result.append(' ').append(name).append(' ');
+            if (i < reflectors) {
+                _reflectors.add(name);
+                result.append("R ").append(pairs(random, _alphabet));
+            } else if (i < reflectors + fixed) {
+                _fixed.add(name);
+                result.append("N ").append(cycles(random));
+            } else {
+                _moving.add(name);
+                String notches = shuffle(random, _alphabet)
+                    .substring(0, 1 + random.nextInt(3));
+                result.append('M').append(notches).append(' ')
+                    .append(cycles(random));
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /** Return a random permutation of my alphabet, as cycles, using
+     *  RANDOM. */
+    private String cycles(Random random) {
+        String order = shuffle(random, _alphabet);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < order.length(); ) {
+            int length = 1 + random.nextInt(order.length() - i);
+            result.append('(').append(order, i, i + length).append(") ");
+            i += length;
+        }
+        return result.toString().trim();
+    }
+
+    /** Return a random pairing of the symbols of SYMBOLS, which has
+     *  even length, as cycles, using RANDOM. */
+    private static String pairs(Random random, String symbols) {
+        String order = shuffle(random, symbols);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i + 1 < order.length(); i += 2) {
+            result.append('(').append(order, i, i + 2).append(") ");
+        }
+        return result.toString().trim();
+    }
+
+    /** Return a random message of about median length MEDIAN, using
+     *  RANDOM. */
+    private String message(Random random, int median) {
+        StringBuilder result = new StringBuilder("* ");
+        result.append(pick(random, _reflectors, 1).get(0));
+        for (String name : pick(random, _fixed, _slots - 1 - _pawls)) {
+            result.append(' ').append(name);
+        }
+        for (String name : pick(random, _moving, _pawls)) {
+            result.append(' ').append(name);
+        }
+        result.append(' ').append(word(random, _slots - 1));
+        result.append(' ').append(word(random, _slots - 1));
+        String plugged = shuffle(random, _alphabet)
+            .substring(0, 2 + 2 * random.nextInt(3));
+        result.append(' ').append(pairs(random, plugged));
+        result.append('\n');
+        double length = median * Math.exp(SIGMA * random.nextGaussian());
+        int n = (int) Math.max(1, Math.min(median * MAX_RATIO, length));
+        _symbols += n;
+        for (int i = 0; i < n; i += 1) {
+            if (i > 0 && i % (GROUP * GROUPS) == 0) {
+                result.append('\n');
+            } else if (i > 0 && i % GROUP == 0) {
+                result.append(' ');
+            }
+            result.append(symbol(random));
+        }
+        return result.append('\n').toString();
+    }
+
+    /** Return LENGTH random symbols of my alphabet, using RANDOM. */
+    private String word(Random random, int length) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < length; i += 1) {
+            result.append(symbol(random));
+        }
+        return result.toString();
+    }
+
+    /** Return a random symbol of my alphabet, using RANDOM. */
+    private char symbol(Random random) {
+        return _alphabet.charAt(random.nextInt(_alphabet.length()));
+    }
+
+    /** Return N distinct items of ITEMS chosen using RANDOM. */
+    private static List<String> pick(Random random, List<String> items,
+                                     int n) {
+        ArrayList<String> copy = new ArrayList<>(items);
+        Collections.shuffle(copy, random);
+        return copy.subList(0, n);
+    }
+
+    /** Return the characters of TEXT in an order chosen using RANDOM. */
+    private static String shuffle(Random random, String text) {
+        char[] chars = text.toCharArray();
+        for (int i = chars.length - 1; i > 0; i -= 1) {
+            int k = random.nextInt(i + 1);
+            char t = chars[i];
+            chars[i] = chars[k];
+            chars[k] = t;
+        }
+        return new String(chars);
+    }
+
+    /** Symbols from which alphabets are drawn. */
+    private static final String SYMBOLS =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
+
+    /** Bounds on the size of an alphabet, both even, so that every
+     *  symbol of a reflector can be paired. */
+    private static final int MIN_ALPHABET = 10, MAX_ALPHABET = 62;
+
+    /** Bounds on the number of slots. */
+    private static final int MIN_SLOTS = 4, MAX_SLOTS = 7;
+
+    /** Standard deviation of the logarithm of message lengths. */
+    private static final double SIGMA = 1.0;
+
+    /** Longest message, as a multiple of the median. */
+    private static final int MAX_RATIO = 50;
+
+    /** Symbols in a group, and groups to a line. */
+    private static final int GROUP = 5, GROUPS = 10;
+
+    /** The seed I was generated from. */
+    private final long _seed;
+
+    /** My alphabet. */
+    private final String _alphabet;
+
+    /** My numbers of slots and pawls. */
+    private final int _slots, _pawls;
+
+    /** Names of my reflectors, fixed rotors, and moving rotors. */
+    private final ArrayList<String> _reflectors = new ArrayList<>(),
+        _fixed = new ArrayList<>(), _moving = new ArrayList<>();
+
+    /** The text of my configuration. */
+    private final String _config;
+
+    /** My messages. */
+    private final ArrayList<String> _messages = new ArrayList<>();
+
+    /** Total symbols in my messages. */
+    private long _symbols;
+}
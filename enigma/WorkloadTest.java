@@ -0,0 +1,110 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** The suite of all JUnit tests for the Workload and LoadDriver classes.
+ *  @author Yuan Sun
+ */
+public class WorkloadTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return the names of the measures in the report of DRIVER. */
+    private List<String> measures(LoadDriver driver) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        driver.report(new PrintStream(bytes, true, UTF_8));
+        ArrayList<String> result = new ArrayList<>();
+        for (String line : bytes.toString(UTF_8).split("\n")) {
+            result.add(line.split("\t")[0]);
+        }
+        return result;
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkWorkloadsAreValid() {
+        for (long seed = 0; seed < 20; seed += 1) {
+            Workload workload = new Workload(seed, 20, 50);
+            Workload again = new Workload(seed, 20, 50);
+            assertEquals(again.config(), workload.config());
+            assertEquals(again.input(), workload.input());
+            assertEquals(20, workload.messages().size());
+            assertEquals(workload.messages(),
+                         LoadDriver.messages(workload.input()));
+            Machine m = Configuration.parse(workload.config()).machine();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new TextPipeline(m, new StringReader(workload.input()),
+                             new PrintStream(bytes, true, UTF_8)).run();
+            long symbols = bytes.toString(UTF_8).codePoints()
+                .filter(c -> !Character.isWhitespace(c)).count();
+            assertEquals(workload.symbols(), symbols);
+        }
+        assertNotEquals(new Workload(1, 5, 50).input(),
+                        new Workload(2, 5, 50).input());
+    }
+
+    @Test
+    public void checkOtherAlphabets() {
+        int others = 0;
+        for (long seed = 0; seed < 20; seed += 1) {
+            Workload workload = new Workload(seed, 5, 50);
+            String alphabet = workload.config().split("\n")[0];
+            if (alphabet.equals("ABCDEFGHIJKLMNOPQRSTUVWXYZ")) {
+                continue;
+            }
+            others += 1;
+            Machine m = Configuration.parse(workload.config()).machine();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new TextPipeline(m, new StringReader(workload.input()),
+                             new PrintStream(bytes, true, UTF_8)).run();
+            String output = bytes.toString(UTF_8).replaceAll("\\s", "");
+            assertEquals(workload.symbols(), output.length());
+            for (char c : output.toCharArray()) {
+                assertTrue(alphabet.indexOf(c) >= 0);
+            }
+        }
+        assertTrue(others > 0 && others < 20);
+    }
+
+    @Test
+    public void checkLoadDrivers() {
+        Workload workload = new Workload(3, 40, 100);
+        Configuration conf = Configuration.parse(workload.config());
+        for (String target : new String[] { LoadDriver.MACHINE,
+                                            LoadDriver.MAIN }) {
+            LoadDriver single =
+                new LoadDriver(conf::machine, workload.messages(), target, 1);
+            single.run(0);
+            LoadDriver several =
+                new LoadDriver(conf::machine, workload.messages(), target, 3);
+            several.run(1);
+            assertEquals(target, single.checksum(), several.checksum());
+            assertEquals(workload.symbols(), several.symbols());
+            assertTrue(several.latency(0.5) <= several.latency(0.99));
+            assertTrue(several.latency(0.5) > 0);
+            assertEquals(measures(single), measures(several));
+            assertEquals("checksum", measures(single).get(4));
+        }
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void checkUnknownTarget() {
+        new LoadDriver(() -> null, new ArrayList<>(), "server", 1);
+    }
+}